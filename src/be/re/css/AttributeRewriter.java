@@ -0,0 +1,20 @@
+package be.re.css;
+
+import org.xml.sax.Attributes;
+
+/**
+ * A stage that only rewrites the attributes of elements. It doesn't keep state
+ * between elements and it doesn't add or remove events, which makes it
+ * possible to run it as part of a {@link RewritingFilter} instead of as a
+ * filter of its own.
+ *
+ * @author Gerke Geurts
+ */
+interface AttributeRewriter
+{
+    /**
+     * Returns the rewritten attributes, which may be <code>atts</code>
+     * itself.
+     */
+    Attributes rewrite(String namespaceURI, String localName, String qName, Attributes atts);
+} // AttributeRewriter
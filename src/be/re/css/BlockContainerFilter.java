@@ -95,6 +95,13 @@ class BlockContainerFilter extends XMLFilterImpl
         return false;
     }
 
+    @Override
+    public void startDocument() throws SAXException
+    {
+        stack.clear();
+        super.startDocument();
+    }
+
     @Override
     public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
     {
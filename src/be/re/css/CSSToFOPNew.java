@@ -8,14 +8,11 @@ import java.io.OutputStream;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
-import org.apache.avalon.framework.configuration.DefaultConfigurationBuilder;
+import javax.xml.transform.sax.SAXSource;
 import org.apache.fop.apps.FOPException;
 import org.apache.fop.apps.FOUserAgent;
-import org.apache.fop.apps.Fop;
 import org.apache.fop.apps.FopFactory;
 import org.apache.fop.cli.CommandLineOptions;
-import org.xml.sax.InputSource;
-import org.xml.sax.XMLFilter;
 
 /**
  * Convenience class for the conversion from CSS to the new FOP XSL-FO
@@ -69,41 +66,20 @@ public class CSSToFOPNew
             boolean validate,
             FOUserAgent agent) throws IOException, CSSToXSLFOException
     {
-        try
-        {
-            CSSToXSLFOConverter converter = new CSSToXSLFOConverter(catalog);
-            converter.setValidate(validate);
-            converter.setDebug(System.getProperty("be.re.css.debug") != null);
-            
-            FopFactory fopFactory = FopFactory.newInstance();
-            if (configFile != null)
-            {
-                fopFactory.setUserConfig(new DefaultConfigurationBuilder().buildFromFile(configFile));
-            }
-            if (agent == null)
-            {
-                agent = fopFactory.newFOUserAgent();
-            }
-            
-            XMLFilter preprocessor = converter.createPreprocessorFilter(preprocessors);
-            Fop fop = fopFactory.newFop(format, agent, out);
-            converter.convert(new InputSource(in), fop.getDefaultHandler(), 
-                    baseUrl, userAgentStyleSheet, parameters, preprocessor, null);
-        }
-
-        catch (Exception e)
-        {
-            throw new CSSToXSLFOException(e);
-        }
+        FOPRenderer.getShared(catalog, configFile, validate)
+                .render(in, out, format, baseUrl, userAgentStyleSheet, parameters, preprocessors, agent);
     }
 
     public static void main(String[] args) throws Exception
     {
         URL baseUrl = null;
+        boolean binary = false;
         URL catalog = null;
+        long entityCacheSize = 0;
         String[] fopOptions = null;
         Map<String, String> parameters = new HashMap<>();
         URL[] preprocessors = null;
+        int threads = 1;
         URL url = null;
         URL userAgentStyleSheet = null;
         boolean validate = false;
@@ -124,6 +100,10 @@ public class CSSToFOPNew
                     fopOptions[j] = args[i];
                 }
             }
+            else if (args[i].equals("-binary"))
+            {
+                binary = true;
+            }
             else if (args[i].equals("-baseurl"))
             {
                 if (i == args.length - 1)
@@ -133,6 +113,15 @@ public class CSSToFOPNew
 
                 baseUrl = Util.createUrl(args[++i]);
             }
+            else if (args[i].equals("-entitycache"))
+            {
+                if (i == args.length - 1)
+                {
+                    usage(1);
+                }
+
+                entityCacheSize = Long.parseLong(args[++i]);
+            }
             else if (args[i].equals("-uacss"))
             {
                 if (i == args.length - 1)
@@ -160,6 +149,15 @@ public class CSSToFOPNew
 
                 preprocessors = Util.createUrls(args[++i]);
             }
+            else if (args[i].equals("-threads"))
+            {
+                if (i == args.length - 1)
+                {
+                    usage(1);
+                }
+
+                threads = Integer.parseInt(args[++i]);
+            }
             else if (args[i].equals("-v"))
             {
                 validate = true;
@@ -192,19 +190,31 @@ public class CSSToFOPNew
         options.parse(setDummyInputFile(fopOptions != null ? fopOptions : new String[0]));
         FOUserAgent agent = options.getFOUserAgent();
 
-        try
+        try (OutputStream out = new FileOutputStream(options.getOutputFile()))
         {
-            convert(
+            FOPRenderer renderer = new FOPRenderer(
+                    catalog != null ? catalog : CSSToFOPNew.class.getResource("/catalog"),
+                    agent.getFactory()
+            );
+
+            renderer.getConverter().setValidate(validate);
+            renderer.getConverter().setEntityCacheLimits((int) Math.min(entityCacheSize, Integer.MAX_VALUE), entityCacheSize);
+            renderer.setParallelism(threads);
+
+            if (binary)
+            {
+                renderer.renderBinary(url != null ? url.openStream() : System.in, out, options.getOutputFormat(), agent);
+                return;
+            }
+
+            renderer.render(
                     url != null ? url.openStream() : System.in,
-                    new FileOutputStream(options.getOutputFile()),
+                    out,
+                    options.getOutputFormat(),
                     baseUrl != null ? baseUrl : url,
                     userAgentStyleSheet,
-                    catalog != null ? catalog : CSSToFOPNew.class.getResource("/catalog"),
                     parameters,
                     preprocessors,
-                    options.getOutputFormat(),
-                    null,
-                    validate,
                     agent
             );
         }
@@ -230,9 +240,12 @@ public class CSSToFOPNew
         System.err.println("Usage: be.re.css.CSSToFOPNew");
         System.err.println("  [-h]: show this help");
         System.err.println("  [-baseurl url]: base URL");
+        System.err.println("  [-binary]: the input is binary XSL-FO from be.re.css.CSSToXSLFO -binary");
         System.err.println("  [-c url_or_filename]: catalog for entity resolution");
+        System.err.println("  [-entitycache bytes]: keep the resolved DTDs in memory up to this size");
         System.err.println("  [-p url_or_filename_comma_list]: preprocessors");
         System.err.println("  [-uacss url_or_filename]: User Agent style sheet");
+        System.err.println("  [-threads number]: render groups of page sequences in parallel");
         System.err.println("  [-v]: turn on validation");
         System.err.println("  [url_or_filename]: the input document, uses stdin by default");
         System.err.println("  [parameter=value ...] ");
@@ -258,4 +271,45 @@ public class CSSToFOPNew
 
     } // FopCommandLine
 
+    /**
+     * The <code>fop</code> formatter backend. An instance keeps its
+     * <code>FopFactory</code>.
+     */
+    public static class Provider implements FormatterBackendProvider
+    {
+        @Override
+        public String getName()
+        {
+            return "fop";
+        }
+
+        @Override
+        public FormatterBackend newBackend(URL configuration) throws CSSToXSLFOException
+        {
+            final FopFactory fopFactory = FOPRenderer.newFopFactory(
+                    configuration != null ? configuration.toString() : null);
+
+            return new FormatterBackend()
+            {
+                @Override
+                public void render(SAXSource fo, OutputStream out, String format) throws IOException, CSSToXSLFOException
+                {
+                    try
+                    {
+                        FormatterBackends.parse(fo,
+                                fopFactory.newFop(format, fopFactory.newFOUserAgent(), out).getDefaultHandler());
+                    }
+                    catch (IOException e)
+                    {
+                        throw e;
+                    }
+                    catch (Exception e)
+                    {
+                        throw new CSSToXSLFOException(e);
+                    }
+                }
+            };
+        }
+    } // Provider
+
 } // CSSToFOPNew
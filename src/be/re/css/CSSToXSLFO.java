@@ -1,5 +1,7 @@
 package be.re.css;
 
+import be.re.xml.sax.BinaryXMLWriter;
+import be.re.xml.sax.XMLWriter;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -13,6 +15,7 @@ import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLFilter;
@@ -52,16 +55,26 @@ public class CSSToXSLFO
             URL[] preprocessors,
             boolean validate,
             boolean debug) throws CSSToXSLFOException
+    {
+        convert(in, out, baseUrl, userAgentStyleSheet, catalog, userAgentParameters, preprocessors, validate, debug, 0);
+    }
+
+    private static void convert(
+            InputStream in,
+            OutputStream out,
+            URL baseUrl,
+            URL userAgentStyleSheet,
+            URL catalog,
+            Map<String, String> userAgentParameters,
+            URL[] preprocessors,
+            boolean validate,
+            boolean debug,
+            long entityCacheSize) throws CSSToXSLFOException
     {
         try
         {
-            CSSToXSLFOConverter converter = new CSSToXSLFOConverter(catalog);
-            converter.setValidate(validate);
-            converter.setDebug(debug);
-
-            XMLFilter preprocessor = converter.createPreprocessorFilter(preprocessors);
-            SAXSource source = converter.createSAXSource(new InputSource(in), 
-                    baseUrl, userAgentStyleSheet, userAgentParameters, preprocessor, null);
+            SAXSource source = createSAXSource(in, baseUrl, userAgentStyleSheet, catalog, userAgentParameters,
+                    preprocessors, validate, debug, entityCacheSize);
             TransformerFactory factory = be.re.xml.sax.Util.newSAXTransformerFactory();
             factory.newTransformer().transform(source, new StreamResult(out));
         }
@@ -71,13 +84,134 @@ public class CSSToXSLFO
         }
     }
 
+    /**
+     * Sends the XSL-FO events to <code>out</code> instead of serializing them
+     * with a transformer. With an {@link be.re.xml.sax.XMLWriter} this is the
+     * fast way to produce XSL-FO files.
+     */
+    public static void convert(
+            InputStream in,
+            ContentHandler out,
+            URL baseUrl,
+            URL userAgentStyleSheet,
+            URL catalog,
+            Map<String, String> userAgentParameters,
+            URL[] preprocessors,
+            boolean validate,
+            boolean debug) throws CSSToXSLFOException
+    {
+        convert(in, out, baseUrl, userAgentStyleSheet, catalog, userAgentParameters, preprocessors, validate, debug, 0);
+    }
+
+    private static void convert(
+            InputStream in,
+            ContentHandler out,
+            URL baseUrl,
+            URL userAgentStyleSheet,
+            URL catalog,
+            Map<String, String> userAgentParameters,
+            URL[] preprocessors,
+            boolean validate,
+            boolean debug,
+            long entityCacheSize) throws CSSToXSLFOException
+    {
+        try
+        {
+            SAXSource source = createSAXSource(in, baseUrl, userAgentStyleSheet, catalog, userAgentParameters,
+                    preprocessors, validate, debug, entityCacheSize);
+            source.getXMLReader().setContentHandler(out);
+            source.getXMLReader().parse(source.getInputSource());
+        }
+        catch (Exception e)
+        {
+            throw new CSSToXSLFOException(e);
+        }
+    }
+
+    /**
+     * Streams the XSL-FO into the standard input of a formatter process while
+     * the conversion is running, so it doesn't have to be written to a file
+     * first. The standard output of the process is copied to
+     * <code>out</code>.
+     * @see FOPipe#stream(SAXSource, ProcessBuilder, OutputStream)
+     */
+    public static void convert(
+            InputStream in,
+            ProcessBuilder formatter,
+            OutputStream out,
+            URL baseUrl,
+            URL userAgentStyleSheet,
+            URL catalog,
+            Map<String, String> userAgentParameters,
+            URL[] preprocessors,
+            boolean validate,
+            boolean debug) throws IOException, CSSToXSLFOException
+    {
+        convert(in, formatter, out, baseUrl, userAgentStyleSheet, catalog, userAgentParameters, preprocessors, validate,
+                debug, 0);
+    }
+
+    private static void convert(
+            InputStream in,
+            ProcessBuilder formatter,
+            OutputStream out,
+            URL baseUrl,
+            URL userAgentStyleSheet,
+            URL catalog,
+            Map<String, String> userAgentParameters,
+            URL[] preprocessors,
+            boolean validate,
+            boolean debug,
+            long entityCacheSize) throws IOException, CSSToXSLFOException
+    {
+        SAXSource source;
+
+        try
+        {
+            source = createSAXSource(in, baseUrl, userAgentStyleSheet, catalog, userAgentParameters, preprocessors,
+                    validate, debug, entityCacheSize);
+        }
+        catch (Exception e)
+        {
+            throw new CSSToXSLFOException(e);
+        }
+
+        FOPipe.stream(source, formatter, out);
+    }
+
+    private static SAXSource createSAXSource(
+            InputStream in,
+            URL baseUrl,
+            URL userAgentStyleSheet,
+            URL catalog,
+            Map<String, String> userAgentParameters,
+            URL[] preprocessors,
+            boolean validate,
+            boolean debug,
+            long entityCacheSize) throws Exception
+    {
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(catalog);
+        converter.setValidate(validate);
+        converter.setDebug(debug);
+        converter.setEntityCacheLimits((int) Math.min(entityCacheSize, Integer.MAX_VALUE), entityCacheSize);
+
+        XMLFilter preprocessor = converter.createPreprocessorFilter(preprocessors);
+        return converter.createSAXSource(new InputSource(in),
+                baseUrl, userAgentStyleSheet, userAgentParameters, preprocessor, null);
+    }
+
     public static void main(String[] args) throws Exception
     {
         URL baseUrl = null;
+        boolean binary = false;
         URL catalog = null;
         boolean debug = false;
+        boolean direct = false;
+        long entityCacheSize = 0;
         String filename = null;
+        String formatter = null;
         Map<String, String> parameters = new HashMap<>();
+        boolean minimalNamespaces = false;
         URL[] preprocessors = null;
         URL url = null;
         URL userAgentStyleSheet = null;
@@ -99,6 +233,15 @@ public class CSSToXSLFO
 
                 baseUrl = Util.createUrl(args[++i]);
             }
+            else if (args[i].equals("-entitycache"))
+            {
+                if (i == args.length - 1)
+                {
+                    usage(1);
+                }
+
+                entityCacheSize = Long.parseLong(args[++i]);
+            }
             else if (args[i].equals("-fo"))
             {
                 if (i == args.length - 1)
@@ -108,6 +251,15 @@ public class CSSToXSLFO
 
                 filename = args[++i];
             }
+            else if (args[i].equals("-formatter"))
+            {
+                if (i == args.length - 1)
+                {
+                    usage(1);
+                }
+
+                formatter = args[++i];
+            }
             else if (args[i].equals("-uacss"))
             {
                 if (i == args.length - 1)
@@ -121,6 +273,19 @@ public class CSSToXSLFO
             {
                 debug = true;
             }
+            else if (args[i].equals("-binary"))
+            {
+                binary = true;
+            }
+            else if (args[i].equals("-direct"))
+            {
+                direct = true;
+            }
+            else if (args[i].equals("-minns"))
+            {
+                direct = true;
+                minimalNamespaces = true;
+            }
             else if (args[i].equals("-c"))
             {
                 if (i == args.length - 1)
@@ -168,19 +333,39 @@ public class CSSToXSLFO
 
         try
         {
-            convert(
-                    url != null ? url.openStream() : System.in,
-                    filename != null
-                            ? (OutputStream) new FileOutputStream(filename)
-                            : (OutputStream) System.out,
-                    baseUrl != null ? baseUrl : url,
-                    userAgentStyleSheet,
-                    catalog != null ? catalog : CSSToXSLFO.class.getResource("/catalog"),
-                    parameters,
-                    preprocessors,
-                    validate,
-                    debug
-            );
+            InputStream in = url != null ? url.openStream() : System.in;
+            OutputStream out = filename != null
+                    ? (OutputStream) new FileOutputStream(filename)
+                    : (OutputStream) System.out;
+
+            if (catalog == null)
+            {
+                catalog = CSSToXSLFO.class.getResource("/catalog");
+            }
+
+            if (formatter != null)
+            {
+                convert(in, new ProcessBuilder(formatter.trim().split("\\s+")), out, baseUrl != null ? baseUrl : url,
+                        userAgentStyleSheet, catalog, parameters, preprocessors, validate, debug, entityCacheSize);
+            }
+            else if (binary)
+            {
+                convert(in, new BinaryXMLWriter(out), baseUrl != null ? baseUrl : url, userAgentStyleSheet, catalog,
+                        parameters, preprocessors, validate, debug, entityCacheSize);
+            }
+            else if (direct)
+            {
+                XMLWriter writer = new XMLWriter(out);
+
+                writer.setMinimalNamespaces(minimalNamespaces);
+                convert(in, writer, baseUrl != null ? baseUrl : url, userAgentStyleSheet, catalog, parameters,
+                        preprocessors, validate, debug, entityCacheSize);
+            }
+            else
+            {
+                convert(in, out, baseUrl != null ? baseUrl : url, userAgentStyleSheet, catalog, parameters,
+                        preprocessors, validate, debug, entityCacheSize);
+            }
         }
         catch (Throwable e)
         {
@@ -194,10 +379,15 @@ public class CSSToXSLFO
         System.err.println("Usage: be.re.css.CSSToXSLFO");
         System.err.println("  [-h]: show this help");
         System.err.println("  [-baseurl url]: base URL ");
+        System.err.println("  [-binary]: write binary XSL-FO for be.re.css.CSSToFOPNew -binary");
         System.err.println("  [-c url_or_filename]: catalog for entity resolution");
         System.err.println("  [-config url_or_filename]: extra configuration");
         System.err.println("  [-debug]: debug mode");
+        System.err.println("  [-direct]: serialize with the direct UTF-8 writer");
+        System.err.println("  [-entitycache bytes]: keep the resolved DTDs in memory up to this size");
         System.err.println("  [-fo filename]: output file, uses stdout by default");
+        System.err.println("  [-formatter command]: pipe the XSL-FO into this command and write its output");
+        System.err.println("  [-minns]: direct writer without redundant namespace declarations");
         System.err.println("  [-p url_or_filename_comma_list]: preprocessors");
         System.err.println("  [-uacss url_or_filename]: User Agent style sheet");
         System.err.println("  [-v]: turn on validation");
@@ -7,14 +7,27 @@ package be.re.css;
 
 import be.re.css.Util.PostProjectionFilter;
 import be.re.xml.CatalogResolver;
+import be.re.xml.SymbolTable;
+import be.re.xml.TemplatesCache;
+import be.re.xml.sax.EventSpool;
 import be.re.xml.sax.FilterOfFilters;
+import be.re.xml.sax.ParserPool;
+import be.re.xml.sax.PipelineFilter;
 import be.re.xml.sax.ProtectEventHandlerFilter;
+import be.re.xml.sax.SchemaGrammarPool;
 import be.re.xml.sax.TransformerHandlerFilter;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import javax.xml.transform.Source;
 import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
@@ -29,19 +42,42 @@ import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLFilter;
 import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
  * Conversion of CSS to XSL-FO. A single instance can perform multiple conversions
- * efficiently, due to caching of XSLT templates and CSS style sheets.
+ * efficiently, due to caching of XSLT templates and CSS style sheets. It is
+ * thread-safe, so several threads can use it for concurrent conversions, provided
+ * the properties are set before that. The {@link #convertAll} method does this
+ * for a batch of documents.
  * @author Gerke Geurts
  */
 public class CSSToXSLFOConverter
 {
+    // As many pipelines as there are threads in the pool of convertAll are kept.
+    private static final int MAX_POOLED_PIPELINES = Runtime.getRuntime().availableProcessors();
+    // The names of the style sheets are always kept, but the names of the
+    // documents only up to this number.
+    private static final int MAX_SYMBOLS = 0x4000;
+    private static final String TRANSLET = "be.re.css.translets.css";
+
+    private int bufferBudget = EventSpool.DEFAULT_BUDGET;
+    private boolean builtInEntities;
+    private boolean chunkedTransformation;
     private final CatalogResolver catalogResolver;
     private final CSSResolver cssResolver;
+    private ParserPool parsers;
+    private volatile TemplatesCache preprocessorTemplates;
+    private final SymbolTable symbolTable = new SymbolTable(MAX_SYMBOLS);
+    private final SAXTransformerFactory templatesFactory;
     private final SAXTransformerFactory transformerFactory;
     private final Templates transformerTemplates;
+    private ParserPool validatingParsers;
+    private final BlockingQueue<Pipeline> pipelines = new ArrayBlockingQueue<>(MAX_POOLED_PIPELINES);
     private boolean debug;
+    private boolean grammarCaching;
+    private boolean nativeTranslation;
+    private boolean pipelined;
     private boolean validate;
 
     /**
@@ -56,11 +92,99 @@ public class CSSToXSLFOConverter
     {
         cssResolver = createCssResolver();
         catalogResolver = createCatalogResolver(catalog);
+        parsers = new ParserPool(catalogResolver, false);
+        validatingParsers = new ParserPool(catalogResolver, true);
         transformerFactory = createTransformerFactory();
-        transformerTemplates = transformerFactory.newTemplates(
+        preprocessorTemplates = new TemplatesCache(transformerFactory);
+        // The translet the build has compiled from style/css.xsl is loaded
+        // when it is there. Otherwise the style sheet is compiled now.
+        SAXTransformerFactory transletFactory = be.re.xml.sax.Util.newTransletFactory(TRANSLET);
+        templatesFactory = transletFactory != null ? transletFactory : transformerFactory;
+        transformerTemplates = templatesFactory.newTemplates(
                 new StreamSource(getClass().getResource("style/css.xsl").openStream()));
     }
     
+    /**
+     * The number of bytes buffered events may occupy in memory.
+     * @return 
+     */
+    public int getBufferBudget()
+    {
+        return bufferBudget;
+    }
+    /**
+     * Sets the number of bytes buffered events may occupy in memory. The
+     * elements that precede the body region are buffered until it starts.
+     * Beyond the budget they are written to a temporary file, so the memory
+     * use doesn't depend on the shape of the document.
+     *
+     * The budget doesn't cover the elements that are rearranged before they
+     * are passed on: a footnote body, an element with marker pseudo
+     * elements, a block with a first letter, a string-set source and the
+     * content of a page region. Each of these is kept in memory as a whole
+     * while it is processed, so their size limits the memory use.
+     * @param value 
+     */
+    public void setBufferBudget(int value)
+    {
+        if (value < 0)
+        {
+            throw new IllegalArgumentException("The buffer budget can't be negative.");
+        }
+        bufferBudget = value;
+    }
+
+    /**
+     * Indicates whether the XSLT transformation is done one page sequence at
+     * a time.
+     * @return 
+     */
+    public boolean getChunkedTransformation()
+    {
+        return chunkedTransformation;
+    }
+    /**
+     * Enables or disables transforming one page sequence at a time. The XSLT
+     * transformation normally builds a tree of the whole document before it
+     * produces any output. In this mode each page sequence is transformed as
+     * a small document of its own, together with the page setup, as soon as
+     * it is complete. The XSL-FO is the same, but the transformer's memory is
+     * bounded by the largest page sequence and the first page sequence
+     * reaches the output early. The native translation takes precedence over
+     * this mode.
+     * @param value 
+     */
+    public void setChunkedTransformation(boolean value)
+    {
+        chunkedTransformation = value;
+    }
+
+    /**
+     * Indicates whether non-validating parsers take the XHTML entities from a
+     * built-in table.
+     * @return 
+     */
+    public boolean getBuiltInEntities()
+    {
+        return builtInEntities;
+    }
+    /**
+     * Enables or disables the built-in XHTML entities. Without validation the
+     * DTD of a document is not loaded, so the XHTML named character entities,
+     * such as <code>&amp;nbsp;</code>, are not declared. With this option the
+     * XHTML 1.0 DTDs are replaced by the declarations of their entities, which
+     * are built in. The DTDs and entity sets are then not read at all.
+     * @param value 
+     */
+    public void setBuiltInEntities(boolean value)
+    {
+        if (value != builtInEntities)
+        {
+            builtInEntities = value;
+            parsers = new ParserPool(catalogResolver, false, value, null, ParserPool.DEFAULT_SIZE);
+        }
+    }
+
     /**
      * The catalog resolver used to efficiently retrieve external DTDs.
      * @return
@@ -70,6 +194,20 @@ public class CSSToXSLFOConverter
         return catalogResolver;
     }
 
+    /**
+     * Makes the catalog resolver keep the DTDs and entity sets it resolves in
+     * memory, so they are not read again for every document. The cache is off
+     * by default.
+     * @param maxEntrySize The size in bytes above which an entity is not
+     * cached.
+     * @param maxCacheSize The total size in bytes of the cached entities.
+     * @see CatalogResolver#setCacheLimits
+     */
+    public void setEntityCacheLimits(int maxEntrySize, long maxCacheSize)
+    {
+        catalogResolver.setCacheLimits(maxEntrySize, maxCacheSize);
+    }
+
     /**
      * The CSS resolver used for retrieval of external style sheets.
      * @return 
@@ -79,6 +217,26 @@ public class CSSToXSLFOConverter
         return cssResolver;
     }
 
+    /**
+     * The cache of the compiled preprocessor style sheets.
+     * @return 
+     */
+    public TemplatesCache getPreprocessorTemplates()
+    {
+        return preprocessorTemplates;
+    }
+
+    /**
+     * Replaces the cache of the compiled preprocessor style sheets with an
+     * empty one of the given size. The default size is
+     * {@link TemplatesCache#DEFAULT_SIZE}.
+     * @param value The number of style sheets that are kept at most.
+     */
+    public void setPreprocessorCacheSize(int value)
+    {
+        preprocessorTemplates = new TemplatesCache(transformerFactory, value);
+    }
+
     /**
      * Indicates whether debug information is written
      * @return 
@@ -96,6 +254,77 @@ public class CSSToXSLFOConverter
         debug = value;
     }
 
+    /**
+     * Indicates whether grammars are shared by the parsers of this converter.
+     * @return 
+     */
+    public boolean getGrammarCaching()
+    {
+        return grammarCaching;
+    }
+    /**
+     * Enables or disables sharing of XML Schema grammars between the
+     * validating parsers of this converter, so a schema is compiled only
+     * once. It requires Xerces. DTD grammars are not shared, because the
+     * entities they declare would then be lost.
+     * @param value 
+     */
+    public void setGrammarCaching(boolean value)
+    {
+        if (value != grammarCaching)
+        {
+            grammarCaching = value;
+            validatingParsers = new ParserPool(catalogResolver, true, false,
+                    value ? new SchemaGrammarPool() : null, ParserPool.DEFAULT_SIZE);
+        }
+    }
+
+    /**
+     * Indicates whether the translation to XSL-FO is done natively instead of
+     * with the XSLT style sheet.
+     * @return 
+     */
+    public boolean getNativeTranslation()
+    {
+        return nativeTranslation;
+    }
+    /**
+     * Enables or disables the native translation to XSL-FO. By default the
+     * last stage is an XSLT transformation with <code>style/css.xsl</code>,
+     * which builds a tree of the whole document before it produces any
+     * output. The native translation produces the same XSL-FO, but it
+     * translates each page sequence as soon as it is complete, so the memory
+     * use is bounded by the largest page sequence instead of the document.
+     * @param value 
+     */
+    public void setNativeTranslation(boolean value)
+    {
+        nativeTranslation = value;
+    }
+
+    /**
+     * Indicates whether the stages of a conversion run on separate threads.
+     * @return 
+     */
+    public boolean getPipelined()
+    {
+        return pipelined;
+    }
+    /**
+     * Enables or disables running the stages of a conversion on separate
+     * threads. Parsing, projection and the XSLT transformation then overlap,
+     * which shortens the conversion of large documents on machines with
+     * several cores. The <code>ContentHandler</code> that receives the XSL-FO
+     * output is called from another thread than the one that calls
+     * <code>convert</code>, but all calls have been made when
+     * <code>convert</code> returns.
+     * @param value 
+     */
+    public void setPipelined(boolean value)
+    {
+        pipelined = value;
+    }
+
     /**
      * Indicates whether source XML documents are validated.
      * @return 
@@ -147,11 +376,84 @@ public class CSSToXSLFOConverter
             baseUrl = Util.createUrl(source.getSystemId());
         }
 
-        XMLFilter filter = createFilter(baseUrl, userAgentStyleSheet, userAgentParameters, preprocessor, postprocessor);
-        XMLReader parser = be.re.xml.sax.Util.getParser(catalogResolver, validate);
-        filter.setParent(parser);
+        if (userAgentParameters == null)
+        {
+            userAgentParameters = new HashMap<>();
+        }
+
+        Pipeline pipeline = leasePipeline(userAgentParameters);
+        pipeline.reset(baseUrl, userAgentStyleSheet, userAgentParameters);
+        XMLFilter filter = pipeline.connect(preprocessor, postprocessor);
         filter.setContentHandler(out);
-        filter.parse(source);
+        boolean succeeded = false;
+        try
+        {
+            filter.parse(source);
+            succeeded = true;
+        }
+        finally
+        {
+            releasePipeline(pipeline, succeeded);
+        }
+    }
+
+    /**
+     * Converts a batch of documents concurrently on a work-stealing pool with as
+     * many threads as there are processors. The documents share the templates,
+     * the catalog and the cached style sheets of this converter.
+     * @param conversions The documents to convert.
+     * @return The <code>conversions</code>, in which the exceptions of failed
+     * conversions are set. A failed conversion doesn't affect the others.
+     * @throws InterruptedException
+     */
+    public List<Conversion> convertAll(List<Conversion> conversions) throws InterruptedException
+    {
+        ExecutorService executor = new ForkJoinPool();
+        try
+        {
+            return convertAll(conversions, executor);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Converts a batch of documents concurrently.
+     * @param conversions The documents to convert.
+     * @param executor The executor that runs the conversions.
+     * @return The <code>conversions</code>, in which the exceptions of failed
+     * conversions are set. A failed conversion doesn't affect the others.
+     * @throws InterruptedException
+     */
+    public List<Conversion> convertAll(List<Conversion> conversions, ExecutorService executor) throws InterruptedException
+    {
+        List<Callable<Object>> tasks = new ArrayList<>(conversions.size());
+        for (final Conversion conversion : conversions)
+        {
+            tasks.add(new Callable<Object>()
+            {
+                @Override
+                public Object call()
+                {
+                    try
+                    {
+                        convert(conversion.getSource(), conversion.getOut(), conversion.getBaseUrl(),
+                                conversion.getUserAgentStyleSheet(), conversion.getUserAgentParameters(),
+                                conversion.getPreprocessor(), conversion.getPostprocessor());
+                        conversion.setException(null);
+                    }
+                    catch (Exception e)
+                    {
+                        conversion.setException(e);
+                    }
+                    return null;
+                }
+            });
+        }
+        executor.invokeAll(tasks);
+        return conversions;
     }
 
     /**
@@ -165,7 +467,8 @@ public class CSSToXSLFOConverter
      * @param preprocessor Optional {@link XMLFilter} that preprocesses XML input 
      * before the transformation to XSL-FO output.
      * @param postprocessor Optional {@link XMLFilter} that post-processes XSL-FO output.
-     * @return
+     * @return A source that can be parsed once. The parser it uses is returned
+     * to the pool of the converter after the parse.
      * @throws SAXException
      * @throws TransformerConfigurationException
      * @throws IOException 
@@ -187,14 +490,23 @@ public class CSSToXSLFOConverter
             baseUrl = Util.createUrl(source.getSystemId());
         }
 
-        XMLFilter filter = createFilter(baseUrl, userAgentStyleSheet, userAgentParameters, preprocessor, postprocessor);
-        XMLReader parser = be.re.xml.sax.Util.getParser(catalogResolver, validate);
-        filter.setParent(parser);
-        return new SAXSource(filter, source);
+        if (userAgentParameters == null)
+        {
+            userAgentParameters = new HashMap<>();
+        }
+
+        // The caller decides when and on which thread the source is parsed, so
+        // the pipeline can't go back to the pool. Its parser goes back after
+        // the parse.
+        Pipeline pipeline = new Pipeline(this, userAgentParameters);
+        pipeline.reset(baseUrl, userAgentStyleSheet, userAgentParameters);
+        return new SAXSource(new ParserReleasingFilter(pipeline, pipeline.connect(preprocessor, postprocessor)), source);
     }
 
     /**
      * Creates a {@link XMLFilter} that can act as preprocessor for <code>convert</code>.
+     * The style sheets are compiled once and kept in a cache, from which each
+     * call creates new filters.
      * @param xslUrls An arbitrary number of URLs that point to XSLT templates.
      * @return
      * @throws TransformerConfigurationException 
@@ -206,7 +518,12 @@ public class CSSToXSLFOConverter
         XMLFilter[] filters = new XMLFilter[xslUrls.length];
         for (int i = 0; i < xslUrls.length; ++i)
         {
-            filters[i] = transformerFactory.newXMLFilter(new StreamSource(xslUrls[i].toString()));
+            Templates templates = preprocessorTemplates.get(xslUrls[i]);
+            // Transformer factories are not thread-safe.
+            synchronized (transformerFactory)
+            {
+                filters[i] = transformerFactory.newXMLFilter(templates);
+            }
         }
         return new FilterOfFilters(filters);
     }
@@ -267,65 +584,278 @@ public class CSSToXSLFOConverter
         return new URL(getClass().getResource("style/css.xsl"), href);
     }
     
-    private TransformerHandlerFilter createTransformerHandlerFilter(Map<String, String> userAgentParameters) throws TransformerConfigurationException
+    private static TransformerHandler createTransformerHandler(SAXTransformerFactory templatesFactory,
+            Templates transformerTemplates, Map<String, String> userAgentParameters) throws TransformerConfigurationException
     {
-        TransformerHandler transformerHandler = transformerFactory.newTransformerHandler(transformerTemplates);
+        TransformerHandler transformerHandler;
+        synchronized (templatesFactory)
+        {
+            transformerHandler = templatesFactory.newTransformerHandler(transformerTemplates);
+        }
         Transformer transformer = transformerHandler.getTransformer();
         for (Map.Entry<String, String> entry : userAgentParameters.entrySet())
         {
             transformer.setParameter(entry.getKey(), entry.getValue());
         }
-        return new TransformerHandlerFilter(transformerHandler);
+        return transformerHandler;
     }
 
-    private XMLFilter createFilter(
-            URL baseUrl, 
-            URL userAgentStyleSheet, 
-            Map<String, String> userAgentParameters, 
-            XMLFilter preprocessor, 
-            XMLFilter postprocessor) throws TransformerConfigurationException, SAXException
+    private Pipeline leasePipeline(Map<String, String> userAgentParameters) throws SAXException
     {
-        XMLReader parser = be.re.xml.sax.Util.getParser(catalogResolver, validate);
-        XMLFilter parent = new ProtectEventHandlerFilter(true, true, parser);
-        if (preprocessor != null)
+        for (Pipeline pipeline = pipelines.poll(); pipeline != null; pipeline = pipelines.poll())
         {
-            preprocessor.setParent(parent);
+            if (pipeline.matches(this, userAgentParameters.get("rule-thickness")))
+            {
+                return pipeline;
+            }
+            pipeline.releaseParser();
         }
-        XMLFilter filter = createFilterCore(baseUrl, userAgentStyleSheet, userAgentParameters);
-        if (postprocessor != null)
+        return new Pipeline(this, userAgentParameters);
+    }
+
+    /**
+     * A pipeline that failed may hold the state of the document, so only a
+     * successful one is reused. Its parser is reused anyway, because a parser
+     * starts afresh with each document.
+     */
+    private void releasePipeline(Pipeline pipeline, boolean succeeded)
+    {
+        if (succeeded && !debug && pipeline.matches(this, pipeline.ruleThickness))
         {
-            filter.setParent(postprocessor);
-            filter = postprocessor;
+            pipeline.disconnect();
+            if (pipelines.offer(pipeline))
+            {
+                return;
+            }
         }
-        return filter;
+        pipeline.releaseParser();
     }
-    
-    private XMLFilter createFilterCore(
-            URL baseUrl, 
-            URL userAgentStyleSheet, 
-            Map<String, String> userAgentParameters) throws TransformerConfigurationException
+
+    /**
+     * The filters, the parser and the context of a conversion. A pipeline is
+     * reset for each document, so it can be reused for the documents that
+     * follow, on any thread. Only the transformer handler is new for each
+     * document, because it can transform only one. The native translator and
+     * the chunked transformer are reused as well. A pipeline copies the
+     * properties of the converter it was built for and doesn't refer to the
+     * converter itself.
+     */
+    private static class Pipeline
     {
-        if (userAgentParameters == null)
+        private final int bufferBudget;
+        private final PageSequenceTransformFilter chunkFilter;
+        private final boolean chunkedTransformation;
+        private final XMLFilter core;
+        private final boolean debug;
+        private boolean fresh = true;
+        private final boolean nativeTranslation;
+        private final PageSetupFilter pageSetupFilter;
+        private final XMLReader parser;
+        private final ParserPool parserPool;
+        private final boolean pipelined;
+        private final PostProjectionFilter postProjectionFilter;
+        private final ProjectorFilter projectorFilter;
+        private final XMLFilter protectFilter;
+        private final String ruleThickness;
+        private final SAXTransformerFactory templatesFactory;
+        private final TransformerHandlerFilter transformerFilter;
+        private final Templates transformerTemplates;
+        private final FOTranslatorFilter translatorFilter;
+        private final boolean validate;
+
+        private Pipeline(CSSToXSLFOConverter converter, Map<String, String> userAgentParameters) throws SAXException
         {
-            userAgentParameters = new HashMap<>();
+            Context context = new Context(converter.symbolTable);
+
+            bufferBudget = converter.bufferBudget;
+            chunkedTransformation = converter.chunkedTransformation;
+            debug = converter.debug;
+            nativeTranslation = converter.nativeTranslation;
+            parserPool = converter.validate ? converter.validatingParsers : converter.parsers;
+            pipelined = converter.pipelined;
+            templatesFactory = converter.templatesFactory;
+            transformerTemplates = converter.transformerTemplates;
+            validate = converter.validate;
+
+            ruleThickness = userAgentParameters.get("rule-thickness");
+            parser = parserPool.lease();
+            protectFilter = new ProtectEventHandlerFilter(true, true, parser);
+            projectorFilter = new ProjectorFilter(null, null, userAgentParameters, context, converter.cssResolver);
+            postProjectionFilter = Util.createPostProjectionFilter(null, userAgentParameters, context, debug);
+            pageSetupFilter = new PageSetupFilter(context, null, userAgentParameters, bufferBudget, debug);
+            try
+            {
+                translatorFilter = nativeTranslation ? new FOTranslatorFilter(userAgentParameters) : null;
+                chunkFilter = !nativeTranslation && chunkedTransformation
+                        ? new PageSequenceTransformFilter(transformerTemplates, userAgentParameters, bufferBudget) : null;
+                transformerFilter = !nativeTranslation && !chunkedTransformation
+                        ? new TransformerHandlerFilter(
+                                createTransformerHandler(templatesFactory, transformerTemplates, userAgentParameters))
+                        : null;
+            }
+            catch (TransformerConfigurationException e)
+            {
+                throw new SAXException(e);
+            }
+
+            List<XMLFilter> nestedFilters = new ArrayList<>();
+
+            // The stages from the projection up to the page setup share the
+            // context, so they run on the same thread.
+            if (pipelined)
+            {
+                nestedFilters.add(new PipelineFilter());
+            }
+
+            nestedFilters.add(projectorFilter);
+            nestedFilters.add(new WhitespaceFilter());
+            nestedFilters.add(Util.featureFilter(new FOMarkerFilter(), context, RuleSet.FEATURE_NAMED_STRINGS));
+            nestedFilters.add(postProjectionFilter.getFilter());
+            nestedFilters.add(pageSetupFilter);
+
+            if (pipelined)
+            {
+                nestedFilters.add(new PipelineFilter());
+            }
+
+            nestedFilters.add(nativeTranslation ? translatorFilter : (chunkedTransformation ? chunkFilter : transformerFilter));
+            nestedFilters.add(new SpaceCorrectionFilter());
+
+            core = new FilterOfFilters(nestedFilters.toArray(new XMLFilter[nestedFilters.size()]), debug);
         }
 
-        Context context = new Context();
+        /**
+         * Connects the parser, the preprocessor, the core filters and the
+         * postprocessor.
+         * @return The last filter of the chain.
+         */
+        private XMLFilter connect(XMLFilter preprocessor, XMLFilter postprocessor)
+        {
+            XMLReader parent = protectFilter;
+            if (preprocessor != null)
+            {
+                preprocessor.setParent(parent);
+                parent = preprocessor;
+            }
+            core.setParent(parent);
+            if (postprocessor != null)
+            {
+                postprocessor.setParent(core);
+                return postprocessor;
+            }
+            return core;
+        }
 
-        XMLFilter projectorFilter = new ProjectorFilter(baseUrl, userAgentStyleSheet, userAgentParameters, context, cssResolver);
-        PostProjectionFilter postProjectionFilter = Util.createPostProjectionFilter(baseUrl, userAgentParameters, debug);
-        XMLFilter pageSetupFilter = new PageSetupFilter(context, baseUrl, userAgentParameters, debug);
+        /**
+         * Lets go of the filters and the output of the last document.
+         */
+        private void disconnect()
+        {
+            core.setParent(protectFilter);
+            core.setContentHandler(null);
+        }
 
-        XMLFilter[] nestedFilters = new XMLFilter[]
+        private void releaseParser()
         {
-            projectorFilter,
-            new FOMarkerFilter(),
-            postProjectionFilter.getFilter(),
-            pageSetupFilter,
-            createTransformerHandlerFilter(userAgentParameters),
-            new SpaceCorrectionFilter()
-        };
+            parserPool.release(parser);
+        }
 
-        return new FilterOfFilters(nestedFilters, debug);
-    }
+        /**
+         * Tells if the pipeline was built for the current properties of
+         * <code>converter</code> and the given rule thickness parameter.
+         */
+        private boolean matches(CSSToXSLFOConverter converter, String thickness)
+        {
+            return debug == converter.debug
+                    && bufferBudget == converter.bufferBudget
+                    && chunkedTransformation == converter.chunkedTransformation
+                    && nativeTranslation == converter.nativeTranslation
+                    && pipelined == converter.pipelined
+                    && validate == converter.validate
+                    && parserPool == (validate ? converter.validatingParsers : converter.parsers)
+                    && (ruleThickness == null ? thickness == null : ruleThickness.equals(thickness));
+        }
+
+        private void reset(URL baseUrl, URL userAgentStyleSheet, Map<String, String> userAgentParameters) throws TransformerConfigurationException
+        {
+            projectorFilter.setBaseUrl(baseUrl);
+            projectorFilter.setUserAgentStyleSheet(userAgentStyleSheet);
+            projectorFilter.setUserAgentParameters(userAgentParameters);
+            postProjectionFilter.setBaseUrl(baseUrl);
+            pageSetupFilter.setBaseUrl(baseUrl);
+            pageSetupFilter.setUserAgentParameters(userAgentParameters);
+            if (nativeTranslation)
+            {
+                translatorFilter.setUserAgentParameters(userAgentParameters);
+            }
+            else if (chunkedTransformation)
+            {
+                chunkFilter.setUserAgentParameters(userAgentParameters);
+            }
+            // The transformer handler of a new pipeline has the parameters
+            // already.
+            else if (!fresh)
+            {
+                transformerFilter.setTransformerHandler(
+                        createTransformerHandler(templatesFactory, transformerTemplates, userAgentParameters));
+            }
+            fresh = false;
+        }
+    } // Pipeline
+
+    /**
+     * Returns the parser of a pipeline to the pool after the one parse of a
+     * SAX source. The handlers are set on the last filter of the pipeline, so
+     * the events don't pass through this filter.
+     */
+    private static class ParserReleasingFilter extends XMLFilterImpl
+    {
+        private final Pipeline pipeline;
+        private boolean released;
+
+        private ParserReleasingFilter(Pipeline pipeline, XMLReader parent)
+        {
+            super(parent);
+            this.pipeline = pipeline;
+        }
+
+        @Override
+        public void parse(InputSource input) throws IOException, SAXException
+        {
+            if (released)
+            {
+                throw new SAXException("The source can be parsed only once.");
+            }
+
+            XMLReader parent = getParent();
+
+            parent.setContentHandler(getContentHandler());
+
+            if (getDTDHandler() != null)
+            {
+                parent.setDTDHandler(getDTDHandler());
+            }
+
+            if (getErrorHandler() != null)
+            {
+                parent.setErrorHandler(getErrorHandler());
+            }
+
+            try
+            {
+                parent.parse(input);
+            }
+            finally
+            {
+                released = true;
+                pipeline.releaseParser();
+            }
+        }
+
+        @Override
+        public void parse(String systemId) throws IOException, SAXException
+        {
+            parse(new InputSource(systemId));
+        }
+    } // ParserReleasingFilter
 }
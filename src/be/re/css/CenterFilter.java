@@ -5,7 +5,6 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.AttributesImpl;
-import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
  * Detects centering (right and left margins set to "auto") and wraps tables and
@@ -13,7 +12,7 @@ import org.xml.sax.helpers.XMLFilterImpl;
  *
  * @author Werner Donn\u00e9
  */
-class CenterFilter extends XMLFilterImpl
+class CenterFilter extends RewritingFilter
 {
     private final Stack<Boolean> stack = new Stack<>();
 
@@ -93,6 +92,13 @@ class CenterFilter extends XMLFilterImpl
                 && "auto".equals(atts.getValue(Constants.CSS, "margin-right"));
     }
 
+    @Override
+    public void startDocument() throws SAXException
+    {
+        stack.clear();
+        super.startDocument();
+    }
+
     @Override
     public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
     {
@@ -1,5 +1,6 @@
 package be.re.css;
 
+import be.re.xml.SymbolTable;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -8,7 +9,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -33,6 +33,7 @@ public class Compiled implements Cloneable
     private int nfaStateCounter = 0;
     private NFAState[] nfa = new NFAState[] { new NFAState(), new NFAState() };
     DFAState startState = null;
+    final SymbolTable symbols;
     private static final boolean trace = System.getProperty("be.re.css.trace") != null;
 
     /**
@@ -40,6 +41,17 @@ public class Compiled implements Cloneable
      */
     public Compiled()
     {
+        this(new SymbolTable());
+    }
+
+    /**
+     * Creates empty compiled CSS rule collection.
+     * @param symbols The symbol table for element names, which should be the
+     * one that is used for the documents that are matched against the rules.
+     */
+    public Compiled(SymbolTable symbols)
+    {
+        this.symbols = symbols;
     }
 
     /**
@@ -129,7 +141,7 @@ public class Compiled implements Cloneable
     {
         NFAState start = new NFAState();
         NFAState end = new NFAState();
-        start.next.add(new Next(new Event(selector.getNamespaceURI(), selector.getLocalName()), end));
+        start.next.add(new Next(new Event(symbols, selector.getNamespaceURI(), selector.getLocalName()), end));
         return new NFAState[] { start, end };
     }
 
@@ -463,63 +475,87 @@ public class Compiled implements Cloneable
         private static final int TYPE_EPSILON = 2;
         
         private static final String ASTERISK = "*".intern();
-        public static final Event AnyElement = new Event(ASTERISK, ASTERISK, true);
+        public static final Event AnyElement = new Event(ASTERISK, SymbolTable.NO_ID, ASTERISK, SymbolTable.NO_ID);
         public static final Event SiblingElement = new Event(TYPE_SIBLING);
         public static final Event Epsilon = new Event(TYPE_EPSILON);
         
         private final int eventType;
         private final String namespaceUri;
+        private final int namespaceId;
         private final String localName;
+        private final int localNameId;
         
-        public Event(String namespaceUri, String localName)
-        {
-            this.namespaceUri = getAsteriskOrIntern(namespaceUri);
-            this.localName = getAsteriskOrIntern(localName);
+        /**
+         * Creates an element event. Names that are <code>null</code>, empty or
+         * "*" stand for any name.
+         * @param symbols The symbol table that provides the name identifiers.
+         * @param namespaceUri
+         * @param localName 
+         */
+        public Event(SymbolTable symbols, String namespaceUri, String localName)
+        {
+            this.namespaceUri = getAsteriskOrIntern(symbols, namespaceUri);
+            this.namespaceId = getId(symbols, this.namespaceUri);
+            this.localName = getAsteriskOrIntern(symbols, localName);
+            this.localNameId = getId(symbols, this.localName);
             this.eventType = TYPE_ELEMENT;
         }
 
-        private Event(String namespaceUri, String localName, boolean isAsteriskOrIntern)
+        /**
+         * Creates the event for an element of a document. Its names are not
+         * added to the symbol table, because only the names of the selectors
+         * can match.
+         * @param symbols The symbol table of the selectors.
+         * @param namespaceUri
+         * @param localName
+         * @return
+         */
+        public static Event forElement(SymbolTable symbols, String namespaceUri, String localName)
         {
-            if (isAsteriskOrIntern)
-            {
-                this.namespaceUri = namespaceUri;
-                this.localName = localName;
-            }
-            else
-            {
-                this.namespaceUri = getAsteriskOrIntern(namespaceUri);
-                this.localName = getAsteriskOrIntern(localName);
-            }
+            String uri = getAsteriskOrIntern(symbols, namespaceUri);
+            String name = getAsteriskOrIntern(symbols, localName);
+
+            return new Event(uri, lookupId(symbols, uri), name, lookupId(symbols, name));
+        }
+
+        private Event(String namespaceUri, int namespaceId, String localName, int localNameId)
+        {
+            this.namespaceUri = namespaceUri;
+            this.namespaceId = namespaceId;
+            this.localName = localName;
+            this.localNameId = localNameId;
             this.eventType = TYPE_ELEMENT;
         }
         
         private Event(int eventType)
         {
             this.namespaceUri = this.localName = null;
+            this.namespaceId = this.localNameId = SymbolTable.NO_ID;
             this.eventType = eventType;
         }
         
-        @SuppressWarnings("StringEquality")
         public boolean hasNamespaceUri()
         {
-            return this.namespaceUri != ASTERISK;
+            return this.namespaceId != SymbolTable.NO_ID;
         }
         
         public Event forAnyNamespace()
         {
-            return new Event(ASTERISK, this.localName, true);
+            return new Event(ASTERISK, SymbolTable.NO_ID, this.localName, this.localNameId);
         }
 
         public Event forAnyLocalName()
         {
-            return new Event(this.namespaceUri, ASTERISK, true);
+            return new Event(this.namespaceUri, this.namespaceId, ASTERISK, SymbolTable.NO_ID);
         }
 
-        public Event forNamespace(String namespaceUri)
+        public Event forNamespace(SymbolTable symbols, String namespaceUri)
         {
-            return new Event(getAsteriskOrIntern(namespaceUri), this.localName, true);
+            String uri = getAsteriskOrIntern(symbols, namespaceUri);
+
+            return new Event(uri, lookupId(symbols, uri), this.localName, this.localNameId);
         }
-        
+
         @Override
         public String toString()
         {
@@ -529,29 +565,37 @@ public class Compiled implements Cloneable
         @Override
         public int hashCode()
         {
-            if (eventType != 0) return eventType;
+            if (eventType != TYPE_ELEMENT) return eventType;
             
-            int hash = 5;
-            hash = 19 * hash + Objects.hashCode(this.namespaceUri);
-            hash = 19 * hash + Objects.hashCode(this.localName);
-            return hash;
+            return 19 * (19 * 5 + namespaceId) + localNameId;
         }
 
         @Override
-        @SuppressWarnings("StringEquality")
         public boolean equals(Object obj)
         {
             if (obj == null) return false;
             if (getClass() != obj.getClass()) return false;
             final Event other = (Event) obj;
             return this.eventType == other.eventType 
-                    && this.namespaceUri == other.namespaceUri 
-                    && this.localName == other.localName;
+                    && this.namespaceId == other.namespaceId 
+                    && this.localNameId == other.localNameId;
         }
         
-        private static String getAsteriskOrIntern(String s)
+        private static String getAsteriskOrIntern(SymbolTable symbols, String s)
+        {
+            return s == null || s.length() == 0 ? ASTERISK : symbols.intern(s);
+        }
+
+        @SuppressWarnings("StringEquality")
+        private static int getId(SymbolTable symbols, String s)
+        {
+            return s == ASTERISK ? SymbolTable.NO_ID : symbols.getId(s);
+        }
+
+        @SuppressWarnings("StringEquality")
+        private static int lookupId(SymbolTable symbols, String s)
         {
-            return s == null || s.length() == 0 ? ASTERISK : s.intern();
+            return s == ASTERISK ? SymbolTable.NO_ID : symbols.lookupId(s);
         }
     }
 } // Compiled
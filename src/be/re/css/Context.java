@@ -1,16 +1,55 @@
 package be.re.css;
 
+import be.re.xml.SymbolTable;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Context
 {
-    public final RuleSet ruleSet = new RuleSet();
+    public final SymbolTable symbols;
+    public final RuleSet ruleSet;
     public final Map<String, Map<String, org.w3c.dom.Element>> regions = new HashMap<>();
+    private int features = 0;
+
+    public Context()
+    {
+        this(new SymbolTable());
+    }
+
+    /**
+     * @param symbols The symbol table that canonicalizes element names. It may
+     * be shared by several contexts.
+     */
+    public Context(SymbolTable symbols)
+    {
+        this.symbols = symbols;
+        this.ruleSet = new RuleSet(symbols);
+    }
     
+    /**
+     * Registers features that occur outside the rule set, such as in style
+     * attributes.
+     * @param features A combination of <code>RuleSet.FEATURE_*</code> flags.
+     */
+    public void addFeatures(int features)
+    {
+        this.features |= features;
+    }
+
+    /**
+     * Tells if the feature can occur in the document that is being processed.
+     * @param feature One of the <code>RuleSet.FEATURE_*</code> flags.
+     * @return 
+     */
+    public boolean hasFeature(int feature)
+    {
+        return ((features | ruleSet.getFeatures()) & feature) != 0;
+    }
+
     public void clear()
     {
         ruleSet.clear();
         regions.clear();
+        features = 0;
     }
 } // Context
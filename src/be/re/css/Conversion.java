@@ -0,0 +1,106 @@
+package be.re.css;
+
+import java.net.URL;
+import java.util.Map;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLFilter;
+
+/**
+ * A document for {@link CSSToXSLFOConverter#convertAll}. It carries the
+ * arguments of <code>convert</code> and, after the batch, the exception the
+ * conversion failed with, if any. The preprocessor and the postprocessor
+ * should not be shared with other conversions, because filters have state.
+ *
+ * @author Gerke Geurts
+ */
+public class Conversion
+{
+    private URL baseUrl;
+    private Exception exception;
+    private final ContentHandler out;
+    private XMLFilter postprocessor;
+    private XMLFilter preprocessor;
+    private final InputSource source;
+    private URL userAgentStyleSheet;
+    private Map<String, String> userAgentParameters;
+
+    /**
+     * @param source The source XML document.
+     * @param out The {@link ContentHandler} that will receive the XSL-FO output.
+     */
+    public Conversion(InputSource source, ContentHandler out)
+    {
+        this.source = source;
+        this.out = out;
+    }
+
+    public URL getBaseUrl()
+    {
+        return baseUrl;
+    }
+    public void setBaseUrl(URL value)
+    {
+        baseUrl = value;
+    }
+
+    /**
+     * The exception the conversion failed with, or <code>null</code> when it
+     * succeeded or hasn't run yet.
+     * @return
+     */
+    public Exception getException()
+    {
+        return exception;
+    }
+    void setException(Exception value)
+    {
+        exception = value;
+    }
+
+    public ContentHandler getOut()
+    {
+        return out;
+    }
+
+    public XMLFilter getPostprocessor()
+    {
+        return postprocessor;
+    }
+    public void setPostprocessor(XMLFilter value)
+    {
+        postprocessor = value;
+    }
+
+    public XMLFilter getPreprocessor()
+    {
+        return preprocessor;
+    }
+    public void setPreprocessor(XMLFilter value)
+    {
+        preprocessor = value;
+    }
+
+    public InputSource getSource()
+    {
+        return source;
+    }
+
+    public Map<String, String> getUserAgentParameters()
+    {
+        return userAgentParameters;
+    }
+    public void setUserAgentParameters(Map<String, String> value)
+    {
+        userAgentParameters = value;
+    }
+
+    public URL getUserAgentStyleSheet()
+    {
+        return userAgentStyleSheet;
+    }
+    public void setUserAgentStyleSheet(URL value)
+    {
+        userAgentStyleSheet = value;
+    }
+} // Conversion
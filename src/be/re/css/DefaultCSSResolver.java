@@ -6,29 +6,97 @@
 package be.re.css;
 
 import java.net.URL;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import org.w3c.css.sac.CSSException;
 
 /**
  * Default implementation of {@link CSSResolver} interface. Retrieves and
- * caches CSS style sheets. This class is thread-safe.
+ * caches CSS style sheets. This class is thread-safe. A style sheet that is
+ * requested by several threads at once is parsed only once. The other threads
+ * wait for the result, unless they are parsing a style sheet themselves, in
+ * which case they parse the imported style sheet on their own, because waiting
+ * could close a cycle of imports.
  * @author Gerke Geurts
  */
 public class DefaultCSSResolver implements CSSResolver
 {
-    ConcurrentMap<URL, CSSRuleSet> cachedRules = new ConcurrentHashMap<>();
-    
+    ConcurrentMap<URL, FutureTask<CSSRuleSet>> cachedRules = new ConcurrentHashMap<>();
+    private final ThreadLocal<int[]> depth = new ThreadLocal<int[]>()
+    {
+        @Override
+        protected int[] initialValue()
+        {
+            return new int[1];
+        }
+    };
+
     @Override
-    public CSSRuleSet getRuleSet(URL styleSheetUrl) throws CSSException
+    public CSSRuleSet getRuleSet(final URL styleSheetUrl) throws CSSException
+    {
+        FutureTask<CSSRuleSet> task = cachedRules.get(styleSheetUrl);
+        if (task == null)
+        {
+            FutureTask<CSSRuleSet> newTask = new FutureTask<>(new Callable<CSSRuleSet>()
+            {
+                @Override
+                public CSSRuleSet call() throws Exception
+                {
+                    return parse(styleSheetUrl);
+                }
+            });
+            task = cachedRules.putIfAbsent(styleSheetUrl, newTask);
+            if (task == null)
+            {
+                task = newTask;
+                task.run();
+            }
+        }
+
+        if (!task.isDone() && depth.get()[0] > 0)
+        {
+            return parse(styleSheetUrl);
+        }
+
+        try
+        {
+            return task.get();
+        }
+        catch (ExecutionException e)
+        {
+            // Failures are not cached, so a later request tries again.
+            cachedRules.remove(styleSheetUrl, task);
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error)
+            {
+                throw (Error) e.getCause();
+            }
+            throw new CSSException((Exception) e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CSSException(e);
+        }
+    }
+
+    private CSSRuleSet parse(URL styleSheetUrl) throws CSSException
     {
-        CSSRuleSet result = cachedRules.get(styleSheetUrl);
-        if (result != null) return result;
-        
-        result = CSSRuleSet.parse(styleSheetUrl, this);
-        CSSRuleSet previousResult = cachedRules.putIfAbsent(styleSheetUrl, result);
-        return previousResult == null 
-                ? result
-                : previousResult;
+        int[] d = depth.get();
+        ++d[0];
+        try
+        {
+            return CSSRuleSet.parse(styleSheetUrl, this);
+        }
+        finally
+        {
+            --d[0];
+        }
     }
 }
@@ -35,6 +35,13 @@ class DisplayNonePropagator extends XMLFilterImpl
         stack.pop();
     }
 
+    @Override
+    public void startDocument() throws SAXException
+    {
+        stack.clear();
+        super.startDocument();
+    }
+
     @Override
     public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
     {
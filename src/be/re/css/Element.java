@@ -1,5 +1,6 @@
 package be.re.css;
 
+import be.re.xml.SymbolTable;
 import java.util.ArrayList;
 import java.util.List;
 import org.xml.sax.Attributes;
@@ -27,6 +28,13 @@ class Element
     static final String TABLE_ROW = "table-row".intern();
     static final String TABLE_ROW_GROUP = "table-row-group".intern();
 
+    // Other values are interned, but not kept.
+    private static final SymbolTable displayValues = new SymbolTable(0,
+            BLOCK, COMPACT, GRAPHIC, INLINE, INLINE_TABLE, LEADER, LIST_ITEM,
+            MARKER, NONE, RUN_IN, TABLE, TABLE_CELL, TABLE_CAPTION, TABLE_COLUMN,
+            TABLE_COLUMN_GROUP, TABLE_FOOTER_GROUP, TABLE_HEADER_GROUP, TABLE_ROW,
+            TABLE_ROW_GROUP);
+
     Attributes atts;
     List<Element> children;
     String display; // Interned.
@@ -41,12 +49,7 @@ class Element
         this.localName = localName;
         this.qName = qName;
         this.atts = new AttributesImpl(atts); // Copy because parser reuses them.
-        this.display = atts.getValue(Constants.CSS, "display");
-
-        if (display != null)
-        {
-            display = display.intern();
-        }
+        this.display = internDisplay(atts.getValue(Constants.CSS, "display"));
     }
 
     void addChild(Element child)
@@ -58,6 +61,15 @@ class Element
         children.add(child);
     }
 
+    /**
+     * Returns the canonical instance of a display value, against which the
+     * display constants can be compared by identity.
+     */
+    static String internDisplay(String display)
+    {
+        return displayValues.intern(display);
+    }
+
     boolean isDisplay(String knownDisplay)
     {
         return knownDisplay == display;
@@ -1,14 +1,12 @@
 package be.re.css;
 
-import be.re.xml.Accumulator;
-import be.re.xml.DOMToContentHandler;
+import be.re.xml.EventBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.Stack;
-import org.w3c.dom.Element;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLFilter;
@@ -28,7 +26,10 @@ class FOMarkerFilter extends XMLFilterImpl
         "table-footer-group", "table-header-group", "table-row-group"
     }));
 
-    private final List<Element> foMarkers = new ArrayList<>();
+    private static final int POOL_SIZE = 4;
+
+    private final EventBuffer.Pool buffers = new EventBuffer.Pool(POOL_SIZE);
+    private final List<EventBuffer> foMarkers = new ArrayList<>();
     private final Stack<String> stack = new Stack<>();
 
     FOMarkerFilter()
@@ -42,13 +43,13 @@ class FOMarkerFilter extends XMLFilterImpl
 
     private void accumulateFOMarker(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
     {
-        Accumulator.preAccumulate(namespaceURI, localName, qName, atts, this, 
-                new Accumulator.ProcessElement()
+        EventBuffer.preAccumulate(namespaceURI, localName, qName, atts, this, buffers.acquire(),
+                new EventBuffer.ProcessElement()
                 {
                     @Override
-                    public void process(Element element, XMLFilter filter) throws SAXException
+                    public void process(EventBuffer buffer, int element, XMLFilter filter) throws SAXException
                     {
-                        foMarkers.add(element);
+                        foMarkers.add(buffer);
                     }
                 });
     }
@@ -64,14 +65,23 @@ class FOMarkerFilter extends XMLFilterImpl
     {
         if (foMarkers.size() > 0)
         {
-            for (Element element : foMarkers)
+            for (EventBuffer buffer : foMarkers)
             {
-                DOMToContentHandler.elementToContentHandler(element, getContentHandler());
+                buffer.replay(buffer.getDocumentElement(), getContentHandler());
+                buffers.release(buffer);
             }
             foMarkers.clear();
         }
     }
 
+    @Override
+    public void startDocument() throws SAXException
+    {
+        foMarkers.clear();
+        stack.clear();
+        super.startDocument();
+    }
+
     @Override
     @SuppressWarnings("StringEquality")
     public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
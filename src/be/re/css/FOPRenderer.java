@@ -0,0 +1,294 @@
+package be.re.css;
+
+import be.re.xml.sax.BinaryXMLReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.avalon.framework.configuration.DefaultConfigurationBuilder;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Renders documents with FOP. A renderer owns a converter and a configured
+ * <code>FopFactory</code>, which are set up once and then serve any number of
+ * documents, so the style sheets, the catalog, the user configuration and the
+ * fonts are not loaded again for every document. It is thread-safe, provided
+ * the properties of the converter are set before it is shared.
+ *
+ * @author Gerke Geurts
+ */
+public class FOPRenderer
+{
+    private static final Map<String, Shared> shared = new HashMap<>();
+
+    private final CSSToXSLFOConverter converter;
+    private final FopFactory fopFactory;
+    private volatile int parallelism = 1;
+
+    /**
+     * @param catalog The DTD catalog, or <code>null</code> for the default
+     * XHTML catalog.
+     * @param configFile The FOP user configuration, or <code>null</code>.
+     * @throws CSSToXSLFOException
+     */
+    public FOPRenderer(URL catalog, File configFile) throws CSSToXSLFOException
+    {
+        this(catalog, newFopFactory(configFile));
+    }
+
+    /**
+     * @param catalog The DTD catalog, or <code>null</code> for the default
+     * XHTML catalog.
+     * @param fopFactory A configured factory.
+     * @throws CSSToXSLFOException
+     */
+    public FOPRenderer(URL catalog, FopFactory fopFactory) throws CSSToXSLFOException
+    {
+        try
+        {
+            converter = new CSSToXSLFOConverter(catalog);
+        }
+        catch (Exception e)
+        {
+            throw new CSSToXSLFOException(e);
+        }
+
+        converter.setDebug(System.getProperty("be.re.css.debug") != null);
+        this.fopFactory = fopFactory;
+    }
+
+    public CSSToXSLFOConverter getConverter()
+    {
+        return converter;
+    }
+
+    public FopFactory getFopFactory()
+    {
+        return fopFactory;
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads that render the page sequences of a
+     * document. With more than one, the document is recorded and its page
+     * sequences are rendered in groups to FOP's intermediate format, which
+     * are then concatenated. Formats FOP can't produce from the intermediate
+     * format and documents in which links or page references cross the
+     * groups are rendered on one thread. The default is 1.
+     * @param value
+     */
+    public void setParallelism(int value)
+    {
+        if (value < 1)
+        {
+            throw new IllegalArgumentException("The parallelism should be at least 1.");
+        }
+
+        parallelism = value;
+    }
+
+    /**
+     * Returns a renderer that is shared by the callers that ask for the same
+     * catalog, configuration and validation mode. When the configuration file
+     * has changed, a new renderer replaces the shared one.
+     * @param catalog The DTD catalog, or <code>null</code> for the default
+     * XHTML catalog.
+     * @param configFile The FOP user configuration, or <code>null</code>.
+     * @param validate Tells if the source documents are validated.
+     * @return
+     * @throws CSSToXSLFOException
+     */
+    public static FOPRenderer getShared(URL catalog, File configFile, boolean validate) throws CSSToXSLFOException
+    {
+        String key = String.valueOf(catalog) + " "
+                + (configFile != null ? configFile.getAbsolutePath() : "") + " "
+                + validate;
+        long modified = configFile != null ? configFile.lastModified() : 0;
+
+        synchronized (shared)
+        {
+            Shared entry = shared.get(key);
+
+            if (entry == null || entry.modified != modified)
+            {
+                FOPRenderer renderer = new FOPRenderer(catalog, configFile);
+
+                renderer.getConverter().setValidate(validate);
+                entry = new Shared(renderer, modified);
+                shared.put(key, entry);
+            }
+
+            return entry.renderer;
+        }
+    }
+
+    private static FopFactory newFopFactory(File configFile) throws CSSToXSLFOException
+    {
+        return newFopFactory(configFile != null ? configFile.toURI().toString() : null);
+    }
+
+    /**
+     * @param configuration The URI of the FOP user configuration, or
+     * <code>null</code>.
+     */
+    static FopFactory newFopFactory(String configuration) throws CSSToXSLFOException
+    {
+        FopFactory fopFactory = FopFactory.newInstance();
+
+        if (configuration != null)
+        {
+            try
+            {
+                fopFactory.setUserConfig(new DefaultConfigurationBuilder().build(configuration));
+            }
+            catch (Exception e)
+            {
+                throw new CSSToXSLFOException(e);
+            }
+        }
+
+        return fopFactory;
+    }
+
+    /**
+     * Renders a document.
+     * @param in The source document.
+     * @param out The rendered document.
+     * @param format The MIME type of the output format.
+     * @throws IOException
+     * @throws CSSToXSLFOException
+     */
+    public void render(URL in, OutputStream out, String format) throws IOException, CSSToXSLFOException
+    {
+        try (InputStream stream = in.openStream())
+        {
+            render(stream, out, format, in, null, new HashMap<String, String>(), null, null);
+        }
+    }
+
+    /**
+     * Renders a document.
+     * @param in The source document.
+     * @param out The rendered document.
+     * @param format The MIME type of the output format.
+     * @param baseUrl The base URL of the source document. It may be
+     * <code>null</code>.
+     * @param userAgentStyleSheet It may be <code>null</code>.
+     * @param parameters The user agent parameters. It may be
+     * <code>null</code>.
+     * @param preprocessors The URLs of XSLT style sheets that are applied to
+     * the source document. It may be <code>null</code>.
+     * @param agent The user agent for FOP. When it is <code>null</code> a new
+     * one is created by the factory of the renderer.
+     * @throws IOException
+     * @throws CSSToXSLFOException
+     */
+    public void render(
+            InputStream in,
+            OutputStream out,
+            String format,
+            URL baseUrl,
+            URL userAgentStyleSheet,
+            Map<String, String> parameters,
+            URL[] preprocessors,
+            FOUserAgent agent) throws IOException, CSSToXSLFOException
+    {
+        try
+        {
+            int threads = parallelism;
+
+            if (threads > 1)
+            {
+                PageSequenceRenderer recorder = new PageSequenceRenderer(converter.getBufferBudget());
+
+                converter.convert(new InputSource(in), recorder, baseUrl, userAgentStyleSheet,
+                        parameters, converter.createPreprocessorFilter(preprocessors), null);
+                recorder.render(fopFactory, agent, format, out, threads);
+                return;
+            }
+
+            Fop fop = fopFactory.newFop(format, agent != null ? agent : fopFactory.newFOUserAgent(), out);
+
+            converter.convert(new InputSource(in), fop.getDefaultHandler(), baseUrl, userAgentStyleSheet,
+                    parameters, converter.createPreprocessorFilter(preprocessors), null);
+        }
+        catch (IOException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new CSSToXSLFOException(e);
+        }
+    }
+
+    /**
+     * Renders XSL-FO that was converted before and written by
+     * {@link be.re.xml.sax.BinaryXMLWriter}, for when the conversion runs in another
+     * process.
+     * @param in The binary XSL-FO.
+     * @param out The rendered document.
+     * @param format The MIME type of the output format.
+     * @param agent The user agent for FOP. When it is <code>null</code> a new
+     * one is created by the factory of the renderer.
+     * @throws IOException
+     * @throws CSSToXSLFOException
+     */
+    public void renderBinary(InputStream in, OutputStream out, String format, FOUserAgent agent)
+            throws IOException, CSSToXSLFOException
+    {
+        try
+        {
+            XMLReader reader = new BinaryXMLReader();
+            int threads = parallelism;
+
+            if (threads > 1)
+            {
+                PageSequenceRenderer recorder = new PageSequenceRenderer(converter.getBufferBudget());
+
+                reader.setContentHandler(recorder);
+                reader.parse(new InputSource(in));
+                recorder.render(fopFactory, agent, format, out, threads);
+                return;
+            }
+
+            reader.setContentHandler(
+                    fopFactory.newFop(format, agent != null ? agent : fopFactory.newFOUserAgent(), out).getDefaultHandler());
+            reader.parse(new InputSource(in));
+        }
+        catch (IOException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new CSSToXSLFOException(e);
+        }
+    }
+
+    /**
+     * A shared renderer and the time its configuration file was modified.
+     */
+    private static class Shared
+    {
+        private final long modified;
+        private final FOPRenderer renderer;
+
+        private Shared(FOPRenderer renderer, long modified)
+        {
+            this.renderer = renderer;
+            this.modified = modified;
+        }
+    } // Shared
+} // FOPRenderer
@@ -0,0 +1,305 @@
+package be.re.css;
+
+import be.re.io.StreamConnector;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * Streams serialized XSL-FO to a formatter while the conversion is still
+ * running, instead of writing it to a temporary file first. The conversion
+ * and the formatter run on different threads, connected by a pipe with a
+ * bounded buffer. The conversion waits when the formatter falls behind.
+ *
+ * @author Gerke Geurts
+ */
+public class FOPipe
+{
+    public static final int DEFAULT_BUFFER_SIZE = 0x10000;
+
+    private FOPipe()
+    {
+    }
+
+    /**
+     * Serializes the XSL-FO on a background thread and lets the formatter read
+     * it on the calling thread.
+     * @param fo The XSL-FO document.
+     * @param formatter It should read the stream until the end.
+     * @throws IOException
+     * @throws CSSToXSLFOException When the conversion or the formatter fails.
+     * The failure of the conversion is reported first, because the formatter
+     * usually fails as a consequence of it.
+     */
+    public static void stream(SAXSource fo, Formatter formatter) throws IOException, CSSToXSLFOException
+    {
+        stream(fo, formatter, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param fo The XSL-FO document.
+     * @param formatter It should read the stream until the end.
+     * @param bufferSize The number of bytes the conversion can be ahead of the
+     * formatter.
+     * @throws IOException
+     * @throws CSSToXSLFOException
+     */
+    public static void stream(SAXSource fo, Formatter formatter, int bufferSize) throws IOException, CSSToXSLFOException
+    {
+        PipedInputStream in = new PipedInputStream(bufferSize);
+        Producer producer = new Producer(fo, new Pipe(in));
+        Thread thread = new Thread(producer, "FOPipe");
+        Exception formatterException = null;
+
+        thread.setDaemon(true);
+        thread.start();
+
+        try
+        {
+            formatter.render(in);
+
+            // Let the conversion finish, so its failures are not hidden.
+            byte[] buffer = new byte[0x1000];
+
+            while (in.read(buffer) != -1)
+            {
+            }
+        }
+        catch (Exception e)
+        {
+            formatterException = e;
+            producer.abandoned = true;
+        }
+        finally
+        {
+            // A conversion that is blocked on a full pipe stops with an error.
+            in.close();
+        }
+
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            thread.interrupt();
+            throw new CSSToXSLFOException(e);
+        }
+
+        if (producer.exception != null && !producer.failedAfterAbandon)
+        {
+            throw wrap(producer.exception);
+        }
+
+        if (formatterException != null)
+        {
+            throw wrap(formatterException);
+        }
+    }
+
+    /**
+     * Pipes the XSL-FO into the standard input of a formatter process and
+     * copies the standard output of the process to <code>out</code>. The
+     * standard error of the process goes to <code>System.err</code>, unless
+     * the builder redirects it.
+     * @param fo The XSL-FO document.
+     * @param formatter The formatter command.
+     * @param out The rendered document.
+     * @throws IOException
+     * @throws CSSToXSLFOException When the conversion fails or the process
+     * exits with another status than 0.
+     */
+    public static void stream(SAXSource fo, ProcessBuilder formatter, OutputStream out) throws IOException, CSSToXSLFOException
+    {
+        Process process = formatter.start();
+        StreamConnector output = new StreamConnector(process.getInputStream(), out, true, false, false);
+        StreamConnector error = formatter.redirectErrorStream()
+                ? null : new StreamConnector(process.getErrorStream(), System.err, true, false);
+        Exception exception = null;
+        ProcessInput stdin = new ProcessInput(process.getOutputStream());
+
+        try (OutputStream buffered = new BufferedOutputStream(stdin, DEFAULT_BUFFER_SIZE))
+        {
+            serialize(fo, buffered);
+        }
+        catch (Exception e)
+        {
+            exception = e;
+        }
+
+        try
+        {
+            int status = process.waitFor();
+
+            output.join();
+
+            if (error != null)
+            {
+                error.join();
+            }
+
+            // The conversion failure is usually the cause of the formatter
+            // failure, unless the formatter stopped reading.
+            if (exception != null && !(stdin.broken && status != 0))
+            {
+                throw wrap(exception);
+            }
+
+            if (status != 0)
+            {
+                throw new CSSToXSLFOException("The formatter exited with status " + status + ".");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            process.destroy();
+            throw new CSSToXSLFOException(e);
+        }
+    }
+
+    private static void serialize(SAXSource fo, OutputStream out) throws Exception
+    {
+        be.re.xml.sax.Util.newSAXTransformerFactory().newTransformer().transform(fo, new StreamResult(out));
+    }
+
+    private static CSSToXSLFOException wrap(Exception e) throws IOException
+    {
+        if (e instanceof IOException)
+        {
+            throw (IOException) e;
+        }
+
+        return e instanceof CSSToXSLFOException ? (CSSToXSLFOException) e : new CSSToXSLFOException(e);
+    }
+
+    /**
+     * A formatter that reads serialized XSL-FO.
+     */
+    public interface Formatter
+    {
+        void render(InputStream fo) throws Exception;
+    } // Formatter
+
+    private static class Producer implements Runnable
+    {
+        private volatile boolean abandoned;
+        private volatile Exception exception;
+        private volatile boolean failedAfterAbandon;
+        private final SAXSource fo;
+        private final OutputStream out;
+
+        private Producer(SAXSource fo, OutputStream out)
+        {
+            this.fo = fo;
+            this.out = out;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                OutputStream buffered = new BufferedOutputStream(out, 0x2000);
+
+                serialize(fo, buffered);
+                buffered.flush();
+            }
+            catch (Exception e)
+            {
+                // When the formatter has given up, the error is a consequence.
+                failedAfterAbandon = abandoned;
+                exception = e;
+            }
+            finally
+            {
+                try
+                {
+                    out.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+    } // Producer
+
+    /**
+     * Remembers that the formatter process stopped reading its input.
+     */
+    private static class ProcessInput extends FilterOutputStream
+    {
+        private boolean broken;
+
+        private ProcessInput(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                super.close();
+            }
+            catch (IOException e)
+            {
+                broken = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            try
+            {
+                out.flush();
+            }
+            catch (IOException e)
+            {
+                broken = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            try
+            {
+                out.write(b, off, len);
+            }
+            catch (IOException e)
+            {
+                broken = true;
+                throw e;
+            }
+        }
+    } // ProcessInput
+
+    /**
+     * Wakes up the reader after each block. Otherwise it would only notice
+     * new data when the pipe is full or after a second.
+     */
+    private static class Pipe extends PipedOutputStream
+    {
+        private Pipe(PipedInputStream in) throws IOException
+        {
+            super(in);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            super.write(b, off, len);
+            flush();
+        }
+    } // Pipe
+} // FOPipe
@@ -0,0 +1,2158 @@
+package be.re.css;
+
+import be.re.xml.Accumulator;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Translates the output of the page setup, i.e. the <code>css:root</code>
+ * document with its <code>css:pages</code> and <code>css:page-sequence</code>
+ * elements, to XSL-FO. It does what <code>style/css.xsl</code> does, but
+ * without building a tree of the whole document. The page setup is kept and
+ * each page sequence is accumulated and translated as soon as it ends, so the
+ * memory use is bounded by the largest page sequence. A page sequence can't be
+ * translated before it is complete, because whether it is empty, the labels
+ * of lists and the order of the table parts depend on what follows.
+ *
+ * @author Gerke Geurts
+ */
+class FOTranslatorFilter extends XMLFilterImpl
+{
+    private static final String[] NO_PREFIXES = new String[0];
+    private static final String RX = "http://www.renderx.com/XSL/Extensions";
+
+    private Accumulator accumulator;
+    private int collectDepth;
+    private int depth;
+    private final Deque<String[]> declared = new ArrayDeque<>();
+    private boolean ignore;
+    private final NamespaceSupport namespaces = new NamespaceSupport();
+    private Element pages;
+    private Setup setup;
+    private boolean setupLiterals;
+    private boolean started;
+    private Map<String, String> userAgentParameters;
+
+    FOTranslatorFilter(Map<String, String> userAgentParameters)
+    {
+        this.userAgentParameters = userAgentParameters;
+    }
+
+    FOTranslatorFilter(Map<String, String> userAgentParameters, XMLReader parent)
+    {
+        super(parent);
+        this.userAgentParameters = userAgentParameters;
+    }
+
+    void setUserAgentParameters(Map<String, String> userAgentParameters)
+    {
+        this.userAgentParameters = userAgentParameters;
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+        if (collectDepth > 0)
+        {
+            accumulator.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+        accumulator = null;
+        pages = null;
+        super.endDocument();
+    }
+
+    @Override
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+    {
+        --depth;
+
+        if (ignore)
+        {
+            return;
+        }
+
+        if (collectDepth > 0)
+        {
+            accumulator.endElement(namespaceURI, localName, qName);
+
+            if (--collectDepth == 0)
+            {
+                Element root = accumulator.getDocument().getDocumentElement();
+                Element element = (Element) root.getLastChild();
+
+                if (Constants.CSS == namespaceURI && "page-sequence".equals(localName))
+                {
+                    startRoot(root);
+
+                    if (pages != null)
+                    {
+                        applyElement(element);
+                    }
+                    else
+                    {
+                        applyChildElements(element);
+                    }
+
+                    root.removeChild(element);
+                }
+                else
+                {
+                    pages = element;
+                }
+            }
+
+            return;
+        }
+
+        if (depth == 0)
+        {
+            Element root = accumulator.getDocument().getDocumentElement();
+
+            startRoot(root);
+
+            if (pages == null)
+            {
+                end("flow");
+                end("page-sequence");
+            }
+
+            end("root");
+            accumulator.endElement(namespaceURI, localName, qName);
+            accumulator.endDocument();
+            super.endPrefixMapping(pages == null ? "css" : "rx");
+            super.endPrefixMapping("fo");
+        }
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException
+    {
+        // The prefixes of the output are managed separately.
+        if (!ignore && depth > 0)
+        {
+            accumulator.endPrefixMapping(prefix);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+    {
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+        if (collectDepth > 0)
+        {
+            accumulator.processingInstruction(target, data);
+        }
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException
+    {
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+        accumulator = new Accumulator();
+        accumulator.startDocument();
+        collectDepth = 0;
+        declared.clear();
+        depth = 0;
+        ignore = false;
+        namespaces.reset();
+        pages = null;
+        setup = new Setup(userAgentParameters);
+        started = false;
+        super.startDocument();
+    }
+
+    @Override
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+    {
+        ++depth;
+
+        if (ignore)
+        {
+            return;
+        }
+
+        if (collectDepth > 0)
+        {
+            ++collectDepth;
+            accumulator.startElement(namespaceURI, localName, qName, atts);
+        }
+        else if (depth == 1)
+        {
+            if (Constants.CSS != namespaceURI || !"root".equals(localName))
+            {
+                // The style sheet produces nothing for other documents.
+                ignore = true;
+                return;
+            }
+
+            accumulator.startElement(namespaceURI, localName, qName, atts);
+        }
+        else if (depth == 2 && Constants.CSS == namespaceURI && ("pages".equals(localName) || "page-sequence".equals(localName)))
+        {
+            collectDepth = 1;
+            accumulator.startElement(namespaceURI, localName, qName, atts);
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException
+    {
+        // The mappings are kept in the tree for the elements that are copied.
+        if (!ignore)
+        {
+            accumulator.startPrefixMapping(prefix, uri);
+        }
+    }
+
+    /**
+     * Emits the start of the document up to the first page sequence, once.
+     */
+    private void startRoot(Element root) throws SAXException
+    {
+        if (started)
+        {
+            return;
+        }
+
+        started = true;
+        super.startPrefixMapping("fo", Constants.XSLFO);
+        namespaces.declarePrefix("fo", Constants.XSLFO);
+
+        if (pages != null)
+        {
+            super.startPrefixMapping("rx", RX);
+            namespaces.declarePrefix("rx", RX);
+            setupWithPages(root);
+        }
+        else
+        {
+            super.startPrefixMapping("css", Constants.CSS);
+            namespaces.declarePrefix("css", Constants.CSS);
+            setupLiterals = true;
+            setupWithoutPages(root);
+            setupLiterals = false;
+        }
+    }
+
+    // Templates.
+
+    private void applyAttribute(Element owner, Attr attribute, AttributesImpl atts)
+    {
+        String uri = namespaceURI(attribute);
+        String name = localName(attribute);
+        String value = attribute.getValue();
+
+        if ((Constants.XML.equals(uri) && "id".equals(name)) || ("".equals(uri) && ("id".equals(name) || "ID".equals(name))))
+        {
+            set(atts, "id", value);
+        }
+        else if (Constants.CSS.equals(uri))
+        {
+            applyCSSAttribute(owner, name, value, atts);
+        }
+        else if (isFO(owner))
+        {
+            if (!attribute.getName().startsWith("css:"))
+            {
+                set(atts, uri, name, "".equals(uri) ? name : attribute.getName(), value);
+            }
+        }
+        else if ((Constants.XML.equals(uri) || "".equals(uri)) && "lang".equals(name))
+        {
+            int dash = value.indexOf('-');
+
+            if (dash != -1)
+            {
+                set(atts, "language", value.substring(0, dash));
+                set(atts, "country", value.substring(dash + 1));
+            }
+            else
+            {
+                set(atts, "language", value);
+            }
+        }
+    }
+
+    private void applyAttributes(Element element, AttributesImpl atts)
+    {
+        NamedNodeMap attributes = element.getAttributes();
+
+        for (int i = 0; i < attributes.getLength(); ++i)
+        {
+            Attr attribute = (Attr) attributes.item(i);
+
+            if (!isNamespaceDeclaration(attribute))
+            {
+                applyAttribute(element, attribute, atts);
+            }
+        }
+    }
+
+    private void applyChildElements(Element element) throws SAXException
+    {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (child instanceof Element)
+            {
+                applyElement((Element) child);
+            }
+        }
+    }
+
+    private void applyChildren(Element element) throws SAXException
+    {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            applyNode(child);
+        }
+    }
+
+    private void applyCSSAttribute(Element owner, String name, String value, AttributesImpl atts)
+    {
+        String display = css(owner, "display");
+        boolean css = Constants.CSS.equals(owner.getNamespaceURI());
+
+        switch (name)
+        {
+            case "anchor":
+                set(atts, "id", value);
+                return;
+
+            case "caption-side":
+                if ("table-caption".equals(display))
+                {
+                    switch (value)
+                    {
+                        case "bottom":
+                            set(atts, "caption-side", "after");
+                            return;
+                        case "left":
+                            set(atts, "caption-side", "start");
+                            return;
+                        case "right":
+                            set(atts, "caption-side", "end");
+                            return;
+                        case "top":
+                            set(atts, "caption-side", "before");
+                            return;
+                    }
+                }
+                break;
+
+            case "colspan":
+                if ("table-cell".equals(display))
+                {
+                    set(atts, "number-columns-spanned", value);
+                    return;
+                }
+                break;
+
+            case "column-span":
+                set(atts, "span", value);
+                return;
+
+            case "force-page-count":
+            case "initial-page-number":
+                if (css && "page".equals(localName(owner)))
+                {
+                    set(atts, name, value);
+                }
+                return;
+
+            case "margin-bottom":
+            case "margin-top":
+                if (!"auto".equals(value) && ("block".equals(display) || "list-item".equals(display) || "table".equals(display)))
+                {
+                    set(atts, "margin-top".equals(name) ? "space-before" : "space-after", value);
+                    return;
+                }
+                break;
+
+            case "orientation":
+                set(atts, "reference-orientation", value);
+                return;
+
+            case "page":
+                if (css && "page-sequence".equals(localName(owner)))
+                {
+                    set(atts, "master-reference", value);
+                }
+                return;
+
+            case "position":
+                if ("relative".equals(value) || "static".equals(value))
+                {
+                    set(atts, "relative-position", value);
+                    return;
+                }
+                if ("absolute".equals(value) || "fixed".equals(value))
+                {
+                    set(atts, "absolute-position", value);
+                    return;
+                }
+                break;
+
+            case "rowspan":
+                if ("table-cell".equals(display))
+                {
+                    set(atts, "number-rows-spanned", value);
+                    return;
+                }
+                break;
+
+            case "size":
+                if (css && "page".equals(localName(owner)) && !"inherit".equals(value))
+                {
+                    applyPageSize(value, atts);
+                    return;
+                }
+                break;
+
+            case "span":
+                if ("table-column".equals(display))
+                {
+                    set(atts, "number-columns-repeated", value);
+                }
+                return;
+
+            case "src":
+                set(atts, "src", "url(" + value + ")");
+                return;
+
+            case "text-align":
+            case "vertical-align":
+                if ("table-column".equals(display) || "table-footer-group".equals(display) || "table-header-group".equals(display) || "table-row".equals(display) || "table-row-group".equals(display))
+                {
+                    return;
+                }
+                if ("vertical-align".equals(name) && "table-cell".equals(display))
+                {
+                    switch (value)
+                    {
+                        case "bottom":
+                            set(atts, "display-align", "after");
+                            break;
+                        case "middle":
+                            set(atts, "display-align", "center");
+                            break;
+                        case "top":
+                            set(atts, "display-align", "before");
+                            break;
+                    }
+                    return;
+                }
+                break;
+
+            case "vlink":
+                return;
+
+            case "white-space":
+                if ("wrap-nocollapse".equals(value))
+                {
+                    set(atts, "linefeed-treatment", "preserve");
+                    set(atts, "white-space-collapse", "false");
+                    set(atts, "white-space-treatment", "preserve");
+                    set(atts, "wrap-option", "wrap");
+                    return;
+                }
+                break;
+
+            case "width":
+                if ("table-column".equals(display))
+                {
+                    set(atts, "column-width", columnWidth(value));
+                    return;
+                }
+                break;
+
+            case "content":
+            case "counter-increment":
+            case "counter-reset":
+            case "cursor":
+            case "display":
+            case "format":
+            case "letter-value":
+            case "list-label-width":
+            case "list-style":
+            case "list-style-image":
+            case "list-style-position":
+            case "list-style-type":
+            case "marker-offset":
+            case "marks":
+            case "name":
+            case "outline":
+            case "outline-color":
+            case "outline-style":
+            case "outline-width":
+            case "precedence":
+            case "quotes":
+            case "region":
+                return;
+        }
+
+        set(atts, name, value);
+    }
+
+    private void applyElement(Element element) throws SAXException
+    {
+        if (hasChild(element, "list-item"))
+        {
+            listBlock(element);
+            return;
+        }
+
+        String display = css(element, "display");
+
+        if (display != null)
+        {
+            switch (display)
+            {
+                case "block":
+                    AttributesImpl atts = margins();
+
+                    applyAttributes(element, atts);
+                    start("block", atts);
+                    applyChildren(element);
+                    end("block");
+                    return;
+
+                case "graphic":
+                    graphic(element);
+                    return;
+
+                case "inline":
+                    simple(element, "inline");
+                    return;
+
+                case "leader":
+                    simple(element, "leader");
+                    return;
+
+                case "list-item":
+                    listItem(element);
+                    return;
+
+                case "none":
+                    return;
+
+                case "table":
+                    table(element);
+                    return;
+
+                case "table-caption":
+                    tableCaption(element);
+                    return;
+
+                case "table-cell":
+                    AttributesImpl cell = new AttributesImpl();
+
+                    applyAttributes(element, cell);
+                    start("table-cell", cell);
+                    start("block");
+                    applyChildren(element);
+                    end("block");
+                    end("table-cell");
+                    return;
+
+                case "table-column":
+                    AttributesImpl column = new AttributesImpl();
+
+                    applyAttributes(element, column);
+                    start("table-column", column);
+                    end("table-column");
+                    return;
+
+                case "table-footer-group":
+                    simple(element, "table-footer");
+                    return;
+
+                case "table-header-group":
+                    simple(element, "table-header");
+                    return;
+
+                case "table-row":
+                    simple(element, "table-row");
+                    return;
+
+                case "table-row-group":
+                    simple(element, "table-body");
+                    return;
+            }
+        }
+
+        if (isFO(element))
+        {
+            if ("instream-foreign-object".equals(localName(element)))
+            {
+                copy(element);
+            }
+            else
+            {
+                AttributesImpl atts = new AttributesImpl();
+
+                applyAttributes(element, atts);
+                startOutputElement(Constants.XSLFO, localName(element), element.getNodeName(), atts, element);
+                applyChildren(element);
+                endOutputElement(Constants.XSLFO, localName(element), element.getNodeName());
+            }
+        }
+        else if (Constants.CSS.equals(element.getNamespaceURI()))
+        {
+            applyCSSElement(element);
+        }
+        else
+        {
+            applyChildren(element);
+        }
+    }
+
+    private void applyCSSElement(Element element) throws SAXException
+    {
+        AttributesImpl atts = new AttributesImpl();
+
+        switch (localName(element))
+        {
+            case "change-bar-begin":
+            case "change-bar-end":
+                NamedNodeMap attributes = element.getAttributes();
+
+                for (int i = 0; i < attributes.getLength(); ++i)
+                {
+                    Attr attribute = (Attr) attributes.item(i);
+
+                    if (!isNamespaceDeclaration(attribute))
+                    {
+                        set(atts, namespaceURI(attribute), localName(attribute), attribute.getName(), attribute.getValue());
+                    }
+                }
+
+                startOutputElement(RX, localName(element), "rx:" + localName(element), atts, null);
+                endOutputElement(RX, localName(element), "rx:" + localName(element));
+                break;
+
+            case "external":
+                set(atts, "src", css(element, "href", ""));
+                empty("external-graphic", atts);
+                break;
+
+            case "external-link":
+                set(atts, "external-destination", "url(" + element.getAttribute("target") + ")");
+                start("basic-link", atts);
+                applyChildren(element);
+                end("basic-link");
+                break;
+
+            case "first-line":
+                applyAttributes(element, atts);
+                empty("initial-property-set", atts);
+                break;
+
+            case "float":
+                applyAttributes(element, atts);
+                start("float", atts);
+                start("block");
+                applyChildren(element);
+                end("block");
+                end("float");
+                break;
+
+            case "fo-marker":
+                set(atts, "marker-class-name", css(element, "name", ""));
+                start("marker", atts);
+                applyChildren(element);
+                end("marker");
+                break;
+
+            case "footnote":
+                start("footnote");
+
+                for (Element reference : children(element, Constants.CSS, "footnote-reference"))
+                {
+                    applyChildElements(reference);
+                }
+
+                start("footnote-body");
+
+                for (Element body : children(element, Constants.CSS, "footnote-body"))
+                {
+                    applyChildElements(body);
+                }
+
+                end("footnote-body");
+                end("footnote");
+                break;
+
+            case "internal-link":
+                set(atts, "internal-destination", element.getAttribute("target"));
+                start("basic-link", atts);
+                applyChildren(element);
+                end("basic-link");
+                break;
+
+            case "last-page-mark":
+                set(atts, "id", "last-page");
+                empty("block", atts);
+                break;
+
+            case "newline":
+                empty("block", atts);
+                break;
+
+            case "page":
+                simplePageMaster(element);
+                break;
+
+            case "page-number":
+                empty("page-number", atts);
+                break;
+
+            case "page-ref":
+                set(atts, "ref-id", css(element, "ref-id", ""));
+                empty("page-number-citation", atts);
+                break;
+
+            case "page-sequence":
+                pageSequence(element);
+                break;
+
+            case "pages-total":
+                set(atts, "ref-id", "last-page");
+                empty("page-number-citation", atts);
+                break;
+
+            case "retrieve-fo-marker":
+                set(atts, "retrieve-class-name", css(element, "name", ""));
+                empty("retrieve-marker", atts);
+                break;
+
+            default:
+                applyChildren(element);
+        }
+    }
+
+    private void applyNode(Node node) throws SAXException
+    {
+        if (node instanceof Element)
+        {
+            applyElement((Element) node);
+        }
+        else if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE)
+        {
+            char[] ch = node.getNodeValue().toCharArray();
+
+            super.characters(ch, 0, ch.length);
+        }
+    }
+
+    private void applyPageSize(String value, AttributesImpl atts)
+    {
+        switch (value)
+        {
+            case "auto":
+            case "portrait":
+                return;
+
+            case "landscape":
+                set(atts, "page-height", setup.paperWidth);
+                set(atts, "page-width", setup.paperHeight);
+                return;
+        }
+
+        String[] tokens = value.trim().split("\\s+");
+
+        if (tokens.length == 2)
+        {
+            set(atts, "page-width", tokens[0]);
+            set(atts, "page-height", tokens[1]);
+        }
+        else
+        {
+            set(atts, "page-width", value);
+            set(atts, "page-height", value);
+        }
+    }
+
+    private static String columnWidth(String value)
+    {
+        if (value.startsWith("*"))
+        {
+            return "proportional-column-width(1)" + value.substring(1);
+        }
+
+        int star = value.indexOf('*');
+
+        if (star != -1)
+        {
+            return "proportional-column-width(" + value.substring(0, star) + ")" + value.substring(star + 1);
+        }
+
+        int pcw = value.indexOf("pcw");
+
+        if (pcw != -1)
+        {
+            return "proportional-column-width(" + value.substring(0, pcw) + ")" + value.substring(pcw + 3);
+        }
+
+        return value;
+    }
+
+    private void footnoteSeparator() throws SAXException
+    {
+        AttributesImpl atts = new AttributesImpl();
+
+        set(atts, "flow-name", "xsl-footnote-separator");
+        start("static-content", atts);
+
+        // The content is the footnote-separator template of fo_setup.xsl.
+        boolean literals = setupLiterals;
+
+        setupLiterals = true;
+        start("block");
+        atts = new AttributesImpl();
+        set(atts, "leader-length", "41%");
+        set(atts, "leader-pattern", "rule");
+        set(atts, "rule-style", "solid");
+        set(atts, "rule-thickness", setup.ruleThickness);
+        empty("leader", atts);
+        end("block");
+        setupLiterals = literals;
+        end("static-content");
+    }
+
+    private void graphic(Element element) throws SAXException
+    {
+        AttributesImpl atts = new AttributesImpl();
+        NamedNodeMap attributes = element.getAttributes();
+
+        for (int i = 0; i < attributes.getLength(); ++i)
+        {
+            Attr attribute = (Attr) attributes.item(i);
+
+            if (!isNamespaceDeclaration(attribute) && !"css:color".equals(attribute.getName()) && !attribute.getName().startsWith("css:font"))
+            {
+                applyAttribute(element, attribute, atts);
+            }
+        }
+
+        start("external-graphic", atts);
+        applyChildren(element);
+        end("external-graphic");
+    }
+
+    private void listBlock(Element element) throws SAXException
+    {
+        Element first = children(element, "list-item")[0];
+        String type = listStyleType(first);
+        AttributesImpl atts = new AttributesImpl();
+
+        if (!"none".equals(type) && "outside".equals(listStylePosition(first)))
+        {
+            set(atts, "provisional-label-separation", "6pt");
+            set(atts, "provisional-distance-between-starts", listLabelWidth(element, type));
+        }
+        else
+        {
+            set(atts, "provisional-label-separation", "0");
+            set(atts, "provisional-distance-between-starts", "0");
+        }
+
+        applyAttributes(element, atts);
+        start("list-block", atts);
+        applyChildren(element);
+        end("list-block");
+    }
+
+    private void listItem(Element element) throws SAXException
+    {
+        String type = listStyleType(element);
+        AttributesImpl atts = new AttributesImpl();
+
+        start("list-item");
+
+        if (!"none".equals(type) && "outside".equals(listStylePosition(element)))
+        {
+            set(atts, "end-indent", "label-end()");
+            start("list-item-label", atts);
+            atts = new AttributesImpl();
+            set(atts, "text-align", "end");
+            start("block", atts);
+            listLabel(element, type);
+            end("block");
+            end("list-item-label");
+            atts = new AttributesImpl();
+            set(atts, "start-indent", "body-start()");
+            start("list-item-body", atts);
+            atts = new AttributesImpl();
+            applyAttributes(element, atts);
+            start("block", atts);
+            applyChildren(element);
+            end("block");
+            end("list-item-body");
+        }
+        else
+        {
+            set(atts, "end-indent", "0");
+            start("list-item-label", atts);
+            empty("block", new AttributesImpl());
+            end("list-item-label");
+            atts = new AttributesImpl();
+            set(atts, "start-indent", "0");
+            start("list-item-body", atts);
+            atts = new AttributesImpl();
+            applyAttributes(element, atts);
+            start("block", atts);
+
+            if (!"none".equals(type))
+            {
+                atts = new AttributesImpl();
+                set(atts, "width", listLabelWidth(element, type));
+                start("inline", atts);
+                listLabel(element, type);
+                end("inline");
+            }
+
+            applyChildren(element);
+            end("block");
+            end("list-item-body");
+        }
+
+        end("list-item");
+    }
+
+    private void listLabel(Element element, String type) throws SAXException
+    {
+        String label;
+
+        switch (type)
+        {
+            case "image":
+                AttributesImpl atts = new AttributesImpl();
+
+                set(atts, "src", inherited(element, "list-style-image"));
+                empty("external-graphic", atts);
+                return;
+
+            case "box":
+                label = "□";
+                break;
+
+            case "check":
+                label = "✓";
+                break;
+
+            case "circle":
+                label = "◦";
+                break;
+
+            case "diamond":
+                label = "♦";
+                break;
+
+            case "disc":
+                label = "•";
+                break;
+
+            case "hyphen":
+                label = "–";
+                break;
+
+            case "square":
+                label = "■";
+                break;
+
+            default:
+                int number = 1;
+
+                for (Node sibling = element.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling())
+                {
+                    if (sibling instanceof Element && "list-item".equals(css((Element) sibling, "display")))
+                    {
+                        ++number;
+                    }
+                }
+
+                label = formatNumber(number, type);
+        }
+
+        char[] ch = label.toCharArray();
+
+        super.characters(ch, 0, ch.length);
+    }
+
+    private String listLabelWidth(Element element, String type)
+    {
+        switch (type)
+        {
+            case "image":
+                return inherited(element, "list-label-width");
+
+            case "box":
+            case "check":
+            case "circle":
+            case "diamond":
+            case "disc":
+            case "hyphen":
+            case "square":
+                return "1em";
+        }
+
+        int items = children(element, "list-item").length;
+
+        switch (type)
+        {
+            case "lower-alpha":
+            case "lower-latin":
+            case "lower-greek":
+                return items < 27 ? "1.5em" : "2em";
+
+            case "upper-alpha":
+            case "upper-latin":
+                return items < 27 ? "1.5em" : "2.5em";
+
+            case "lower-roman":
+                return items < 7 ? "1.5em" : (items < 17 ? "2em" : (items < 27 ? "2.5em" : "3.5em"));
+
+            case "upper-roman":
+                return items < 7 ? "2em" : (items < 17 ? "2.5em" : (items < 27 ? "3em" : "4em"));
+
+            default:
+                return items < 10 ? "1.5em" : (items < 100 ? "2em" : "2.5em");
+        }
+    }
+
+    private static String listStylePosition(Element element)
+    {
+        String position = inherited(element, "list-style-position");
+
+        return position.length() == 0 ? "outside" : position;
+    }
+
+    private static String listStyleType(Element element)
+    {
+        for (Node node = element; node instanceof Element; node = node.getParentNode())
+        {
+            String type = css((Element) node, "list-style-type");
+            String image = css((Element) node, "list-style-image");
+
+            if ((type != null && !"inherit".equals(type)) || (image != null && !"inherit".equals(image)))
+            {
+                return image != null ? "image" : (type == null || type.length() == 0 ? "disc" : type);
+            }
+        }
+
+        return "disc";
+    }
+
+    private void pageSequence(Element element) throws SAXException
+    {
+        if (pages == null || isEmptyPageSequence(element))
+        {
+            return;
+        }
+
+        String pageName = css(element, "page", "");
+        AttributesImpl atts = new AttributesImpl();
+
+        set(atts, "format", "1");
+        set(atts, "master-reference", css(element, "page", "unnamed"));
+
+        for (Element page : children(pages, Constants.CSS, "page"))
+        {
+            if (("first-left-" + pageName).equals(css(page, "name", "")))
+            {
+                String initial = css(page, "initial-page-number");
+                String force = css(page, "force-page-count");
+
+                if (initial != null)
+                {
+                    set(atts, "initial-page-number", initial);
+                }
+
+                if (force != null)
+                {
+                    set(atts, "force-page-count", force);
+                }
+            }
+        }
+
+        Element[] regions = children(element, Constants.CSS, "regions");
+
+        for (Element region : regions)
+        {
+            pageNumberSetup(region, atts);
+        }
+
+        start("page-sequence", atts);
+
+        for (Element region : regions)
+        {
+            for (Element staticContent : children(region, Constants.XSLFO, "static-content"))
+            {
+                applyElement(staticContent);
+            }
+        }
+
+        footnoteSeparator();
+        atts = new AttributesImpl();
+        set(atts, "flow-name", "xsl-region-body");
+        start("flow", atts);
+
+        if (regions.length > 0)
+        {
+            for (Node node = regions[0].getNextSibling(); node != null; node = node.getNextSibling())
+            {
+                if (node instanceof Element)
+                {
+                    applyElement((Element) node);
+                }
+            }
+        }
+
+        end("flow");
+        end("page-sequence");
+    }
+
+    private void pageNumberSetup(Element element, AttributesImpl atts)
+    {
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element)
+            {
+                Element child = (Element) node;
+
+                if (Constants.CSS.equals(child.getNamespaceURI()) && "page-number".equals(localName(child)))
+                {
+                    String format = css(child, "format");
+                    String letterValue = css(child, "letter-value");
+
+                    if (format != null)
+                    {
+                        set(atts, "format", format);
+                    }
+
+                    if (letterValue != null)
+                    {
+                        set(atts, "letter-value", letterValue);
+                    }
+                }
+
+                pageNumberSetup(child, atts);
+            }
+        }
+    }
+
+    private void setupWithPages(Element root) throws SAXException
+    {
+        AttributesImpl atts = rootAttributes();
+
+        applyAttributes(root, atts);
+
+        if (root.getAttributeNodeNS(Constants.XML, "lang") == null && root.getAttributeNode("lang") == null)
+        {
+            set(atts, "country", setup.country);
+        }
+
+        start("root", atts);
+        start("layout-master-set");
+
+        Element[] masters = children(pages, Constants.CSS, "page");
+
+        for (Element page : masters)
+        {
+            simplePageMaster(page);
+        }
+
+        for (Element page : masters)
+        {
+            String name = css(page, "name", "");
+
+            if (name.startsWith("first-left-"))
+            {
+                pageSequenceMaster(name.substring("first-left-".length()));
+            }
+        }
+
+        end("layout-master-set");
+    }
+
+    private void pageSequenceMaster(String name) throws SAXException
+    {
+        AttributesImpl atts = new AttributesImpl();
+
+        set(atts, "master-name", name);
+        start("page-sequence-master", atts);
+        start("repeatable-page-master-alternatives");
+        pageMasterReference("odd", "not-blank", "first", "first-right-" + name);
+        pageMasterReference("even", "not-blank", "first", "first-left-" + name);
+        pageMasterReference("odd", "not-blank", "last", "last-right-" + name);
+        pageMasterReference("even", "not-blank", "last", "last-left-" + name);
+        pageMasterReference("odd", "not-blank", "any", "right-" + name);
+        pageMasterReference("even", "not-blank", "any", "left-" + name);
+        pageMasterReference("odd", "blank", "any", "blank-right-" + name);
+        pageMasterReference("even", "blank", "any", "blank-left-" + name);
+        end("repeatable-page-master-alternatives");
+        end("page-sequence-master");
+    }
+
+    private void pageMasterReference(String oddOrEven, String blankOrNotBlank, String pagePosition, String reference) throws SAXException
+    {
+        AttributesImpl atts = new AttributesImpl();
+
+        if (oddOrEven != null)
+        {
+            set(atts, "odd-or-even", oddOrEven);
+        }
+
+        if (blankOrNotBlank != null)
+        {
+            set(atts, "blank-or-not-blank", blankOrNotBlank);
+        }
+
+        if (pagePosition != null)
+        {
+            set(atts, "page-position", pagePosition);
+        }
+
+        set(atts, "master-reference", reference);
+        empty("conditional-page-master-reference", atts);
+    }
+
+    /**
+     * The set-up of <code>fo_setup.xsl</code> for documents without page
+     * rules. The content of all page sequences goes in one flow.
+     */
+    private void setupWithoutPages(Element root) throws SAXException
+    {
+        AttributesImpl atts = rootAttributes();
+        Attr lang = root.getAttributeNodeNS(Constants.XML, "lang");
+
+        set(atts, "country", setup.country);
+
+        if (lang != null)
+        {
+            applyAttribute(root, lang, atts);
+        }
+
+        start("root", atts);
+        start("layout-master-set");
+
+        atts = pageMaster("blank", setup.paperMarginLeft, setup.paperMarginRight);
+        start("simple-page-master", atts);
+        regionBody(false);
+        end("simple-page-master");
+
+        atts = pageMaster("even", setup.paperMarginLeft + " - " + setup.oddEvenShift, setup.paperMarginRight + " + " + setup.oddEvenShift);
+        start("simple-page-master", atts);
+        regionBody(true);
+        regionBefore("region-before-even");
+        regionAfter();
+        end("simple-page-master");
+
+        atts = pageMaster("odd", setup.paperMarginLeft + " + " + setup.oddEvenShift, setup.paperMarginRight + " - " + setup.oddEvenShift);
+        start("simple-page-master", atts);
+        regionBody(true);
+        regionBefore("region-before-odd");
+        regionAfter();
+        end("simple-page-master");
+
+        atts = pageMaster("odd-first", setup.paperMarginLeft + " + " + setup.oddEvenShift, setup.paperMarginRight + " - " + setup.oddEvenShift);
+        start("simple-page-master", atts);
+        regionBody(true);
+        regionAfter();
+        end("simple-page-master");
+
+        atts = pageMaster("onesided", setup.paperMarginLeft, setup.paperMarginRight);
+        start("simple-page-master", atts);
+        regionBody(true);
+        regionBefore("region-before-even");
+        regionAfter();
+        end("simple-page-master");
+
+        atts = pageMaster("onesided-first", setup.paperMarginLeft, setup.paperMarginRight);
+        start("simple-page-master", atts);
+        regionBody(true);
+        regionAfter();
+        end("simple-page-master");
+
+        atts = pageMaster("title", null, null);
+
+        if ("onesided".equals(setup.paperMode))
+        {
+            set(atts, "margin-left", setup.paperMarginLeft);
+            set(atts, "margin-right", setup.paperMarginRight);
+        }
+
+        if ("twosided".equals(setup.paperMode))
+        {
+            set(atts, "margin-left", setup.paperMarginLeft + " + " + setup.oddEvenShift);
+            set(atts, "margin-right", setup.paperMarginLeft + " - " + setup.oddEvenShift);
+        }
+
+        start("simple-page-master", atts);
+        regionBody(false);
+        end("simple-page-master");
+
+        atts = new AttributesImpl();
+        set(atts, "master-name", "document");
+        start("page-sequence-master", atts);
+        start("repeatable-page-master-alternatives");
+
+        if ("twosided".equals(setup.paperMode))
+        {
+            pageMasterReference("even", null, null, "even");
+            pageMasterReference("odd", null, "first", "odd-first");
+            pageMasterReference("odd", null, "any", "odd");
+        }
+
+        if ("onesided".equals(setup.paperMode))
+        {
+            pageMasterReference(null, null, "first", "onesided-first");
+            pageMasterReference(null, null, "any", "onesided");
+        }
+
+        pageMasterReference(null, "blank", "any", "blank");
+        end("repeatable-page-master-alternatives");
+        end("page-sequence-master");
+        end("layout-master-set");
+
+        atts = new AttributesImpl();
+        set(atts, "format", "1");
+        set(atts, "initial-page-number", "1");
+        set(atts, "master-reference", "document");
+        start("page-sequence", atts);
+        runningHead("region-before-even", "start");
+        runningHead("region-before-odd", "end");
+        footnoteSeparator();
+        atts = new AttributesImpl();
+        set(atts, "flow-name", "xsl-region-after");
+        start("static-content", atts);
+        atts = new AttributesImpl();
+        set(atts, "text-align", "center");
+        start("block", atts);
+        empty("page-number", new AttributesImpl());
+        end("block");
+        end("static-content");
+        atts = new AttributesImpl();
+        set(atts, "flow-name", "xsl-region-body");
+        start("flow", atts);
+    }
+
+    private AttributesImpl pageMaster(String name, String marginLeft, String marginRight)
+    {
+        AttributesImpl atts = new AttributesImpl();
+
+        set(atts, "master-name", name);
+        set(atts, "writing-mode", Setup.WRITING_MODE);
+        set(atts, "page-height", setup.paperHeight);
+        set(atts, "page-width", setup.paperWidth);
+        set(atts, "margin-top", setup.paperMarginTop);
+        set(atts, "margin-bottom", setup.paperMarginBottom);
+
+        if (marginLeft != null)
+        {
+            set(atts, "margin-left", marginLeft);
+            set(atts, "margin-right", marginRight);
+        }
+
+        return atts;
+    }
+
+    private void regionAfter() throws SAXException
+    {
+        AttributesImpl atts = new AttributesImpl();
+
+        set(atts, "display-align", "before");
+        set(atts, "extent", "10mm");
+        empty("region-after", atts);
+    }
+
+    private void regionBefore(String name) throws SAXException
+    {
+        AttributesImpl atts = new AttributesImpl();
+
+        set(atts, "display-align", "after");
+        set(atts, "extent", "10mm");
+        set(atts, "region-name", name);
+        empty("region-before", atts);
+    }
+
+    private void regionBody(boolean columns) throws SAXException
+    {
+        AttributesImpl atts = new AttributesImpl();
+
+        if (columns)
+        {
+            set(atts, "column-count", setup.columnCount);
+        }
+
+        set(atts, "margin-top", columns ? "15mm" : "0mm");
+        set(atts, "margin-bottom", columns ? "15mm" : "0mm");
+        set(atts, "margin-left", "0mm");
+        set(atts, "margin-right", "0mm");
+        empty("region-body", atts);
+    }
+
+    private AttributesImpl rootAttributes()
+    {
+        AttributesImpl atts = new AttributesImpl();
+
+        set(atts, "font-selection-strategy", "character-by-character");
+        set(atts, "line-height-shift-adjustment", "disregard-shifts");
+        set(atts, "font-family", setup.fontFamily);
+        set(atts, "font-size", setup.actualFontSize);
+        set(atts, "language", setup.language);
+
+        return atts;
+    }
+
+    private void runningHead(String flowName, String align) throws SAXException
+    {
+        AttributesImpl atts = new AttributesImpl();
+
+        set(atts, "flow-name", flowName);
+        start("static-content", atts);
+        atts = new AttributesImpl();
+        set(atts, "font-style", "oblique");
+        set(atts, "text-align", align);
+        set(atts, "text-transform", "uppercase");
+        start("block", atts);
+        atts = new AttributesImpl();
+        set(atts, "retrieve-class-name", "component");
+        set(atts, "retrieve-position", "first-starting-within-page");
+        set(atts, "retrieve-boundary", "document");
+        empty("retrieve-marker", atts);
+        end("block");
+        end("static-content");
+    }
+
+    private void simple(Element element, String name) throws SAXException
+    {
+        AttributesImpl atts = new AttributesImpl();
+
+        applyAttributes(element, atts);
+        start(name, atts);
+        applyChildren(element);
+        end(name);
+    }
+
+    private void simplePageMaster(Element page) throws SAXException
+    {
+        AttributesImpl atts = pageMaster(css(page, "name", ""), setup.paperMarginLeft, setup.paperMarginRight);
+        NamedNodeMap attributes = page.getAttributes();
+
+        for (int i = 0; i < attributes.getLength(); ++i)
+        {
+            Attr attribute = (Attr) attributes.item(i);
+            String name = attribute.getName();
+
+            if (!isNamespaceDeclaration(attribute) && !"css:column-count".equals(name) && !"css:force-page-count".equals(name) && !"css:initial-page-number".equals(name) && !"css:column-gap".equals(name))
+            {
+                applyAttribute(page, attribute, atts);
+            }
+        }
+
+        start("simple-page-master", atts);
+        applyChildElements(page);
+        end("simple-page-master");
+    }
+
+    private void table(Element element) throws SAXException
+    {
+        Element[] captions = children(element, "table-caption");
+        boolean rows = hasChild(element, "table-row");
+        NamedNodeMap attributes = element.getAttributes();
+        AttributesImpl atts = new AttributesImpl();
+
+        if (captions.length > 0)
+        {
+            for (Element caption : captions)
+            {
+                Attr side = caption.getAttributeNodeNS(Constants.CSS, "caption-side");
+
+                if (side != null)
+                {
+                    applyAttribute(caption, side, atts);
+                }
+            }
+
+            for (int i = 0; i < attributes.getLength(); ++i)
+            {
+                Attr attribute = (Attr) attributes.item(i);
+
+                if (attribute.getName().startsWith("css:margin-"))
+                {
+                    applyAttribute(element, attribute, atts);
+                }
+            }
+
+            start("table-and-caption", atts);
+
+            for (Element caption : captions)
+            {
+                applyElement(caption);
+            }
+
+            atts = margins();
+
+            for (int i = 0; i < attributes.getLength(); ++i)
+            {
+                Attr attribute = (Attr) attributes.item(i);
+
+                if (!isNamespaceDeclaration(attribute) && !attribute.getName().startsWith("css:margin-"))
+                {
+                    applyAttribute(element, attribute, atts);
+                }
+            }
+        }
+        else
+        {
+            atts = margins();
+            applyAttributes(element, atts);
+        }
+
+        Element[] columns = children(element, "table-column");
+
+        for (Element column : columns)
+        {
+            String width = css(column, "width");
+
+            if (width != null && width.indexOf('*') != -1)
+            {
+                set(atts, "table-layout", "fixed");
+            }
+        }
+
+        start("table", atts);
+
+        for (Element column : columns)
+        {
+            applyElement(column);
+        }
+
+        if (rows)
+        {
+            start("table-body");
+
+            for (Element row : children(element, "table-row"))
+            {
+                applyElement(row);
+            }
+
+            end("table-body");
+        }
+        else
+        {
+            for (String group : new String[] {"table-header-group", "table-footer-group", "table-row-group"})
+            {
+                for (Element child : children(element, group))
+                {
+                    applyElement(child);
+                }
+            }
+        }
+
+        end("table");
+
+        if (captions.length > 0)
+        {
+            end("table-and-caption");
+        }
+    }
+
+    private void tableCaption(Element element) throws SAXException
+    {
+        AttributesImpl atts = margins();
+        NamedNodeMap attributes = element.getAttributes();
+
+        for (int i = 0; i < attributes.getLength(); ++i)
+        {
+            Attr attribute = (Attr) attributes.item(i);
+
+            if (!isNamespaceDeclaration(attribute) && !"css:caption-side".equals(attribute.getName()))
+            {
+                applyAttribute(element, attribute, atts);
+            }
+        }
+
+        start("table-caption", atts);
+        start("block");
+        applyChildren(element);
+        end("block");
+        end("table-caption");
+    }
+
+    // Helpers.
+
+    private Element[] children(Element element, String display)
+    {
+        int count = 0;
+
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element && display.equals(css((Element) node, "display")))
+            {
+                ++count;
+            }
+        }
+
+        Element[] result = new Element[count];
+
+        count = 0;
+
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element && display.equals(css((Element) node, "display")))
+            {
+                result[count++] = (Element) node;
+            }
+        }
+
+        return result;
+    }
+
+    private static Element[] children(Element element, String namespaceURI, String localName)
+    {
+        int count = 0;
+
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element && namespaceURI.equals(node.getNamespaceURI()) && localName.equals(localName(node)))
+            {
+                ++count;
+            }
+        }
+
+        Element[] result = new Element[count];
+
+        count = 0;
+
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element && namespaceURI.equals(node.getNamespaceURI()) && localName.equals(localName(node)))
+            {
+                result[count++] = (Element) node;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Copies an element with all its attributes and descendants.
+     */
+    private void copy(Element element) throws SAXException
+    {
+        AttributesImpl atts = new AttributesImpl();
+        NamedNodeMap attributes = element.getAttributes();
+
+        for (int i = 0; i < attributes.getLength(); ++i)
+        {
+            Attr attribute = (Attr) attributes.item(i);
+
+            if (!isNamespaceDeclaration(attribute))
+            {
+                set(atts, namespaceURI(attribute), localName(attribute), attribute.getName(), attribute.getValue());
+            }
+        }
+
+        String uri = element.getNamespaceURI() == null ? "" : element.getNamespaceURI();
+
+        startOutputElement(uri, localName(element), element.getNodeName(), atts, element);
+
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element)
+            {
+                copy((Element) node);
+            }
+            else if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE)
+            {
+                char[] ch = node.getNodeValue().toCharArray();
+
+                super.characters(ch, 0, ch.length);
+            }
+            else if (node.getNodeType() == Node.PROCESSING_INSTRUCTION_NODE)
+            {
+                super.processingInstruction(node.getNodeName(), node.getNodeValue());
+            }
+        }
+
+        endOutputElement(uri, localName(element), element.getNodeName());
+    }
+
+    private static String css(Element element, String name)
+    {
+        Attr attribute = element.getAttributeNodeNS(Constants.CSS, name);
+
+        return attribute != null ? attribute.getValue() : null;
+    }
+
+    private static String css(Element element, String name, String defaultValue)
+    {
+        String value = css(element, name);
+
+        return value != null ? value : defaultValue;
+    }
+
+    private void empty(String name, AttributesImpl atts) throws SAXException
+    {
+        start(name, atts);
+        end(name);
+    }
+
+    private void end(String name) throws SAXException
+    {
+        endOutputElement(Constants.XSLFO, name, "fo:" + name);
+    }
+
+    private void endOutputElement(String namespaceURI, String localName, String qName) throws SAXException
+    {
+        super.endElement(namespaceURI, localName, qName);
+
+        for (String prefix : declared.pop())
+        {
+            super.endPrefixMapping(prefix);
+        }
+
+        namespaces.popContext();
+    }
+
+    /**
+     * Declares the prefix of a name in the output if it isn't yet.
+     */
+    private String declare(String namespaceURI, String qName, String prefixes) throws SAXException
+    {
+        if (namespaceURI.length() == 0 || Constants.XML.equals(namespaceURI))
+        {
+            return prefixes;
+        }
+
+        int colon = qName.indexOf(':');
+        String prefix = colon == -1 ? "" : qName.substring(0, colon);
+
+        if (namespaceURI.equals(namespaces.getURI(prefix)))
+        {
+            return prefixes;
+        }
+
+        namespaces.declarePrefix(prefix, namespaceURI);
+        super.startPrefixMapping(prefix, namespaceURI);
+
+        return prefixes == null ? prefix : (prefixes + " " + prefix);
+    }
+
+    private boolean hasChild(Element element, String display)
+    {
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element && display.equals(css((Element) node, "display")))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The value of the nearest ancestor-or-self that has the property with
+     * another value than <code>inherit</code>, or the empty string.
+     */
+    private static String inherited(Element element, String name)
+    {
+        for (Node node = element; node instanceof Element; node = node.getParentNode())
+        {
+            String value = css((Element) node, name);
+
+            if (value != null && !"inherit".equals(value))
+            {
+                return value;
+            }
+        }
+
+        return "";
+    }
+
+    /**
+     * The condition of the template in <code>css.xsl</code> that suppresses
+     * empty page sequences.
+     */
+    private static boolean isEmptyPageSequence(Element pageSequence)
+    {
+        String page = css(pageSequence, "page");
+
+        if (page != null && !"unnamed".equals(page))
+        {
+            boolean content = false;
+            Element[] regions = children(pageSequence, Constants.CSS, "regions");
+
+            for (Element region : regions)
+            {
+                for (Node node = region.getNextSibling(); node != null && !content; node = node.getNextSibling())
+                {
+                    if (node instanceof Element)
+                    {
+                        content = hasPagedContent((Element) node);
+                    }
+                }
+            }
+
+            if (!content)
+            {
+                return true;
+            }
+        }
+
+        for (Node node = pageSequence.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element)
+            {
+                String display = css((Element) node, "display");
+
+                if (("block".equals(display) || "table".equals(display)) && hasContent((Element) node, "block".equals(display)))
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean hasContent(Element element, boolean text)
+    {
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element || (text && node.getNodeType() == Node.TEXT_NODE))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Tells if a descendant of <code>element</code> is a block or a table
+     * with a page name that has content or is followed by an element.
+     */
+    private static boolean hasPagedContent(Element element)
+    {
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element)
+            {
+                Element child = (Element) node;
+                String display = css(child, "display");
+
+                if (("block".equals(display) || "table".equals(display)) && child.getAttributeNodeNS(Constants.CSS, "page") != null)
+                {
+                    if (hasContent(child, "block".equals(display)))
+                    {
+                        return true;
+                    }
+
+                    for (Node sibling = child.getNextSibling(); sibling != null; sibling = sibling.getNextSibling())
+                    {
+                        if (sibling instanceof Element)
+                        {
+                            return true;
+                        }
+                    }
+                }
+
+                if (hasPagedContent(child))
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isFO(Element element)
+    {
+        return Constants.XSLFO.equals(element.getNamespaceURI());
+    }
+
+    private static boolean isNamespaceDeclaration(Attr attribute)
+    {
+        String name = attribute.getName();
+
+        return "xmlns".equals(name) || name.startsWith("xmlns:");
+    }
+
+    private static String localName(Node node)
+    {
+        return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+    }
+
+    private AttributesImpl margins()
+    {
+        AttributesImpl atts = new AttributesImpl();
+
+        set(atts, "margin-left", "0pt");
+        set(atts, "margin-right", "0pt");
+
+        return atts;
+    }
+
+    private static String namespaceURI(Node node)
+    {
+        return node.getNamespaceURI() != null ? node.getNamespaceURI() : "";
+    }
+
+    /**
+     * Formats a number like <code>xsl:number</code> with the format token
+     * <code>get-num-format</code> in <code>css.xsl</code> selects for the list
+     * style type.
+     */
+    static String formatNumber(int number, String listStyleType)
+    {
+        switch (listStyleType)
+        {
+            case "lower-alpha":
+            case "lower-latin":
+                return alpha(number, 'a');
+
+            case "upper-alpha":
+            case "upper-latin":
+                return alpha(number, 'A');
+
+            case "lower-roman":
+                return roman(number).toLowerCase();
+
+            case "upper-roman":
+                return roman(number);
+
+            default:
+                return String.valueOf(number);
+        }
+    }
+
+    private static String alpha(int number, char first)
+    {
+        StringBuilder result = new StringBuilder();
+
+        for (int n = number; n > 0; n = (n - 1) / 26)
+        {
+            result.insert(0, (char) (first + (n - 1) % 26));
+        }
+
+        return result.toString();
+    }
+
+    private static String roman(int number)
+    {
+        final int[] values = {1000, 900, 500, 400, 100, 90, 50, 40, 10, 9, 5, 4, 1};
+        final String[] symbols = {"M", "CM", "D", "CD", "C", "XC", "L", "XL", "X", "IX", "V", "IV", "I"};
+        StringBuilder result = new StringBuilder();
+        int n = number;
+
+        for (int i = 0; i < values.length; ++i)
+        {
+            while (n >= values[i])
+            {
+                result.append(symbols[i]);
+                n -= values[i];
+            }
+        }
+
+        return result.toString();
+    }
+
+    private static void set(AttributesImpl atts, String name, String value)
+    {
+        set(atts, "", name, name, value);
+    }
+
+    /**
+     * Sets an attribute like <code>xsl:attribute</code>, which replaces an
+     * attribute with the same name.
+     */
+    private static void set(AttributesImpl atts, String namespaceURI, String localName, String qName, String value)
+    {
+        int index = atts.getIndex(namespaceURI, localName);
+
+        if (index != -1)
+        {
+            atts.setValue(index, value);
+        }
+        else
+        {
+            atts.addAttribute(namespaceURI, localName, qName, "CDATA", value);
+        }
+    }
+
+    private void start(String name) throws SAXException
+    {
+        start(name, new AttributesImpl());
+    }
+
+    private void start(String name, AttributesImpl atts) throws SAXException
+    {
+        startOutputElement(Constants.XSLFO, name, "fo:" + name, atts, null);
+    }
+
+    /**
+     * Emits the start of an element and declares the prefixes it needs. Like
+     * <code>xsl:copy</code> a copy of <code>source</code> also gets the
+     * namespaces that are in scope for it. Other elements get the namespace
+     * the style sheet they come from doesn't exclude, which is
+     * <code>css</code> for <code>fo_setup.xsl</code> and <code>rx</code> for
+     * <code>css.xsl</code>.
+     */
+    private void startOutputElement(String namespaceURI, String localName, String qName, Attributes atts, Element source) throws SAXException
+    {
+        namespaces.pushContext();
+
+        String prefixes = null;
+
+        if (source == null)
+        {
+            if (namespaces.getURI(setupLiterals ? "css" : "rx") == null)
+            {
+                prefixes = setupLiterals ? declare(Constants.CSS, "css:", null) : declare(RX, "rx:", null);
+            }
+        }
+        else
+        {
+            for (Node node = source; node instanceof Element; node = node.getParentNode())
+            {
+                NamedNodeMap attributes = node.getAttributes();
+
+                for (int i = 0; i < attributes.getLength(); ++i)
+                {
+                    Attr attribute = (Attr) attributes.item(i);
+
+                    if (isNamespaceDeclaration(attribute))
+                    {
+                        String name = attribute.getName();
+                        String prefix = "xmlns".equals(name) ? "" : name.substring(6);
+
+                        if (namespaces.getURI(prefix) == null || (node == source && !attribute.getValue().equals(namespaces.getURI(prefix))))
+                        {
+                            prefixes = declare(attribute.getValue(), prefix.length() == 0 ? "" : (prefix + ":"), prefixes);
+                        }
+                    }
+                }
+            }
+        }
+
+        prefixes = declare(namespaceURI, qName, prefixes);
+
+        for (int i = 0; i < atts.getLength(); ++i)
+        {
+            if (atts.getQName(i).indexOf(':') != -1)
+            {
+                prefixes = declare(atts.getURI(i), atts.getQName(i), prefixes);
+            }
+        }
+
+        declared.push(prefixes == null ? NO_PREFIXES : prefixes.split(" "));
+        super.startElement(namespaceURI, localName, qName, atts);
+    }
+
+    /**
+     * The parameters of <code>fo_setup.xsl</code> and the values that are
+     * derived from them.
+     */
+    private static class Setup
+    {
+        private static final String WRITING_MODE = "lr-tb";
+
+        private static final Map<String, String[]> PAPER_SIZES = new HashMap<>();
+
+        static
+        {
+            PAPER_SIZES.put("a0", new String[] {"1188mm", "840mm"});
+            PAPER_SIZES.put("a1", new String[] {"840mm", "594mm"});
+            PAPER_SIZES.put("a2", new String[] {"594mm", "420mm"});
+            PAPER_SIZES.put("a3", new String[] {"420mm", "297mm"});
+            PAPER_SIZES.put("a4", new String[] {"297mm", "210mm"});
+            PAPER_SIZES.put("a5", new String[] {"210mm", "148mm"});
+            PAPER_SIZES.put("b5", new String[] {"250mm", "176mm"});
+            PAPER_SIZES.put("executive", new String[] {"11in", "7.25in"});
+            PAPER_SIZES.put("letter", new String[] {"11in", "8.5in"});
+            PAPER_SIZES.put("legal", new String[] {"14in", "8.5in"});
+        }
+
+        private final String actualFontSize;
+        private final String columnCount;
+        private final String country;
+        private final String fontFamily;
+        private final String language;
+        private final String oddEvenShift;
+        private final String paperHeight;
+        private final String paperMarginBottom;
+        private final String paperMarginLeft;
+        private final String paperMarginRight;
+        private final String paperMarginTop;
+        private final String paperMode;
+        private final String paperWidth;
+        private final String ruleThickness;
+
+        private Setup(Map<String, String> parameters)
+        {
+            String fontSize = get(parameters, "font-size", "none");
+            String paperSize = get(parameters, "paper-size", "a4");
+            String[] portrait = PAPER_SIZES.get(paperSize);
+
+            if (portrait == null)
+            {
+                portrait = PAPER_SIZES.get("a4");
+            }
+
+            boolean landscape = "landscape".equals(get(parameters, "orientation", "portrait"));
+
+            actualFontSize = !"none".equals(fontSize)
+                    ? fontSize : ("a5".equals(paperSize) || "b5".equals(paperSize) ? "10pt" : "11pt");
+            columnCount = get(parameters, "column-count", "1");
+            country = get(parameters, "country", "GB");
+            fontFamily = get(parameters, "font-family", "serif");
+            language = get(parameters, "language", "en");
+            oddEvenShift = get(parameters, "odd-even-shift", "10mm");
+            paperHeight = landscape ? portrait[1] : portrait[0];
+            paperMarginBottom = get(parameters, "paper-margin-bottom", "10mm");
+            paperMarginLeft = get(parameters, "paper-margin-left", "25mm");
+            paperMarginRight = get(parameters, "paper-margin-right", "25mm");
+            paperMarginTop = get(parameters, "paper-margin-top", "10mm");
+            paperMode = get(parameters, "paper-mode", "onesided");
+            paperWidth = landscape ? portrait[0] : portrait[1];
+            ruleThickness = get(parameters, "rule-thickness", "0.2pt");
+        }
+
+        private static String get(Map<String, String> parameters, String name, String defaultValue)
+        {
+            String value = parameters != null ? parameters.get(name) : null;
+
+            return value != null ? value : defaultValue;
+        }
+    } // Setup
+} // FOTranslatorFilter
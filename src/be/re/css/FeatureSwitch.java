@@ -0,0 +1,199 @@
+package be.re.css;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLFilter;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Lets events bypass a filter as long as the feature it implements can't occur
+ * in the document. The context is consulted at every element, so the filter is
+ * switched on as soon as a style sheet or a style attribute introduces the
+ * feature. Elements that were already open at that moment are closed without
+ * the filter.
+ *
+ * The wrapped filter gets a parent of its own, which makes it possible for it
+ * to install accumulators before itself.
+ *
+ * @author Gerke Geurts
+ */
+class FeatureSwitch extends XMLFilterImpl
+{
+    private final Context context;
+    private int depth = 0;
+    private boolean enabled = false;
+    private int enabledDepth = 0;
+    private final int feature;
+    private final XMLFilter filter;
+    private final XMLFilterImpl inlet = new XMLFilterImpl();
+
+    /**
+     * @param filter The filter that implements the feature.
+     * @param context The context that tells which features occur.
+     * @param feature One of the <code>RuleSet.FEATURE_*</code> flags.
+     */
+    FeatureSwitch(XMLFilter filter, Context context, int feature)
+    {
+        if (!(filter instanceof ContentHandler))
+        {
+            throw new IllegalArgumentException("The filter should be a ContentHandler.");
+        }
+
+        this.filter = filter;
+        this.context = context;
+        this.feature = feature;
+        inlet.setParent(this);
+        inlet.setContentHandler((ContentHandler) filter);
+        filter.setParent(inlet);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+        if (enabled)
+        {
+            inlet.getContentHandler().characters(ch, start, length);
+        }
+        else
+        {
+            super.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+        inlet.getContentHandler().endDocument();
+    }
+
+    @Override
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+    {
+        if (enabled && depth > enabledDepth)
+        {
+            inlet.getContentHandler().endElement(namespaceURI, localName, qName);
+        }
+        else
+        {
+            super.endElement(namespaceURI, localName, qName);
+        }
+
+        --depth;
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException
+    {
+        if (enabled)
+        {
+            inlet.getContentHandler().endPrefixMapping(prefix);
+        }
+        else
+        {
+            super.endPrefixMapping(prefix);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+    {
+        if (enabled)
+        {
+            inlet.getContentHandler().ignorableWhitespace(ch, start, length);
+        }
+        else
+        {
+            super.ignorableWhitespace(ch, start, length);
+        }
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+        if (enabled)
+        {
+            inlet.getContentHandler().processingInstruction(target, data);
+        }
+        else
+        {
+            super.processingInstruction(target, data);
+        }
+    }
+
+    @Override
+    public void setContentHandler(ContentHandler handler)
+    {
+        super.setContentHandler(handler);
+        filter.setContentHandler(handler);
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator)
+    {
+        inlet.getContentHandler().setDocumentLocator(locator);
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException
+    {
+        if (enabled)
+        {
+            inlet.getContentHandler().skippedEntity(name);
+        }
+        else
+        {
+            super.skippedEntity(name);
+        }
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+        depth = 0;
+        enabled = context.hasFeature(feature);
+        enabledDepth = 0;
+        inlet.getContentHandler().startDocument();
+    }
+
+    @Override
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+    {
+        if (!enabled && context.hasFeature(feature))
+        {
+            enabled = true;
+            enabledDepth = depth;
+        }
+
+        ++depth;
+
+        if (enabled)
+        {
+            inlet.getContentHandler().startElement(namespaceURI, localName, qName, atts);
+        }
+        else
+        {
+            super.startElement(namespaceURI, localName, qName, atts);
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException
+    {
+        if (enabled)
+        {
+            inlet.getContentHandler().startPrefixMapping(prefix, uri);
+        }
+        else
+        {
+            super.startPrefixMapping(prefix, uri);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return filter.toString();
+    }
+} // FeatureSwitch
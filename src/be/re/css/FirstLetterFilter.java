@@ -1,13 +1,8 @@
 package be.re.css;
 
-import be.re.xml.Accumulator;
-import be.re.xml.DOMToContentHandler;
+import be.re.xml.EventBuffer;
 import java.util.HashMap;
 import java.util.Map;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.Text;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLFilter;
@@ -20,6 +15,10 @@ class FirstLetterFilter extends XMLFilterImpl
 
 {
 
+  private final EventBuffer.Pool	buffers = new EventBuffer.Pool(1);
+
+
+
   FirstLetterFilter()
   {
   }
@@ -33,43 +32,44 @@ class FirstLetterFilter extends XMLFilterImpl
 
 
 
-  private static Element
-  getFirstLetter(Node node)
+  private static int
+  getFirstLetter(EventBuffer buffer, int node)
   {
     return
-      node == null ?
-        null :
+      node == EventBuffer.NONE ?
+        EventBuffer.NONE :
         (
-          Constants.CSS.equals(node.getNamespaceURI()) &&
-            "first-letter".equals(node.getLocalName()) ?
-            (Element) node :
-            getFirstLetter(node.getNextSibling())
+          buffer.isElement(node, Constants.CSS, "first-letter") ?
+            node : getFirstLetter(buffer, buffer.getNextSibling(node))
         );
   }
 
 
 
-  private static Text
-  getFirstTextNode(Node node)
+  private static int
+  getFirstTextNode(EventBuffer buffer, int node)
   {
     return
-      node == null ?
-        null :
+      node == EventBuffer.NONE ?
+        EventBuffer.NONE :
         (
-          node instanceof Text && ((Text) node).getLength() > 0 ?
-            (Text) node :
+          buffer.getNodeType(node) == EventBuffer.TEXT &&
+            buffer.getLength(node) > 0 ?
+            node :
             (
-              node instanceof Element ?
+              buffer.getNodeType(node) == EventBuffer.ELEMENT ?
                 (
                   "inline".equals
                   (
-                    ((Element) node).getAttributeNS(Constants.CSS, "display")
-                  ) ? getFirstTextNode(node.getFirstChild()) : null
+                    buffer.getAttribute(node, Constants.CSS, "display")
+                  ) ?
+                    getFirstTextNode(buffer, buffer.getFirstChild(node)) :
+                    EventBuffer.NONE
                 ) :
                 (
-                  node.getNextSibling() != null ?
-                    getFirstTextNode(node.getNextSibling()) :
-                    getFirstTextNode(node.getParentNode().getNextSibling())
+                  buffer.getNextSibling(node) != EventBuffer.NONE ?
+                    getFirstTextNode(buffer, buffer.getNextSibling(node)) :
+                    getNextSiblingOfParent(buffer, node)
                 )
             )
         );
@@ -77,20 +77,32 @@ class FirstLetterFilter extends XMLFilterImpl
 
 
 
+  private static int
+  getNextSiblingOfParent(EventBuffer buffer, int node)
+  {
+    int	parent = buffer.getParent(node);
+
+    return
+      parent == EventBuffer.NONE ?
+        EventBuffer.NONE :
+        getFirstTextNode(buffer, buffer.getNextSibling(parent));
+  }
+
+
+
   private static Map<String, String>
-  getOriginalProperties(Element firstLetter)
+  getOriginalProperties(EventBuffer buffer, int firstLetter)
   {
-    NamedNodeMap attributes = firstLetter.getAttributes();
     Map<String, String> result = new HashMap<>();
 
-    for (int i = 0; i < attributes.getLength(); ++i)
+    for (int i = 0; i < buffer.getAttributeCount(firstLetter); ++i)
     {
-      if (Constants.CSS.equals(attributes.item(i).getNamespaceURI()))
+      if (Constants.CSS.equals(buffer.getAttributeURI(firstLetter, i)))
       {
         result.put
         (
-          attributes.item(i).getLocalName(),
-          attributes.item(i).getNodeValue()
+          buffer.getAttributeLocalName(firstLetter, i),
+          buffer.getAttributeValue(firstLetter, i)
         );
       }
     }
@@ -114,35 +126,34 @@ class FirstLetterFilter extends XMLFilterImpl
 
 
   private static void
-  mergeProperties(Element firstLetter, Node text)
+  mergeProperties(EventBuffer buffer, int firstLetter, int text)
   {
     for
     (
-      Node n = text.getParentNode();
-      n.getParentNode() != null;
-      n = n.getParentNode()
+      int n = buffer.getParent(text);
+      n != EventBuffer.NONE;
+      n = buffer.getParent(n)
     )
     {
-      NamedNodeMap	attributes = n.getAttributes();
-
-      for (int i = 0; i < attributes.getLength(); ++i)
+      for (int i = 0; i < buffer.getAttributeCount(n); ++i)
       {
+        String	localName = buffer.getAttributeLocalName(n, i);
+        String	value =
+          buffer.getAttribute(firstLetter, Constants.CSS, localName);
+
         if
         (
-          Constants.CSS.equals(attributes.item(i).getNamespaceURI())	&&
-          Util.isInherited(attributes.item(i).getLocalName())		&&
-          firstLetter.getAttributeNS
-          (
-            Constants.CSS,
-            attributes.item(i).getLocalName()
-          ).equals("")
+          Constants.CSS.equals(buffer.getAttributeURI(n, i))	&&
+          Util.isInherited(localName)				&&
+          (value == null || value.equals(""))
         )
         {
-          firstLetter.setAttributeNS
+          buffer.setAttribute
           (
+            firstLetter,
             Constants.CSS,
-            "css:" + attributes.item(i).getLocalName(),
-            attributes.item(i).getNodeValue()
+            "css:" + localName,
+            buffer.getAttributeValue(n, i)
           );
         }
       }
@@ -152,45 +163,57 @@ class FirstLetterFilter extends XMLFilterImpl
 
 
   private static void
-  removeOriginalProperties(Element element, Map<String, String> properties)
+  removeOriginalProperties
+  (
+    EventBuffer		buffer,
+    int			element,
+    Map<String, String>	properties
+  )
   {
     for (String localName : properties.keySet())
     {
-      element.removeAttributeNS(Constants.CSS, localName);
+      buffer.removeAttribute(element, Constants.CSS, localName);
     }
   }
 
 
 
   private static void
-  setOriginalProperties(Element element, Map<String, String> properties)
+  setOriginalProperties
+  (
+    EventBuffer		buffer,
+    int			element,
+    Map<String, String>	properties
+  )
   {
     for (String localName : properties.keySet())
     {
-      element.setAttributeNS(Constants.CSS, "css:" + localName, properties.get(localName));
+      buffer.setAttribute
+      (
+        element,
+        Constants.CSS,
+        "css:" + localName,
+        properties.get(localName)
+      );
     }
   }
 
 
 
   private static void
-  splitText(Element firstLetter, Text text, int offset)
+  splitText(EventBuffer buffer, int firstLetter, int text, int offset)
   {
-    firstLetter.appendChild
-    (
-      firstLetter.getOwnerDocument().
-        createTextNode(text.getData().substring(0, offset))
-    );
+    buffer.appendChild(firstLetter, buffer.createText(text, 0, offset));
+    mergeProperties(buffer, firstLetter, text);
 
-    mergeProperties(firstLetter, text);
-
-    text.getParentNode().insertBefore
+    buffer.insertBefore
     (
-      text.getOwnerDocument().createTextNode(text.getData().substring(offset)),
+      buffer.getParent(text),
+      buffer.createText(text, offset, buffer.getLength(text)),
       text
     );
 
-    text.getParentNode().removeChild(text);
+    buffer.removeChild(text);
   }
 
 
@@ -210,23 +233,26 @@ class FirstLetterFilter extends XMLFilterImpl
       "1".equals(atts.getValue(Constants.CSS, "has-first-letter"))
     )
     {
-      Accumulator.preAccumulate
+      EventBuffer.preAccumulate
       (
         namespaceURI,
         localName,
         qName,
         atts,
         this,
-        new Accumulator.ProcessElement()
+        buffers.acquire(),
+        new EventBuffer.ProcessElement()
         {
           public void
-          process(Element element, XMLFilter filter) throws SAXException
+          process(EventBuffer buffer, int element, XMLFilter filter)
+            throws SAXException
           {
-            DOMToContentHandler.elementToContentHandler
+            buffer.replay
             (
-              transform(element),
+              transform(buffer, element),
               filter.getContentHandler()
             );
+            buffers.release(buffer);
           }
         }
       );
@@ -239,72 +265,86 @@ class FirstLetterFilter extends XMLFilterImpl
 
 
 
-  private static Element
-  transform(Element element)
+  private static int
+  transform(EventBuffer buffer, int element)
   {
-    element.removeAttributeNS(Constants.CSS, "has-first-letter");
+    buffer.removeAttribute(element, Constants.CSS, "has-first-letter");
 
-    Element	firstLetter = getFirstLetter(element.getFirstChild());
+    int	firstLetter =
+      getFirstLetter(buffer, buffer.getFirstChild(element));
 
-    if (firstLetter == null)
+    if (firstLetter == EventBuffer.NONE)
     {
       return element;
     }
 
-    Map<String, String> originalProperties = getOriginalProperties(firstLetter);
+    Map<String, String> originalProperties =
+      getOriginalProperties(buffer, firstLetter);
 
-    firstLetter.setAttributeNS(Constants.CSS, "css:display", "inline");
+    buffer.setAttribute(firstLetter, Constants.CSS, "css:display", "inline");
 
-    Text	text = getFirstTextNode(firstLetter.getNextSibling());
+    int	text =
+      getFirstTextNode(buffer, buffer.getNextSibling(firstLetter));
 
-    if (text == null)
+    if (text == EventBuffer.NONE)
     {
       return element;
     }
 
-    if (isPunctuation(text.getData().charAt(0)))
+    if (isPunctuation(buffer.getTextChar(text, 0)))
     {
-      if (text.getLength() > 1)
+      if (buffer.getLength(text) > 1)
       {
-        splitText(firstLetter, text, 2);
+        splitText(buffer, firstLetter, text, 2);
       }
       else
       {
-        Text	nextText =
-          getFirstTextNode
-          (
-            text.getNextSibling() != null ?
-              text.getNextSibling() : text.getParentNode().getNextSibling()
-          );
+        int	nextText =
+          buffer.getNextSibling(text) != EventBuffer.NONE ?
+            getFirstTextNode(buffer, buffer.getNextSibling(text)) :
+            getNextSiblingOfParent(buffer, text);
 
-        if (nextText == null)
+        if (nextText == EventBuffer.NONE)
         {
-          splitText(firstLetter, text, 1);
+          splitText(buffer, firstLetter, text, 1);
         }
         else
         {
-          Element	second = (Element) firstLetter.cloneNode(true);
+          int	second = buffer.cloneNode(firstLetter, true);
 
-          element.insertBefore(second, firstLetter.getNextSibling());
-          splitText(firstLetter, text, 1);
-          splitText(second, nextText, 1);
+          buffer.insertBefore
+          (
+            element,
+            second,
+            buffer.getNextSibling(firstLetter)
+          );
+
+          splitText(buffer, firstLetter, text, 1);
+          splitText(buffer, second, nextText, 1);
         }
       }
     }
     else
     {
-      splitText(firstLetter, text, 1);
+      splitText(buffer, firstLetter, text, 1);
     }
 
-    String	floatValue = firstLetter.getAttributeNS(Constants.CSS, "float");
+    String	floatValue =
+      buffer.getAttribute(firstLetter, Constants.CSS, "float");
 
-    if (!"".equals(floatValue) && !"none".equalsIgnoreCase(floatValue))
+    if
+    (
+      floatValue != null		&&
+      !"".equals(floatValue)		&&
+      !"none".equalsIgnoreCase(floatValue)
+    )
     {
       wrapInFloat
       (
+        buffer,
         firstLetter,
         floatValue,
-        firstLetter.getAttributeNS(Constants.CSS, "clear"),
+        buffer.getAttribute(firstLetter, Constants.CSS, "clear"),
         originalProperties
       );
     }
@@ -316,26 +356,23 @@ class FirstLetterFilter extends XMLFilterImpl
 
   private static void
   wrapInFloat(
-    Element firstLetter,
+    EventBuffer buffer,
+    int firstLetter,
     String floatValue,
     String clearValue,
     Map<String, String> originalProperties
   )
   {
-    Element	block =
-      firstLetter.getOwnerDocument().
-        createElementNS(Constants.CSS, "css:block");
-    Element	floating =
-      firstLetter.getOwnerDocument().
-        createElementNS(Constants.CSS, "css:float");
-
-    floating.appendChild(block);
-    block.setAttributeNS(Constants.CSS, "css:display", "block");
-    floating.setAttributeNS(Constants.CSS, "css:float", floatValue);
-
-    if (!"".equals(clearValue))
+    int	block = buffer.createElement(Constants.CSS, "css:block");
+    int	floating = buffer.createElement(Constants.CSS, "css:float");
+
+    buffer.appendChild(floating, block);
+    buffer.setAttribute(block, Constants.CSS, "css:display", "block");
+    buffer.setAttribute(floating, Constants.CSS, "css:float", floatValue);
+
+    if (clearValue != null && !"".equals(clearValue))
     {
-      floating.setAttributeNS(Constants.CSS, "css:clear", clearValue);
+      buffer.setAttribute(floating, Constants.CSS, "css:clear", clearValue);
     }
 
     Map<String, String> blockProperties = new HashMap<>(originalProperties);
@@ -346,21 +383,24 @@ class FirstLetterFilter extends XMLFilterImpl
     blockProperties.remove("vertical-align");
     inlineProperties.remove("vertical-align");
 
-    setOriginalProperties(block, blockProperties);
-    firstLetter.getParentNode().insertBefore(floating, firstLetter);
-    removeOriginalProperties(firstLetter, inlineProperties);
+    setOriginalProperties(buffer, block, blockProperties);
+    buffer.insertBefore(buffer.getParent(firstLetter), floating, firstLetter);
+    removeOriginalProperties(buffer, firstLetter, inlineProperties);
 
-    Element	second =
-      Constants.CSS.equals(firstLetter.getNextSibling().getNamespaceURI()) &&
-        "first-letter".equals(firstLetter.getNextSibling().getLocalName()) ?
-        (Element) firstLetter.getNextSibling() : null;
+    int	second =
+      buffer.isElement
+      (
+        buffer.getNextSibling(firstLetter),
+        Constants.CSS,
+        "first-letter"
+      ) ? buffer.getNextSibling(firstLetter) : EventBuffer.NONE;
 
-    block.appendChild(firstLetter);
+    buffer.appendChild(block, firstLetter);
 
-    if (second != null)
+    if (second != EventBuffer.NONE)
     {
-      removeOriginalProperties(second, inlineProperties);
-      block.appendChild(second);
+      removeOriginalProperties(buffer, second, inlineProperties);
+      buffer.appendChild(block, second);
     }
   }
 
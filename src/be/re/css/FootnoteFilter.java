@@ -1,9 +1,6 @@
 package be.re.css;
 
-import be.re.xml.Accumulator;
-import be.re.xml.DOMToContentHandler;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import be.re.xml.EventBuffer;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLFilter;
@@ -22,7 +19,9 @@ class FootnoteFilter extends XMLFilterImpl
 
 {
 
-  private Element	footnoteReference = null;
+  private final EventBuffer.Pool	buffers = new EventBuffer.Pool(2);
+  private EventBuffer		footnoteBuffer = null;
+  private int		footnoteReference = EventBuffer.NONE;
 
 
 
@@ -42,7 +41,7 @@ class FootnoteFilter extends XMLFilterImpl
   public void
   characters(char[] ch, int start, int length) throws SAXException
   {
-    if (footnoteReference != null)
+    if (footnoteBuffer != null)
     {
       if (!Util.isWhitespace(ch, start, length))
       {
@@ -71,38 +70,53 @@ class FootnoteFilter extends XMLFilterImpl
   private void
   flushFootnoteReference() throws SAXException
   {
-    if (footnoteReference != null && getContentHandler() != null)
+    if (footnoteBuffer != null && getContentHandler() != null)
     {
-      footnoteReference.setAttributeNS(Constants.CSS, "css:display", "inline");
-      DOMToContentHandler.
-        elementToContentHandler(footnoteReference, getContentHandler());
-      footnoteReference = null;
+      footnoteBuffer.setAttribute
+      (
+        footnoteReference,
+        Constants.CSS,
+        "css:display",
+        "inline"
+      );
+      footnoteBuffer.replay(footnoteReference, getContentHandler());
+      buffers.release(footnoteBuffer);
+      footnoteBuffer = null;
+      footnoteReference = EventBuffer.NONE;
     }
   }
 
 
 
-  private static Element
-  getBeforePseudoElement(Node node)
+  private static int
+  getBeforePseudoElement(EventBuffer buffer, int node)
   {
     return
-      node == null ?
-        null :
+      node == EventBuffer.NONE ?
+        EventBuffer.NONE :
         (
-          node instanceof Element &&
-            Constants.CSS.equals(node.getNamespaceURI()) &&
-            "before".equals(node.getLocalName()) &&
+          buffer.isElement(node, Constants.CSS, "before") &&
             "footnote-reference".equals
             (
-              ((Element) node).getAttributeNS(Constants.CSS, "display")
+              buffer.getAttribute(node, Constants.CSS, "display")
             ) ?
-            (Element) node :
-            getBeforePseudoElement(node.getNextSibling())
+            node :
+            getBeforePseudoElement(buffer, buffer.getNextSibling(node))
         );
   }
 
 
 
+  public void
+  startDocument() throws SAXException
+  {
+    footnoteBuffer = null;
+    footnoteReference = EventBuffer.NONE;
+    super.startDocument();
+  }
+
+
+
   public void
   startElement
   (
@@ -118,18 +132,21 @@ class FootnoteFilter extends XMLFilterImpl
     {
       flushFootnoteReference();
 
-      Accumulator.preAccumulate
+      EventBuffer.preAccumulate
       (
         namespaceURI,
         localName,
         qName,
         atts,
         this,
-        new Accumulator.ProcessElement()
+        buffers.acquire(),
+        new EventBuffer.ProcessElement()
         {
           public void
-          process(Element element, XMLFilter filter) throws SAXException
+          process(EventBuffer buffer, int element, XMLFilter filter)
+            throws SAXException
           {
+            footnoteBuffer = buffer;
             footnoteReference = element;
           }
         }
@@ -139,19 +156,22 @@ class FootnoteFilter extends XMLFilterImpl
     {
       if ("footnote-body".equals(display))
       {
-        Accumulator.preAccumulate
+        EventBuffer.preAccumulate
         (
           namespaceURI,
           localName,
           qName,
           atts,
           this,
-          new Accumulator.ProcessElement()
+          buffers.acquire(),
+          new EventBuffer.ProcessElement()
           {
             public void
-            process(Element element, XMLFilter filter) throws SAXException
+            process(EventBuffer buffer, int element, XMLFilter filter)
+              throws SAXException
             {
-              transform(element);
+              transform(buffer, element);
+              buffers.release(buffer);
             }
           }
         );
@@ -167,20 +187,16 @@ class FootnoteFilter extends XMLFilterImpl
 
 
   private void
-  transform(Element element) throws SAXException
+  transform(EventBuffer buffer, int element) throws SAXException
   {
-    Element	before = getBeforePseudoElement(element.getFirstChild());
+    int	before =
+      getBeforePseudoElement(buffer, buffer.getFirstChild(element));
 
-    if (footnoteReference == null && before == null)
+    if (footnoteBuffer == null && before == EventBuffer.NONE)
     {
       return;
     }
 
-    if (footnoteReference == null)
-    {
-      footnoteReference = before;
-    }
-
     super.startElement
     (
       Constants.CSS,
@@ -197,7 +213,16 @@ class FootnoteFilter extends XMLFilterImpl
       new AttributesImpl()
     );
 
-    flushFootnoteReference();
+    if (footnoteBuffer != null)
+    {
+      flushFootnoteReference();
+    }
+    else
+    {
+      // The reference is part of the body, which is released by the caller.
+      buffer.setAttribute(before, Constants.CSS, "css:display", "inline");
+      buffer.replay(before, getContentHandler());
+    }
 
     super.endElement
     (
@@ -214,8 +239,8 @@ class FootnoteFilter extends XMLFilterImpl
       new AttributesImpl()
     );
 
-    element.setAttributeNS(Constants.CSS, "css:display", "block");
-    DOMToContentHandler.elementToContentHandler(element, getContentHandler());
+    buffer.setAttribute(element, Constants.CSS, "css:display", "block");
+    buffer.replay(element, getContentHandler());
     super.endElement(Constants.CSS, "footnote-body", "css:footnote-body");
     super.endElement(Constants.CSS, "footnote", "css:footnote");
   }
@@ -88,6 +88,15 @@ class ForeignFilter extends XMLFilterImpl
 
 
 
+  public void
+  startDocument() throws SAXException
+  {
+    stack.clear();
+    super.startDocument();
+  }
+
+
+
   public void
   startElement
   (
@@ -0,0 +1,28 @@
+package be.re.css;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.xml.transform.sax.SAXSource;
+
+/**
+ * An XSL-FO formatter that has been initialized and can render any number of
+ * documents, one at a time. Instances are kept in the pools of
+ * {@link FormatterBackends}, which never lets two threads use the same
+ * instance at once.
+ *
+ * @author Gerke Geurts
+ */
+public interface FormatterBackend
+{
+    /**
+     * Renders a document.
+     * @param fo The XSL-FO document. Its reader produces the XSL-FO events
+     * when it parses the input source.
+     * @param out The rendered document.
+     * @param format The MIME type of the output format.
+     * @throws IOException
+     * @throws CSSToXSLFOException When the format is not supported or the
+     * formatter fails.
+     */
+    void render(SAXSource fo, OutputStream out, String format) throws IOException, CSSToXSLFOException;
+} // FormatterBackend
@@ -0,0 +1,28 @@
+package be.re.css;
+
+import java.net.URL;
+
+/**
+ * Creates the instances of a formatter backend. Providers are found in the
+ * <code>META-INF/services/be.re.css.FormatterBackendProvider</code> resources
+ * on the class path and must have a public constructor without arguments.
+ *
+ * @author Gerke Geurts
+ */
+public interface FormatterBackendProvider
+{
+    /**
+     * @return The name by which the backend is chosen, such as
+     * <code>fop</code> or <code>xep</code>.
+     */
+    String getName();
+
+    /**
+     * Creates and initializes a backend instance.
+     * @param configuration The configuration of the formatter, or
+     * <code>null</code> for its defaults.
+     * @return
+     * @throws CSSToXSLFOException
+     */
+    FormatterBackend newBackend(URL configuration) throws CSSToXSLFOException;
+} // FormatterBackendProvider
@@ -0,0 +1,282 @@
+package be.re.css;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.transform.sax.SAXSource;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Renders documents with the formatter backends that are registered on the
+ * class path. All documents are converted to XSL-FO by one shared converter.
+ * The backend instances are kept in a pool per backend and configuration, so
+ * a formatter is initialized once and then stays warm for the next jobs. A
+ * pool keeps a limited number of idle instances and a backend that failed is
+ * dropped from it. This class is thread-safe.
+ *
+ * @author Gerke Geurts
+ */
+public class FormatterBackends
+{
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    private static Map<String, FormatterBackendProvider> providers;
+
+    private final CSSToXSLFOConverter converter;
+    private final int maxPoolSize;
+    private final ConcurrentHashMap<String, Pool> pools = new ConcurrentHashMap<>();
+
+    public FormatterBackends(CSSToXSLFOConverter converter)
+    {
+        this(converter, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param converter The converter that produces the XSL-FO for all
+     * backends. Its properties should be set before it is shared.
+     * @param maxPoolSize The number of idle instances that are kept at most
+     * per backend and configuration.
+     */
+    public FormatterBackends(CSSToXSLFOConverter converter, int maxPoolSize)
+    {
+        this.converter = converter;
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public CSSToXSLFOConverter getConverter()
+    {
+        return converter;
+    }
+
+    /**
+     * Returns the registered providers by name. A provider whose formatter is
+     * not on the class path is left out.
+     * @return
+     */
+    public static synchronized Map<String, FormatterBackendProvider> getProviders()
+    {
+        if (providers == null)
+        {
+            Map<String, FormatterBackendProvider> result = new TreeMap<>();
+            Iterator<FormatterBackendProvider> i
+                    = ServiceLoader.load(FormatterBackendProvider.class, FormatterBackends.class.getClassLoader()).iterator();
+
+            while (hasNext(i))
+            {
+                try
+                {
+                    FormatterBackendProvider provider = i.next();
+
+                    if (!result.containsKey(provider.getName()))
+                    {
+                        result.put(provider.getName(), provider);
+                    }
+                }
+                catch (ServiceConfigurationError | LinkageError e)
+                {
+                    // The formatter of this provider is not available.
+                }
+            }
+
+            providers = Collections.unmodifiableMap(result);
+        }
+
+        return providers;
+    }
+
+    private static boolean hasNext(Iterator<FormatterBackendProvider> i)
+    {
+        try
+        {
+            return i.hasNext();
+        }
+        catch (ServiceConfigurationError e)
+        {
+            // A broken registration ends the search.
+            return false;
+        }
+    }
+
+    /**
+     * Feeds the events of an XSL-FO source to a handler. Backends that take a
+     * <code>ContentHandler</code> use it.
+     * @param fo
+     * @param handler
+     * @throws IOException
+     * @throws SAXException
+     */
+    public static void parse(SAXSource fo, ContentHandler handler) throws IOException, SAXException
+    {
+        fo.getXMLReader().setContentHandler(handler);
+        fo.getXMLReader().parse(fo.getInputSource());
+    }
+
+    /**
+     * Creates backend instances ahead of the first jobs.
+     * @param name The name of the backend.
+     * @param configuration The configuration of the formatter, or
+     * <code>null</code>.
+     * @param count The number of instances that are added to the pool. No
+     * more are created than the pool can hold.
+     * @throws CSSToXSLFOException
+     */
+    public void warmUp(String name, URL configuration, int count) throws CSSToXSLFOException
+    {
+        Pool pool = getPool(name, configuration);
+
+        for (int i = 0; i < count && pool.size() < maxPoolSize; ++i)
+        {
+            pool.offer(getProvider(name).newBackend(configuration));
+        }
+    }
+
+    /**
+     * Drops all idle backend instances.
+     */
+    public void clear()
+    {
+        pools.clear();
+    }
+
+    /**
+     * Renders a document.
+     * @param name The name of the backend.
+     * @param configuration The configuration of the formatter, or
+     * <code>null</code>.
+     * @param in The source document.
+     * @param out The rendered document.
+     * @param format The MIME type of the output format.
+     * @param baseUrl The base URL of the source document. It may be
+     * <code>null</code>.
+     * @param userAgentStyleSheet It may be <code>null</code>.
+     * @param parameters The user agent parameters. It may be
+     * <code>null</code>.
+     * @param preprocessors The URLs of XSLT style sheets that are applied to
+     * the source document. It may be <code>null</code>.
+     * @throws IOException
+     * @throws CSSToXSLFOException
+     */
+    public void render(
+            String name,
+            URL configuration,
+            InputSource in,
+            OutputStream out,
+            String format,
+            URL baseUrl,
+            URL userAgentStyleSheet,
+            Map<String, String> parameters,
+            URL[] preprocessors) throws IOException, CSSToXSLFOException
+    {
+        Pool pool = getPool(name, configuration);
+        FormatterBackend backend = pool.poll();
+
+        if (backend == null)
+        {
+            backend = getProvider(name).newBackend(configuration);
+        }
+
+        SAXSource fo;
+
+        try
+        {
+            fo = converter.createSAXSource(in, baseUrl, userAgentStyleSheet, parameters,
+                    converter.createPreprocessorFilter(preprocessors), null);
+        }
+        catch (Exception e)
+        {
+            pool.offer(backend);
+            throw new CSSToXSLFOException(e);
+        }
+
+        backend.render(fo, out, format);
+        pool.offer(backend);
+    }
+
+    private Pool getPool(String name, URL configuration)
+    {
+        String key = name + " " + (configuration != null ? configuration.toString() : "");
+        Pool pool = pools.get(key);
+
+        if (pool == null)
+        {
+            pool = new Pool(maxPoolSize);
+
+            Pool existing = pools.putIfAbsent(key, pool);
+
+            if (existing != null)
+            {
+                pool = existing;
+            }
+        }
+
+        return pool;
+    }
+
+    private static FormatterBackendProvider getProvider(String name) throws CSSToXSLFOException
+    {
+        FormatterBackendProvider provider = getProviders().get(name);
+
+        if (provider == null)
+        {
+            throw new CSSToXSLFOException("The formatter backend \"" + name + "\" is not available.");
+        }
+
+        return provider;
+    }
+
+    /**
+     * The idle instances of one backend and configuration. Instances that are
+     * offered to a full pool are dropped.
+     */
+    private static class Pool
+    {
+        private final ConcurrentLinkedQueue<FormatterBackend> backends = new ConcurrentLinkedQueue<>();
+        private final int maxSize;
+        private final AtomicInteger size = new AtomicInteger();
+
+        private Pool(int maxSize)
+        {
+            this.maxSize = maxSize;
+        }
+
+        private void offer(FormatterBackend backend)
+        {
+            if (size.incrementAndGet() <= maxSize)
+            {
+                backends.offer(backend);
+            }
+            else
+            {
+                size.decrementAndGet();
+            }
+        }
+
+        private FormatterBackend poll()
+        {
+            FormatterBackend backend = backends.poll();
+
+            if (backend != null)
+            {
+                size.decrementAndGet();
+            }
+
+            return backend;
+        }
+
+        private int size()
+        {
+            return size.get();
+        }
+    } // Pool
+} // FormatterBackends
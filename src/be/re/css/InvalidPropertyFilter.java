@@ -7,7 +7,6 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.AttributesImpl;
-import org.xml.sax.helpers.XMLFilterImpl;
 
 
 
@@ -17,7 +16,7 @@ import org.xml.sax.helpers.XMLFilterImpl;
  * @author Werner Donn\u00e9
  */
 
-class InvalidPropertyFilter extends XMLFilterImpl
+class InvalidPropertyFilter extends RewritingFilter implements AttributeRewriter
 
 {
 
@@ -278,14 +277,8 @@ class InvalidPropertyFilter extends XMLFilterImpl
 
 
 
-  public void
-  startElement
-  (
-    String	namespaceURI,
-    String	localName,
-    String	qName,
-    Attributes	atts
-  ) throws SAXException
+  public Attributes
+  rewrite(String namespaceURI, String localName, String qName, Attributes atts)
   {
     String	display = atts.getValue(Constants.CSS, "display");
 
@@ -299,12 +292,10 @@ class InvalidPropertyFilter extends XMLFilterImpl
       )
     )
     {
-      super.startElement(namespaceURI, localName, qName, atts);
-
-      return;
+      return atts;
     }
 
-    display = display.intern();
+    display = Element.internDisplay(display);
 
     boolean		after =
       Constants.CSS.equals(namespaceURI) && "after".equals(localName);
@@ -328,7 +319,27 @@ class InvalidPropertyFilter extends XMLFilterImpl
       }
     }
 
-    super.startElement(namespaceURI, localName, qName, newAtts);
+    return newAtts;
+  }
+
+
+
+  public void
+  startElement
+  (
+    String	namespaceURI,
+    String	localName,
+    String	qName,
+    Attributes	atts
+  ) throws SAXException
+  {
+    super.startElement
+    (
+      namespaceURI,
+      localName,
+      qName,
+      rewrite(namespaceURI, localName, qName, atts)
+    );
   }
 
 } // InvalidPropertyFilter
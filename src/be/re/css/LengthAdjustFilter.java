@@ -8,14 +8,13 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.AttributesImpl;
-import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
  * Length properties without a unit are given the unit "px".
  *
  * @author Werner Donn\u00e9
  */
-class LengthAdjustFilter extends XMLFilterImpl
+class LengthAdjustFilter extends RewritingFilter implements AttributeRewriter
 {
     private static final Set<String> ofLengthType = new HashSet<>(Arrays.asList(new String[]
     {
@@ -66,7 +65,8 @@ class LengthAdjustFilter extends XMLFilterImpl
         super(parent);
     }
 
-    private static Attributes adjustAttributes(Attributes atts)
+    @Override
+    public Attributes rewrite(String namespaceURI, String localName, String qName, Attributes atts)
     {
         AttributesImpl result = (AttributesImpl)atts;
 
@@ -116,6 +116,6 @@ class LengthAdjustFilter extends XMLFilterImpl
     @Override
     public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
     {
-        super.startElement(namespaceURI, localName, qName, adjustAttributes(atts));
+        super.startElement(namespaceURI, localName, qName, rewrite(namespaceURI, localName, qName, atts));
     }
 } // LengthAdjustFilter
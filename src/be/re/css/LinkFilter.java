@@ -135,6 +135,15 @@ class LinkFilter extends XMLFilterImpl
 
 
 
+  public void
+  startDocument() throws SAXException
+  {
+    elements.clear();
+    super.startDocument();
+  }
+
+
+
   public void
   startElement
   (
@@ -1,12 +1,7 @@
 package be.re.css;
 
-import be.re.xml.Accumulator;
-import be.re.xml.DOMToContentHandler;
+import be.re.xml.EventBuffer;
 import be.re.xml.sax.FilterOfFilters;
-import org.w3c.dom.Attr;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NamedNodeMap;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLFilter;
@@ -22,6 +17,10 @@ class MarkerFilter extends XMLFilterImpl
 {
 
     private static final String DEFAULT_WIDTH = "2em";
+    private static final int POOL_SIZE = 4;
+
+    private final EventBuffer.Pool buffers = new EventBuffer.Pool(POOL_SIZE);
+    private FilterOfFilters nested;
 
     MarkerFilter()
     {
@@ -34,147 +33,162 @@ class MarkerFilter extends XMLFilterImpl
 
     private void accumulate(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
     {
-        Accumulator.preAccumulate(namespaceURI, localName, qName, atts, this, 
-                new Accumulator.ProcessElement()                
+        EventBuffer.preAccumulate(namespaceURI, localName, qName, atts, this, buffers.acquire(),
+                new EventBuffer.ProcessElement()                
                 {
                     @Override
-                    public void process(Element element, XMLFilter filter) throws SAXException
+                    public void process(EventBuffer buffer, int element, XMLFilter filter) throws SAXException
                     {
-                        DOMToContentHandler.elementToContentHandler(transform(element), filter.getContentHandler());
+                        buffer.replay(transform(buffer, element), filter.getContentHandler());
+                        buffers.release(buffer);
                     }
                 }
         );
     }
 
-    private static void addBody(Element table, Element element, Element before, Element after)
+    private static void addBody(EventBuffer buffer, int table, int element, int before, int after)
     {
-        Element body = table.getOwnerDocument().createElementNS(Constants.CSS, "table-row-group");
-        body.setAttributeNS(Constants.CSS, "css:display", "table-row-group");
-        table.appendChild(body);
+        int body = buffer.createElement(Constants.CSS, "css:table-row-group");
+        buffer.setAttribute(body, Constants.CSS, "css:display", "table-row-group");
+        buffer.appendChild(table, body);
 
-        Element row = table.getOwnerDocument().createElementNS(Constants.CSS, "table-row");
-        row.setAttributeNS(Constants.CSS, "css:display", "table-row");
-        body.appendChild(row);
+        int row = buffer.createElement(Constants.CSS, "css:table-row");
+        buffer.setAttribute(row, Constants.CSS, "css:display", "table-row");
+        buffer.appendChild(body, row);
 
-        Element mainCell = table.getOwnerDocument().createElementNS(Constants.CSS, "table-cell");
-        mainCell.setAttributeNS(Constants.CSS, "css:display", "table-cell");
-        row.appendChild(mainCell);
-        mainCell.appendChild(element);
+        int mainCell = buffer.createElement(Constants.CSS, "css:table-cell");
+        buffer.setAttribute(mainCell, Constants.CSS, "css:display", "table-cell");
+        buffer.appendChild(row, mainCell);
+        buffer.appendChild(mainCell, element);
 
-        if (before != null)
+        if (before != EventBuffer.NONE)
         {
-            Element cell = table.getOwnerDocument().createElementNS(Constants.CSS, "table-cell");
-            cell.setAttributeNS(Constants.CSS, "css:display", "table-cell");
-            cell.setAttributeNS(Constants.CSS, "css:vertical-align", "top");
-            row.insertBefore(cell, mainCell);
-            addMarker(cell, before, "right");
+            int cell = buffer.createElement(Constants.CSS, "css:table-cell");
+            buffer.setAttribute(cell, Constants.CSS, "css:display", "table-cell");
+            buffer.setAttribute(cell, Constants.CSS, "css:vertical-align", "top");
+            buffer.insertBefore(row, cell, mainCell);
+            addMarker(buffer, cell, before, "right");
         }
 
-        if (after != null)
+        if (after != EventBuffer.NONE)
         {
-            Element cell = table.getOwnerDocument().createElementNS(Constants.CSS, "table-cell");
-            cell.setAttributeNS(Constants.CSS, "css:display", "table-cell");
-            cell.setAttributeNS(Constants.CSS, "css:vertical-align", "bottom");
-            row.appendChild(cell);
-            addMarker(cell, after, "left");
+            int cell = buffer.createElement(Constants.CSS, "css:table-cell");
+            buffer.setAttribute(cell, Constants.CSS, "css:display", "table-cell");
+            buffer.setAttribute(cell, Constants.CSS, "css:vertical-align", "bottom");
+            buffer.appendChild(row, cell);
+            addMarker(buffer, cell, after, "left");
         }
     }
 
-    private static void addColumn(Element table, String width)
+    private static void addColumn(EventBuffer buffer, int table, String width)
     {
-        Element column = table.getOwnerDocument().createElementNS(Constants.CSS, "table-column");
-        column.setAttributeNS(Constants.CSS, "css:display", "table-column");
-        column.setAttributeNS(Constants.CSS, "css:width", width.equals("") ? "1*" : width);
-        table.appendChild(column);
+        int column = buffer.createElement(Constants.CSS, "css:table-column");
+        buffer.setAttribute(column, Constants.CSS, "css:display", "table-column");
+        buffer.setAttribute(column, Constants.CSS, "css:width", width.equals("") ? "1*" : width);
+        buffer.appendChild(table, column);
     }
 
-    private static void addMarker(Element cell, Element marker, String side)
+    private static void addMarker(EventBuffer buffer, int cell, int marker, String side)
     {
-        cell.appendChild(marker);
-        marker.removeAttributeNS(Constants.CSS, "width");
-        marker.setAttributeNS(Constants.CSS, "css:display", "block");
+        buffer.appendChild(cell, marker);
+        buffer.removeAttribute(marker, Constants.CSS, "width");
+        buffer.setAttribute(marker, Constants.CSS, "css:display", "block");
 
-        String markerOffset = marker.getAttributeNS(Constants.CSS, "marker-offset");
+        String markerOffset = getAttribute(buffer, marker, "marker-offset");
         if (!markerOffset.equals(""))
         {
-            cell.setAttributeNS(Constants.CSS, "css:padding-" + side, markerOffset);
-            marker.removeAttributeNS(Constants.CSS, "marker-offset");
+            buffer.setAttribute(cell, Constants.CSS, "css:padding-" + side, markerOffset);
+            buffer.removeAttribute(marker, Constants.CSS, "marker-offset");
         }
     }
 
-    private static Element getAfterPseudoElement(Node node)
+    /**
+     * Returns the value of a CSS property or the empty string, as the DOM
+     * does.
+     */
+    private static String getAttribute(EventBuffer buffer, int element, String property)
     {
-        return node == null
-                ? null
-                : node instanceof Element
-                        && Constants.CSS.equals(node.getNamespaceURI())
-                        && "after".equals(node.getLocalName())
-                        && "marker".equals(((Element) node).getAttributeNS(Constants.CSS, "display"))
-                        ? (Element) node
-                        : getAfterPseudoElement(node.getPreviousSibling());
+        String value = buffer.getAttribute(element, Constants.CSS, property);
+        return value != null ? value : "";
     }
 
-    private static Element getBeforePseudoElement(Node node)
+    private static int getAfterPseudoElement(EventBuffer buffer, int node)
     {
-        return node == null
-                ? null
-                : (node instanceof Element
-                        && Constants.CSS.equals(node.getNamespaceURI())
-                        && "before".equals(node.getLocalName())
-                        && "marker".equals(((Element) node).getAttributeNS(Constants.CSS, "display"))
-                        ? (Element) node
-                        : getBeforePseudoElement(node.getNextSibling()));
+        return node == EventBuffer.NONE
+                ? EventBuffer.NONE
+                : buffer.isElement(node, Constants.CSS, "after")
+                        && "marker".equals(buffer.getAttribute(node, Constants.CSS, "display"))
+                        ? node
+                        : getAfterPseudoElement(buffer, buffer.getPreviousSibling(node));
     }
 
-    private static Element handleNestedMarkers(Element element) throws SAXException
+    private static int getBeforePseudoElement(EventBuffer buffer, int node)
     {
-        Accumulator result = new Accumulator();
-        FilterOfFilters filter = new FilterOfFilters(
-                // The MarkerFilter needs a parent to insert its own accumulator.
-                new XMLFilter[]
-                {
-                    new XMLFilterImpl(), 
-                    new MarkerFilter(), 
-                    result
-                });
-        filter.startDocument();
-        DOMToContentHandler.elementToContentHandler(element, filter);
-        filter.endDocument();
-
-        return (Element) element.getOwnerDocument()
-                .importNode(result.getDocument().getDocumentElement(), true);
+        return node == EventBuffer.NONE
+                ? EventBuffer.NONE
+                : (buffer.isElement(node, Constants.CSS, "before")
+                        && "marker".equals(buffer.getAttribute(node, Constants.CSS, "display"))
+                        ? node
+                        : getBeforePseudoElement(buffer, buffer.getNextSibling(node)));
     }
 
-    private static void moveInheritedProperties(Element element, Element table)
+    private int handleNestedMarkers(EventBuffer buffer, int element) throws SAXException
     {
-        NamedNodeMap attributes = element.getAttributes();
-
-        for (int i = 0; i < attributes.getLength(); ++i)
+        if (nested == null)
         {
-            Attr attribute = (Attr) attributes.item(i);
+            // Each nesting level gets its own filter, so this one is not
+            // reentered.
+            nested = new FilterOfFilters(
+                    // The MarkerFilter needs a parent to insert its own accumulator.
+                    new XMLFilter[]
+                    {
+                        new XMLFilterImpl(), 
+                        new MarkerFilter()
+                    });
+        }
+
+        EventBuffer result = buffers.acquire();
+
+        nested.setContentHandler(result);
+        nested.startDocument();
+        buffer.replay(element, nested);
+        nested.endDocument();
 
-            if (Constants.CSS.equals(attribute.getNamespaceURI()) && Util.isInherited(attribute.getLocalName()))
+        int imported = buffer.importNode(result, result.getDocumentElement());
+
+        buffers.release(result);
+
+        return imported;
+    }
+
+    private static void moveInheritedProperties(EventBuffer buffer, int element, int table)
+    {
+        for (int i = 0; i < buffer.getAttributeCount(element); ++i)
+        {
+            if (Constants.CSS.equals(buffer.getAttributeURI(element, i)) && Util.isInherited(buffer.getAttributeLocalName(element, i)))
             {
-                element.removeAttributeNode(attribute);
-                table.setAttributeNodeNS(attribute);
+                String localName = buffer.getAttributeLocalName(element, i);
+
+                buffer.setAttribute(table, Constants.CSS, buffer.getAttributeQName(element, i), buffer.getAttributeValue(element, i));
+                buffer.removeAttribute(element, Constants.CSS, localName);
                 --i;
             }
         }
     }
 
-    private static void moveMargin(Element element, Element table, String side)
+    private static void moveMargin(EventBuffer buffer, int element, int table, String side)
     {
-        Attr margin = element.getAttributeNodeNS(Constants.CSS, "margin-" + side);
-        if (margin != null && !margin.getValue().equals(""))
+        String margin = buffer.getAttribute(element, Constants.CSS, "margin-" + side);
+        if (margin != null && !margin.equals(""))
         {
-            element.removeAttributeNode(margin);
-            table.setAttributeNodeNS(margin);
+            buffer.removeAttribute(element, Constants.CSS, "margin-" + side);
+            buffer.setAttribute(table, Constants.CSS, "css:margin-" + side, margin);
         }
     }
 
-    private static void moveMargins(Element element, Element table, String beforeWidth)
+    private static void moveMargins(EventBuffer buffer, int element, int table, String beforeWidth)
     {
-        String margin = element.getAttributeNS(Constants.CSS, "margin-left");
+        String margin = getAttribute(buffer, element, "margin-left");
         if (Util.isZeroLength(margin))
         {
             margin = "";
@@ -182,27 +196,27 @@ class MarkerFilter extends XMLFilterImpl
 
         if (beforeWidth != null || !margin.equals(""))
         {
-            table.setAttributeNS(Constants.CSS, "css:margin-left", 
+            buffer.setAttribute(table, Constants.CSS, "css:margin-left", 
                     (beforeWidth != null ? ("-" + beforeWidth) : "") + (!margin.equals("") ? ("+" + margin) : "")
             );
         }
 
         if (!margin.equals(""))
         {
-            element.removeAttributeNS(Constants.CSS, "margin-left");
+            buffer.removeAttribute(element, Constants.CSS, "margin-left");
         }
 
-        moveMargin(element, table, "right");
-        moveMargin(element, table, "top");
-        moveMargin(element, table, "bottom");
+        moveMargin(buffer, element, table, "right");
+        moveMargin(buffer, element, table, "top");
+        moveMargin(buffer, element, table, "bottom");
     }
 
-    private static void removeMargins(Element marker)
+    private static void removeMargins(EventBuffer buffer, int marker)
     {
-        marker.removeAttributeNS(Constants.CSS, "margin-left");
-        marker.removeAttributeNS(Constants.CSS, "margin-right");
-        marker.removeAttributeNS(Constants.CSS, "margin-top");
-        marker.removeAttributeNS(Constants.CSS, "margin-bottom");
+        buffer.removeAttribute(marker, Constants.CSS, "margin-left");
+        buffer.removeAttribute(marker, Constants.CSS, "margin-right");
+        buffer.removeAttribute(marker, Constants.CSS, "margin-top");
+        buffer.removeAttribute(marker, Constants.CSS, "margin-bottom");
     }
 
     @Override
@@ -218,51 +232,51 @@ class MarkerFilter extends XMLFilterImpl
         }
     }
 
-    private static Element transform(Element element) throws SAXException
+    private int transform(EventBuffer buffer, int element) throws SAXException
     {
-        Element after = getAfterPseudoElement(element.getLastChild());
-        Element before = getBeforePseudoElement(element.getFirstChild());
+        int after = getAfterPseudoElement(buffer, buffer.getLastChild(element));
+        int before = getBeforePseudoElement(buffer, buffer.getFirstChild(element));
         String beforeWidth = null;
-        Element table = element.getOwnerDocument().createElementNS(Constants.CSS, "table");
+        int table = buffer.createElement(Constants.CSS, "css:table");
 
-        table.setAttributeNS(Constants.CSS, "css:display", "table");
-        table.setAttributeNS(Constants.CSS, "css:table-layout", "fixed");
+        buffer.setAttribute(table, Constants.CSS, "css:display", "table");
+        buffer.setAttribute(table, Constants.CSS, "css:table-layout", "fixed");
 
-        if (before != null)
+        if (before != EventBuffer.NONE)
         {
-            beforeWidth = before.getAttributeNS(Constants.CSS, "width");
+            beforeWidth = getAttribute(buffer, before, "width");
             if (beforeWidth.equals("") || beforeWidth.equals("auto"))
             {
                 beforeWidth = DEFAULT_WIDTH;
             }
 
-            addColumn(table, beforeWidth);
+            addColumn(buffer, table, beforeWidth);
 
-            if ("list-item".equals(element.getAttributeNS(Constants.CSS, "display")))
+            if ("list-item".equals(buffer.getAttribute(element, Constants.CSS, "display")))
             {
-                element.setAttributeNS(Constants.CSS, "css:display", "block");
+                buffer.setAttribute(element, Constants.CSS, "css:display", "block");
             }
 
-            element.removeChild(before);
-            removeMargins(before);
+            buffer.removeChild(before);
+            removeMargins(buffer, before);
         }
 
-        addColumn(table, element.getAttributeNS(Constants.CSS, "width"));
-        element.setAttributeNS(Constants.CSS, "css:width", "100%");
+        addColumn(buffer, table, getAttribute(buffer, element, "width"));
+        buffer.setAttribute(element, Constants.CSS, "css:width", "100%");
 
-        if (after != null)
+        if (after != EventBuffer.NONE)
         {
-            String width = before.getAttributeNS(Constants.CSS, "width");
-            addColumn(table, !width.equals("") && !width.equals("auto") ? width : DEFAULT_WIDTH);
+            String width = getAttribute(buffer, before != EventBuffer.NONE ? before : after, "width");
+            addColumn(buffer, table, !width.equals("") && !width.equals("auto") ? width : DEFAULT_WIDTH);
 
-            element.removeChild(after);
-            removeMargins(after);
+            buffer.removeChild(after);
+            removeMargins(buffer, after);
         }
 
-        moveMargins(element, table, beforeWidth);
-        moveInheritedProperties(element, table);
-        element.removeAttributeNS(Constants.CSS, "has-markers");
-        addBody(table, handleNestedMarkers(element), before, after);
+        moveMargins(buffer, element, table, beforeWidth);
+        moveInheritedProperties(buffer, element, table);
+        buffer.removeAttribute(element, Constants.CSS, "has-markers");
+        addBody(buffer, table, handleNestedMarkers(buffer, element), before, after);
 
         return table;
     }
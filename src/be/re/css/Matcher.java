@@ -1,5 +1,6 @@
 package be.re.css;
 
+import be.re.xml.SymbolTable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -32,11 +33,13 @@ public class Matcher implements ContentHandler
 
     private final Stack<Element> elements = new Stack<>();
     private final Compiled.DFAState startState;
+    private final SymbolTable symbols;
     private static final boolean trace = System.getProperty("be.re.css.trace") != null;
 
     public Matcher(Compiled styleSheet)
     {
         startState = styleSheet.startState;
+        symbols = styleSheet.symbols;
     }
 
     @Override
@@ -267,6 +270,37 @@ public class Matcher implements ContentHandler
                 && (i == s.length() - token.length() || s.charAt(i + token.length()) == ' ');
     }
 
+    /**
+     * Tells if a rule for one of the given properties matches the current
+     * element or one of its pseudo elements. This is much cheaper than
+     * collecting the matching rules, because nothing is sorted.
+     * @param propertyNames
+     * @return 
+     */
+    public boolean hasMatchingRule(Collection<String> propertyNames)
+    {
+        for (Compiled.DFAState state : elements.peek().states)
+        {
+            if (hasRuleFor(state.rules, propertyNames) || hasRuleFor(state.pseudoRules, propertyNames))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasRuleFor(Collection<Rule> rules, Collection<String> propertyNames)
+    {
+        for (Rule rule : rules)
+        {
+            if (propertyNames.contains(rule.getProperty().getName()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns the rules that match a pseudo element sorted from least to most
      * specific.
@@ -330,6 +364,7 @@ public class Matcher implements ContentHandler
         Set<Compiled.DFAState> currentStates = parent.states;
         Element element = new Element(namespaceURI, localName);
 
+        element.events = createEvents(symbols, namespaceURI, localName);
         element.attributes = atts;
         element.language = getLanguage(namespaceURI, atts, parent);
         element.parent = parent;
@@ -355,6 +390,25 @@ public class Matcher implements ContentHandler
     {
     }
 
+    /**
+     * Returns the events an element produces. Besides the event for its
+     * expanded name, there are the universal selector events. An element
+     * without a namespace also matches selectors with an explicitly empty
+     * namespace, such as <code>|p</code>. The events are created once per
+     * element, because they are the same for every state.
+     */
+    private static Compiled.Event[] createEvents(SymbolTable symbols, String namespaceURI, String localName)
+    {
+        Compiled.Event event = Compiled.Event.forElement(symbols, namespaceURI, localName);
+
+        return event.hasNamespaceUri()
+                ? new Compiled.Event[] { event, event.forAnyNamespace(), event.forAnyLocalName(), Compiled.Event.AnyElement }
+                : new Compiled.Event[]
+                {
+                    event, event.forNamespace(symbols, DocumentHandler.SAC_NO_URI), Compiled.Event.AnyElement
+                };
+    }
+
     /**
      * More than one state transition can occur because when the candidate
      * conditions are fulfilled, they constitute an event. The universal
@@ -362,20 +416,10 @@ public class Matcher implements ContentHandler
      */
     private static void step(Compiled.DFAState state, Element element)
     {
-        Compiled.Event event = new Compiled.Event(element.namespaceURI, element.localName);
-        stepOneEvent(state, element, event);
-
-        if (event.hasNamespaceUri())
+        for (Compiled.Event event : element.events)
         {
-            stepOneEvent(state, element, event.forAnyNamespace());
-            stepOneEvent(state, element, event.forAnyLocalName());
-        } 
-        else
-        {
-            stepOneEvent(state, element, event.forNamespace(DocumentHandler.SAC_NO_URI));
+            stepOneEvent(state, element, event);
         }
-
-        stepOneEvent(state, element, Compiled.Event.AnyElement);
     }
 
     private static void stepOneEvent(Compiled.DFAState state, Element element, Compiled.Event eventKey)
@@ -445,6 +489,7 @@ public class Matcher implements ContentHandler
     {
         private Attributes attributes;
         private List<Element> children = new ArrayList<>();
+        private Compiled.Event[] events;
         private String language;
         private String localName;
         private String namespaceURI;
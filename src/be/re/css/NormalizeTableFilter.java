@@ -447,6 +447,16 @@ class NormalizeTableFilter extends XMLFilterImpl
 
 
 
+  public void
+  startDocument() throws SAXException
+  {
+    columnStack.clear();
+    elementStack.clear();
+    super.startDocument();
+  }
+
+
+
   public void
   startElement
   (
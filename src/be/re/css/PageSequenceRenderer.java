@@ -0,0 +1,1021 @@
+package be.re.css;
+
+import be.re.xml.sax.EventSpool;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.MimeConstants;
+import org.apache.fop.apps.PageSequenceResults;
+import org.apache.fop.render.intermediate.IFContext;
+import org.apache.fop.render.intermediate.IFDocumentHandler;
+import org.apache.fop.render.intermediate.IFDocumentNavigationHandler;
+import org.apache.fop.render.intermediate.IFException;
+import org.apache.fop.render.intermediate.IFParser;
+import org.apache.fop.render.intermediate.IFSerializer;
+import org.apache.fop.render.intermediate.IFUtil;
+import org.apache.fop.render.intermediate.extensions.AbstractAction;
+import org.apache.fop.render.intermediate.extensions.BookmarkTree;
+import org.apache.fop.render.intermediate.extensions.GoToXYAction;
+import org.apache.fop.render.intermediate.extensions.Link;
+import org.apache.fop.render.intermediate.extensions.NamedDestination;
+import org.apache.fop.render.intermediate.util.IFDocumentHandlerProxy;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Renders the page sequences of an XSL-FO document in groups on several
+ * threads. The document is recorded first. Each group is then rendered to
+ * FOP's intermediate format as a document of its own, with the root element,
+ * the layout master set and the declarations, and the results are
+ * concatenated into the final output.
+ *
+ * The page numbers of a group depend on the page counts of the groups before
+ * it. The groups are first rendered as if they were on their own. Those that
+ * continue the page numbering or refer to the last page are then rendered
+ * again with the page numbers that follow from the counts, until the counts
+ * no longer change. References to the <code>last-page</code> block, which
+ * the style sheets produce for the total number of pages, are replaced by the
+ * number. Documents in which links or other page references cross groups are
+ * rendered in one piece, as are documents with bookmarks.
+ *
+ * @author Gerke Geurts
+ */
+class PageSequenceRenderer implements ContentHandler
+{
+    private static final String LAST_PAGE = "last-page";
+    private static final int MAX_ROUNDS = 4;
+
+    private int depth;
+    private int groupCount;
+    private final List<String> pendingPrefixes = new ArrayList<>();
+    private final List<String> pendingURIs = new ArrayList<>();
+    private final int bufferBudget;
+    private EventSpool recording;
+    private final List<String> rootPrefixes = new ArrayList<>();
+    private final List<String> rootURIs = new ArrayList<>();
+    private AttributesImpl rootAttributes;
+    private String rootLocalName;
+    private String rootNamespaceURI;
+    private String rootQName;
+    private Sequence sequence;
+    private final List<Sequence> sequences = new ArrayList<>();
+    private final EventSpool setup;
+    private boolean splittable = true;
+
+    PageSequenceRenderer(int bufferBudget)
+    {
+        this.bufferBudget = bufferBudget;
+        setup = new EventSpool(bufferBudget);
+    }
+
+    /**
+     * Renders the recorded document.
+     * @param fopFactory
+     * @param agent The user agent for the final output. It may be
+     * <code>null</code>.
+     * @param format The MIME type of the output format.
+     * @param out
+     * @param parallelism The number of threads.
+     * @throws Exception
+     */
+    void render(FopFactory fopFactory, FOUserAgent agent, String format, OutputStream out, int parallelism) throws Exception
+    {
+        if (agent == null)
+        {
+            agent = fopFactory.newFOUserAgent();
+        }
+
+        List<Group> groups = split(parallelism);
+
+        groupCount = 1;
+
+        if (groups.size() < 2 || !canRenderInParallel(agent)
+                || fopFactory.getRendererFactory().getDocumentHandlerMaker(format) == null)
+        {
+            Fop fop = fopFactory.newFop(format, agent, out);
+
+            renderDocument(sequences, fop.getDefaultHandler(), null, null);
+            return;
+        }
+
+        ExecutorService executor = new ForkJoinPool(parallelism);
+
+        try
+        {
+            for (Group group : groups)
+            {
+                group.rendered = executor.submit(group.newTask(fopFactory, agent, format));
+            }
+
+            for (int round = 1; layout(groups); ++round)
+            {
+                if (round == MAX_ROUNDS)
+                {
+                    // The page counts keep changing. The numbers would be wrong.
+                    renderDocument(sequences, fopFactory.newFop(format, agent, out).getDefaultHandler(), null, null);
+                    return;
+                }
+
+                for (Group group : groups)
+                {
+                    if (group.stale)
+                    {
+                        group.rendered = executor.submit(group.newTask(fopFactory, agent, format));
+                    }
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        groupCount = groups.size();
+
+        IFDocumentHandler handler = fopFactory.getRendererFactory().createDocumentHandler(agent, format);
+
+        IFUtil.setupFonts(handler);
+        handler.setResult(new StreamResult(out));
+
+        Concatenator concatenator = new Concatenator(handler);
+
+        for (int i = 0; i < groups.size(); ++i)
+        {
+            concatenator.append(get(groups.get(i).rendered), i == 0, i == groups.size() - 1);
+        }
+    }
+
+    /**
+     * The overrides and the structure tree of the user agent can't be split
+     * over the groups.
+     */
+    private static boolean canRenderInParallel(FOUserAgent agent)
+    {
+        return agent.getDocumentHandlerOverride() == null && agent.getRendererOverride() == null
+                && agent.getFOEventHandlerOverride() == null && !agent.isAccessibilityEnabled();
+    }
+
+    /**
+     * A user agent isn't thread-safe, so each group gets a copy of the
+     * settings of the user agent for the final output.
+     */
+    private static FOUserAgent copyAgent(FopFactory fopFactory, FOUserAgent agent)
+    {
+        FOUserAgent copy = fopFactory.newFOUserAgent();
+
+        copy.setProducer(agent.getProducer());
+        copy.setCreator(agent.getCreator());
+        copy.setCreationDate(agent.getCreationDate());
+        copy.setAuthor(agent.getAuthor());
+        copy.setTitle(agent.getTitle());
+        copy.setSubject(agent.getSubject());
+        copy.setKeywords(agent.getKeywords());
+        copy.getRendererOptions().putAll(agent.getRendererOptions());
+
+        if (agent.getBaseURL() != null)
+        {
+            copy.setBaseURL(agent.getBaseURL());
+        }
+
+        if (agent.getFontBaseURL() != null)
+        {
+            copy.setFontBaseURL(agent.getFontBaseURL());
+        }
+
+        copy.setURIResolver(agent.getURIResolver());
+        copy.setTargetResolution(agent.getTargetResolution());
+        copy.setLocatorEnabled(agent.isLocatorEnabled());
+        copy.setConserveMemoryPolicy(agent.isConserveMemoryPolicyEnabled());
+        copy.setComplexScriptFeaturesEnabled(agent.isComplexScriptFeaturesEnabled());
+
+        return copy;
+    }
+
+    private static byte[] get(Future<byte[]> rendered) throws Exception
+    {
+        try
+        {
+            return rendered.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Waits for the rendering of the groups and works out the page numbers
+     * that follow from their page counts.
+     * @return <code>true</code> if some groups must be rendered again.
+     */
+    private boolean layout(List<Group> groups) throws Exception
+    {
+        for (Group group : groups)
+        {
+            get(group.rendered);
+        }
+
+        int last = 0;
+
+        for (Sequence s : sequences)
+        {
+            last = s.getFirstPage(last + 1) + s.pageCount - 1;
+        }
+
+        Sequence lastSequence = sequences.get(sequences.size() - 1);
+        String lastPage = formatPageNumber(last, lastSequence.format != null ? lastSequence.format : "1");
+        boolean stale = false;
+        int previous = 0;
+
+        for (Group group : groups)
+        {
+            Sequence first = group.sequences.get(0);
+            Integer initialPage = first.continues() ? Integer.valueOf(first.getFirstPage(previous + 1)) : null;
+
+            group.stale
+                    = (initialPage != null && !initialPage.equals(group.initialPage))
+                    || (group.citesLastPage && !lastPage.equals(group.lastPage));
+            group.initialPage = initialPage;
+            group.lastPage = lastPage;
+            stale |= group.stale;
+
+            for (Sequence s : group.sequences)
+            {
+                previous = s.getFirstPage(previous + 1) + s.pageCount - 1;
+            }
+        }
+
+        return stale;
+    }
+
+    /**
+     * Forms the groups, which are balanced by the size of their recordings.
+     * A group can't start with a page sequence that depends on the page
+     * numbers of its predecessor in other ways than continuing them, nor
+     * with one on which the page count of its predecessor depends.
+     * @return Only one group if the document can't be split.
+     */
+    private List<Group> split(int parallelism)
+    {
+        List<Group> groups = new ArrayList<>();
+
+        if (!splittable || parallelism < 2 || sequences.size() < 2)
+        {
+            groups.add(new Group(sequences));
+            return groups;
+        }
+
+        long total = 0;
+
+        for (Sequence s : sequences)
+        {
+            total += s.size;
+        }
+
+        long target = total / Math.min(parallelism, sequences.size());
+        List<Sequence> current = new ArrayList<>();
+        long size = 0;
+
+        for (Sequence s : sequences)
+        {
+            if (!current.isEmpty() && size >= target && s.canStartGroup(current.get(current.size() - 1)))
+            {
+                groups.add(new Group(current));
+                current = new ArrayList<>();
+                size = 0;
+            }
+
+            current.add(s);
+            size += s.size;
+        }
+
+        groups.add(new Group(current));
+
+        // A link or a page reference must find its target in its own group.
+        for (Group group : groups)
+        {
+            for (String ref : group.refs)
+            {
+                if (!group.ids.contains(ref))
+                {
+                    List<Group> result = new ArrayList<>();
+
+                    result.add(new Group(sequences));
+                    return result;
+                }
+            }
+        }
+
+        return groups;
+    }
+
+    /**
+     * @return The number of groups the last rendering was split in. It is 1
+     * when the document was rendered in one go.
+     */
+    int getGroupCount()
+    {
+        return groupCount;
+    }
+
+    static String formatPageNumber(int number, String format)
+    {
+        switch (format)
+        {
+            case "a":
+            case "A":
+                StringBuilder letters = new StringBuilder();
+
+                for (int n = number; n > 0; n = (n - 1) / 26)
+                {
+                    letters.insert(0, (char) (format.charAt(0) + (n - 1) % 26));
+                }
+
+                return letters.toString();
+
+            case "i":
+            case "I":
+                String[] symbols = {"m", "cm", "d", "cd", "c", "xc", "l", "xl", "x", "ix", "v", "iv", "i"};
+                int[] values = {1000, 900, 500, 400, 100, 90, 50, 40, 10, 9, 5, 4, 1};
+                StringBuilder roman = new StringBuilder();
+                int n = number;
+
+                for (int i = 0; i < values.length; ++i)
+                {
+                    for (; n >= values[i]; n -= values[i])
+                    {
+                        roman.append(symbols[i]);
+                    }
+                }
+
+                return "I".equals(format) ? roman.toString().toUpperCase() : roman.toString();
+
+            default:
+                String digits = String.valueOf(number);
+
+                // A format such as "01" pads the number with zeros.
+                while (digits.length() < format.length())
+                {
+                    digits = "0" + digits;
+                }
+
+                return digits;
+        }
+    }
+
+    private static boolean isSupportedFormat(String format)
+    {
+        return format == null || format.matches("0*1|[aAiI]");
+    }
+
+    private static String localName(String localName, String qName)
+    {
+        return localName != null && localName.length() > 0 ? localName : qName.substring(qName.indexOf(':') + 1);
+    }
+
+    /**
+     * Sends a document with the given page sequences to the handler.
+     * @param initialPage The initial page number of the first page sequence,
+     * or <code>null</code> to keep it.
+     * @param lastPage The text for the references to the last page, or
+     * <code>null</code> to keep them.
+     */
+    private void renderDocument(List<Sequence> list, ContentHandler handler, Integer initialPage, String lastPage) throws SAXException
+    {
+        handler.startDocument();
+
+        for (int i = 0; i < rootPrefixes.size(); ++i)
+        {
+            handler.startPrefixMapping(rootPrefixes.get(i), rootURIs.get(i));
+        }
+
+        handler.startElement(rootNamespaceURI, rootLocalName, rootQName, rootAttributes);
+
+        // The spool can only replay to one handler at a time.
+        synchronized (setup)
+        {
+            setup.replay(handler);
+        }
+
+        for (int i = 0; i < list.size(); ++i)
+        {
+            list.get(i).events.replay(new Rewriter(handler, i == 0 ? initialPage : null, lastPage));
+        }
+
+        handler.endElement(rootNamespaceURI, rootLocalName, rootQName);
+
+        for (int i = rootPrefixes.size() - 1; i >= 0; --i)
+        {
+            handler.endPrefixMapping(rootPrefixes.get(i));
+        }
+
+        handler.endDocument();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+        if (recording != null)
+        {
+            recording.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+    }
+
+    @Override
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+    {
+        --depth;
+
+        if (depth > 0 && recording != null)
+        {
+            recording.endElement(namespaceURI, localName, qName);
+        }
+
+        if (depth == 1)
+        {
+            recording = null;
+            sequence = null;
+        }
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException
+    {
+        if (depth > 1 && recording != null)
+        {
+            recording.endPrefixMapping(prefix);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+    {
+        characters(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+        if (recording != null)
+        {
+            recording.processingInstruction(target, data);
+        }
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator)
+    {
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException
+    {
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+        depth = 0;
+        pendingPrefixes.clear();
+        pendingURIs.clear();
+        recording = null;
+        rootPrefixes.clear();
+        rootURIs.clear();
+        sequence = null;
+        sequences.clear();
+        setup.clear();
+        splittable = true;
+    }
+
+    @Override
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+    {
+        ++depth;
+
+        String local = localName(localName, qName);
+
+        if (depth == 1)
+        {
+            rootNamespaceURI = namespaceURI;
+            rootLocalName = local;
+            rootQName = qName;
+            rootAttributes = new AttributesImpl(atts);
+            rootPrefixes.addAll(pendingPrefixes);
+            rootURIs.addAll(pendingURIs);
+            pendingPrefixes.clear();
+            pendingURIs.clear();
+            return;
+        }
+
+        if (depth == 2)
+        {
+            if (Constants.XSLFO.equals(namespaceURI) && "page-sequence".equals(local))
+            {
+                sequence = new Sequence(atts.getValue("initial-page-number"), atts.getValue("force-page-count"),
+                        atts.getValue("format"));
+                sequences.add(sequence);
+                recording = sequence.events;
+            }
+            else
+            {
+                // The setup is replayed before all page sequences.
+                splittable &= sequences.isEmpty() && !"bookmark-tree".equals(local);
+                recording = setup;
+            }
+
+            for (int i = 0; i < pendingPrefixes.size(); ++i)
+            {
+                recording.startPrefixMapping(pendingPrefixes.get(i), pendingURIs.get(i));
+            }
+
+            pendingPrefixes.clear();
+            pendingURIs.clear();
+        }
+
+        if (sequence != null)
+        {
+            sequence.inspect(namespaceURI, local, atts);
+        }
+
+        recording.startElement(namespaceURI, local, qName, atts);
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException
+    {
+        if (depth > 1 && recording != null)
+        {
+            recording.startPrefixMapping(prefix, uri);
+        }
+        else
+        {
+            pendingPrefixes.add(prefix);
+            pendingURIs.add(uri);
+        }
+    }
+
+    /**
+     * Appends the intermediate format documents of the groups to the final
+     * output. Unlike FOP's <code>IFConcatenator</code> it keeps the links,
+     * of which the target page indexes are moved to where the pages of the
+     * group end up.
+     */
+    private static class Concatenator extends IFDocumentHandlerProxy implements IFDocumentNavigationHandler
+    {
+        private boolean first;
+        private boolean last;
+        private int offset;
+        private int pageCount;
+        private final Set<AbstractAction> moved = Collections.newSetFromMap(new IdentityHashMap<AbstractAction, Boolean>());
+
+        private Concatenator(IFDocumentHandler delegate)
+        {
+            super(delegate);
+        }
+
+        private void append(byte[] document, boolean first, boolean last) throws Exception
+        {
+            this.first = first;
+            this.last = last;
+            offset = pageCount;
+            moved.clear();
+            new IFParser().parse(new StreamSource(new ByteArrayInputStream(document)), this,
+                    delegate.getContext().getUserAgent());
+        }
+
+        @Override
+        public void addResolvedAction(AbstractAction action) throws IFException
+        {
+            IFDocumentNavigationHandler handler = delegate.getDocumentNavigationHandler();
+
+            if (handler != null)
+            {
+                handler.addResolvedAction(move(action));
+            }
+        }
+
+        @Override
+        public void endDocument() throws IFException
+        {
+            if (last)
+            {
+                super.endDocument();
+            }
+        }
+
+        @Override
+        public void endDocumentHeader() throws IFException
+        {
+            if (first)
+            {
+                super.endDocumentHeader();
+            }
+        }
+
+        @Override
+        public void endDocumentTrailer() throws IFException
+        {
+            if (last)
+            {
+                super.endDocumentTrailer();
+            }
+        }
+
+        @Override
+        public IFDocumentNavigationHandler getDocumentNavigationHandler()
+        {
+            return delegate.getDocumentNavigationHandler() != null ? this : null;
+        }
+
+        @Override
+        public void handleExtensionObject(Object extension) throws IFException
+        {
+            // Only the first document header is kept.
+            if (first || pageCount > offset)
+            {
+                super.handleExtensionObject(extension);
+            }
+        }
+
+        private AbstractAction move(AbstractAction action)
+        {
+            if (action instanceof GoToXYAction && moved.add(action))
+            {
+                GoToXYAction goTo = (GoToXYAction) action;
+
+                if (goTo.getPageIndex() >= 0)
+                {
+                    goTo.setPageIndex(goTo.getPageIndex() + offset);
+                }
+            }
+
+            return action;
+        }
+
+        @Override
+        public void renderBookmarkTree(BookmarkTree tree) throws IFException
+        {
+            // Documents with bookmarks are not split.
+            delegate.getDocumentNavigationHandler().renderBookmarkTree(tree);
+        }
+
+        @Override
+        public void renderLink(Link link) throws IFException
+        {
+            link.setAction(move(link.getAction()));
+            delegate.getDocumentNavigationHandler().renderLink(link);
+        }
+
+        @Override
+        public void renderNamedDestination(NamedDestination destination) throws IFException
+        {
+            destination.setAction(move(destination.getAction()));
+            delegate.getDocumentNavigationHandler().renderNamedDestination(destination);
+        }
+
+        @Override
+        public void startDocument() throws IFException
+        {
+            if (first)
+            {
+                super.startDocument();
+            }
+        }
+
+        @Override
+        public void startDocumentHeader() throws IFException
+        {
+            if (first)
+            {
+                super.startDocumentHeader();
+            }
+        }
+
+        @Override
+        public void startDocumentTrailer() throws IFException
+        {
+            if (last)
+            {
+                super.startDocumentTrailer();
+            }
+        }
+
+        @Override
+        public void startPage(int index, String name, String pageMasterName, Dimension size) throws IFException
+        {
+            super.startPage(offset + index, name, pageMasterName, size);
+            pageCount = Math.max(pageCount, offset + index + 1);
+        }
+    } // Concatenator
+
+    private class Group
+    {
+        private boolean citesLastPage;
+        private final Set<String> ids = new HashSet<>();
+        private Integer initialPage;
+        private String lastPage;
+        private final Set<String> refs = new HashSet<>();
+        private Future<byte[]> rendered;
+        private final List<Sequence> sequences;
+        private boolean stale;
+
+        private Group(List<Sequence> sequences)
+        {
+            this.sequences = sequences;
+
+            for (Sequence s : sequences)
+            {
+                ids.addAll(s.ids);
+                refs.addAll(s.refs);
+            }
+
+            citesLastPage = refs.remove(LAST_PAGE) && !ids.contains(LAST_PAGE);
+            initialPage = !sequences.isEmpty() && sequences.get(0).continues() ? Integer.valueOf(1) : null;
+        }
+
+        private Callable<byte[]> newTask(final FopFactory fopFactory, final FOUserAgent template, final String format)
+        {
+            final Integer page = initialPage;
+            final String text = citesLastPage ? (lastPage != null ? lastPage : "0") : null;
+
+            return new Callable<byte[]>()
+            {
+                @Override
+                public byte[] call() throws Exception
+                {
+                    FOUserAgent agent = copyAgent(fopFactory, template);
+                    IFSerializer serializer = new IFSerializer();
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+                    serializer.setContext(new IFContext(agent));
+                    serializer.mimicDocumentHandler(fopFactory.getRendererFactory().createDocumentHandler(agent, format));
+                    agent.setDocumentHandlerOverride(serializer);
+
+                    Fop fop = fopFactory.newFop(MimeConstants.MIME_FOP_IF, agent, out);
+
+                    renderDocument(sequences, fop.getDefaultHandler(), page, text);
+
+                    List<?> results = fop.getResults().getPageSequences();
+
+                    for (int i = 0; i < sequences.size() && i < results.size(); ++i)
+                    {
+                        sequences.get(i).pageCount = ((PageSequenceResults) results.get(i)).getPageCount();
+                    }
+
+                    return out.toByteArray();
+                }
+            };
+        }
+    } // Group
+
+    /**
+     * Sets the initial page number of the first page sequence and replaces
+     * the references to the last page.
+     */
+    private static class Rewriter implements ContentHandler
+    {
+        private final ContentHandler handler;
+        private Integer initialPage;
+        private final String lastPage;
+        private int skip;
+
+        private Rewriter(ContentHandler handler, Integer initialPage, String lastPage)
+        {
+            this.handler = handler;
+            this.initialPage = initialPage;
+            this.lastPage = lastPage;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException
+        {
+            if (skip == 0)
+            {
+                handler.characters(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endDocument() throws SAXException
+        {
+        }
+
+        @Override
+        public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+        {
+            if (skip > 0)
+            {
+                --skip;
+                return;
+            }
+
+            handler.endElement(namespaceURI, localName, qName);
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) throws SAXException
+        {
+            handler.endPrefixMapping(prefix);
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+        {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) throws SAXException
+        {
+            if (skip == 0)
+            {
+                handler.processingInstruction(target, data);
+            }
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator)
+        {
+        }
+
+        @Override
+        public void skippedEntity(String name) throws SAXException
+        {
+        }
+
+        @Override
+        public void startDocument() throws SAXException
+        {
+        }
+
+        @Override
+        public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+        {
+            if (skip > 0)
+            {
+                ++skip;
+                return;
+            }
+
+            if (initialPage != null && Constants.XSLFO.equals(namespaceURI) && "page-sequence".equals(localName))
+            {
+                AttributesImpl attributes = new AttributesImpl(atts);
+                int index = attributes.getIndex("", "initial-page-number");
+
+                if (index == -1)
+                {
+                    attributes.addAttribute("", "initial-page-number", "initial-page-number", "CDATA", initialPage.toString());
+                }
+                else
+                {
+                    attributes.setValue(index, initialPage.toString());
+                }
+
+                initialPage = null;
+                handler.startElement(namespaceURI, localName, qName, attributes);
+                return;
+            }
+
+            if (lastPage != null && Constants.XSLFO.equals(namespaceURI) && "page-number-citation".equals(localName)
+                    && LAST_PAGE.equals(atts.getValue("ref-id")))
+            {
+                skip = 1;
+                handler.characters(lastPage.toCharArray(), 0, lastPage.length());
+                return;
+            }
+
+            handler.startElement(namespaceURI, localName, qName, atts);
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) throws SAXException
+        {
+            handler.startPrefixMapping(prefix, uri);
+        }
+    } // Rewriter
+
+    private class Sequence
+    {
+        private final EventSpool events = new EventSpool(bufferBudget);
+        private final String forcePageCount;
+        private final String format;
+        private final Set<String> ids = new HashSet<>();
+        private final String initialPageNumber;
+        private int pageCount;
+        private final Set<String> refs = new HashSet<>();
+        private long size;
+
+        private Sequence(String initialPageNumber, String forcePageCount, String format)
+        {
+            this.initialPageNumber = initialPageNumber != null ? initialPageNumber.trim() : null;
+            this.forcePageCount = forcePageCount != null ? forcePageCount.trim() : "auto";
+            this.format = format;
+        }
+
+        /**
+         * With <code>force-page-count="auto"</code> the last page of the
+         * previous sequence gets the other parity than a numeric initial page
+         * number of this one. Without this sequence in its group it wouldn't.
+         */
+        private boolean canStartGroup(Sequence previous)
+        {
+            return continues()
+                    || (initialPageNumber.matches("[0-9]+")
+                    && previous.forcePageCount.matches("no-force|even|odd|end-on-even|end-on-odd"));
+        }
+
+        private boolean continues()
+        {
+            return initialPageNumber == null || "auto".equals(initialPageNumber);
+        }
+
+        /**
+         * @param next The page number that would follow the previous page
+         * sequence.
+         */
+        private int getFirstPage(int next)
+        {
+            if (initialPageNumber == null || "auto".equals(initialPageNumber))
+            {
+                return next;
+            }
+
+            if (initialPageNumber.matches("[0-9]+"))
+            {
+                return Integer.parseInt(initialPageNumber);
+            }
+
+            if ("auto-odd".equals(initialPageNumber))
+            {
+                return next % 2 == 1 ? next : next + 1;
+            }
+
+            if ("auto-even".equals(initialPageNumber))
+            {
+                return next % 2 == 0 ? next : next + 1;
+            }
+
+            return next;
+        }
+
+        private void inspect(String namespaceURI, String localName, Attributes atts)
+        {
+            ++size;
+
+            String id = atts.getValue("id");
+
+            if (id != null)
+            {
+                ids.add(id);
+            }
+
+            if (!Constants.XSLFO.equals(namespaceURI))
+            {
+                return;
+            }
+
+            String ref = "basic-link".equals(localName)
+                    ? atts.getValue("internal-destination")
+                    : ("page-number-citation".equals(localName) || "page-number-citation-last".equals(localName)
+                            ? atts.getValue("ref-id") : null);
+
+            if (ref != null)
+            {
+                refs.add(ref.trim());
+
+                // Only plain citations of the last page can be replaced.
+                splittable &= !LAST_PAGE.equals(ref.trim()) || "page-number-citation".equals(localName);
+            }
+
+            if ("page-sequence".equals(localName) && !isSupportedFormat(format))
+            {
+                splittable = false;
+            }
+        }
+    } // Sequence
+} // PageSequenceRenderer
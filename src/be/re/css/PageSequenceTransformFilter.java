@@ -0,0 +1,532 @@
+package be.re.css;
+
+import be.re.xml.sax.EventSpool;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Transforms the output of the page setup with <code>style/css.xsl</code> one
+ * page sequence at a time. Each <code>css:page-sequence</code> is recorded
+ * and, as soon as it ends, transformed as a small document of its own, which
+ * consists of the <code>css:root</code> element, the <code>css:pages</code>
+ * page setup, which is recorded once, and the page sequence. The first
+ * transformation produces the start of the XSL-FO document. Of the later ones
+ * only the page sequences, or the content of the flow when there is no page
+ * setup, are passed on. The end of the document is held back until the input
+ * ends. This way the transformer never holds more than the largest page
+ * sequence and the output starts before the whole document is read.
+ *
+ * @author Gerke Geurts
+ */
+class PageSequenceTransformFilter extends XMLFilterImpl
+{
+    private final int bufferBudget;
+    private int depth;
+    private boolean ignore;
+    private final Merger merger = new Merger();
+    private final List<String> pendingPrefixes = new ArrayList<>();
+    private final List<String> pendingURIs = new ArrayList<>();
+    private EventSpool recording;
+    private final Replayer replayer = new Replayer();
+    private final List<String> rootPrefixes = new ArrayList<>();
+    private String rootLocalName;
+    private String rootNamespaceURI;
+    private String rootQName;
+    private final EventSpool sequence;
+    private final EventSpool setup;
+    private boolean setupHasPages;
+    private boolean transformed;
+    private final Transformer transformer;
+
+    PageSequenceTransformFilter(Templates templates, Map<String, String> userAgentParameters, int bufferBudget) throws TransformerConfigurationException
+    {
+        this.bufferBudget = bufferBudget;
+        transformer = templates.newTransformer();
+        sequence = new EventSpool(bufferBudget);
+        setup = new EventSpool(bufferBudget);
+        setUserAgentParameters(userAgentParameters);
+    }
+
+    PageSequenceTransformFilter(Templates templates, Map<String, String> userAgentParameters, int bufferBudget, XMLReader parent) throws TransformerConfigurationException
+    {
+        this(templates, userAgentParameters, bufferBudget);
+        setParent(parent);
+    }
+
+    final void setUserAgentParameters(Map<String, String> userAgentParameters)
+    {
+        transformer.clearParameters();
+
+        for (Map.Entry<String, String> entry : userAgentParameters.entrySet())
+        {
+            transformer.setParameter(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+        if (recording != null)
+        {
+            recording.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+        sequence.clear();
+        setup.clear();
+        merger.tail.clear();
+        super.endDocument();
+    }
+
+    @Override
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+    {
+        --depth;
+
+        if (ignore)
+        {
+            return;
+        }
+
+        if (depth > 1 && recording != null)
+        {
+            recording.endElement(namespaceURI, localName, qName);
+        }
+        else if (depth == 1 && recording != null)
+        {
+            recording.endElement(namespaceURI, localName, qName);
+
+            if (recording == sequence)
+            {
+                transform();
+                sequence.clear();
+            }
+
+            recording = null;
+        }
+        else if (depth == 0)
+        {
+            if (!transformed)
+            {
+                transform();
+            }
+
+            merger.tail.replay(getContentHandler());
+        }
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException
+    {
+        // The mappings of the root are ended when a chunk is replayed. Those
+        // of the page sequences have ended with their transformation.
+        if (!ignore && depth > 1 && recording != null)
+        {
+            recording.endPrefixMapping(prefix);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+    {
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+        if (recording != null)
+        {
+            recording.processingInstruction(target, data);
+        }
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException
+    {
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+        depth = 0;
+        ignore = false;
+        merger.tail.clear();
+        pendingPrefixes.clear();
+        pendingURIs.clear();
+        recording = null;
+        rootPrefixes.clear();
+        sequence.clear();
+        setup.clear();
+        setupHasPages = false;
+        transformed = false;
+        super.startDocument();
+    }
+
+    @Override
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+    {
+        ++depth;
+
+        if (ignore)
+        {
+            return;
+        }
+
+        if (depth == 1)
+        {
+            if (Constants.CSS != namespaceURI || !"root".equals(localName))
+            {
+                // The style sheet produces nothing for other documents.
+                ignore = true;
+                return;
+            }
+
+            rootNamespaceURI = namespaceURI;
+            rootLocalName = localName;
+            rootQName = qName;
+            startPending(setup);
+            setup.startElement(namespaceURI, localName, qName, atts);
+        }
+        else if (depth == 2 && Constants.CSS == namespaceURI && "pages".equals(localName))
+        {
+            recording = setup;
+            setupHasPages = true;
+        }
+        else if (depth == 2 && Constants.CSS == namespaceURI && "page-sequence".equals(localName))
+        {
+            recording = sequence;
+        }
+
+        if (depth > 1 && recording != null)
+        {
+            startPending(recording);
+            recording.startElement(namespaceURI, localName, qName, atts);
+        }
+        else
+        {
+            pendingPrefixes.clear();
+            pendingURIs.clear();
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException
+    {
+        if (ignore)
+        {
+            return;
+        }
+
+        if (depth > 1 && recording != null)
+        {
+            recording.startPrefixMapping(prefix, uri);
+        }
+        else
+        {
+            pendingPrefixes.add(prefix);
+            pendingURIs.add(uri);
+        }
+    }
+
+    private void startPending(EventSpool spool) throws SAXException
+    {
+        for (int i = 0; i < pendingPrefixes.size(); ++i)
+        {
+            spool.startPrefixMapping(pendingPrefixes.get(i), pendingURIs.get(i));
+
+            if (spool == setup && depth == 1)
+            {
+                rootPrefixes.add(pendingPrefixes.get(i));
+            }
+        }
+
+        pendingPrefixes.clear();
+        pendingURIs.clear();
+    }
+
+    private void transform() throws SAXException
+    {
+        merger.startChunk(!transformed, setupHasPages);
+        transformed = true;
+
+        try
+        {
+            transformer.transform(new SAXSource(replayer, new InputSource()), new SAXResult(merger));
+        }
+        catch (TransformerException e)
+        {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Receives the transformations of the chunks and passes on what belongs
+     * in the XSL-FO document. The children of the container, which is
+     * <code>fo:root</code> when there is a page setup and the
+     * <code>fo:flow</code> of the document otherwise, are the parts a chunk
+     * contributes. The events after the container of the first chunk are kept
+     * for the end of the document.
+     */
+    private class Merger implements ContentHandler
+    {
+        private int containerDepth;
+        private int depth;
+        private boolean first;
+        private int partDepth;
+        private final List<String> partPrefixes = new ArrayList<>();
+        private final List<String> pendingPrefixes = new ArrayList<>();
+        private final List<String> pendingURIs = new ArrayList<>();
+        private boolean tailing;
+        private final EventSpool tail = new EventSpool(bufferBudget);
+        private boolean withPages;
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException
+        {
+            if (tailing)
+            {
+                tail.characters(ch, start, length);
+            }
+            else if (first || partDepth > 0)
+            {
+                getContentHandler().characters(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endDocument() throws SAXException
+        {
+        }
+
+        @Override
+        public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+        {
+            if (tailing)
+            {
+                tail.endElement(namespaceURI, localName, qName);
+            }
+            else if (first && depth == containerDepth)
+            {
+                tailing = true;
+                tail.endElement(namespaceURI, localName, qName);
+            }
+            else if (first)
+            {
+                getContentHandler().endElement(namespaceURI, localName, qName);
+            }
+            else if (partDepth > 0)
+            {
+                getContentHandler().endElement(namespaceURI, localName, qName);
+
+                if (--partDepth == 0)
+                {
+                    for (String prefix : partPrefixes)
+                    {
+                        getContentHandler().endPrefixMapping(prefix);
+                    }
+
+                    partPrefixes.clear();
+                }
+            }
+
+            --depth;
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) throws SAXException
+        {
+            if (tailing)
+            {
+                tail.endPrefixMapping(prefix);
+            }
+            else if (first || partDepth > 0)
+            {
+                getContentHandler().endPrefixMapping(prefix);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+        {
+            if (tailing)
+            {
+                tail.ignorableWhitespace(ch, start, length);
+            }
+            else if (first || partDepth > 0)
+            {
+                getContentHandler().ignorableWhitespace(ch, start, length);
+            }
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) throws SAXException
+        {
+            if (tailing)
+            {
+                tail.processingInstruction(target, data);
+            }
+            else if (first || partDepth > 0)
+            {
+                getContentHandler().processingInstruction(target, data);
+            }
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator)
+        {
+        }
+
+        @Override
+        public void skippedEntity(String name) throws SAXException
+        {
+            if (tailing)
+            {
+                tail.skippedEntity(name);
+            }
+            else if (first || partDepth > 0)
+            {
+                getContentHandler().skippedEntity(name);
+            }
+        }
+
+        private void startChunk(boolean first, boolean withPages)
+        {
+            this.first = first;
+            this.withPages = withPages;
+            containerDepth = -1;
+            depth = 0;
+            partDepth = 0;
+            partPrefixes.clear();
+            tailing = false;
+            pendingPrefixes.clear();
+            pendingURIs.clear();
+        }
+
+        @Override
+        public void startDocument() throws SAXException
+        {
+        }
+
+        @Override
+        public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+        {
+            ++depth;
+
+            if (tailing)
+            {
+                tail.startElement(namespaceURI, localName, qName, atts);
+                return;
+            }
+
+            // The serializer of the transformer doesn't always give the local
+            // name.
+            String name = qName.substring(qName.indexOf(':') + 1);
+
+            if (containerDepth == -1 && Constants.XSLFO.equals(namespaceURI) && (withPages ? depth == 1 && "root".equals(name) : depth == 3 && "flow".equals(name)))
+            {
+                containerDepth = depth;
+            }
+
+            if (first)
+            {
+                getContentHandler().startElement(namespaceURI, localName, qName, atts);
+            }
+            else if (partDepth > 0)
+            {
+                ++partDepth;
+                getContentHandler().startElement(namespaceURI, localName, qName, atts);
+            }
+            else if (containerDepth != -1 && depth == containerDepth + 1 && !"layout-master-set".equals(name))
+            {
+                partDepth = 1;
+
+                for (int i = 0; i < pendingPrefixes.size(); ++i)
+                {
+                    getContentHandler().startPrefixMapping(pendingPrefixes.get(i), pendingURIs.get(i));
+                }
+
+                partPrefixes.addAll(pendingPrefixes);
+                getContentHandler().startElement(namespaceURI, localName, qName, atts);
+            }
+
+            pendingPrefixes.clear();
+            pendingURIs.clear();
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) throws SAXException
+        {
+            if (tailing)
+            {
+                tail.startPrefixMapping(prefix, uri);
+            }
+            else if (first || partDepth > 0)
+            {
+                getContentHandler().startPrefixMapping(prefix, uri);
+            }
+            else
+            {
+                pendingPrefixes.add(prefix);
+                pendingURIs.add(uri);
+            }
+        }
+    } // Merger
+
+    /**
+     * Produces a chunk for the transformer: the recorded root and page setup,
+     * followed by the recorded page sequence.
+     */
+    private class Replayer extends XMLFilterImpl
+    {
+        @Override
+        public void parse(InputSource input) throws SAXException
+        {
+            ContentHandler handler = getContentHandler();
+
+            handler.startDocument();
+            setup.replay(handler);
+            sequence.replay(handler);
+            handler.endElement(rootNamespaceURI, rootLocalName, rootQName);
+
+            for (String prefix : rootPrefixes)
+            {
+                handler.endPrefixMapping(prefix);
+            }
+
+            handler.endDocument();
+        }
+
+        @Override
+        public void parse(String systemId) throws SAXException
+        {
+            parse(new InputSource(systemId));
+        }
+
+        @Override
+        public void setFeature(String name, boolean value)
+        {
+        }
+
+        @Override
+        public void setProperty(String name, Object value)
+        {
+        }
+    } // Replayer
+} // PageSequenceTransformFilter
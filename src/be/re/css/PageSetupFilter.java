@@ -1,8 +1,9 @@
 package be.re.css;
 
 import be.re.xml.DOMToContentHandler;
-import be.re.xml.sax.GobbleDocumentEvents;
+import be.re.xml.sax.EventSpool;
 import be.re.xml.sax.FilterOfFilters;
+import be.re.xml.sax.GobbleDocumentEvents;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -70,21 +71,29 @@ class PageSetupFilter extends XMLFilterImpl
     private URL baseUrl;
     private final Context context;
     private final boolean debug;
+    private final int bufferBudget;
     private final Stack<Element> elements = new Stack<>();
-    private final Map<String, String> userAgentParameters;
+    private Recorder recorder;
+    private Map<String, String> userAgentParameters;
 
-    PageSetupFilter(Context context, URL baseUrl, Map<String, String> userAgentParameters, boolean debug)
+    /**
+     * @param bufferBudget The number of bytes the elements before the body
+     * region may occupy in memory before they are spilled to a temporary file.
+     */
+    PageSetupFilter(Context context, URL baseUrl, Map<String, String> userAgentParameters, int bufferBudget, boolean debug)
     {
         this.context = context;
+        this.bufferBudget = bufferBudget;
         this.baseUrl = baseUrl;
         this.userAgentParameters = userAgentParameters;
         this.debug = debug;
     }
 
-    PageSetupFilter(Context context, URL baseUrl, Map<String, String> userAgentParameters, XMLReader parent, boolean debug)
+    PageSetupFilter(Context context, URL baseUrl, Map<String, String> userAgentParameters, int bufferBudget, XMLReader parent, boolean debug)
     {
         super(parent);
         this.context = context;
+        this.bufferBudget = bufferBudget;
         this.baseUrl = baseUrl;
         this.userAgentParameters = userAgentParameters;
         this.debug = debug;
@@ -225,11 +234,11 @@ class PageSetupFilter extends XMLFilterImpl
         }
         if (columnCount != null)
         {
-            regionAtts.addAttribute("", "column-count", "columnt-count", "CDATA", columnCount);
+            regionAtts.addAttribute("", "column-count", "column-count", "CDATA", columnCount);
         }
         if (columnGap != null)
         {
-            regionAtts.addAttribute("", "column-gap", "columnt-gap", "CDATA", columnGap);
+            regionAtts.addAttribute("", "column-gap", "column-gap", "CDATA", columnGap);
         }
 
         super.startElement(Constants.XSLFO, "region-body", "fo:region-body", regionAtts);
@@ -695,6 +704,11 @@ class PageSetupFilter extends XMLFilterImpl
         this.baseUrl = baseUrl;
     }
 
+    void setUserAgentParameters(Map<String, String> userAgentParameters)
+    {
+        this.userAgentParameters = userAgentParameters;
+    }
+
     private boolean shouldEmitContents()
     {
         return !elements.isEmpty() && elements.peek().inBodyRegion;
@@ -717,12 +731,24 @@ class PageSetupFilter extends XMLFilterImpl
     @Override
     public void startDocument() throws SAXException
     {
+        elements.clear();
+
+        if (recorder == null)
+        {
+            recorder = new Recorder();
+        }
+        else
+        {
+            // A failed document may have left a spilled recording behind.
+            recorder.events.clear();
+        }
+
         super.startDocument();
         startPrefixMapping("css", Constants.CSS);
         startPrefixMapping("xh", Constants.XHTML);
         startPrefixMapping("sp", Constants.SPECIF);
         startPrefixMapping("fo", Constants.XSLFO);
-        getParent().setContentHandler(new Recorder());
+        getParent().setContentHandler(recorder);
     }
 
     @Override
@@ -852,29 +878,28 @@ class PageSetupFilter extends XMLFilterImpl
 
     } // Element
 
+    /**
+     * Records the elements before the body region, which are replayed as soon
+     * as it starts. The recording is spilled to a temporary file when it
+     * exceeds the memory budget.
+     */
     private class Recorder extends XMLFilterImpl
     {
-        private final List<Event> events = new ArrayList<>();
+        private final EventSpool events = new EventSpool(bufferBudget);
 
         @Override
-        public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+        public void endDocument() throws SAXException
         {
-            events.add(new Event(namespaceURI, localName, qName, null));
+            // Without a body region nothing is produced, but the filter is
+            // put back for the next document.
+            events.clear();
+            PageSetupFilter.this.getParent().setContentHandler(PageSetupFilter.this);
         }
 
-        private void replayEvents() throws SAXException
+        @Override
+        public void endElement(String namespaceURI, String localName, String qName) throws SAXException
         {
-            for (Event event: events)
-            {
-                if (event.atts != null)
-                {
-                    PageSetupFilter.this.startElement(event.namespaceURI, event.localName, event.qName, event.atts);
-                }
-                else
-                {
-                    PageSetupFilter.this.endElement(event.namespaceURI, event.localName, event.qName);
-                }
-            }
+            events.endElement(namespaceURI, localName, qName);
         }
 
         @Override
@@ -883,29 +908,21 @@ class PageSetupFilter extends XMLFilterImpl
             boolean inBodyRegion = "body".equals(atts.getValue(Constants.CSS, "region"));
             if (inBodyRegion)
             {
-                replayEvents();
+                try
+                {
+                    events.replay(PageSetupFilter.this);
+                }
+                finally
+                {
+                    events.clear();
+                }
+
                 PageSetupFilter.this.startElement(namespaceURI, localName, qName, atts);
                 PageSetupFilter.this.getParent().setContentHandler(PageSetupFilter.this);
                 return;
             }
             
-            events.add(new Event(namespaceURI, localName, qName, atts));
+            events.startElement(namespaceURI, localName, qName, atts);
         }
-
-        private class Event
-        {
-            private Attributes atts;
-            private String localName;
-            private String namespaceURI;
-            private String qName;
-
-            private Event(String namespaceURI, String localName, String qName, Attributes atts)
-            {
-                this.namespaceURI = namespaceURI;
-                this.localName = localName;
-                this.qName = qName;
-                this.atts = (atts == null ? null : new AttributesImpl(atts));
-            }
-        } // Event
     } // Recorder
 } // PageSetupFilter
@@ -1,11 +1,12 @@
 package be.re.css;
 
 import be.re.xml.Accumulator;
-import be.re.xml.DOMToContentHandler;
+import be.re.xml.EventBuffer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -16,11 +17,10 @@ import java.util.Stack;
 import java.util.StringTokenizer;
 import org.w3c.css.sac.CSSException;
 import org.w3c.css.sac.LexicalUnit;
-import org.w3c.dom.Node;
-import org.w3c.dom.Text;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLFilter;
+import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.XMLFilterImpl;
 
@@ -43,6 +43,11 @@ import org.xml.sax.helpers.XMLFilterImpl;
  * it easier to write an XSLT style sheet which transforms the result of this
  * class into XSL-FO.
  *
+ * The descendants of an element with "display: none" are not emitted, unless
+ * they have properties with side effects such as counters, named strings or
+ * regions. The matcher still sees them, so style sheets that are embedded in
+ * such a subtree keep working.
+ *
  * @author Werner Donn\u00e9
  * @author Gerke Geurts
  */
@@ -59,6 +64,15 @@ class ProjectorFilter extends XMLFilterImpl
     private static final String FIRST_LINE = "first-line".intern();
     private static final String LINK = "link".intern();
     private static final String STYLE = "style".intern();
+    private static final int STRING_SET_POOL_SIZE = 4;
+
+    /**
+     * The properties that have an effect beyond the element they are set on,
+     * even when it is not displayed. Elements in a hidden subtree that match a
+     * rule for one of these are not pruned.
+     */
+    private static final Set<String> SIDE_EFFECT_PROPERTIES = new HashSet<>(Arrays.asList(
+            "counter-increment", "counter-reset", "page", "region", "string-set"));
 
     private static final String[][] pageFormatTable =
     {
@@ -84,14 +98,17 @@ class ProjectorFilter extends XMLFilterImpl
     private final CSSResolver cssResolver;
     private final Context context;
     private URL baseUrl = null;
+    private final EventBuffer.Pool buffers = new EventBuffer.Pool(STRING_SET_POOL_SIZE);
     private boolean collectStyleSheet = false;
-    private final Stack<Map<String, Integer>> counters = new Stack<>();
     private final Stack<Element> elements = new Stack<>();
     private String embeddedStyleSheet = "";
     private Matcher matcher = null;
-    private final Stack<Map<String, String>> namedStrings = new Stack<>();
+    private boolean namesInterned = false;
     private int quoteDepth = 0;
     // Filter state because quotes can match across the whole document.
+    private Element scope = null;
+    // The element whose children are in the current counter and named string
+    // scope.
     private Map<String, String> userAgentParameters;
     private URL userAgentStyleSheet = null;
 
@@ -113,12 +130,12 @@ class ProjectorFilter extends XMLFilterImpl
         this.context = context;
     }
 
-    private static void addFOMarker(Node parent, String name, String value)
+    private static void addFOMarker(EventBuffer buffer, int parent, String name, String value)
     {
-        org.w3c.dom.Element element = parent.getOwnerDocument().createElementNS(Constants.CSS, "css:fo-marker");
-        element.appendChild(parent.getOwnerDocument().createTextNode(value));
-        element.setAttributeNS(Constants.CSS, "css:name", name);
-        parent.insertBefore(element, parent.getFirstChild());
+        int element = buffer.createElement(Constants.CSS, "css:fo-marker");
+        buffer.appendChild(element, buffer.createText(value));
+        buffer.setAttribute(element, Constants.CSS, "css:name", name);
+        buffer.insertBefore(parent, element, buffer.getFirstChild(parent));
     }
 
     @SuppressWarnings("StringEquality")
@@ -143,7 +160,9 @@ class ProjectorFilter extends XMLFilterImpl
         {
             for (Property p : cssRule.getProperties())
             {
-                result.add(new Rule(cssRule, p, Integer.MAX_VALUE, Integer.MAX_VALUE));
+                Rule rule = new Rule(cssRule, p, Integer.MAX_VALUE, Integer.MAX_VALUE);
+                context.addFeatures(RuleSet.getFeatures(rule));
+                result.add(rule);
             }
         }
         
@@ -255,7 +274,10 @@ class ProjectorFilter extends XMLFilterImpl
             embeddedStyleSheet += new String(ch, start, length);
         }
 
-        super.characters(ch, start, length);
+        if (!elements.peek().pruned)
+        {
+            super.characters(ch, start, length);
+        }
     }
 
     private static String convertPageFormat(String listStyle)
@@ -301,8 +323,7 @@ class ProjectorFilter extends XMLFilterImpl
     @Override
     public void endElement(String namespaceURI, String localName, String qName) throws SAXException
     {
-        counters.pop();
-        namedStrings.pop();
+        scope = elements.get(elements.size() - 2);
         matcher.endElement(namespaceURI, localName, qName);
 
         if (collectStyleSheet)
@@ -314,6 +335,11 @@ class ProjectorFilter extends XMLFilterImpl
 
         Element element = elements.pop();
 
+        if (element.pruned)
+        {
+            return;
+        }
+
         applyPseudoRules(element, AFTER);
         super.endElement(element.namespaceURI, element.localName, element.qName);
         element.matchingElementRules = null;
@@ -357,10 +383,12 @@ class ProjectorFilter extends XMLFilterImpl
             return "";
         }
 
-        Integer value = findCounterScope(counter).get(counter.toLowerCase());
+        counter = counter.toLowerCase();
+
+        int value = findCounterScope(counter).getCounter(counter);
         String listStyle = getCounterListStyle(function);
 
-        return value != null && !"none".equalsIgnoreCase(listStyle)
+        return !"none".equalsIgnoreCase(listStyle)
                 && !"inherit".equalsIgnoreCase(listStyle)
                         ? getCounterString(value, listStyle) 
                         : "";
@@ -436,33 +464,51 @@ class ProjectorFilter extends XMLFilterImpl
         }
 
         String name = function.getParameters().getStringValue().toLowerCase();
-        String value = findNamedStringScope(name).get(name);
+        String value = findNamedStringScope(name).getString(name);
 
         return value != null ? value : "";
     }
 
-    private Map<String, Integer> findCounterScope(String counter)
+    private Scope findCounterScope(String counter)
     {
-        return findScope(counters, counter, 0);
+        Scope result = scope.counters.find(counter);
+
+        if (result == null)
+        {
+            // The highest scope is the default scope.
+            result = elements.get(0).counters;
+            result.setCounter(counter, 0);
+        }
+
+        return result;
     }
 
-    private Map<String, String> findNamedStringScope(String namedString)
+    private Scope findNamedStringScope(String namedString)
     {
-        return findScope(namedStrings, namedString, "");
+        Scope result = scope.namedStrings.find(namedString);
+
+        if (result == null)
+        {
+            // The highest scope is the default scope.
+            result = elements.get(0).namedStrings;
+            result.setString(namedString, "");
+        }
+
+        return result;
     }
 
-    private static <V> Map<String, V> findScope(Stack<Map<String, V>> scopes, String item, V defaultValue)
+    /**
+     * Returns the counter scope of the current scope element, which is created
+     * when it doesn't have one of its own yet.
+     */
+    private Scope getOwnCounterScope()
     {
-        for (int i = scopes.size() - 1; i >= 0; --i)
+        if (scope.counters.owner != scope)
         {
-            Map<String, V> scope = scopes.get(i);
-            if (scope.containsKey(item)) return scope;
+            scope.counters = new Scope(scope, scope.counters);
         }
 
-        // The highest scope is the default scope.
-        Map<String, V> defaultScope = scopes.get(0);
-        defaultScope.put(item, defaultValue);
-        return defaultScope;
+        return scope.counters;
     }
 
     public URL getBaseUrl()
@@ -543,32 +589,40 @@ class ProjectorFilter extends XMLFilterImpl
 
     private String getCountersString(String counter, String separator, String listStyle)
     {
-        String result = "";
+        return getCountersString(scope.counters, counter, separator, listStyle);
+    }
 
-        for (Map scope : counters)
+    private static String getCountersString(Scope scope, String counter, String separator, String listStyle)
+    {
+        if (scope == null)
         {
-            Integer value = (Integer) scope.get(counter);
-            if (value != null)
-            {
-                result += (result.equals("") ? "" : separator) + getCounterString(value, listStyle);
-            }
+            return "";
         }
 
-        return result;
+        String result = getCountersString(scope.parent, counter, separator, listStyle);
+        int index = scope.indexOf(counter);
+
+        return index != -1
+                ? result + (result.equals("") ? "" : separator) + getCounterString(scope.counters[index], listStyle)
+                : result;
     }
 
-    private static String getElementContents(Node node)
+    private static void getElementContents(EventBuffer buffer, int node, StringBuilder result)
     {
-        return node == null
-                ? ""
-                : ((node instanceof Text
-                        ? ((Text) node).getData()
-                        : (node instanceof org.w3c.dom.Element
-                        && (!Constants.CSS.equals(node.getNamespaceURI())
-                        || !(BEFORE.equals(node.getLocalName())
-                        || AFTER.equals(node.getLocalName()))) 
-                                ? getElementContents(node.getFirstChild()) 
-                                : "")) + getElementContents(node.getNextSibling()));
+        for (; node != EventBuffer.NONE; node = buffer.getNextSibling(node))
+        {
+            if (buffer.getNodeType(node) == EventBuffer.TEXT)
+            {
+                result.append(buffer.getData(node));
+            }
+            else if (buffer.getNodeType(node) == EventBuffer.ELEMENT
+                    && (!Constants.CSS.equals(buffer.getNamespaceURI(node))
+                    || !(BEFORE.equals(buffer.getLocalName(node))
+                    || AFTER.equals(buffer.getLocalName(node)))))
+            {
+                getElementContents(buffer, buffer.getFirstChild(node), result);
+            }
+        }
     }
 
     private static LexicalUnit getQuotePair(LexicalUnit unit, int quoteDepth)
@@ -743,9 +797,9 @@ class ProjectorFilter extends XMLFilterImpl
 
                 if (display || "page".equals(counter))
                 {
-                    Map<String, Integer> scope = findCounterScope(i.getStringValue());
+                    Scope scope = findCounterScope(counter);
 
-                    scope.put(counter, (scope.get(i.getStringValue())) +   
+                    scope.setCounter(counter, scope.getCounter(counter) +
                             (i.getNextLexicalUnit() != null && i.getNextLexicalUnit().getLexicalUnitType() == LexicalUnit.SAC_INTEGER
                                     ? i.getNextLexicalUnit().getIntegerValue()
                                     : 1));
@@ -785,21 +839,22 @@ class ProjectorFilter extends XMLFilterImpl
         });
     }
 
-    private void installStringSetAccumulator(final String name, final String value, final Map<String, String> scope) throws SAXException
+    private void installStringSetAccumulator(final String name, final String value, final Scope scope) throws SAXException
     {
-        Accumulator.postAccumulate(this, new Accumulator.ProcessElement()
+        EventBuffer.postAccumulate(this, buffers.acquire(), new EventBuffer.ProcessElement()
         {
             @Override
-            public void process(org.w3c.dom.Element element, XMLFilter filter) throws SAXException
+            public void process(EventBuffer buffer, int element, XMLFilter filter) throws SAXException
             {
-                String result = MessageFormat.format(
-                        value,
-                        new Object[] { getElementContents(element.getFirstChild()) });
+                StringBuilder contents = new StringBuilder();
+                getElementContents(buffer, buffer.getFirstChild(element), contents);
+                String result = MessageFormat.format(value, new Object[] { contents.toString() });
                 
-                scope.put(name, result);
-                addFOMarker(element, name, result);
+                scope.setString(name, result);
+                addFOMarker(buffer, element, name, result);
                 
-                DOMToContentHandler.elementToContentHandler(element, filter.getContentHandler());
+                buffer.replay(element, filter.getContentHandler());
+                buffers.release(buffer);
             }
         });
     }
@@ -833,6 +888,35 @@ class ProjectorFilter extends XMLFilterImpl
         return false;
     }
 
+    /**
+     * Tells if the current element can be left out because it is in a subtree
+     * that is not displayed. This is not the case when it has properties with
+     * side effects, such as counters and named strings.
+     */
+    @SuppressWarnings("StringEquality")
+    private boolean isPruned(Element element, Attributes atts)
+    {
+        if (!elements.get(elements.size() - 2).pruneChildren || matcher.hasMatchingRule(SIDE_EFFECT_PROPERTIES))
+        {
+            return false;
+        }
+
+        String style = Constants.XHTML == element.namespaceURI ? atts.getValue("style") : null;
+
+        if (style != null)
+        {
+            for (String property : SIDE_EFFECT_PROPERTIES)
+            {
+                if (style.contains(property))
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
     private static boolean isStaticRegion(Attributes atts)
     {
         String region = atts.getValue(Constants.CSS, "region");
@@ -842,6 +926,15 @@ class ProjectorFilter extends XMLFilterImpl
                 && !"none".equalsIgnoreCase(region);
     }
 
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+    {
+        if (!elements.peek().pruned)
+        {
+            super.ignorableWhitespace(ch, start, length);
+        }
+    }
+
     @Override
     public void processingInstruction(String target, String data) throws SAXException
     {
@@ -886,7 +979,10 @@ class ProjectorFilter extends XMLFilterImpl
             }
         }
 
-        super.processingInstruction(target, data);
+        if (!elements.peek().pruned)
+        {
+            super.processingInstruction(target, data);
+        }
     }
 
     private void repositionMatcher() throws SAXException
@@ -901,6 +997,27 @@ class ProjectorFilter extends XMLFilterImpl
         }
     }
 
+    /**
+     * Names that come directly from a parser with the string-interning feature
+     * are canonical already. Intermediate filters may produce new strings.
+     */
+    private static boolean isStringInterning(XMLReader parent)
+    {
+        if (parent == null || parent instanceof XMLFilter)
+        {
+            return false;
+        }
+
+        try
+        {
+            return parent.getFeature("http://xml.org/sax/features/string-interning");
+        }
+        catch (SAXException e)
+        {
+            return false;
+        }
+    }
+
     private void reset()
     {
         context.clear();
@@ -908,8 +1025,7 @@ class ProjectorFilter extends XMLFilterImpl
         collectStyleSheet = false;
         embeddedStyleSheet = "";
         elements.clear();
-        counters.clear();
-        namedStrings.clear();
+        scope = null;
     }
 
     private void resetCounter(Property counterReset, boolean display)
@@ -924,7 +1040,7 @@ class ProjectorFilter extends XMLFilterImpl
 
                 if (display || "page".equals(counter))
                 {
-                    counters.peek().put(counter, i.getNextLexicalUnit() != null
+                    getOwnCounterScope().setCounter(counter, i.getNextLexicalUnit() != null
                             && i.getNextLexicalUnit().getLexicalUnitType() == LexicalUnit.SAC_INTEGER
                             ? i.getNextLexicalUnit().getIntegerValue() :
                             0);
@@ -1057,7 +1173,7 @@ class ProjectorFilter extends XMLFilterImpl
 
         for (int i = 0; i < names.length; ++i)
         {
-            String value = findNamedStringScope(names[i]).get(names[i]);
+            String value = findNamedStringScope(names[i]).getString(names[i]);
             if (value != null)
             {
                 AttributesImpl atts = new AttributesImpl();
@@ -1295,7 +1411,7 @@ class ProjectorFilter extends XMLFilterImpl
         boolean needContents = false;
         String name = stringSet.getLexicalUnit().getStringValue().toLowerCase();
         String result = "";
-        Map<String, String> scope = findNamedStringScope(name);
+        Scope scope = findNamedStringScope(name);
 
         for (LexicalUnit i = stringSet.getLexicalUnit().getNextLexicalUnit(); i != null; i = i.getNextLexicalUnit())
         {
@@ -1343,7 +1459,7 @@ class ProjectorFilter extends XMLFilterImpl
 
         if (!needContents)
         {
-            scope.put(name, result);
+            scope.setString(name, result);
         } 
         else
         {
@@ -1369,9 +1485,16 @@ class ProjectorFilter extends XMLFilterImpl
         }
     }
 
+    void setUserAgentParameters(Map<String, String> userAgentParameters)
+    {
+        this.userAgentParameters = userAgentParameters;
+    }
+
     public void setUserAgentStyleSheet(URL userAgentStyleSheet)
     {
-        this.userAgentStyleSheet = userAgentStyleSheet;
+        this.userAgentStyleSheet = userAgentStyleSheet != null
+                ? userAgentStyleSheet 
+                : getClass().getResource("style/ua.css");
     }
 
     private static void setXMLIDType(AttributesImpl atts)
@@ -1413,6 +1536,7 @@ class ProjectorFilter extends XMLFilterImpl
     public void startDocument() throws SAXException
     {
         reset();
+        namesInterned = isStringInterning(getParent());
 
         try
         {
@@ -1434,49 +1558,58 @@ class ProjectorFilter extends XMLFilterImpl
         Element root = new Element("", "/", "/");
 
         root.baseUrl = baseUrl;
+        root.counters = new Scope(root, null);
+        root.namedStrings = new Scope(root, null);
         elements.push(root);
-        counters.push(new HashMap<String, Integer>());
-        namedStrings.push(new HashMap<String, String>());
+        scope = root;
         super.startDocument();
         startPrefixMapping("css", Constants.CSS);
         startPrefixMapping("sp", Constants.SPECIF);
     }
 
     /**
-     * The string arguments are interned.
+     * The string arguments are interned through the symbol table of the
+     * context, unless the parser has already done it.
      */
     @Override
     public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
     {
-        if (namespaceURI != null)
-        {
-            namespaceURI = namespaceURI.intern();
-        }
-
-        if (localName != null)
+        if (!namesInterned)
         {
-            localName = localName.intern();
-        }
-
-        if (qName != null)
-        {
-            qName = qName.intern();
+            namespaceURI = context.symbols.intern(namespaceURI);
+            localName = context.symbols.intern(localName);
+            qName = context.symbols.intern(qName);
         }
 
+        Element parent = elements.peek();
         Element element = new Element(namespaceURI, localName, qName);
 
-        element.baseUrl = elements.peek().baseUrl;
+        element.baseUrl = parent.baseUrl;
         elements.push(element);
         element.attributes = new AttributesImpl(atts);
         // Must be copied because atts might be recuperated by the parser.
         handleControlInformation(namespaceURI, localName, element.attributes);
         matcher.startElement(namespaceURI, localName, qName, element.attributes);
 
+        if (isPruned(element, atts))
+        {
+            // Only the matcher and the control information are maintained.
+            element.pruned = true;
+            element.pruneChildren = true;
+            element.quotes = parent.quotes;
+            element.counters = scope.counters;
+            element.namedStrings = scope.namedStrings;
+            scope = element;
+            return;
+        }
+
         element.matchingElementRules = appendStyleAttributeRules(matcher.matchingRules(), atts, namespaceURI);
         element.matchingPseudoRules = matcher.matchingPseudoRules();
         setQuotes();
 
         element.appliedAttributes = setCSSAttributes(element.matchingElementRules, element.attributes);
+        // An element that is kept for its side effects stays in the hidden subtree.
+        element.pruneChildren = parent.pruneChildren || DisplayNonePropagator.isDisplayNone(element.appliedAttributes);
         handleFloats(element);
         handleGraphics(element);
         detectMarkers(element);
@@ -1493,8 +1626,9 @@ class ProjectorFilter extends XMLFilterImpl
         applyPseudoRules(element, FIRST_LETTER);
         applyPseudoRules(element, BEFORE);
         applyPseudoRules(element, FIRST_LINE);
-        counters.push(new HashMap<String, Integer>());
-        namedStrings.push(new HashMap<String, String>());
+        element.counters = scope.counters;
+        element.namedStrings = scope.namedStrings;
+        scope = element;
     }
 
     private static void translateId(AttributesImpl atts)
@@ -1515,9 +1649,13 @@ class ProjectorFilter extends XMLFilterImpl
         private URL baseUrl;
         private boolean floating = false;
         private String localName;
+        private Scope counters;
         private Collection<Rule> matchingElementRules = null;
         private Collection<Rule> matchingPseudoRules = null;
         private String namespaceURI;
+        private Scope namedStrings;
+        private boolean pruneChildren = false;
+        private boolean pruned = false;
         private String qName;
         private LexicalUnit quotes = null;
 
@@ -1529,4 +1667,107 @@ class ProjectorFilter extends XMLFilterImpl
         }
     } // Element
 
+    /**
+     * A frame in a chain of counter or named string scopes. A frame is only
+     * created for an element when something is put in its scope. The elements
+     * without one share the chain of their closest ancestor that has one.
+     */
+    private static class Scope
+    {
+        private int[] counters;
+        private String[] names = new String[2];
+        private final Element owner;
+        private final Scope parent;
+        private int size = 0;
+        private String[] strings;
+
+        private Scope(Element owner, Scope parent)
+        {
+            this.owner = owner;
+            this.parent = parent;
+        }
+
+        private Scope find(String name)
+        {
+            for (Scope scope = this; scope != null; scope = scope.parent)
+            {
+                if (scope.indexOf(name) != -1)
+                {
+                    return scope;
+                }
+            }
+
+            return null;
+        }
+
+        private int getCounter(String name)
+        {
+            int index = indexOf(name);
+
+            return index != -1 ? counters[index] : 0;
+        }
+
+        private String getString(String name)
+        {
+            int index = indexOf(name);
+
+            return index != -1 ? strings[index] : null;
+        }
+
+        private int indexOf(String name)
+        {
+            for (int i = 0; i < size; ++i)
+            {
+                if (names[i].equals(name))
+                {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        private int put(String name)
+        {
+            int index = indexOf(name);
+
+            if (index == -1)
+            {
+                if (size == names.length)
+                {
+                    names = Arrays.copyOf(names, size * 2);
+                }
+
+                names[size] = name;
+                index = size++;
+            }
+
+            return index;
+        }
+
+        private void setCounter(String name, int value)
+        {
+            int index = put(name);
+
+            if (counters == null || counters.length < names.length)
+            {
+                counters = counters == null ? new int[names.length] : Arrays.copyOf(counters, names.length);
+            }
+
+            counters[index] = value;
+        }
+
+        private void setString(String name, String value)
+        {
+            int index = put(name);
+
+            if (strings == null || strings.length < names.length)
+            {
+                strings = strings == null ? new String[names.length] : Arrays.copyOf(strings, names.length);
+            }
+
+            strings[index] = value;
+        }
+    } // Scope
+
 } // ProjectorFilter
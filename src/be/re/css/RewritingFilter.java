@@ -0,0 +1,94 @@
+package be.re.css;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLFilter;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Passes the attributes of every element it emits through a series of
+ * {@link AttributeRewriter}s. Subclasses that emit elements through
+ * <code>super.startElement</code> get this for the elements they generate as
+ * well. With {@link #fuse} the rewriting stages of a filter chain are run in
+ * the filter that precedes them, which saves a filter per stage for every
+ * event.
+ *
+ * @author Gerke Geurts
+ */
+class RewritingFilter extends XMLFilterImpl
+{
+    private static final AttributeRewriter[] NO_REWRITERS = new AttributeRewriter[0];
+
+    private AttributeRewriter[] rewriters = NO_REWRITERS;
+
+    RewritingFilter()
+    {
+    }
+
+    RewritingFilter(XMLReader parent)
+    {
+        super(parent);
+    }
+
+    /**
+     * Appends <code>rewriter</code> to the rewriters that are applied to the
+     * output of this filter.
+     */
+    void addRewriter(AttributeRewriter rewriter)
+    {
+        rewriters = Arrays.copyOf(rewriters, rewriters.length + 1);
+        rewriters[rewriters.length - 1] = rewriter;
+    }
+
+    /**
+     * Returns a chain with the same behaviour as <code>filters</code>, in
+     * which every filter that is an {@link AttributeRewriter} and follows a
+     * <code>RewritingFilter</code> is merged into it. Stateful filters remain
+     * separate.
+     */
+    static XMLFilter[] fuse(XMLFilter[] filters)
+    {
+        List<XMLFilter> result = new ArrayList<>(filters.length);
+
+        for (XMLFilter filter : filters)
+        {
+            XMLFilter previous = result.isEmpty() ? null : result.get(result.size() - 1);
+
+            if (filter instanceof AttributeRewriter && previous instanceof RewritingFilter)
+            {
+                RewritingFilter target = (RewritingFilter) previous;
+
+                target.addRewriter((AttributeRewriter) filter);
+
+                if (filter instanceof RewritingFilter)
+                {
+                    for (AttributeRewriter rewriter : ((RewritingFilter) filter).rewriters)
+                    {
+                        target.addRewriter(rewriter);
+                    }
+                }
+            }
+            else
+            {
+                result.add(filter);
+            }
+        }
+
+        return result.toArray(new XMLFilter[result.size()]);
+    }
+
+    @Override
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+    {
+        for (AttributeRewriter rewriter : rewriters)
+        {
+            atts = rewriter.rewrite(namespaceURI, localName, qName, atts);
+        }
+
+        super.startElement(namespaceURI, localName, qName, atts);
+    }
+} // RewritingFilter
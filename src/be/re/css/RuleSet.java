@@ -5,6 +5,7 @@
  */
 package be.re.css;
 
+import be.re.xml.SymbolTable;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,11 +15,49 @@ import java.util.List;
  */
 public class RuleSet
 {
-    private Compiled compiled = new Compiled();
+    /**
+     * The rules can produce first-letter pseudo elements.
+     */
+    public static final int FEATURE_FIRST_LETTER = 1;
+
+    /**
+     * The rules can produce footnotes.
+     */
+    public static final int FEATURE_FOOTNOTES = 2;
+
+    /**
+     * The rules can produce list item labels with images.
+     */
+    public static final int FEATURE_LIST_IMAGES = 4;
+
+    /**
+     * The rules can produce marker pseudo elements.
+     */
+    public static final int FEATURE_MARKERS = 8;
+
+    /**
+     * The rules can produce named strings, which are carried by FO markers.
+     */
+    public static final int FEATURE_NAMED_STRINGS = 16;
+
+    private final SymbolTable symbols;
+    private Compiled compiled;
     private final List<CSSPageRule> pageRules = new ArrayList<>();
     private int position = 0;
     private boolean isStale;
+    private int features = 0;
     
+    public RuleSet()
+    {
+        this(new SymbolTable());
+    }
+
+    public RuleSet(SymbolTable symbols)
+    {
+        this.symbols = symbols;
+        this.compiled = new Compiled(symbols);
+    }
+
     public Compiled getCompiledRules()
     {
         if (isStale)
@@ -29,6 +68,56 @@ public class RuleSet
         return compiled;
     }
     
+    /**
+     * Returns the combination of <code>FEATURE_*</code> flags the rules in
+     * this set can produce.
+     * @return 
+     */
+    public int getFeatures()
+    {
+        return features;
+    }
+
+    /**
+     * Returns the combination of <code>FEATURE_*</code> flags the rule can
+     * produce.
+     * @param rule
+     * @return 
+     */
+    public static int getFeatures(Rule rule)
+    {
+        String name = rule.getProperty().getName();
+        String value = rule.getProperty().getValue();
+        int result = "first-letter".equals(rule.getPseudoElementName()) ? FEATURE_FIRST_LETTER : 0;
+
+        switch (name)
+        {
+            case "display":
+                if ("footnote-body".equals(value) || "footnote-reference".equals(value))
+                {
+                    result |= FEATURE_FOOTNOTES;
+                }
+                else if ("marker".equals(value))
+                {
+                    result |= FEATURE_MARKERS;
+                }
+                break;
+
+            case "list-style-image":
+                result |= FEATURE_LIST_IMAGES;
+                break;
+
+            case "string-set":
+                result |= FEATURE_NAMED_STRINGS;
+                break;
+
+            default:
+                break;
+        }
+
+        return result;
+    }
+
     public List<CSSPageRule> getPageRules()
     {
         return pageRules;
@@ -62,15 +151,18 @@ public class RuleSet
         for (Property p : cssRule.getProperties())
         {
             int specificity = cssRule.getSpecificity() + offset * 10000000;
-            compiled.addRule(new Rule(cssRule, p, position++, specificity));
+            Rule rule = new Rule(cssRule, p, position++, specificity);
+            compiled.addRule(rule);
+            features |= getFeatures(rule);
             isStale = true;
         }
     }
   
     public void clear()
     {
-        compiled = new Compiled();
+        compiled = new Compiled(symbols);
         pageRules.clear();
         position = 0;
+        features = 0;
     }
 }
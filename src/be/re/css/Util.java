@@ -116,7 +116,7 @@ class Util
         "word-spacing"
     }));
 
-    private static Class sacParserClass = null;
+    private static volatile Class sacParserClass = null;
 
     static String conditionText(Condition condition)
     {
@@ -228,16 +228,27 @@ class Util
     }
 
     static PostProjectionFilter createPostProjectionFilter(URL baseUrl, Map<String, String> userAgentParameters, boolean debug)
+    {
+        return createPostProjectionFilter(baseUrl, userAgentParameters, null, debug);
+    }
+
+    /**
+     * When a context is given, the filters for features that don't occur in
+     * its rule set are bypassed.
+     */
+    static PostProjectionFilter createPostProjectionFilter(URL baseUrl, Map<String, String> userAgentParameters, Context context, boolean debug)
     {
         final LinkFilter linkFilter = new LinkFilter(baseUrl);
-        final XMLFilterImpl filter = new FilterOfFilters(
-                new XMLFilter[]
+        // The invalid properties are removed after the wrappers, which only
+        // pass on inherited properties. It makes no difference for the
+        // result, but it lets the stage run as part of the wrapper filter.
+        final XMLFilter[] filters = new XMLFilter[]
                 {
-                    new InvalidPropertyFilter(),
                     new WrapperFilter(),
+                    new InvalidPropertyFilter(),
                     new DisplayNonePropagator(),
                     new ForeignFilter(),
-                    new FirstLetterFilter(),
+                    featureFilter(new FirstLetterFilter(), context, RuleSet.FEATURE_FIRST_LETTER),
                     userAgentParameters != null && userAgentParameters.get("rule-thickness") != null
                             ? new XHTMLAttributeTranslationFilter(userAgentParameters.get("rule-thickness")) 
                             : new XHTMLAttributeTranslationFilter(),
@@ -245,13 +256,14 @@ class Util
                     new CenterFilter(),
                     new LengthAdjustFilter(),
                     new WidthAndMarginsFilter(),
-                    new MarkerFilter(),
+                    featureFilter(new MarkerFilter(), context, RuleSet.FEATURE_MARKERS),
                     linkFilter,
-                    new FootnoteFilter(),
+                    featureFilter(new FootnoteFilter(), context, RuleSet.FEATURE_FOOTNOTES),
                     new BlockContainerFilter(),
-                    new ListImageLabelFilter()
-                },
-                debug);
+                    featureFilter(new ListImageLabelFilter(), context, RuleSet.FEATURE_LIST_IMAGES)
+                };
+        // In debug mode every stage is kept, so its output can be inspected.
+        final XMLFilterImpl filter = new FilterOfFilters(debug ? filters : RewritingFilter.fuse(filters), debug);
 
         return new PostProjectionFilter()
         {
@@ -269,6 +281,11 @@ class Util
         };
     }
 
+    static XMLFilter featureFilter(XMLFilter filter, Context context, int feature)
+    {
+        return context != null ? new FeatureSwitch(filter, context, feature) : filter;
+    }
+
     static URL createUrl(String s) throws MalformedURLException
     {
         try
@@ -0,0 +1,226 @@
+package be.re.css;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Coalesces adjacent character events into one and reduces whitespace where
+ * this doesn't change the rendering. It is meant to run right after the
+ * projection, so the projected <code>white-space</code> property is available.
+ *
+ * Where whitespace collapses, each run of spaces and linefeeds is reduced to
+ * its first character. Whitespace-only text between block-level elements is
+ * removed entirely. The text of elements with a <code>white-space</code>
+ * other than "normal" or "nowrap", or with <code>xml:space="preserve"</code>,
+ * is left alone. The same goes for the synthetic elements in the CSS
+ * namespace that have no display type, such as markers.
+ *
+ * @author Gerke Geurts
+ */
+class WhitespaceFilter extends XMLFilterImpl
+{
+    private static final Set<String> BLOCK_DISPLAYS = new HashSet<>(Arrays.asList(new String[]
+    {
+        "block", "list-item", "table", "table-caption", "table-cell", "table-column", "table-column-group",
+        "table-footer-group", "table-header-group", "table-row", "table-row-group"
+    }));
+
+    private static final int OTHER = 0;
+    private static final int PARENT_BOUNDARY = 1;
+    private static final int BLOCK_SIBLING = 2;
+
+    private boolean[] blocks = new boolean[64];
+    private char[] buffer = new char[256];
+    private boolean[] collapses = new boolean[64];
+    private int depth = 0;
+    private int previous = OTHER;
+    private final StringBuilder text = new StringBuilder();
+
+    WhitespaceFilter()
+    {
+    }
+
+    WhitespaceFilter(XMLReader parent)
+    {
+        super(parent);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+        text.append(ch, start, length);
+    }
+
+    /**
+     * Determines the whitespace handling of an element from its projected
+     * properties and that of its parent.
+     */
+    private static boolean collapses(String namespaceURI, Attributes atts, boolean parent)
+    {
+        if ("preserve".equals(atts.getValue("xml:space")))
+        {
+            return false;
+        }
+
+        if (Constants.CSS.equals(namespaceURI) && atts.getValue(Constants.CSS, "display") == null)
+        {
+            return false;
+        }
+
+        String whiteSpace = atts.getValue(Constants.CSS, "white-space");
+
+        return whiteSpace == null || "inherit".equals(whiteSpace)
+                ? parent
+                : "normal".equals(whiteSpace) || "nowrap".equals(whiteSpace);
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+        flush(OTHER);
+        super.endDocument();
+    }
+
+    @Override
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+    {
+        flush(blocks[depth] ? PARENT_BOUNDARY : OTHER);
+        super.endElement(namespaceURI, localName, qName);
+        previous = blocks[depth--] ? BLOCK_SIBLING : OTHER;
+    }
+
+    /**
+     * Emits the pending text. The <code>next</code> argument tells what comes
+     * after it.
+     */
+    private void flush(int next) throws SAXException
+    {
+        int length = text.length();
+
+        if (length == 0)
+        {
+            return;
+        }
+
+        if (!collapses[depth])
+        {
+            emit(length);
+            return;
+        }
+
+        if (previous != OTHER
+                && next != OTHER
+                && (previous == BLOCK_SIBLING || next == BLOCK_SIBLING)
+                && isWhitespace(text))
+        {
+            // Whitespace between blocks.
+            text.setLength(0);
+            return;
+        }
+
+        int j = 0;
+
+        for (int i = 0; i < length; ++i)
+        {
+            char c = text.charAt(i);
+
+            if (!isCollapsible(c) || j == 0 || !isCollapsible(text.charAt(j - 1)))
+            {
+                text.setCharAt(j++, c);
+            }
+        }
+
+        emit(j);
+    }
+
+    private void emit(int length) throws SAXException
+    {
+        if (length > buffer.length)
+        {
+            buffer = new char[Math.max(length, buffer.length * 2)];
+        }
+
+        text.getChars(0, length, buffer, 0);
+        text.setLength(0);
+        previous = OTHER;
+        super.characters(buffer, 0, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+    {
+        flush(OTHER);
+        super.ignorableWhitespace(ch, start, length);
+    }
+
+    private static boolean isCollapsible(char c)
+    {
+        return c == ' ' || c == '\n';
+    }
+
+    private static boolean isWhitespace(CharSequence s)
+    {
+        for (int i = 0; i < s.length(); ++i)
+        {
+            char c = s.charAt(i);
+
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+        flush(OTHER);
+        super.processingInstruction(target, data);
+        previous = OTHER;
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException
+    {
+        flush(OTHER);
+        super.skippedEntity(name);
+        previous = OTHER;
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+        text.setLength(0);
+        depth = 0;
+        blocks[0] = false;
+        collapses[0] = true;
+        previous = OTHER;
+        super.startDocument();
+    }
+
+    @Override
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+    {
+        boolean block = BLOCK_DISPLAYS.contains(atts.getValue(Constants.CSS, "display"));
+
+        flush(block ? BLOCK_SIBLING : OTHER);
+        super.startElement(namespaceURI, localName, qName, atts);
+
+        if (++depth == blocks.length)
+        {
+            blocks = Arrays.copyOf(blocks, depth * 2);
+            collapses = Arrays.copyOf(collapses, depth * 2);
+        }
+
+        blocks[depth] = block;
+        collapses[depth] = collapses(namespaceURI, atts, collapses[depth - 1]);
+        previous = block ? PARENT_BOUNDARY : OTHER;
+    }
+} // WhitespaceFilter
@@ -256,6 +256,15 @@ class WidthAndMarginsFilter extends XMLFilterImpl
 
 
 
+  public void
+  startDocument() throws SAXException
+  {
+    stack.clear();
+    super.startDocument();
+  }
+
+
+
   public void
   startElement
   (
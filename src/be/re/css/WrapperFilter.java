@@ -5,7 +5,6 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.AttributesImpl;
-import org.xml.sax.helpers.XMLFilterImpl;
 
 
 
@@ -15,7 +14,7 @@ import org.xml.sax.helpers.XMLFilterImpl;
  * @author Werner Donn\u00e9
  */
 
-class WrapperFilter extends XMLFilterImpl
+class WrapperFilter extends RewritingFilter
 
 {
 
@@ -87,6 +86,15 @@ class WrapperFilter extends XMLFilterImpl
 
 
 
+  public void
+  startDocument() throws SAXException
+  {
+    elements.clear();
+    super.startDocument();
+  }
+
+
+
   public void
   startElement
   (
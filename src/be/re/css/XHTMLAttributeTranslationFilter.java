@@ -518,6 +518,14 @@ class XHTMLAttributeTranslationFilter extends XMLFilterImpl
         return result;
     }
 
+    @Override
+    public void startDocument() throws SAXException
+    {
+        elementStack.clear();
+        tableStack.clear();
+        super.startDocument();
+    }
+
   @Override
     public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
     {
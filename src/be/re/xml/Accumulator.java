@@ -25,7 +25,14 @@ import org.xml.sax.helpers.XMLFilterImpl;
  */
 public class Accumulator extends XMLFilterImpl
 {
-    private static final DocumentBuilder documentBuilder = createDocumentBuilder();
+    private static final ThreadLocal<DocumentBuilder> documentBuilder = new ThreadLocal<DocumentBuilder>()
+    {
+        @Override
+        protected DocumentBuilder initialValue()
+        {
+            return createDocumentBuilder();
+        }
+    };
     private Node currentNode = null;
     private Document document = null;
     private final Stack<Map<String, String>> prefixMappings = new Stack<>();
@@ -138,7 +145,7 @@ public class Accumulator extends XMLFilterImpl
         final ContentHandler handler = filter.getContentHandler();
         final ProcessElement p = process;
         Accumulator accumulator = new Accumulator(
-                documentBuilder.newDocument(),
+                documentBuilder.get().newDocument(),
                 new Result()
                 {
                     @Override
@@ -174,7 +181,7 @@ public class Accumulator extends XMLFilterImpl
         final ContentHandler handler = filter.getParent().getContentHandler();
         final ProcessElement p = process;
         Accumulator accumulator = new Accumulator(
-                documentBuilder.newDocument(),
+                documentBuilder.get().newDocument(),
                 new Result()
                 {
                     @Override
@@ -240,7 +247,7 @@ public class Accumulator extends XMLFilterImpl
         {
             try
             {
-                document = documentBuilder.newDocument();
+                document = documentBuilder.get().newDocument();
             }
 
             catch (Exception e)
@@ -1,6 +1,7 @@
 package be.re.xml;
 
 import be.re.io.StreamConnector;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -10,6 +11,9 @@ import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.stream.XMLResolver;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.stream.StreamSource;
@@ -54,7 +58,11 @@ public class CatalogResolver implements EntityResolver, XMLResolver
       {{DQ2, 0}, {TYP, 1}, {DQ2, 0}, {DQ2, 0}, {ERR, 0}, {ERR, 0}}  // DQ2
     };
 
+    private final ConcurrentMap<String, byte[]> cache = new ConcurrentHashMap<>();
+    private final AtomicLong cacheSize = new AtomicLong();
     private String catalogSystemId;
+    private volatile int maxEntrySize = 0;
+    private volatile long maxCacheSize = 0;
     private final Map<String, String> publicIdentifiers = new HashMap<>();
     private final Map<String, String> systemIdentifiers = new HashMap<>();
 
@@ -86,6 +94,21 @@ public class CatalogResolver implements EntityResolver, XMLResolver
         }
     }
     
+    /**
+     * Makes the resolver keep the contents of the entities it resolves through
+     * the catalog in memory, so they are not read again for every document.
+     * They are keyed by the resolved system identifier. Both limits are zero
+     * by default, which disables the cache.
+     * @param maxEntrySize The size in bytes above which an entity is not
+     * cached.
+     * @param maxCacheSize The total size in bytes of the cached entities.
+     */
+    public void setCacheLimits(int maxEntrySize, long maxCacheSize)
+    {
+        this.maxEntrySize = maxEntrySize;
+        this.maxCacheSize = maxCacheSize;
+    }
+
     private static int category(int c)
     {
         return c == '\''
@@ -234,20 +257,86 @@ public class CatalogResolver implements EntityResolver, XMLResolver
         }
     }
 
+    /**
+     * Returns the cached contents of the resolved entity, loading them if
+     * they fit in the cache. Returns <code>null</code> if they don't.
+     */
+    private byte[] getCachedEntity(String resolved) throws IOException
+    {
+        byte[] bytes = cache.get(resolved);
+
+        if (bytes != null || maxEntrySize == 0)
+        {
+            return bytes;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[0x4000];
+
+        try (InputStream in = new URL(resolved).openStream())
+        {
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer))
+            {
+                if (out.size() + n > maxEntrySize)
+                {
+                    return null;
+                }
+
+                out.write(buffer, 0, n);
+            }
+        }
+        catch (MalformedURLException e)
+        {
+            return null;
+        }
+
+        bytes = out.toByteArray();
+
+        if (cacheSize.addAndGet(bytes.length) > maxCacheSize)
+        {
+            cacheSize.addAndGet(-bytes.length);
+            return bytes;
+        }
+
+        byte[] previous = cache.putIfAbsent(resolved, bytes);
+
+        if (previous != null)
+        {
+            cacheSize.addAndGet(-bytes.length);
+            return previous;
+        }
+
+        return bytes;
+    }
+
+    private String resolve(String publicId, String systemId)
+    {
+        return publicId != null && publicIdentifiers.get(publicId) != null
+                ? publicIdentifiers.get(publicId)
+                : (systemId != null && systemIdentifiers.get(systemId) != null
+                        ? systemIdentifiers.get(systemId) : null);
+    }
+
     @Override
     public InputSource resolveEntity(String publicId, String systemId) throws IOException, SAXException
     {
-        InputSource result
-                = publicId != null && publicIdentifiers.get(publicId) != null
-                        ? new InputSource(publicIdentifiers.get(publicId))
-                        : (systemId != null && systemIdentifiers.get(systemId) != null
-                                ? new InputSource(systemIdentifiers.get(systemId)) : null);
+        String resolved = resolve(publicId, systemId);
 
-        if (result != null)
+        if (resolved == null)
         {
-            result.setPublicId(publicId);
+            return null;
+        }
+
+        InputSource result = new InputSource(resolved);
+        byte[] bytes = getCachedEntity(resolved);
+
+        if (bytes != null)
+        {
+            result.setByteStream(new ByteArrayInputStream(bytes));
         }
 
+        result.setPublicId(publicId);
+
         return result;
     }
 
@@ -261,16 +350,25 @@ public class CatalogResolver implements EntityResolver, XMLResolver
     {
         try
         {
+            String resolved = resolve(publicId, systemId);
             StreamSource result
                     = new StreamSource(
-                            publicId != null && publicIdentifiers.get(publicId) != null
-                                    ? publicIdentifiers.get(publicId)
-                                    : (systemId != null && systemIdentifiers.get(systemId) != null
-                                            ? systemIdentifiers.get(systemId)
-                                            : (baseURI != null && systemId != null
-                                                    ? resolveSystemId(baseURI, systemId) : null))
+                            resolved != null
+                                    ? resolved
+                                    : (baseURI != null && systemId != null
+                                            ? resolveSystemId(baseURI, systemId) : null)
                     );
 
+            if (resolved != null)
+            {
+                byte[] bytes = getCachedEntity(resolved);
+
+                if (bytes != null)
+                {
+                    result.setInputStream(new ByteArrayInputStream(bytes));
+                }
+            }
+
             result.setPublicId(publicId);
 
             return result;
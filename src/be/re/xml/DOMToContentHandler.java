@@ -13,6 +13,7 @@ import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLFilter;
+import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.XMLFilterImpl;
 
@@ -71,11 +72,19 @@ public class DOMToContentHandler
      */
     public static void documentToContentHandler(Document document, ContentHandler handler) throws SAXException
     {
+        XMLReader parent = getParent(handler);
         XMLFilterImpl h = realHandler(handler);
 
-        h.startDocument();
-        elementToContentHandler(document.getDocumentElement(), h);
-        h.endDocument();
+        try
+        {
+            h.startDocument();
+            elementToContentHandler(document.getDocumentElement(), h);
+            h.endDocument();
+        }
+        finally
+        {
+            restoreParent(handler, parent);
+        }
     }
 
     /**
@@ -83,7 +92,16 @@ public class DOMToContentHandler
      */
     public static void elementToContentHandler(Element element, ContentHandler handler) throws SAXException
     {
-        elementToContentHandler(element, realHandler(handler));
+        XMLReader parent = getParent(handler);
+
+        try
+        {
+            elementToContentHandler(element, realHandler(handler));
+        }
+        finally
+        {
+            restoreParent(handler, parent);
+        }
     }
 
     private static void elementToContentHandler(Element element, XMLFilterImpl handler) throws SAXException
@@ -117,10 +135,17 @@ public class DOMToContentHandler
         }
     }
 
+    private static XMLReader getParent(ContentHandler handler)
+    {
+        return handler instanceof XMLFilter ? ((XMLFilter) handler).getParent() : null;
+    }
+
     /**
      * Puts an <code>XMLFilterImpl</code> in front of <code>handler</code> in
      * order to provide the possiblity to the latter to insert an
-     * <code>Accumulator</code> dynamically.
+     * <code>Accumulator</code> dynamically. The original parent is restored
+     * afterwards, so the filter chain of <code>handler</code> can be used for
+     * another document.
      */
     private static XMLFilterImpl realHandler(ContentHandler handler)
     {
@@ -135,13 +160,30 @@ public class DOMToContentHandler
         return result;
     }
 
+    private static void restoreParent(ContentHandler handler, XMLReader parent)
+    {
+        if (handler instanceof XMLFilter)
+        {
+            ((XMLFilter) handler).setParent(parent);
+        }
+    }
+
     /**
      * Runs a complete sibling list through a <code>ContentHandler</code>
      * starting with <code>node</code>.
      */
     public static void siblingsToContentHandler(Node node, ContentHandler handler) throws SAXException
     {
-        siblingsToContentHandler(node, realHandler(handler));
+        XMLReader parent = getParent(handler);
+
+        try
+        {
+            siblingsToContentHandler(node, realHandler(handler));
+        }
+        finally
+        {
+            restoreParent(handler, parent);
+        }
     }
 
     private static void siblingsToContentHandler(Node node, XMLFilterImpl handler) throws SAXException
@@ -0,0 +1,943 @@
+package be.re.xml;
+
+import java.util.Arrays;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLFilter;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Records a SAX stream in packed arrays and replays it. It is a light-weight
+ * replacement for {@link Accumulator}. The nodes of the recorded tree are
+ * identified by integers, which are indices in the arrays. The navigation and
+ * mutation methods resemble those of the DOM, so a buffered subtree can be
+ * inspected and transformed before it is replayed. Text is kept in one
+ * character array and the names and values in one string array, so no objects
+ * are created per node.
+ *
+ * Unlike {@link be.re.xml.sax.EventSpool} a buffer is kept entirely in memory,
+ * because it is navigated and changed in place. It should only hold an
+ * element of bounded size, such as a footnote or a list item.
+ *
+ * An instance can be reused. The client must call <code>startDocument</code>,
+ * which clears the buffer. Adjacent character events are merged into one text
+ * node. Ignorable whitespace and skipped entities are dropped.
+ *
+ * @author Gerke Geurts
+ */
+public class EventBuffer implements ContentHandler
+{
+    public static final int NONE = -1;
+
+    public static final byte ELEMENT = 1;
+    public static final byte PROCESSING_INSTRUCTION = 2;
+    public static final byte TEXT = 3;
+
+    private static final int ATTRIBUTE_SIZE = 4;
+    private static final int MAPPING_SIZE = 2;
+
+    private int[] attCount = new int[64];
+    private int[] attIndex = new int[64];
+    private char[] chars = new char[1024];
+    private int charCount;
+    private int current;
+    private int[] data = new int[64];
+    private int depth;
+    private int[] firstChild = new int[64];
+    private int[] lastChild = new int[64];
+    private int[] mapCount = new int[64];
+    private int[] mapIndex = new int[64];
+    private int[] nextSibling = new int[64];
+    private int nodeCount;
+    private int[] parent = new int[64];
+    private int pendingMappings;
+    private int[] previousSibling = new int[64];
+    private Result result;
+    private int root;
+    private String[] strings = new String[256];
+    private int stringCount;
+    private int[] textLength = new int[64];
+    private byte[] type = new byte[64];
+
+    public EventBuffer()
+    {
+        this(null);
+    }
+
+    /**
+     * @param result Is called when the element that was started first in the
+     * document has ended.
+     */
+    public EventBuffer(Result result)
+    {
+        this.result = result;
+        clear();
+    }
+
+    private int addNode(byte nodeType)
+    {
+        if (nodeCount == type.length)
+        {
+            int size = nodeCount * 2;
+
+            attCount = Arrays.copyOf(attCount, size);
+            attIndex = Arrays.copyOf(attIndex, size);
+            data = Arrays.copyOf(data, size);
+            firstChild = Arrays.copyOf(firstChild, size);
+            lastChild = Arrays.copyOf(lastChild, size);
+            mapCount = Arrays.copyOf(mapCount, size);
+            mapIndex = Arrays.copyOf(mapIndex, size);
+            nextSibling = Arrays.copyOf(nextSibling, size);
+            parent = Arrays.copyOf(parent, size);
+            previousSibling = Arrays.copyOf(previousSibling, size);
+            textLength = Arrays.copyOf(textLength, size);
+            type = Arrays.copyOf(type, size);
+        }
+
+        int node = nodeCount++;
+
+        attCount[node] = 0;
+        attIndex[node] = 0;
+        data[node] = 0;
+        firstChild[node] = NONE;
+        lastChild[node] = NONE;
+        mapCount[node] = 0;
+        mapIndex[node] = 0;
+        nextSibling[node] = NONE;
+        parent[node] = NONE;
+        previousSibling[node] = NONE;
+        textLength[node] = 0;
+        type[node] = nodeType;
+
+        return node;
+    }
+
+    private int addString(String s)
+    {
+        if (stringCount == strings.length)
+        {
+            strings = Arrays.copyOf(strings, stringCount * 2);
+        }
+
+        strings[stringCount] = s;
+
+        return stringCount++;
+    }
+
+    /**
+     * Appends <code>child</code> to the children of <code>parentNode</code>.
+     * The child is first removed from its current parent.
+     */
+    public void appendChild(int parentNode, int child)
+    {
+        insertBefore(parentNode, child, NONE);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+        if (length == 0)
+        {
+            return;
+        }
+
+        int last = current == NONE ? NONE : lastChild[current];
+
+        if (last != NONE && type[last] == TEXT && data[last] + textLength[last] == charCount)
+        {
+            textLength[last] += length;
+        }
+        else
+        {
+            int node = addNode(TEXT);
+
+            data[node] = charCount;
+            textLength[node] = length;
+            link(current, node, NONE);
+        }
+
+        ensureChars(length);
+        System.arraycopy(ch, start, chars, charCount, length);
+        charCount += length;
+    }
+
+    /**
+     * Removes all nodes.
+     */
+    public final void clear()
+    {
+        Arrays.fill(strings, 0, stringCount, null);
+        charCount = 0;
+        current = NONE;
+        depth = 0;
+        nodeCount = 0;
+        pendingMappings = 0;
+        root = NONE;
+        stringCount = 0;
+    }
+
+    /**
+     * Returns a copy of <code>node</code> without a parent. When
+     * <code>deep</code> is <code>true</code> the descendants are copied as
+     * well. The text of the copy is shared with that of the original.
+     */
+    public int cloneNode(int node, boolean deep)
+    {
+        int copy = addNode(type[node]);
+
+        data[copy] = data[node];
+        textLength[copy] = textLength[node];
+        attCount[copy] = attCount[node];
+        attIndex[copy] = attIndex[node];
+        mapCount[copy] = mapCount[node];
+        mapIndex[copy] = mapIndex[node];
+
+        if (attCount[node] > 0)
+        {
+            // The attributes are changed in place, so they can't be shared.
+            attIndex[copy] = stringCount;
+
+            for (int i = 0; i < attCount[node] * ATTRIBUTE_SIZE; ++i)
+            {
+                addString(strings[attIndex[node] + i]);
+            }
+        }
+
+        if (deep)
+        {
+            for (int child = firstChild[node]; child != NONE; child = nextSibling[child])
+            {
+                link(copy, cloneNode(child, true), NONE);
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Returns a new element without attributes and without a parent.
+     */
+    public int createElement(String namespaceURI, String qName)
+    {
+        int node = addNode(ELEMENT);
+        int colon = qName.indexOf(':');
+
+        data[node] = addString(namespaceURI != null ? namespaceURI : "");
+        addString(colon == -1 ? qName : qName.substring(colon + 1));
+        addString(qName);
+
+        return node;
+    }
+
+    /**
+     * Returns a new text node without a parent.
+     */
+    public int createText(String s)
+    {
+        int node = addNode(TEXT);
+
+        ensureChars(s.length());
+        s.getChars(0, s.length(), chars, charCount);
+        data[node] = charCount;
+        textLength[node] = s.length();
+        charCount += s.length();
+
+        return node;
+    }
+
+    /**
+     * Returns a new text node without a parent, which contains the characters
+     * of the text node <code>text</code> from <code>begin</code> up to
+     * <code>end</code>. The characters are shared.
+     */
+    public int createText(int text, int begin, int end)
+    {
+        int node = addNode(TEXT);
+
+        data[node] = data[text] + begin;
+        textLength[node] = end - begin;
+
+        return node;
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+        current = NONE;
+    }
+
+    @Override
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+    {
+        current = parent[current];
+
+        if (--depth == 0 && result != null)
+        {
+            result.report(this);
+        }
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException
+    {
+    }
+
+    private void ensureChars(int length)
+    {
+        if (charCount + length > chars.length)
+        {
+            chars = Arrays.copyOf(chars, Math.max(charCount + length, chars.length * 2));
+        }
+    }
+
+    private int findAttribute(int element, String namespaceURI, String localName)
+    {
+        String uri = namespaceURI != null ? namespaceURI : "";
+
+        for (int i = 0; i < attCount[element]; ++i)
+        {
+            int index = attIndex[element] + i * ATTRIBUTE_SIZE;
+
+            if (localName.equals(strings[index + 1]) && uri.equals(strings[index]))
+            {
+                return index;
+            }
+        }
+
+        return NONE;
+    }
+
+    /**
+     * Returns the value of an attribute or <code>null</code> if the element
+     * doesn't have it.
+     */
+    public String getAttribute(int element, String namespaceURI, String localName)
+    {
+        int index = findAttribute(element, namespaceURI, localName);
+
+        return index == NONE ? null : strings[index + 3];
+    }
+
+    public int getAttributeCount(int element)
+    {
+        return attCount[element];
+    }
+
+    public String getAttributeLocalName(int element, int i)
+    {
+        return strings[attIndex[element] + i * ATTRIBUTE_SIZE + 1];
+    }
+
+    public String getAttributeQName(int element, int i)
+    {
+        return strings[attIndex[element] + i * ATTRIBUTE_SIZE + 2];
+    }
+
+    public String getAttributeURI(int element, int i)
+    {
+        return strings[attIndex[element] + i * ATTRIBUTE_SIZE];
+    }
+
+    public String getAttributeValue(int element, int i)
+    {
+        return strings[attIndex[element] + i * ATTRIBUTE_SIZE + 3];
+    }
+
+    /**
+     * Returns a copy of the attributes of an element.
+     */
+    public Attributes getAttributes(int element)
+    {
+        AttributesImpl result = new AttributesImpl();
+
+        for (int i = 0; i < attCount[element]; ++i)
+        {
+            int index = attIndex[element] + i * ATTRIBUTE_SIZE;
+
+            result.addAttribute(strings[index], strings[index + 1], strings[index + 2], "CDATA", strings[index + 3]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the character data of a text node or processing instruction.
+     */
+    public String getData(int node)
+    {
+        return type[node] == TEXT
+                ? new String(chars, data[node], textLength[node])
+                : strings[data[node] + 1];
+    }
+
+    /**
+     * Returns the element that was started first.
+     */
+    public int getDocumentElement()
+    {
+        return root;
+    }
+
+    public int getFirstChild(int node)
+    {
+        return firstChild[node];
+    }
+
+    public int getLastChild(int node)
+    {
+        return lastChild[node];
+    }
+
+    /**
+     * Returns the number of characters of a text node.
+     */
+    public int getLength(int text)
+    {
+        return textLength[text];
+    }
+
+    public String getLocalName(int element)
+    {
+        return strings[data[element] + 1];
+    }
+
+    public String getNamespaceURI(int element)
+    {
+        return strings[data[element]];
+    }
+
+    public int getNextSibling(int node)
+    {
+        return nextSibling[node];
+    }
+
+    public byte getNodeType(int node)
+    {
+        return type[node];
+    }
+
+    public int getParent(int node)
+    {
+        return parent[node];
+    }
+
+    public int getPreviousSibling(int node)
+    {
+        return previousSibling[node];
+    }
+
+    public String getQName(int element)
+    {
+        return strings[data[element] + 2];
+    }
+
+    /**
+     * Returns the name of a processing instruction.
+     */
+    public String getTarget(int pi)
+    {
+        return strings[data[pi]];
+    }
+
+    /**
+     * Returns the character at <code>index</code> of a text node.
+     */
+    public char getTextChar(int text, int index)
+    {
+        return chars[data[text] + index];
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+    {
+    }
+
+    /**
+     * Returns a copy of <code>node</code> in <code>other</code>, including its
+     * descendants. The copy doesn't have a parent.
+     */
+    public int importNode(EventBuffer other, int node)
+    {
+        int copy;
+
+        switch (other.type[node])
+        {
+            case ELEMENT:
+                copy = createElement(other.getNamespaceURI(node), other.getQName(node));
+
+                for (int i = 0; i < other.attCount[node]; ++i)
+                {
+                    setAttribute(copy, other.getAttributeURI(node, i), other.getAttributeQName(node, i), other.getAttributeValue(node, i));
+                }
+
+                if (other.mapCount[node] > 0)
+                {
+                    mapIndex[copy] = stringCount;
+                    mapCount[copy] = other.mapCount[node];
+
+                    for (int i = 0; i < other.mapCount[node] * MAPPING_SIZE; ++i)
+                    {
+                        addString(other.strings[other.mapIndex[node] + i]);
+                    }
+                }
+
+                for (int child = other.firstChild[node]; child != NONE; child = other.nextSibling[child])
+                {
+                    link(copy, importNode(other, child), NONE);
+                }
+
+                return copy;
+
+            case PROCESSING_INSTRUCTION:
+                copy = addNode(PROCESSING_INSTRUCTION);
+                data[copy] = addString(other.getTarget(node));
+                addString(other.getData(node));
+
+                return copy;
+
+            default:
+                copy = addNode(TEXT);
+                ensureChars(other.textLength[node]);
+                System.arraycopy(other.chars, other.data[node], chars, charCount, other.textLength[node]);
+                data[copy] = charCount;
+                textLength[copy] = other.textLength[node];
+                charCount += other.textLength[node];
+
+                return copy;
+        }
+    }
+
+    /**
+     * Inserts <code>child</code> in the children of <code>parentNode</code>
+     * before <code>reference</code>. If the latter is <code>NONE</code> the
+     * child is appended. The child is first removed from its current parent.
+     */
+    public void insertBefore(int parentNode, int child, int reference)
+    {
+        removeChild(child);
+        link(parentNode, child, reference);
+    }
+
+    public boolean isElement(int node, String namespaceURI, String localName)
+    {
+        return node != NONE
+                && type[node] == ELEMENT
+                && localName.equals(getLocalName(node))
+                && namespaceURI.equals(getNamespaceURI(node));
+    }
+
+    private void link(int parentNode, int child, int reference)
+    {
+        parent[child] = parentNode;
+
+        if (parentNode == NONE)
+        {
+            if (root == NONE && type[child] == ELEMENT)
+            {
+                root = child;
+            }
+
+            return;
+        }
+
+        int previous = reference == NONE ? lastChild[parentNode] : previousSibling[reference];
+
+        previousSibling[child] = previous;
+        nextSibling[child] = reference;
+
+        if (previous == NONE)
+        {
+            firstChild[parentNode] = child;
+        }
+        else
+        {
+            nextSibling[previous] = child;
+        }
+
+        if (reference == NONE)
+        {
+            lastChild[parentNode] = child;
+        }
+        else
+        {
+            previousSibling[reference] = child;
+        }
+    }
+
+    /**
+     * This installs a buffer after <code>filter</code>. You would call it in
+     * <code>startElement</code>, before you let the event go through.
+     */
+    public static void postAccumulate(XMLFilter filter, ProcessElement process) throws SAXException
+    {
+        postAccumulate(filter, new EventBuffer(), process);
+    }
+
+    /**
+     * This installs <code>buffer</code> after <code>filter</code>. The buffer
+     * would normally come from a {@link Pool}, to which <code>process</code>
+     * returns it when it is done with it.
+     */
+    public static void postAccumulate(final XMLFilter filter, EventBuffer buffer, final ProcessElement process) throws SAXException
+    {
+        final ContentHandler handler = filter.getContentHandler();
+
+        buffer.result = new Result()
+        {
+            @Override
+            public void report(EventBuffer buffer) throws SAXException
+            {
+                buffer.result = null;
+                filter.setContentHandler(handler != null ? handler : new XMLFilterImpl());
+                process.process(buffer, buffer.getDocumentElement(), filter);
+                buffer.endDocument();
+            }
+        };
+
+        filter.setContentHandler(buffer);
+        buffer.startDocument();
+    }
+
+    /**
+     * This installs a buffer before <code>filter</code>. You would call it in
+     * <code>startElement</code>, and initialize it with the incoming event,
+     * which you don't let go through.
+     */
+    public static void preAccumulate(String namespaceURI, String localName, String qName, Attributes atts, XMLFilter filter, ProcessElement process) throws SAXException
+    {
+        preAccumulate(namespaceURI, localName, qName, atts, filter, new EventBuffer(), process);
+    }
+
+    /**
+     * This installs <code>buffer</code> before <code>filter</code>. The buffer
+     * would normally come from a {@link Pool}, to which <code>process</code>
+     * returns it when it is done with it.
+     */
+    public static void preAccumulate(String namespaceURI, String localName, String qName, Attributes atts, final XMLFilter filter, EventBuffer buffer, final ProcessElement process) throws SAXException
+    {
+        if (filter.getParent() == null)
+        {
+            return;
+        }
+
+        final ContentHandler handler = filter.getParent().getContentHandler();
+
+        buffer.result = new Result()
+        {
+            @Override
+            public void report(EventBuffer buffer) throws SAXException
+            {
+                buffer.result = null;
+                process.process(buffer, buffer.getDocumentElement(), filter);
+                buffer.endDocument();
+                filter.getParent().setContentHandler(handler);
+            }
+        };
+
+        filter.getParent().setContentHandler(buffer);
+        buffer.startDocument();
+        buffer.startElement(namespaceURI, localName, qName, atts);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+        int node = addNode(PROCESSING_INSTRUCTION);
+
+        this.data[node] = addString(target);
+        addString(data);
+        link(current, node, NONE);
+    }
+
+    /**
+     * Puts an <code>XMLFilterImpl</code> in front of <code>handler</code> in
+     * order to provide the possiblity to the latter to insert an accumulator
+     * dynamically.
+     */
+    private static XMLFilterImpl realHandler(ContentHandler handler)
+    {
+        XMLFilterImpl result = new XMLFilterImpl();
+
+        result.setContentHandler(handler);
+
+        if (handler instanceof XMLFilter)
+        {
+            ((XMLFilter) handler).setParent(result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes an attribute if the element has it.
+     */
+    public void removeAttribute(int element, String namespaceURI, String localName)
+    {
+        int index = findAttribute(element, namespaceURI, localName);
+
+        if (index == NONE)
+        {
+            return;
+        }
+
+        int end = attIndex[element] + attCount[element] * ATTRIBUTE_SIZE;
+
+        System.arraycopy(strings, index + ATTRIBUTE_SIZE, strings, index, end - index - ATTRIBUTE_SIZE);
+        --attCount[element];
+    }
+
+    /**
+     * Detaches <code>child</code> from its parent, after which it can be
+     * inserted elsewhere.
+     */
+    public void removeChild(int child)
+    {
+        int parentNode = parent[child];
+
+        if (parentNode == NONE)
+        {
+            return;
+        }
+
+        if (previousSibling[child] == NONE)
+        {
+            firstChild[parentNode] = nextSibling[child];
+        }
+        else
+        {
+            nextSibling[previousSibling[child]] = nextSibling[child];
+        }
+
+        if (nextSibling[child] == NONE)
+        {
+            lastChild[parentNode] = previousSibling[child];
+        }
+        else
+        {
+            previousSibling[nextSibling[child]] = previousSibling[child];
+        }
+
+        parent[child] = NONE;
+        previousSibling[child] = NONE;
+        nextSibling[child] = NONE;
+    }
+
+    /**
+     * Runs <code>node</code> and its descendants through a
+     * <code>ContentHandler</code>.
+     */
+    public void replay(int node, ContentHandler handler) throws SAXException
+    {
+        XMLReader parent = handler instanceof XMLFilter ? ((XMLFilter) handler).getParent() : null;
+
+        try
+        {
+            replay(node, realHandler(handler));
+        }
+        finally
+        {
+            // The chain of the handler can then be used for another document.
+            if (handler instanceof XMLFilter)
+            {
+                ((XMLFilter) handler).setParent(parent);
+            }
+        }
+    }
+
+    private void replay(int node, XMLFilterImpl handler) throws SAXException
+    {
+        switch (type[node])
+        {
+            case ELEMENT:
+                for (int i = 0; i < mapCount[node]; ++i)
+                {
+                    int index = mapIndex[node] + i * MAPPING_SIZE;
+
+                    handler.startPrefixMapping(strings[index], strings[index + 1]);
+                }
+
+                handler.startElement(getNamespaceURI(node), getLocalName(node), getQName(node), getAttributes(node));
+
+                for (int child = firstChild[node]; child != NONE; child = nextSibling[child])
+                {
+                    replay(child, handler);
+                }
+
+                handler.endElement(getNamespaceURI(node), getLocalName(node), getQName(node));
+
+                for (int i = mapCount[node] - 1; i >= 0; --i)
+                {
+                    handler.endPrefixMapping(strings[mapIndex[node] + i * MAPPING_SIZE]);
+                }
+
+                break;
+
+            case PROCESSING_INSTRUCTION:
+                handler.processingInstruction(getTarget(node), getData(node));
+                break;
+
+            case TEXT:
+                handler.characters(chars, data[node], textLength[node]);
+                break;
+        }
+    }
+
+    /**
+     * Sets the value of an attribute, which is added if the element doesn't
+     * have it yet.
+     */
+    public void setAttribute(int element, String namespaceURI, String qName, String value)
+    {
+        int colon = qName.indexOf(':');
+        String localName = colon == -1 ? qName : qName.substring(colon + 1);
+        int index = findAttribute(element, namespaceURI, localName);
+
+        if (index != NONE)
+        {
+            strings[index + 3] = value;
+            return;
+        }
+
+        int count = attCount[element];
+
+        if (count > 0 && attIndex[element] + count * ATTRIBUTE_SIZE != stringCount)
+        {
+            // Move the attributes to the end, where they can grow.
+            int from = attIndex[element];
+
+            attIndex[element] = stringCount;
+
+            for (int i = 0; i < count * ATTRIBUTE_SIZE; ++i)
+            {
+                addString(strings[from + i]);
+            }
+        }
+        else if (count == 0)
+        {
+            attIndex[element] = stringCount;
+        }
+
+        addString(namespaceURI != null ? namespaceURI : "");
+        addString(localName);
+        addString(qName);
+        addString(value);
+        ++attCount[element];
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator)
+    {
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException
+    {
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+        clear();
+    }
+
+    @Override
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+    {
+        int node = addNode(ELEMENT);
+
+        data[node] = addString(namespaceURI != null ? namespaceURI : "");
+        addString(localName);
+        addString(qName);
+        attIndex[node] = stringCount;
+        attCount[node] = atts.getLength();
+
+        for (int i = 0; i < atts.getLength(); ++i)
+        {
+            addString(atts.getURI(i));
+            addString(atts.getLocalName(i));
+            addString(atts.getQName(i));
+            addString(atts.getValue(i));
+        }
+
+        if (pendingMappings > 0)
+        {
+            mapIndex[node] = stringCount - atts.getLength() * ATTRIBUTE_SIZE - 3 - pendingMappings * MAPPING_SIZE;
+            mapCount[node] = pendingMappings;
+            pendingMappings = 0;
+        }
+
+        link(current, node, NONE);
+        current = node;
+        ++depth;
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException
+    {
+        addString(prefix);
+        addString(uri);
+        ++pendingMappings;
+    }
+
+    /**
+     * Keeps cleared buffers for reuse, so the arrays of a buffer don't have to
+     * grow again for every element that is accumulated. A pool is not
+     * thread-safe; a filter would have its own.
+     */
+    public static class Pool
+    {
+        public static final int MAX_POOLED_SIZE = 0x10000;
+
+        private final EventBuffer[] buffers;
+        private int size;
+
+        public Pool(int maxSize)
+        {
+            buffers = new EventBuffer[maxSize];
+        }
+
+        /**
+         * Returns a pooled buffer or a new one when the pool is empty.
+         */
+        public EventBuffer acquire()
+        {
+            return size > 0 ? buffers[--size] : new EventBuffer();
+        }
+
+        /**
+         * Clears <code>buffer</code> and keeps it when the pool is not full.
+         * A buffer that has grown beyond {@link #MAX_POOLED_SIZE} nodes or
+         * characters is dropped, so a large element doesn't stay in memory.
+         * The buffer may not be used anymore by the caller.
+         */
+        public void release(EventBuffer buffer)
+        {
+            buffer.clear();
+            buffer.result = null;
+
+            if (size < buffers.length && buffer.type.length <= MAX_POOLED_SIZE && buffer.chars.length <= MAX_POOLED_SIZE)
+            {
+                buffers[size++] = buffer;
+            }
+        }
+    } // Pool
+
+    public interface ProcessElement
+    {
+        /**
+         * @param buffer The buffer that contains the element.
+         * @param element The element that was accumulated.
+         * @param filter The filter that installed the buffer.
+         */
+        public void process(EventBuffer buffer, int element, XMLFilter filter) throws SAXException;
+    } // ProcessElement
+
+    public interface Result
+    {
+        public void report(EventBuffer buffer) throws SAXException;
+    } // Result
+} // EventBuffer
@@ -0,0 +1,173 @@
+package be.re.xml;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe table of canonical names. Each name is mapped onto the instance
+ * <code>String.intern()</code> would return for it, so identity comparisons
+ * with interned constants remain valid, and onto a small integer identifier.
+ * Only the first look-up of a name goes to the JVM string pool. This is the
+ * same pool Xerces uses for its own symbol table when the
+ * <code>http://xml.org/sax/features/string-interning</code> feature is on, so
+ * names coming from such a parser are already canonical.
+ *
+ * A table can be given a maximum size. Once it is reached, names are still
+ * interned, but only the names that get an identifier are added. This way the
+ * names of the documents don't make the table grow without bound, while the
+ * names the style sheets refer to always get an identifier.
+ *
+ * @author Gerke Geurts
+ */
+public class SymbolTable
+{
+    /**
+     * The identifier that is never assigned to a name. It can be used to
+     * represent "any name".
+     */
+    public static final int NO_ID = -1;
+
+    /**
+     * The identifier that is returned for a name that is not in the table. It
+     * is never assigned either, so it matches no name.
+     */
+    public static final int UNKNOWN_ID = -2;
+
+    private final int maxSize;
+    private final ConcurrentMap<String, Symbol> symbols = new ConcurrentHashMap<>();
+    private int nextId = 0;
+
+    public SymbolTable()
+    {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxSize The number of names above which interned names are no
+     * longer added.
+     */
+    public SymbolTable(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Creates a symbol table that already contains <code>names</code>. They get
+     * their identifiers in the given order, starting at 0.
+     * @param names
+     */
+    public SymbolTable(String... names)
+    {
+        this(Integer.MAX_VALUE, names);
+    }
+
+    /**
+     * Creates a symbol table that already contains <code>names</code>. They get
+     * their identifiers in the given order, starting at 0.
+     * @param maxSize The number of names above which interned names are no
+     * longer added.
+     * @param names
+     */
+    public SymbolTable(int maxSize, String... names)
+    {
+        this.maxSize = maxSize;
+
+        for (String name : names)
+        {
+            getSymbol(name);
+        }
+    }
+
+    /**
+     * Returns the identifier of <code>name</code>, which is assigned on first
+     * use.
+     * @param name
+     * @return
+     */
+    public int getId(String name)
+    {
+        return name == null ? NO_ID : getSymbol(name).id;
+    }
+
+    /**
+     * Returns the identifier of <code>name</code> without adding it.
+     * @param name
+     * @return The identifier or <code>UNKNOWN_ID</code> if the name is not in
+     * the table.
+     */
+    public int lookupId(String name)
+    {
+        if (name == null)
+        {
+            return NO_ID;
+        }
+
+        Symbol symbol = symbols.get(name);
+
+        return symbol != null ? symbol.id : UNKNOWN_ID;
+    }
+
+    /**
+     * Returns the canonical instance of <code>name</code>, which is the same
+     * as <code>name.intern()</code>. The name is added if the table isn't
+     * full.
+     * @param name
+     * @return
+     */
+    public String intern(String name)
+    {
+        if (name == null)
+        {
+            return null;
+        }
+
+        Symbol symbol = symbols.get(name);
+
+        if (symbol != null)
+        {
+            return symbol.name;
+        }
+
+        return symbols.size() < maxSize ? addSymbol(name).name : name.intern();
+    }
+
+    /**
+     * Returns the number of names in the table.
+     * @return
+     */
+    public int size()
+    {
+        return symbols.size();
+    }
+
+    private Symbol getSymbol(String name)
+    {
+        Symbol symbol = symbols.get(name);
+        return symbol != null ? symbol : addSymbol(name);
+    }
+
+    private synchronized Symbol addSymbol(String name)
+    {
+        Symbol symbol = symbols.get(name);
+
+        if (symbol == null)
+        {
+            symbol = new Symbol(name.intern(), nextId++);
+            symbols.put(symbol.name, symbol);
+        }
+
+        return symbol;
+    }
+
+    private static class Symbol
+    {
+        private final int id;
+        private final String name;
+
+        private Symbol(String name, int id)
+        {
+            this.name = name;
+            this.id = id;
+        }
+    } // Symbol
+} // SymbolTable
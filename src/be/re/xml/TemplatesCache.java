@@ -0,0 +1,139 @@
+package be.re.xml;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Keeps compiled style sheets by URL, so a style sheet that is used for many
+ * documents is compiled only once. The least recently used style sheet is
+ * dropped when the cache is full. A cached style sheet with a <code>file</code>
+ * URL is compiled again when the modification time of the file has changed.
+ * Other URLs are not checked, because that would open a connection for every
+ * lookup. The style sheets it includes or imports are not checked either.
+ * This class is thread-safe.
+ *
+ * @author Gerke Geurts
+ */
+public class TemplatesCache
+{
+    public static final int DEFAULT_SIZE = 16;
+
+    private final Map<String, Entry> entries;
+    private final TransformerFactory factory;
+
+    public TemplatesCache(TransformerFactory factory)
+    {
+        this(factory, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param factory The factory that compiles the style sheets. The cache
+     * synchronizes on it, because factories are not thread-safe.
+     * @param maxSize The number of style sheets that are kept at most.
+     */
+    public TemplatesCache(TransformerFactory factory, final int maxSize)
+    {
+        if (maxSize < 0)
+        {
+            throw new IllegalArgumentException("The cache size can't be negative.");
+        }
+
+        this.factory = factory;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public void clear()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the compiled style sheet, compiling it if it isn't cached or
+     * has changed.
+     * @param url The URL of the style sheet.
+     * @return
+     * @throws TransformerConfigurationException When the style sheet can't be
+     * compiled. Failures are not cached.
+     */
+    public Templates get(URL url) throws TransformerConfigurationException
+    {
+        String key = url.toString();
+        long lastModified = getLastModified(url);
+        Entry entry;
+
+        synchronized (entries)
+        {
+            entry = entries.get(key);
+        }
+
+        if (entry != null && entry.lastModified == lastModified)
+        {
+            return entry.templates;
+        }
+
+        Templates templates;
+
+        synchronized (factory)
+        {
+            templates = factory.newTemplates(new StreamSource(key));
+        }
+
+        synchronized (entries)
+        {
+            entries.put(key, new Entry(templates, lastModified));
+        }
+
+        return templates;
+    }
+
+    /**
+     * Returns the modification time of a file, or 0 when it is unknown or the
+     * URL is not a <code>file</code> URL. A style sheet with an unknown
+     * modification time is compiled once.
+     */
+    private static long getLastModified(URL url)
+    {
+        if (!"file".equals(url.getProtocol()))
+        {
+            return 0;
+        }
+
+        try
+        {
+            return new File(url.toURI()).lastModified();
+        }
+        catch (URISyntaxException | IllegalArgumentException e)
+        {
+            return 0;
+        }
+    }
+
+    private static class Entry
+    {
+        private final long lastModified;
+        private final Templates templates;
+
+        private Entry(Templates templates, long lastModified)
+        {
+            this.templates = templates;
+            this.lastModified = lastModified;
+        }
+    } // Entry
+} // TemplatesCache
@@ -0,0 +1,438 @@
+package be.re.xml.sax;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.LocatorImpl;
+
+/**
+ * Produces the content events that were written by {@link BinaryXMLWriter}.
+ * It reads the byte stream of the input source, or else opens its system ID.
+ * The events are namespace-aware, without the namespace declarations as
+ * attributes. The attributes object that is passed to the content handler is
+ * reused.
+ *
+ * @author Gerke Geurts
+ */
+public class BinaryXMLReader implements XMLReader
+{
+    private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+    private static final String NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+
+    private final AttributesImpl attributes = new AttributesImpl();
+    private final byte[] buffer = new byte[BinaryXMLWriter.DEFAULT_BUFFER_SIZE];
+    private char[] chars = new char[256];
+    private ContentHandler contentHandler;
+    private DTDHandler dtdHandler;
+    private EntityResolver entityResolver;
+    private ErrorHandler errorHandler;
+    private InputStream in;
+    private int limit;
+    private final List<String[]> names = new ArrayList<>();
+    private int position;
+    private final List<String[]> stack = new ArrayList<>();
+    private final List<String> strings = new ArrayList<>();
+    private final List<String> texts = new ArrayList<>();
+
+    @Override
+    public ContentHandler getContentHandler()
+    {
+        return contentHandler;
+    }
+
+    @Override
+    public DTDHandler getDTDHandler()
+    {
+        return dtdHandler;
+    }
+
+    @Override
+    public EntityResolver getEntityResolver()
+    {
+        return entityResolver;
+    }
+
+    @Override
+    public ErrorHandler getErrorHandler()
+    {
+        return errorHandler;
+    }
+
+    @Override
+    public boolean getFeature(String name) throws SAXNotRecognizedException, SAXNotSupportedException
+    {
+        if (NAMESPACES.equals(name))
+        {
+            return true;
+        }
+
+        if (NAMESPACE_PREFIXES.equals(name))
+        {
+            return false;
+        }
+
+        throw new SAXNotRecognizedException(name);
+    }
+
+    @Override
+    public Object getProperty(String name) throws SAXNotRecognizedException, SAXNotSupportedException
+    {
+        throw new SAXNotRecognizedException(name);
+    }
+
+    @Override
+    public void parse(InputSource input) throws IOException, SAXException
+    {
+        InputStream stream = input.getByteStream();
+
+        if (stream != null)
+        {
+            parse(stream, input.getSystemId());
+        }
+        else if (input.getSystemId() != null)
+        {
+            try (InputStream s = new URL(input.getSystemId()).openStream())
+            {
+                parse(s, input.getSystemId());
+            }
+        }
+        else
+        {
+            throw new SAXException("The input source has no byte stream or system ID.");
+        }
+    }
+
+    @Override
+    public void parse(String systemId) throws IOException, SAXException
+    {
+        parse(new InputSource(systemId));
+    }
+
+    private void parse(InputStream in, String systemId) throws IOException, SAXException
+    {
+        ContentHandler handler = contentHandler != null ? contentHandler : new DefaultHandler();
+        LocatorImpl locator = new LocatorImpl();
+
+        this.in = in;
+        limit = 0;
+        position = 0;
+        names.clear();
+        stack.clear();
+        strings.clear();
+        texts.clear();
+        locator.setSystemId(systemId);
+        locator.setLineNumber(-1);
+        locator.setColumnNumber(-1);
+
+        for (byte b : BinaryXMLWriter.MAGIC)
+        {
+            if (readByte() != b)
+            {
+                throw new SAXException("The input is not a binary XML document of this version.");
+            }
+        }
+
+        handler.setDocumentLocator(locator);
+        handler.startDocument();
+
+        int length;
+
+        try
+        {
+            for (byte code = readByte(); code != BinaryXMLWriter.END_DOCUMENT; code = readByte())
+            {
+                switch (code)
+                {
+                    case BinaryXMLWriter.CHARACTERS:
+                        length = readText();
+                        handler.characters(chars, 0, length);
+                        break;
+
+                    case BinaryXMLWriter.END_ELEMENT:
+                        if (stack.isEmpty())
+                        {
+                            throw new SAXException("The binary XML document is corrupt.");
+                        }
+
+                        String[] name = stack.remove(stack.size() - 1);
+                        handler.endElement(name[0], name[1], name[2]);
+                        break;
+
+                    case BinaryXMLWriter.END_PREFIX_MAPPING:
+                        handler.endPrefixMapping(readString());
+                        break;
+
+                    case BinaryXMLWriter.IGNORABLE_WHITESPACE:
+                        length = readText();
+                        handler.ignorableWhitespace(chars, 0, length);
+                        break;
+
+                    case BinaryXMLWriter.PROCESSING_INSTRUCTION:
+                        handler.processingInstruction(readString(), readString());
+                        break;
+
+                    case BinaryXMLWriter.SKIPPED_ENTITY:
+                        handler.skippedEntity(readString());
+                        break;
+
+                    case BinaryXMLWriter.START_ELEMENT:
+                        startElement(handler);
+                        break;
+
+                    case BinaryXMLWriter.START_PREFIX_MAPPING:
+                        handler.startPrefixMapping(readString(), readString());
+                        break;
+
+                    default:
+                        throw new SAXException("Unknown event code " + code + ".");
+                }
+            }
+        }
+        finally
+        {
+            this.in = null;
+        }
+
+        handler.endDocument();
+    }
+
+    private void fill() throws IOException
+    {
+        limit = in.read(buffer);
+        position = 0;
+
+        if (limit <= 0)
+        {
+            limit = 0;
+            throw new EOFException("The binary XML document ends prematurely.");
+        }
+    }
+
+    private static <T> T get(List<T> table, int index) throws IOException
+    {
+        if (index - BinaryXMLWriter.INDEX >= table.size())
+        {
+            throw new IOException("The binary XML document is corrupt.");
+        }
+
+        return table.get(index - BinaryXMLWriter.INDEX);
+    }
+
+    private byte readByte() throws IOException
+    {
+        if (position == limit)
+        {
+            fill();
+        }
+
+        return buffer[position++];
+    }
+
+    /**
+     * Decodes the characters in <code>chars</code>.
+     * @return The number of characters.
+     */
+    private int readChars() throws IOException
+    {
+        int length = readNumber();
+
+        if (length > chars.length)
+        {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+
+        char[] c = chars;
+
+        for (int i = 0; i < length; ++i)
+        {
+            int b = readByte();
+
+            if (b >= 0)
+            {
+                c[i] = (char) b;
+            }
+            else if ((b & 0xe0) == 0xc0)
+            {
+                c[i] = (char) (((b & 0x1f) << 6) | (readByte() & 0x3f));
+            }
+            else
+            {
+                c[i] = (char) (((b & 0x0f) << 12) | ((readByte() & 0x3f) << 6) | (readByte() & 0x3f));
+            }
+        }
+
+        return length;
+    }
+
+    private int readNumber() throws IOException
+    {
+        int result = 0;
+
+        for (int shift = 0;; shift += 7)
+        {
+            byte b = readByte();
+
+            result |= (b & 0x7f) << shift;
+
+            if (b >= 0)
+            {
+                return result;
+            }
+        }
+    }
+
+    private String readString() throws IOException
+    {
+        int index = readNumber();
+
+        if (index >= BinaryXMLWriter.INDEX)
+        {
+            return get(strings, index);
+        }
+
+        int length = readChars();
+        String s = new String(chars, 0, length);
+
+        if (index == BinaryXMLWriter.NEW)
+        {
+            strings.add(s);
+        }
+
+        return s;
+    }
+
+    /**
+     * Puts the text in <code>chars</code>.
+     * @return The number of characters.
+     */
+    private int readText() throws IOException
+    {
+        int index = readNumber();
+
+        if (index >= BinaryXMLWriter.INDEX)
+        {
+            String s = get(texts, index);
+
+            if (s.length() > chars.length)
+            {
+                chars = new char[s.length()];
+            }
+
+            s.getChars(0, s.length(), chars, 0);
+
+            return s.length();
+        }
+
+        int length = readChars();
+
+        if (index == BinaryXMLWriter.NEW)
+        {
+            texts.add(new String(chars, 0, length));
+        }
+
+        return length;
+    }
+
+    /**
+     * Reads an entry of the name table, with the namespace URI, the local
+     * name, the qualified name and, for attributes, the type.
+     */
+    private String[] readName(boolean attribute) throws IOException
+    {
+        int index = readNumber();
+
+        if (index >= BinaryXMLWriter.INDEX)
+        {
+            String[] name = get(names, index);
+
+            if (name.length != (attribute ? 4 : 3))
+            {
+                throw new IOException("The binary XML document is corrupt.");
+            }
+
+            return name;
+        }
+
+        String[] name = attribute
+                ? new String[] {readString(), readString(), readString(), readString()}
+                : new String[] {readString(), readString(), readString()};
+
+        if (index == BinaryXMLWriter.NEW)
+        {
+            names.add(name);
+        }
+
+        return name;
+    }
+
+    private void startElement(ContentHandler handler) throws IOException, SAXException
+    {
+        String[] name = readName(false);
+        int length = readNumber();
+
+        attributes.clear();
+
+        for (int i = 0; i < length; ++i)
+        {
+            String[] attribute = readName(true);
+
+            attributes.addAttribute(attribute[0], attribute[1], attribute[2], attribute[3], readString());
+        }
+
+        stack.add(name);
+        handler.startElement(name[0], name[1], name[2], attributes);
+    }
+
+    @Override
+    public void setContentHandler(ContentHandler handler)
+    {
+        contentHandler = handler;
+    }
+
+    @Override
+    public void setDTDHandler(DTDHandler handler)
+    {
+        dtdHandler = handler;
+    }
+
+    @Override
+    public void setEntityResolver(EntityResolver resolver)
+    {
+        entityResolver = resolver;
+    }
+
+    @Override
+    public void setErrorHandler(ErrorHandler handler)
+    {
+        errorHandler = handler;
+    }
+
+    @Override
+    public void setFeature(String name, boolean value) throws SAXNotRecognizedException, SAXNotSupportedException
+    {
+        if (getFeature(name) != value)
+        {
+            throw new SAXNotSupportedException(name + " can't be set to " + value + ".");
+        }
+    }
+
+    @Override
+    public void setProperty(String name, Object value) throws SAXNotRecognizedException, SAXNotSupportedException
+    {
+        throw new SAXNotRecognizedException(name);
+    }
+} // BinaryXMLReader
@@ -0,0 +1,407 @@
+package be.re.xml.sax;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * Writes content events in a compact binary encoding, which
+ * {@link BinaryXMLReader} turns into events again. It is meant for passing
+ * large documents such as XSL-FO between processes, without the cost of
+ * serializing and parsing XML.
+ *
+ * Element and attribute names, strings such as namespace URIs and attribute
+ * values, and short texts go into three tables the first time they occur.
+ * After that they are written as an index in their table, which keeps the
+ * indexes of the frequent names small. Numbers are written as
+ * variable-length integers and characters in UTF-8, with surrogates encoded
+ * separately.
+ *
+ * @author Gerke Geurts
+ */
+public class BinaryXMLWriter implements ContentHandler
+{
+    public static final int DEFAULT_BUFFER_SIZE = 0x4000;
+
+    static final byte[] MAGIC = {'B', 'X', 'M', 'L', 1};
+
+    static final byte CHARACTERS = 1;
+    static final byte END_DOCUMENT = 2;
+    static final byte END_ELEMENT = 3;
+    static final byte END_PREFIX_MAPPING = 4;
+    static final byte IGNORABLE_WHITESPACE = 5;
+    static final byte PROCESSING_INSTRUCTION = 6;
+    static final byte SKIPPED_ENTITY = 7;
+    static final byte START_ELEMENT = 8;
+    static final byte START_PREFIX_MAPPING = 9;
+
+    /**
+     * The entry is followed literally and is added to the table.
+     */
+    static final int NEW = 0;
+
+    /**
+     * The entry is followed literally and is not added to the table.
+     */
+    static final int LITERAL = 1;
+
+    /**
+     * Table indexes are written with this offset.
+     */
+    static final int INDEX = 2;
+
+    /**
+     * Longer values and texts are not kept in the table.
+     */
+    static final int MAX_TABLED_LENGTH = 32;
+
+    /**
+     * A table stops growing at this size, which bounds the memory of both
+     * sides.
+     */
+    static final int MAX_TABLE_SIZE = 0x10000;
+
+    private final byte[] buffer;
+    private final Map<String, Name> names = new HashMap<>();
+    private int nameCount;
+    private OutputStream out;
+    private int position;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final Map<String, Integer> texts = new HashMap<>();
+
+    public BinaryXMLWriter(OutputStream out)
+    {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param out The stream is flushed at the end of the document, but not
+     * closed.
+     * @param bufferSize The number of bytes that are collected before they are
+     * written to the stream.
+     */
+    public BinaryXMLWriter(OutputStream out, int bufferSize)
+    {
+        if (bufferSize < 16)
+        {
+            throw new IllegalArgumentException("The buffer should hold at least 16 bytes.");
+        }
+
+        this.out = out;
+        buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Prepares the writer for another document, keeping its buffer. The
+     * tables start empty again.
+     * @param out
+     */
+    public void reset(OutputStream out)
+    {
+        this.out = out;
+        names.clear();
+        nameCount = 0;
+        position = 0;
+        strings.clear();
+        texts.clear();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+        writeCode(CHARACTERS);
+        writeText(ch, start, length);
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+        writeCode(END_DOCUMENT);
+
+        try
+        {
+            flushBuffer();
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+    {
+        // The reader knows the name from the start tag.
+        writeCode(END_ELEMENT);
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException
+    {
+        writeCode(END_PREFIX_MAPPING);
+        writeString(prefix);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+    {
+        writeCode(IGNORABLE_WHITESPACE);
+        writeText(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+        writeCode(PROCESSING_INSTRUCTION);
+        writeString(target);
+        writeString(data);
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator)
+    {
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException
+    {
+        writeCode(SKIPPED_ENTITY);
+        writeString(name);
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+        reserve(MAGIC.length);
+        System.arraycopy(MAGIC, 0, buffer, position, MAGIC.length);
+        position += MAGIC.length;
+    }
+
+    @Override
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+    {
+        writeCode(START_ELEMENT);
+        writeName(namespaceURI, localName, qName, null);
+
+        int length = atts.getLength();
+
+        writeNumber(length);
+
+        for (int i = 0; i < length; ++i)
+        {
+            String type = atts.getType(i);
+
+            // A null type would make it an element name.
+            writeName(atts.getURI(i), atts.getLocalName(i), atts.getQName(i), type != null ? type : "CDATA");
+            writeString(atts.getValue(i));
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException
+    {
+        writeCode(START_PREFIX_MAPPING);
+        writeString(prefix);
+        writeString(uri);
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        if (position > 0)
+        {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void reserve(int length) throws SAXException
+    {
+        if (position + length > buffer.length)
+        {
+            try
+            {
+                flushBuffer();
+            }
+            catch (IOException e)
+            {
+                throw new SAXException(e);
+            }
+        }
+    }
+
+    private void writeChars(char[] ch, int start, int length) throws SAXException
+    {
+        writeNumber(length);
+
+        byte[] b = buffer;
+        int end = start + length;
+
+        for (int i = start; i < end; ++i)
+        {
+            if (position + 3 > b.length)
+            {
+                reserve(3);
+            }
+
+            char c = ch[i];
+
+            if (c < 0x80)
+            {
+                b[position++] = (byte) c;
+            }
+            else if (c < 0x800)
+            {
+                b[position++] = (byte) (0xc0 | (c >> 6));
+                b[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else
+            {
+                b[position++] = (byte) (0xe0 | (c >> 12));
+                b[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void writeCode(byte code) throws SAXException
+    {
+        reserve(1);
+        buffer[position++] = code;
+    }
+
+    private void writeNumber(int value) throws SAXException
+    {
+        reserve(5);
+
+        while ((value & ~0x7f) != 0)
+        {
+            buffer[position++] = (byte) (0x80 | (value & 0x7f));
+            value >>>= 7;
+        }
+
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Writes the namespace URI, local name, qualified name and, for
+     * attributes, the type as one entry of the name table. A new entry is
+     * followed by its parts.
+     */
+    private void writeName(String namespaceURI, String localName, String qName, String type) throws SAXException
+    {
+        Name first = names.get(qName);
+
+        for (Name name = first; name != null; name = name.next)
+        {
+            if (name.matches(namespaceURI, localName, type))
+            {
+                writeNumber(name.index + INDEX);
+                return;
+            }
+        }
+
+        if (nameCount < MAX_TABLE_SIZE)
+        {
+            Name name = new Name(namespaceURI, localName, type, nameCount++, first);
+
+            names.put(qName, name);
+            writeNumber(NEW);
+        }
+        else
+        {
+            writeNumber(LITERAL);
+        }
+
+        writeString(namespaceURI);
+        writeString(localName);
+        writeString(qName);
+
+        if (type != null)
+        {
+            writeString(type);
+        }
+    }
+
+    private void writeString(String s) throws SAXException
+    {
+        writeString(s, strings);
+    }
+
+    private void writeString(String s, Map<String, Integer> table) throws SAXException
+    {
+        if (s == null)
+        {
+            s = "";
+        }
+
+        Integer index = table.get(s);
+
+        if (index != null)
+        {
+            writeNumber(index + INDEX);
+        }
+        else if (s.length() <= MAX_TABLED_LENGTH && table.size() < MAX_TABLE_SIZE)
+        {
+            table.put(s, table.size());
+            writeNumber(NEW);
+            writeChars(s.toCharArray(), 0, s.length());
+        }
+        else
+        {
+            writeNumber(LITERAL);
+            writeChars(s.toCharArray(), 0, s.length());
+        }
+    }
+
+    private void writeText(char[] ch, int start, int length) throws SAXException
+    {
+        if (length <= MAX_TABLED_LENGTH)
+        {
+            writeString(new String(ch, start, length), texts);
+        }
+        else
+        {
+            writeNumber(LITERAL);
+            writeChars(ch, start, length);
+        }
+    }
+
+    /**
+     * An entry of the name table. The entries with the same qualified name
+     * are chained.
+     */
+    private static class Name
+    {
+        private final int index;
+        private final String localName;
+        private final String namespaceURI;
+        private final Name next;
+        private final String type;
+
+        private Name(String namespaceURI, String localName, String type, int index, Name next)
+        {
+            this.namespaceURI = namespaceURI;
+            this.localName = localName;
+            this.type = type;
+            this.index = index;
+            this.next = next;
+        }
+
+        private boolean matches(String namespaceURI, String localName, String type)
+        {
+            return equal(this.namespaceURI, namespaceURI) && equal(this.localName, localName)
+                    && equal(this.type, type);
+        }
+
+        private static boolean equal(String s1, String s2)
+        {
+            return s1 == s2 || (s1 != null && s1.equals(s2));
+        }
+    } // Name
+} // BinaryXMLWriter
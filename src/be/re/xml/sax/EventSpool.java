@@ -0,0 +1,457 @@
+package be.re.xml.sax;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Records content events in order to replay them later. The events are encoded
+ * in a byte buffer, which grows up to the memory budget. Beyond that the
+ * buffer is written to a temporary file each time it is full, and the file is
+ * memory-mapped for the replay. The file is removed right after it is opened,
+ * where the platform allows it. This way the memory use doesn't depend on the
+ * number of recorded events.
+ *
+ * Names, namespace URIs and attribute types are kept in a table, so the
+ * replayed events carry the same string instances as the recorded ones. The
+ * attributes object that is passed to the content handler is reused. The
+ * document events and the document locator are not recorded.
+ *
+ * @author Gerke Geurts
+ */
+public class EventSpool implements ContentHandler
+{
+    public static final int DEFAULT_BUDGET = 4 * 1024 * 1024;
+
+    private static final int INITIAL_SIZE = 4096;
+
+    private static final byte CHARACTERS = 1;
+    private static final byte END_ELEMENT = 2;
+    private static final byte END_PREFIX_MAPPING = 3;
+    private static final byte IGNORABLE_WHITESPACE = 4;
+    private static final byte PROCESSING_INSTRUCTION = 5;
+    private static final byte SKIPPED_ENTITY = 6;
+    private static final byte START_ELEMENT = 7;
+    private static final byte START_PREFIX_MAPPING = 8;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_SIZE);
+    private final int budget;
+    private FileChannel channel;
+    private char[] chars = new char[256];
+    private File file;
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    public EventSpool()
+    {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param budget The number of bytes the events may occupy in memory before
+     * they are written to a temporary file.
+     */
+    public EventSpool(int budget)
+    {
+        if (budget < 0)
+        {
+            throw new IllegalArgumentException("The memory budget can't be negative.");
+        }
+
+        this.budget = budget;
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+        writeCode(CHARACTERS);
+        writeText(ch, start, length);
+    }
+
+    /**
+     * Removes all recorded events and the temporary file, if any.
+     */
+    public void clear()
+    {
+        buffer.clear();
+        indexes.clear();
+        names.clear();
+
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                // The file is removed anyway.
+            }
+
+            channel = null;
+        }
+
+        if (file != null)
+        {
+            file.delete();
+            file = null;
+        }
+    }
+
+    private void ensure(int length) throws SAXException
+    {
+        if (channel == null && buffer.position() + length > budget)
+        {
+            spill();
+        }
+
+        if (buffer.remaining() >= length)
+        {
+            return;
+        }
+
+        if (channel != null)
+        {
+            flush();
+        }
+
+        if (buffer.remaining() < length)
+        {
+            int size = buffer.capacity();
+
+            while (size - buffer.position() < length)
+            {
+                size *= 2;
+            }
+
+            ByteBuffer grown = ByteBuffer.allocate(size);
+
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+    }
+
+    @Override
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+    {
+        writeCode(END_ELEMENT);
+        writeName(namespaceURI);
+        writeName(localName);
+        writeName(qName);
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException
+    {
+        writeCode(END_PREFIX_MAPPING);
+        writeName(prefix);
+    }
+
+    private void flush() throws SAXException
+    {
+        buffer.flip();
+
+        try
+        {
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new SAXException(e);
+        }
+
+        buffer.clear();
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+    {
+        writeCode(IGNORABLE_WHITESPACE);
+        writeText(ch, start, length);
+    }
+
+    /**
+     * Tells if the events have been written to a temporary file.
+     * @return
+     */
+    public boolean isSpilled()
+    {
+        return channel != null;
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+        writeCode(PROCESSING_INSTRUCTION);
+        writeName(target);
+        writeString(data);
+    }
+
+    private String readName(ByteBuffer in)
+    {
+        int index = in.getInt();
+
+        return index == -1 ? null : names.get(index);
+    }
+
+    private String readString(ByteBuffer in)
+    {
+        int length = readText(in);
+
+        return new String(chars, 0, length);
+    }
+
+    private int readText(ByteBuffer in)
+    {
+        int length = in.getInt();
+
+        if (chars.length < length)
+        {
+            chars = new char[Math.max(length, 2 * chars.length)];
+        }
+
+        for (int i = 0; i < length; ++i)
+        {
+            chars[i] = in.getChar();
+        }
+
+        return length;
+    }
+
+    /**
+     * Sends the recorded events to <code>handler</code>. The events remain
+     * recorded.
+     * @param handler
+     * @throws SAXException
+     */
+    public void replay(ContentHandler handler) throws SAXException
+    {
+        AttributesImpl atts = new AttributesImpl();
+        ByteBuffer in;
+
+        if (channel != null)
+        {
+            flush();
+
+            try
+            {
+                if (channel.size() > Integer.MAX_VALUE)
+                {
+                    throw new SAXException("The recorded events exceed 2GB.");
+                }
+
+                in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            catch (IOException e)
+            {
+                throw new SAXException(e);
+            }
+        }
+        else
+        {
+            in = buffer.duplicate();
+            in.flip();
+        }
+
+        while (in.hasRemaining())
+        {
+            switch (in.get())
+            {
+                case CHARACTERS:
+                    int count = readText(in);
+
+                    handler.characters(chars, 0, count);
+                    break;
+
+                case END_ELEMENT:
+                    handler.endElement(readName(in), readName(in), readName(in));
+                    break;
+
+                case END_PREFIX_MAPPING:
+                    handler.endPrefixMapping(readName(in));
+                    break;
+
+                case IGNORABLE_WHITESPACE:
+                    int whitespace = readText(in);
+
+                    handler.ignorableWhitespace(chars, 0, whitespace);
+                    break;
+
+                case PROCESSING_INSTRUCTION:
+                    String target = readName(in);
+
+                    handler.processingInstruction(target, readString(in));
+                    break;
+
+                case SKIPPED_ENTITY:
+                    handler.skippedEntity(readName(in));
+                    break;
+
+                case START_ELEMENT:
+                    String namespaceURI = readName(in);
+                    String localName = readName(in);
+                    String qName = readName(in);
+                    int length = in.getInt();
+
+                    atts.clear();
+
+                    for (int i = 0; i < length; ++i)
+                    {
+                        String uri = readName(in);
+                        String local = readName(in);
+                        String q = readName(in);
+                        String type = readName(in);
+
+                        atts.addAttribute(uri, local, q, type, readString(in));
+                    }
+
+                    handler.startElement(namespaceURI, localName, qName, atts);
+                    break;
+
+                case START_PREFIX_MAPPING:
+                    handler.startPrefixMapping(readName(in), readName(in));
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator)
+    {
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException
+    {
+        writeCode(SKIPPED_ENTITY);
+        writeName(name);
+    }
+
+    private void spill() throws SAXException
+    {
+        try
+        {
+            file = File.createTempFile("events", ".spool");
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        catch (IOException e)
+        {
+            clear();
+            throw new SAXException(e);
+        }
+
+        // Where an open file can be removed, nothing is left behind when the
+        // spool is never cleared. Otherwise clear() removes it.
+        if (file.delete())
+        {
+            file = null;
+        }
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+    }
+
+    @Override
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+    {
+        int length = atts.getLength();
+
+        writeCode(START_ELEMENT);
+        writeName(namespaceURI);
+        writeName(localName);
+        writeName(qName);
+        ensure(4);
+        buffer.putInt(length);
+
+        for (int i = 0; i < length; ++i)
+        {
+            writeName(atts.getURI(i));
+            writeName(atts.getLocalName(i));
+            writeName(atts.getQName(i));
+            writeName(atts.getType(i));
+            writeString(atts.getValue(i));
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException
+    {
+        writeCode(START_PREFIX_MAPPING);
+        writeName(prefix);
+        writeName(uri);
+    }
+
+    private void writeCode(byte code) throws SAXException
+    {
+        ensure(1);
+        buffer.put(code);
+    }
+
+    private void writeName(String name) throws SAXException
+    {
+        int index = -1;
+
+        if (name != null)
+        {
+            Integer i = indexes.get(name);
+
+            if (i == null)
+            {
+                i = names.size();
+                indexes.put(name, i);
+                names.add(name);
+            }
+
+            index = i;
+        }
+
+        ensure(4);
+        buffer.putInt(index);
+    }
+
+    private void writeString(String s) throws SAXException
+    {
+        int length = s.length();
+
+        ensure(4 + 2 * length);
+        buffer.putInt(length);
+
+        for (int i = 0; i < length; ++i)
+        {
+            buffer.putChar(s.charAt(i));
+        }
+    }
+
+    private void writeText(char[] ch, int start, int length) throws SAXException
+    {
+        ensure(4 + 2 * length);
+        buffer.putInt(length);
+
+        for (int i = start; i < start + length; ++i)
+        {
+            buffer.putChar(ch[i]);
+        }
+    }
+} // EventSpool
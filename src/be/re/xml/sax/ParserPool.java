@@ -0,0 +1,135 @@
+package be.re.xml.sax;
+
+import be.re.xml.CatalogResolver;
+import be.re.xml.XHTMLEntityResolver;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Keeps parsers for reuse. They come from the shared factory of the validation
+ * mode and have the catalog resolver installed. A released parser gets the
+ * entity resolver and the error handler back it had at the start and loses
+ * the handlers of the previous document. This class is thread-safe, but a
+ * parser should be used by one thread at a time.
+ *
+ * @author Gerke Geurts
+ */
+public class ParserPool
+{
+    public static final int DEFAULT_SIZE = 16;
+
+    private final CatalogResolver catalogResolver;
+    private final EntityResolver entityResolver;
+    private final Object grammarPool;
+    private final ConcurrentLinkedQueue<XMLReader> parsers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxSize;
+    private final boolean validating;
+
+    public ParserPool(CatalogResolver catalogResolver, boolean validating)
+    {
+        this(catalogResolver, validating, false, null, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param catalogResolver The resolver that is installed in the parsers. It
+     * may be <code>null</code>.
+     * @param validating Tells if the parsers validate.
+     * @param builtInEntities Tells if non-validating parsers get the XHTML
+     * entities from {@link XHTMLEntityResolver} instead of the DTD.
+     * @param grammarPool A Xerces <code>XMLGrammarPool</code> that is shared by
+     * the parsers, or <code>null</code>. It is ignored when the parsers are
+     * not Xerces parsers.
+     * @param maxSize The number of parsers that are kept at most.
+     */
+    public ParserPool(CatalogResolver catalogResolver, boolean validating, boolean builtInEntities, Object grammarPool, int maxSize)
+    {
+        this.catalogResolver = catalogResolver;
+        this.entityResolver = builtInEntities && !validating
+                ? new XHTMLEntityResolver(catalogResolver)
+                : catalogResolver;
+        this.grammarPool = grammarPool;
+        this.validating = validating;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns a pooled parser or a new one if there is none.
+     * @return
+     * @throws SAXException
+     */
+    public XMLReader lease() throws SAXException
+    {
+        XMLReader parser = parsers.poll();
+
+        if (parser == null)
+        {
+            parser = Util.getParser(catalogResolver, validating);
+
+            if (entityResolver != catalogResolver)
+            {
+                parser.setEntityResolver(entityResolver);
+
+                try
+                {
+                    parser.setFeature("http://xml.org/sax/features/use-entity-resolver2", true);
+                    parser.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", true);
+                }
+                catch (SAXException e)
+                {
+                    // NOP
+                }
+            }
+
+            if (grammarPool != null)
+            {
+                trySetProperty(parser, SchemaGrammarPool.PROPERTY, grammarPool);
+            }
+
+            return parser;
+        }
+
+        size.decrementAndGet();
+
+        return parser;
+    }
+
+    /**
+     * Returns a parser to the pool. It should not be used anymore by the
+     * caller.
+     * @param parser A parser that was obtained with <code>lease</code>.
+     */
+    public void release(XMLReader parser)
+    {
+        parser.setContentHandler(null);
+        parser.setDTDHandler(null);
+        parser.setEntityResolver(entityResolver);
+        parser.setErrorHandler(new ErrorHandler(false));
+
+        trySetProperty(parser, "http://xml.org/sax/properties/lexical-handler", null);
+
+        if (size.incrementAndGet() <= maxSize)
+        {
+            parsers.offer(parser);
+        }
+        else
+        {
+            size.decrementAndGet();
+        }
+    }
+
+    private static void trySetProperty(XMLReader parser, String name, Object value)
+    {
+        try
+        {
+            parser.setProperty(name, value);
+        }
+        catch (SAXException e)
+        {
+            // NOP
+        }
+    }
+} // ParserPool
@@ -0,0 +1,573 @@
+package be.re.xml.sax;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Hands the content events it receives over to another thread, which sends
+ * them to the content handler. This way the filters before and after it run
+ * concurrently. The events are encoded in batches of arrays, which circulate
+ * between the two threads through a bounded ring. The producing thread waits
+ * when all batches are in use, so the memory use doesn't depend on the size
+ * of the document.
+ *
+ * An exception in the consuming thread is rethrown in the producing thread at
+ * the next hand-over, or at the latest in <code>endDocument</code>, which
+ * returns only when all events have been processed. When parsing is aborted
+ * before the end of the document the consuming thread is stopped.
+ *
+ * The content handler may be replaced in the consuming thread while the events
+ * flow. As with parsers, the attributes object that is passed to the content
+ * handler is reused. The document locator is not passed on, because it
+ * belongs to the producing thread.
+ *
+ * @author Gerke Geurts
+ */
+public class PipelineFilter extends XMLFilterImpl
+{
+    private static final int DEFAULT_BATCHES = 8;
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private static final int ABORT = 0;
+    private static final int CHARACTERS = 1;
+    private static final int END_DOCUMENT = 2;
+    private static final int END_ELEMENT = 3;
+    private static final int END_PREFIX_MAPPING = 4;
+    private static final int IGNORABLE_WHITESPACE = 5;
+    private static final int PROCESSING_INSTRUCTION = 6;
+    private static final int SKIPPED_ENTITY = 7;
+    private static final int START_DOCUMENT = 8;
+    private static final int START_ELEMENT = 9;
+    private static final int START_PREFIX_MAPPING = 10;
+
+    private Batch batch;
+    private final int batchSize;
+    private volatile Throwable failure;
+    private final BlockingQueue<Batch> free;
+    private final BlockingQueue<Batch> full;
+    private volatile Thread thread;
+
+    public PipelineFilter()
+    {
+        this(DEFAULT_BATCHES, DEFAULT_BATCH_SIZE);
+    }
+
+    public PipelineFilter(XMLReader parent)
+    {
+        this();
+        setParent(parent);
+    }
+
+    /**
+     * @param batches The number of batches in the ring. It should be at least
+     * 2.
+     * @param batchSize The number of events after which a batch is handed over.
+     */
+    public PipelineFilter(int batches, int batchSize)
+    {
+        if (batches < 2 || batchSize < 1)
+        {
+            throw new IllegalArgumentException("There should be at least two batches of at least one event.");
+        }
+
+        this.batchSize = batchSize;
+        free = new ArrayBlockingQueue<>(batches);
+        full = new ArrayBlockingQueue<>(batches);
+
+        for (int i = 0; i < batches; ++i)
+        {
+            free.add(new Batch(batchSize));
+        }
+    }
+
+    private void append(int code, String s1) throws SAXException
+    {
+        batch.addCode(code);
+        batch.addString(s1);
+        appended();
+    }
+
+    private void append(int code, String s1, String s2) throws SAXException
+    {
+        batch.addCode(code);
+        batch.addString(s1);
+        batch.addString(s2);
+        appended();
+    }
+
+    private void append(int code, String s1, String s2, String s3) throws SAXException
+    {
+        batch.addCode(code);
+        batch.addString(s1);
+        batch.addString(s2);
+        batch.addString(s3);
+        appended();
+    }
+
+    private void appended() throws SAXException
+    {
+        if (++batch.events >= batchSize)
+        {
+            handOver(false);
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+        batch.addCode(CHARACTERS);
+        batch.addChars(ch, start, length);
+        appended();
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+        batch.addCode(END_DOCUMENT);
+        handOver(true);
+        join();
+        rethrow();
+    }
+
+    @Override
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+    {
+        append(END_ELEMENT, namespaceURI, localName, qName);
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException
+    {
+        append(END_PREFIX_MAPPING, prefix);
+    }
+
+    private void handOver(boolean last) throws SAXException
+    {
+        rethrow();
+        batch.last = last;
+
+        try
+        {
+            full.put(batch);
+            batch = last ? null : free.take();
+        }
+        catch (InterruptedException e)
+        {
+            batch = null;
+            Thread.currentThread().interrupt();
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+    {
+        batch.addCode(IGNORABLE_WHITESPACE);
+        batch.addChars(ch, start, length);
+        appended();
+    }
+
+    private void join() throws SAXException
+    {
+        Thread t = thread;
+
+        thread = null;
+
+        if (t != null)
+        {
+            try
+            {
+                t.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new SAXException(e);
+            }
+        }
+    }
+
+    @Override
+    public void parse(InputSource input) throws SAXException, IOException
+    {
+        try
+        {
+            super.parse(input);
+        }
+        finally
+        {
+            stop();
+        }
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+        append(PROCESSING_INSTRUCTION, target, data);
+    }
+
+    /**
+     * Sends the events of <code>b</code> to the content handler. Returns
+     * <code>true</code> when the end of the document or an abort is reached.
+     */
+    private boolean replay(Batch b, AttributesImpl atts) throws SAXException
+    {
+        int c = 0;
+        int ch = 0;
+        int s = 0;
+
+        while (c < b.codeCount)
+        {
+            ContentHandler handler = getContentHandler();
+            int length;
+
+            switch (b.codes[c++])
+            {
+                case ABORT:
+                    return true;
+
+                case CHARACTERS:
+                    length = b.codes[c++];
+
+                    if (handler != null)
+                    {
+                        handler.characters(b.chars, ch, length);
+                    }
+
+                    ch += length;
+                    break;
+
+                case END_DOCUMENT:
+                    if (handler != null)
+                    {
+                        handler.endDocument();
+                    }
+
+                    return true;
+
+                case END_ELEMENT:
+                    if (handler != null)
+                    {
+                        handler.endElement(b.strings[s], b.strings[s + 1], b.strings[s + 2]);
+                    }
+
+                    s += 3;
+                    break;
+
+                case END_PREFIX_MAPPING:
+                    if (handler != null)
+                    {
+                        handler.endPrefixMapping(b.strings[s]);
+                    }
+
+                    s += 1;
+                    break;
+
+                case IGNORABLE_WHITESPACE:
+                    length = b.codes[c++];
+
+                    if (handler != null)
+                    {
+                        handler.ignorableWhitespace(b.chars, ch, length);
+                    }
+
+                    ch += length;
+                    break;
+
+                case PROCESSING_INSTRUCTION:
+                    if (handler != null)
+                    {
+                        handler.processingInstruction(b.strings[s], b.strings[s + 1]);
+                    }
+
+                    s += 2;
+                    break;
+
+                case SKIPPED_ENTITY:
+                    if (handler != null)
+                    {
+                        handler.skippedEntity(b.strings[s]);
+                    }
+
+                    s += 1;
+                    break;
+
+                case START_DOCUMENT:
+                    if (handler != null)
+                    {
+                        handler.startDocument();
+                    }
+
+                    break;
+
+                case START_ELEMENT:
+                    int count = b.codes[c++];
+                    int a = s + 3;
+
+                    atts.clear();
+
+                    for (int i = 0; i < count; ++i, a += 5)
+                    {
+                        atts.addAttribute(b.strings[a], b.strings[a + 1], b.strings[a + 2], b.strings[a + 3], b.strings[a + 4]);
+                    }
+
+                    if (handler != null)
+                    {
+                        handler.startElement(b.strings[s], b.strings[s + 1], b.strings[s + 2], atts);
+                    }
+
+                    s = a;
+                    break;
+
+                case START_PREFIX_MAPPING:
+                    if (handler != null)
+                    {
+                        handler.startPrefixMapping(b.strings[s], b.strings[s + 1]);
+                    }
+
+                    s += 2;
+                    break;
+            }
+        }
+
+        return false;
+    }
+
+    private void rethrow() throws SAXException
+    {
+        Throwable t = failure;
+
+        if (t == null)
+        {
+            return;
+        }
+
+        if (t instanceof SAXException)
+        {
+            throw (SAXException) t;
+        }
+
+        if (t instanceof RuntimeException)
+        {
+            throw (RuntimeException) t;
+        }
+
+        if (t instanceof Error)
+        {
+            throw (Error) t;
+        }
+
+        throw new SAXException((Exception) t);
+    }
+
+    private void run()
+    {
+        AttributesImpl atts = new AttributesImpl();
+        boolean done = false;
+
+        try
+        {
+            while (!done)
+            {
+                Batch b = full.take();
+
+                try
+                {
+                    // After a failure the batches are only drained, so the
+                    // producing thread doesn't block.
+                    done = failure == null ? replay(b, atts) : b.last;
+                }
+                catch (Throwable t)
+                {
+                    failure = t;
+                    done = b.last;
+                }
+
+                b.clear();
+                free.put(b);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            failure = e;
+        }
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator)
+    {
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException
+    {
+        append(SKIPPED_ENTITY, name);
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+        stop();
+        failure = null;
+
+        try
+        {
+            batch = free.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SAXException(e);
+        }
+
+        Thread t = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                PipelineFilter.this.run();
+            }
+        }, "PipelineFilter");
+
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+        batch.addCode(START_DOCUMENT);
+        appended();
+    }
+
+    @Override
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+    {
+        int length = atts.getLength();
+
+        batch.addCode(START_ELEMENT);
+        batch.addCode(length);
+        batch.addString(namespaceURI);
+        batch.addString(localName);
+        batch.addString(qName);
+
+        for (int i = 0; i < length; ++i)
+        {
+            batch.addString(atts.getURI(i));
+            batch.addString(atts.getLocalName(i));
+            batch.addString(atts.getQName(i));
+            batch.addString(atts.getType(i));
+            batch.addString(atts.getValue(i));
+        }
+
+        appended();
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException
+    {
+        append(START_PREFIX_MAPPING, prefix, uri);
+    }
+
+    /**
+     * Stops the consuming thread of a document that didn't reach its end.
+     */
+    private void stop() throws SAXException
+    {
+        if (thread == null)
+        {
+            return;
+        }
+
+        try
+        {
+            Batch b = batch != null ? batch : free.take();
+
+            batch = null;
+            b.clear();
+            b.addCode(ABORT);
+            b.last = true;
+            full.put(b);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SAXException(e);
+        }
+
+        join();
+    }
+
+    /**
+     * A number of events, encoded in arrays. The characters of all text events
+     * are in <code>chars</code>, the names and values in <code>strings</code>
+     * and the event codes and integer arguments in <code>codes</code>.
+     */
+    private static class Batch
+    {
+        private char[] chars;
+        private int charCount;
+        private int[] codes;
+        private int codeCount;
+        private int events;
+        private boolean last;
+        private String[] strings;
+        private int stringCount;
+
+        private Batch(int size)
+        {
+            chars = new char[size * 16];
+            codes = new int[size * 2];
+            strings = new String[size * 4];
+        }
+
+        private void addChars(char[] ch, int start, int length)
+        {
+            addCode(length);
+
+            if (charCount + length > chars.length)
+            {
+                chars = Arrays.copyOf(chars, Math.max(charCount + length, chars.length * 2));
+            }
+
+            System.arraycopy(ch, start, chars, charCount, length);
+            charCount += length;
+        }
+
+        private void addCode(int code)
+        {
+            if (codeCount == codes.length)
+            {
+                codes = Arrays.copyOf(codes, codes.length * 2);
+            }
+
+            codes[codeCount++] = code;
+        }
+
+        private void addString(String s)
+        {
+            if (stringCount == strings.length)
+            {
+                strings = Arrays.copyOf(strings, strings.length * 2);
+            }
+
+            strings[stringCount++] = s;
+        }
+
+        private void clear()
+        {
+            Arrays.fill(strings, 0, stringCount, null);
+            charCount = 0;
+            codeCount = 0;
+            events = 0;
+            last = false;
+            stringCount = 0;
+        }
+    } // Batch
+} // PipelineFilter
@@ -0,0 +1,52 @@
+package be.re.xml.sax;
+
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+
+/**
+ * A Xerces grammar pool that can be shared by parsers in several threads. It
+ * only keeps XML Schema grammars. When Xerces finds a DTD grammar in a pool it
+ * doesn't read the external subset anymore, which means that the entities
+ * declared in it, such as those of XHTML, would be undeclared in the next
+ * documents.
+ *
+ * @author Gerke Geurts
+ */
+public class SchemaGrammarPool extends XMLGrammarPoolImpl
+{
+    public static final String PROPERTY = "http://apache.org/xml/properties/internal/grammar-pool";
+
+    private static final Grammar[] NO_GRAMMARS = new Grammar[0];
+
+    @Override
+    public synchronized void cacheGrammars(String grammarType, Grammar[] grammars)
+    {
+        if (XMLGrammarDescription.XML_SCHEMA.equals(grammarType))
+        {
+            super.cacheGrammars(grammarType, grammars);
+        }
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        super.clear();
+    }
+
+    @Override
+    public synchronized Grammar retrieveGrammar(XMLGrammarDescription description)
+    {
+        return XMLGrammarDescription.XML_SCHEMA.equals(description.getGrammarType())
+                ? super.retrieveGrammar(description)
+                : null;
+    }
+
+    @Override
+    public synchronized Grammar[] retrieveInitialGrammarSet(String grammarType)
+    {
+        return XMLGrammarDescription.XML_SCHEMA.equals(grammarType)
+                ? super.retrieveInitialGrammarSet(grammarType)
+                : NO_GRAMMARS;
+    }
+} // SchemaGrammarPool
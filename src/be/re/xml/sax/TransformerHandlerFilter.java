@@ -7,13 +7,16 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
- * Wraps a <code>TransformerHandler</code> in a filter.
+ * Wraps a <code>TransformerHandler</code> in a filter. Because a transformer
+ * handler can transform only one document, it can be replaced, which makes the
+ * filter reusable.
  *
  * @author Werner Donn\u00e9
  */
 public class TransformerHandlerFilter extends XMLFilterImpl
 {
-    private final TransformerHandler handler;
+    private TransformerHandler handler;
+    private ContentHandler result;
 
     public TransformerHandlerFilter(TransformerHandler handler)
     {
@@ -31,6 +34,21 @@ public class TransformerHandlerFilter extends XMLFilterImpl
     @Override
     public void setContentHandler(ContentHandler value)
     {
+        result = value;
         handler.setResult(new SAXResult(value));
     }
+
+    /**
+     * Replaces the transformer handler. The new one gets the same result.
+     * @param value
+     */
+    public void setTransformerHandler(TransformerHandler value)
+    {
+        handler = value;
+        super.setContentHandler(value);
+        if (result != null)
+        {
+            value.setResult(new SAXResult(result));
+        }
+    }
 } // TransformerHandlerFilter
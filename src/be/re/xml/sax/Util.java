@@ -2,6 +2,8 @@ package be.re.xml.sax;
 
 import be.re.xml.CatalogResolver;
 import javax.xml.parsers.ParserConfigurationException;
+import java.util.Map;
+import java.util.WeakHashMap;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
@@ -11,11 +13,16 @@ import org.xml.sax.XMLReader;
 
 public class Util
 {
+    private static final String XSLTC_FACTORY = "org.apache.xalan.xsltc.trax.TransformerFactoryImpl";
+
+    private static final SAXParserFactory[] factories = new SAXParserFactory[2];
+    private static final Map<CatalogResolver, String> schemaLocations = new WeakHashMap<>();
+
     public static XMLReader getParser(CatalogResolver catalogResolver, boolean validating) throws SAXException
     {
         try
         {
-            return getParser(newSAXParserFactory(validating), catalogResolver);
+            return getParser(getSAXParserFactory(validating), catalogResolver);
         }
         catch (ParserConfigurationException e)
         {
@@ -27,7 +34,12 @@ public class Util
     {
         try
         {
-            XMLReader parser = factory.newSAXParser().getXMLReader();
+            XMLReader parser;
+            // Parser factories are not thread-safe.
+            synchronized (factory)
+            {
+                parser = factory.newSAXParser().getXMLReader();
+            }
             parser.setErrorHandler(new ErrorHandler(false));
 
             if (catalogResolver != null)
@@ -43,15 +55,50 @@ public class Util
         }
     }
 
-    private static void trySchemaLocation(XMLReader parser, CatalogResolver resolver)
+    private static String getSchemaLocation(CatalogResolver resolver)
     {
-        try
+        synchronized (schemaLocations)
+        {
+            String schemaLocation = schemaLocations.get(resolver);
+            if (schemaLocation == null)
+            {
+                StringBuilder builder = new StringBuilder();
+                for (Object key : resolver.getSystemIdentifierMappings().keySet())
+                {
+                    builder.append(key).append(' ').append(key).append(' ');
+                }
+                schemaLocation = builder.toString();
+                schemaLocations.put(resolver, schemaLocation);
+            }
+            return schemaLocation;
+        }
+    }
+
+    /**
+     * Returns a shared parser factory, which is created only once for each
+     * validation mode. It should not be changed.
+     * @param validating
+     * @return
+     * @throws ParserConfigurationException 
+     */
+    public static SAXParserFactory getSAXParserFactory(boolean validating) throws ParserConfigurationException
+    {
+        int index = validating ? 1 : 0;
+        synchronized (factories)
         {
-            String schemaLocation = "";
-            for (Object key : resolver.getSystemIdentifierMappings().keySet())
+            if (factories[index] == null)
             {
-                schemaLocation += key + " " + key + " ";
+                factories[index] = newSAXParserFactory(validating);
             }
+            return factories[index];
+        }
+    }
+
+    private static void trySchemaLocation(XMLReader parser, CatalogResolver resolver)
+    {
+        try
+        {
+            String schemaLocation = getSchemaLocation(resolver);
             parser.setProperty("http://apache.org/xml/properties/schema/external-schemaLocation", schemaLocation);
         }
         catch (Exception e)
@@ -110,4 +157,42 @@ public class Util
             throw new TransformerConfigurationException(e);
         }
     }
+
+    /**
+     * Returns an XSLTC factory of which <code>newTemplates</code> loads the
+     * translet <code>className</code> instead of compiling the style sheet it
+     * is given. The translet is only used when it is on the class path, which
+     * is the case when the build has compiled it, and when no other
+     * transformer factory is configured with the
+     * <code>javax.xml.transform.TransformerFactory</code> system property.
+     * @param className The fully qualified name of the translet class.
+     * @return The factory, which can be used for one <code>newTemplates</code>
+     * call, or <code>null</code> if the translet can't be used.
+     */
+    public static SAXTransformerFactory newTransletFactory(String className)
+    {
+        try
+        {
+            if (be.re.util.Util.getSystemProperty("javax.xml.transform.TransformerFactory") != null)
+            {
+                return null;
+            }
+
+            ClassLoader loader = Util.class.getClassLoader();
+
+            Class.forName(className, false, loader);
+
+            SAXTransformerFactory factory = (SAXTransformerFactory) Class.forName(XSLTC_FACTORY, true, loader).newInstance();
+
+            factory.setAttribute("use-classpath", Boolean.TRUE);
+            factory.setAttribute("package-name", className.substring(0, className.lastIndexOf('.')));
+            factory.setAttribute("translet-name", className.substring(className.lastIndexOf('.') + 1));
+
+            return factory;
+        }
+        catch (Exception | LinkageError e)
+        {
+            return null;
+        }
+    }
 } // Util
@@ -0,0 +1,507 @@
+package be.re.xml.sax;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * Serializes content events as UTF-8 encoded XML. It is meant for large
+ * generated documents such as XSL-FO, where a generic serializer spends much
+ * of its time on features that aren't needed. The characters are encoded
+ * straight into a byte buffer, which is reused for the next document when the
+ * writer is reset.
+ *
+ * Missing namespace declarations are added. With minimal namespace
+ * declarations a prefix mapping that is already in scope is not declared
+ * again. Elements without content are written as empty-element tags.
+ *
+ * @author Gerke Geurts
+ */
+public class XMLWriter implements ContentHandler
+{
+    public static final int DEFAULT_BUFFER_SIZE = 0x4000;
+
+    private static final byte ATTRIBUTE = 1;
+    private static final byte TEXT = 2;
+    private static final String XML_URI = "http://www.w3.org/XML/1998/namespace";
+
+    private static final byte[] ESCAPE = new byte[128];
+    private static final byte[][] REFERENCES = new byte[128][];
+
+    static
+    {
+        escape('&', "&amp;", ATTRIBUTE | TEXT);
+        escape('<', "&lt;", ATTRIBUTE | TEXT);
+        escape('>', "&gt;", ATTRIBUTE | TEXT);
+        escape('"', "&quot;", ATTRIBUTE);
+        escape('\t', "&#9;", ATTRIBUTE);
+        escape('\n', "&#10;", ATTRIBUTE);
+        escape('\r', "&#13;", ATTRIBUTE | TEXT);
+    }
+
+    private int bindings;
+    private final byte[] buffer;
+    private char[] chars = new char[256];
+    private int depth;
+    private int[] marks = new int[32];
+    private boolean minimalNamespaces;
+    private OutputStream out;
+    private int pending;
+    private String[] pendingPrefixes = new String[8];
+    private String[] pendingURIs = new String[8];
+    private int position;
+    private String[] prefixes = new String[32];
+    private boolean startTagOpen;
+    private String[] uris = new String[32];
+
+    public XMLWriter(OutputStream out)
+    {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param out The stream is flushed at the end of the document, but not
+     * closed.
+     * @param bufferSize The number of bytes that are collected before they are
+     * written to the stream.
+     */
+    public XMLWriter(OutputStream out, int bufferSize)
+    {
+        if (bufferSize < 16)
+        {
+            throw new IllegalArgumentException("The buffer should hold at least 16 bytes.");
+        }
+
+        this.out = out;
+        buffer = new byte[bufferSize];
+    }
+
+    private static void escape(char c, String reference, int context)
+    {
+        ESCAPE[c] = (byte) context;
+        REFERENCES[c] = reference.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public boolean getMinimalNamespaces()
+    {
+        return minimalNamespaces;
+    }
+
+    /**
+     * When set, prefix mappings that are already in scope are left out.
+     * @param value
+     */
+    public void setMinimalNamespaces(boolean value)
+    {
+        minimalNamespaces = value;
+    }
+
+    /**
+     * Prepares the writer for another document, keeping its buffers.
+     * @param out
+     */
+    public void reset(OutputStream out)
+    {
+        this.out = out;
+        bindings = 0;
+        depth = 0;
+        pending = 0;
+        position = 0;
+        startTagOpen = false;
+    }
+
+    /**
+     * Writes the buffered bytes to the stream.
+     * @throws IOException
+     */
+    public void flush() throws IOException
+    {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+        closeStartTag();
+        write(ch, start, length, TEXT);
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+        closeStartTag();
+        write('\n');
+
+        try
+        {
+            flush();
+        }
+        catch (IOException e)
+        {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException
+    {
+        if (startTagOpen)
+        {
+            write('/');
+            write('>');
+            startTagOpen = false;
+        }
+        else
+        {
+            write('<');
+            write('/');
+            writeName(getQName(localName, qName));
+            write('>');
+        }
+
+        bindings = marks[--depth];
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException
+    {
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+    {
+        characters(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+        closeStartTag();
+        write('<');
+        write('?');
+        writeName(target);
+
+        if (data != null && data.length() > 0)
+        {
+            write(' ');
+            writeName(data);
+        }
+
+        write('?');
+        write('>');
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator)
+    {
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException
+    {
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+        writeName("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    }
+
+    @Override
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException
+    {
+        closeStartTag();
+
+        if (depth == marks.length)
+        {
+            marks = Arrays.copyOf(marks, depth * 2);
+        }
+
+        marks[depth++] = bindings;
+
+        String name = getQName(localName, qName);
+
+        write('<');
+        writeName(name);
+
+        for (int i = 0; i < pending; ++i)
+        {
+            declare(pendingPrefixes[i], pendingURIs[i], minimalNamespaces);
+        }
+
+        pending = 0;
+
+        int length = atts.getLength();
+
+        // Declarations that come as attributes, with the namespace-prefixes feature.
+        for (int i = 0; i < length; ++i)
+        {
+            String attribute = atts.getQName(i);
+
+            if (isDeclaration(attribute))
+            {
+                declare(attribute.length() == 5 ? "" : attribute.substring(6), atts.getValue(i), minimalNamespaces);
+            }
+        }
+
+        declare(getPrefix(name), namespaceURI != null ? namespaceURI : "", true);
+
+        for (int i = 0; i < length; ++i)
+        {
+            String attribute = getQName(atts.getLocalName(i), atts.getQName(i));
+
+            if (isDeclaration(attribute))
+            {
+                continue;
+            }
+
+            String prefix = getPrefix(attribute);
+
+            if (prefix.length() > 0)
+            {
+                declare(prefix, atts.getURI(i), true);
+            }
+
+            write(' ');
+            writeName(attribute);
+            write('=');
+            write('"');
+            writeValue(atts.getValue(i));
+            write('"');
+        }
+
+        startTagOpen = true;
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException
+    {
+        if (pending == pendingPrefixes.length)
+        {
+            pendingPrefixes = Arrays.copyOf(pendingPrefixes, pending * 2);
+            pendingURIs = Arrays.copyOf(pendingURIs, pending * 2);
+        }
+
+        pendingPrefixes[pending] = prefix != null ? prefix : "";
+        pendingURIs[pending++] = uri != null ? uri : "";
+    }
+
+    private void closeStartTag() throws SAXException
+    {
+        if (startTagOpen)
+        {
+            write('>');
+            startTagOpen = false;
+        }
+    }
+
+    /**
+     * Writes a namespace declaration in the open start tag, unless the
+     * mapping is in scope and <code>onlyIfNeeded</code> is set.
+     */
+    private void declare(String prefix, String uri, boolean onlyIfNeeded) throws SAXException
+    {
+        if (prefix.equals("xml") || (onlyIfNeeded && uri.equals(lookup(prefix))))
+        {
+            return;
+        }
+
+        for (int i = marks[depth - 1]; i < bindings; ++i)
+        {
+            if (prefixes[i].equals(prefix))
+            {
+                // Already declared in this start tag.
+                if (uris[i].equals(uri))
+                {
+                    return;
+                }
+
+                throw new SAXException("The prefix \"" + prefix + "\" is bound to two namespaces in one element.");
+            }
+        }
+
+        if (prefix.length() > 0 && uri.length() == 0)
+        {
+            // Prefixes can't be undeclared in XML 1.0.
+            return;
+        }
+
+        if (bindings == prefixes.length)
+        {
+            prefixes = Arrays.copyOf(prefixes, bindings * 2);
+            uris = Arrays.copyOf(uris, bindings * 2);
+        }
+
+        prefixes[bindings] = prefix;
+        uris[bindings++] = uri;
+        write(' ');
+        writeName("xmlns");
+
+        if (prefix.length() > 0)
+        {
+            write(':');
+            writeName(prefix);
+        }
+
+        write('=');
+        write('"');
+        writeValue(uri);
+        write('"');
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        if (position > 0)
+        {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private static String getPrefix(String qName)
+    {
+        int colon = qName.indexOf(':');
+
+        return colon == -1 ? "" : qName.substring(0, colon);
+    }
+
+    private static String getQName(String localName, String qName)
+    {
+        return qName != null && qName.length() > 0 ? qName : localName;
+    }
+
+    private static boolean isDeclaration(String qName)
+    {
+        return qName.startsWith("xmlns") && (qName.length() == 5 || qName.charAt(5) == ':');
+    }
+
+    private String lookup(String prefix)
+    {
+        for (int i = bindings - 1; i >= 0; --i)
+        {
+            if (prefixes[i].equals(prefix))
+            {
+                return uris[i];
+            }
+        }
+
+        return prefix.length() == 0 ? "" : (prefix.equals("xml") ? XML_URI : null);
+    }
+
+    private void write(char c) throws SAXException
+    {
+        if (position == buffer.length)
+        {
+            try
+            {
+                flushBuffer();
+            }
+            catch (IOException e)
+            {
+                throw new SAXException(e);
+            }
+        }
+
+        buffer[position++] = (byte) c;
+    }
+
+    /**
+     * Encodes characters as UTF-8 and escapes the markup characters of the
+     * context.
+     */
+    private void write(char[] ch, int start, int length, byte context) throws SAXException
+    {
+        byte[] b = buffer;
+        int end = start + length;
+        int p = position;
+
+        try
+        {
+            for (int i = start; i < end; ++i)
+            {
+                if (p + 6 > b.length)
+                {
+                    position = p;
+                    flushBuffer();
+                    p = 0;
+                }
+
+                char c = ch[i];
+
+                if (c < 0x80)
+                {
+                    if ((ESCAPE[c] & context) != 0)
+                    {
+                        byte[] reference = REFERENCES[c];
+
+                        System.arraycopy(reference, 0, b, p, reference.length);
+                        p += reference.length;
+                    }
+                    else
+                    {
+                        b[p++] = (byte) c;
+                    }
+                }
+                else if (c < 0x800)
+                {
+                    b[p++] = (byte) (0xc0 | (c >> 6));
+                    b[p++] = (byte) (0x80 | (c & 0x3f));
+                }
+                else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(ch[i + 1]))
+                {
+                    int code = Character.toCodePoint(c, ch[++i]);
+
+                    b[p++] = (byte) (0xf0 | (code >> 18));
+                    b[p++] = (byte) (0x80 | ((code >> 12) & 0x3f));
+                    b[p++] = (byte) (0x80 | ((code >> 6) & 0x3f));
+                    b[p++] = (byte) (0x80 | (code & 0x3f));
+                }
+                else if (Character.isSurrogate(c))
+                {
+                    throw new SAXException("Invalid surrogate character " + Integer.toHexString(c) + ".");
+                }
+                else
+                {
+                    b[p++] = (byte) (0xe0 | (c >> 12));
+                    b[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    b[p++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new SAXException(e);
+        }
+
+        position = p;
+    }
+
+    private void write(String s, byte context) throws SAXException
+    {
+        int length = s.length();
+
+        if (length > chars.length)
+        {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+
+        s.getChars(0, length, chars, 0);
+        write(chars, 0, length, context);
+    }
+
+    private void writeName(String name) throws SAXException
+    {
+        write(name, (byte) 0);
+    }
+
+    private void writeValue(String value) throws SAXException
+    {
+        write(value, ATTRIBUTE);
+    }
+} // XMLWriter
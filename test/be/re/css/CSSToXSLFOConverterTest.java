@@ -6,9 +6,29 @@
 package be.re.css;
 
 import be.re.xml.Accumulator;
+import be.re.xml.sax.BinaryXMLWriter;
+import be.re.xml.sax.EventSpool;
+import be.re.xml.sax.XMLWriter;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+import javax.xml.transform.sax.SAXSource;
+import org.apache.avalon.framework.configuration.DefaultConfigurationBuilder;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.FopFactory;
 import org.custommonkey.xmlunit.SimpleNamespaceContext;
 import org.custommonkey.xmlunit.XMLAssert;
 import org.custommonkey.xmlunit.XMLUnit;
@@ -18,7 +38,12 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import static org.junit.Assert.*;
+import org.w3c.dom.Document;
+import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
  *
@@ -26,6 +51,10 @@ import org.xml.sax.InputSource;
  */
 public class CSSToXSLFOConverterTest
 {
+    private static final String FO_ROOT = "<fo:root xmlns:fo='http://www.w3.org/1999/XSL/Format'>"
+            + "<fo:layout-master-set><fo:simple-page-master master-name='p' page-width='10cm' page-height='5cm'>"
+            + "<fo:region-body/></fo:simple-page-master></fo:layout-master-set>";
+
     private final URL baseUrl = getClass().getResource(getClass().getSimpleName() + ".class");
 
     private static CSSToXSLFOConverter cssConverter;
@@ -35,6 +64,8 @@ public class CSSToXSLFOConverterTest
     {
         HashMap prefixMap = new HashMap();
         prefixMap.put("fo", Constants.XSLFO);
+        prefixMap.put("css", Constants.CSS);
+        prefixMap.put("xh", Constants.XHTML);
         XMLUnit.setXpathNamespaceContext(new SimpleNamespaceContext(prefixMap));
         
         cssConverter = new CSSToXSLFOConverter(null);
@@ -157,4 +188,990 @@ public class CSSToXSLFOConverterTest
 
         XMLAssert.assertXpathEvaluatesTo("Line 1\nLine 2", "string(//fo:flow[@flow-name='xsl-region-body']/fo:block)", out.getDocument());
     }
+
+    @Test
+    public void convertXhtmlHiddenSubtree() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "<style type='text/css'>div.hidden { display: none } p { color: red }</style>\n" +
+            "</head>\n" +
+            "<body><div class='hidden'><p>Hidden <em>text</em></p></div><p>Visible text</p></body>\n" +
+            "</html>";
+        InputSource source = new InputSource(new StringReader(xhtml));
+
+        Accumulator out = TestUtil.createAccumulator();
+        cssConverter.convert(source, out, baseUrl, null, null, null, null);
+
+        XMLAssert.assertXpathNotExists("//*[contains(text(), 'Hidden')]", out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("red", "//fo:block[string(.)='Visible text']/@color", out.getDocument());
+
+        // The descendants of the hidden element don't reach the projection.
+        Document projection = project(xhtml);
+        XMLAssert.assertXpathExists("//xh:div[@class='hidden']", projection);
+        XMLAssert.assertXpathNotExists("//xh:div[@class='hidden']//*", projection);
+        XMLAssert.assertXpathNotExists("//xh:div[@class='hidden']//text()", projection);
+        XMLAssert.assertXpathExists("//xh:p[@css:color='red' and string(.)='Visible text']", projection);
+    }
+
+    @Test
+    public void convertXhtmlHiddenSubtreeWithSideEffects() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "<style type='text/css'>div.hidden { display: none } h1 { string-set: title content() }" +
+            " p.counted { counter-increment: section } body { counter-reset: section } p.show:before { content: counter(section) '. ' }</style>\n" +
+            "</head>\n" +
+            "<body><div class='hidden'><p>Hidden</p><h1>Chapter</h1>" +
+            "<p class='counted'>Counted</p><p class='counted'>Counted<span>Inner <em>text</em></span></p><p style='counter-increment: section'>Styled</p></div>" +
+            "<p class='show'>Visible text</p></body>\n" +
+            "</html>";
+
+        // Elements with counters or named strings are kept, because they
+        // have an effect outside the hidden subtree.
+        Document projection = project(xhtml);
+        XMLAssert.assertXpathExists("//xh:div[@class='hidden']/xh:h1[css:fo-marker/@css:name='title']", projection);
+        XMLAssert.assertXpathEvaluatesTo("2", "count(//xh:div[@class='hidden']/xh:p[string(.)='Counted'])", projection);
+        // Their descendants without side effects are still left out.
+        XMLAssert.assertXpathNotExists("//xh:div[@class='hidden']/xh:p/*", projection);
+        XMLAssert.assertXpathExists("//xh:div[@class='hidden']/xh:p[string(.)='Styled']", projection);
+        XMLAssert.assertXpathEvaluatesTo("2. Visible text", "string(//xh:p[@class='show'])", projection);
+        XMLAssert.assertXpathNotExists("//*[contains(text(), 'Hidden')]", projection);
+    }
+
+    @Test
+    public void convertXhtmlCollapsesWhitespace() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "</head>\n" +
+            "<body>\n" +
+            "  <p>Line   1\n    Line 2</p>\n" +
+            "  <pre>Line   1\n    Line 2</pre>\n" +
+            "</body>\n" +
+            "</html>";
+        InputSource source = new InputSource(new StringReader(xhtml));
+
+        Accumulator out = TestUtil.createAccumulator();
+        cssConverter.convert(source, out, baseUrl, null, null, null, null);
+
+        XMLAssert.assertXpathEvaluatesTo("2", "count(//fo:flow[@flow-name='xsl-region-body']/fo:block/fo:block)", out.getDocument());
+        XMLAssert.assertXpathNotExists("//fo:flow[@flow-name='xsl-region-body']/fo:block/text()", out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("Line 1\nLine 2", "string(//fo:flow[@flow-name='xsl-region-body']/fo:block/fo:block[1])", out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("Line   1\n    Line 2", "string(//fo:flow[@flow-name='xsl-region-body']/fo:block/fo:block[2])", out.getDocument());
+    }
+
+    @Test
+    public void convertXhtmlFirstLetterFromEmbeddedStyleSheet() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "<style type='text/css'>p:first-letter { font-size: 200% }</style>\n" +
+            "</head>\n" +
+            "<body><p>Hello world</p></body>\n" +
+            "</html>";
+        InputSource source = new InputSource(new StringReader(xhtml));
+
+        Accumulator out = TestUtil.createAccumulator();
+        cssConverter.convert(source, out, baseUrl, null, null, null, null);
+        XMLAssert.assertXpathEvaluatesTo("H", "//fo:flow[@flow-name='xsl-region-body']//fo:block/fo:inline[@font-size='200.0%']", out.getDocument());
+    }
+
+    @Test
+    public void convertXhtmlCenteredBlock() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "<style type='text/css'>div { margin-left: auto; margin-right: auto; width: 300 }</style>\n" +
+            "</head>\n" +
+            "<body><div>Centered</div></body>\n" +
+            "</html>";
+        InputSource source = new InputSource(new StringReader(xhtml));
+
+        Accumulator out = TestUtil.createAccumulator();
+        cssConverter.convert(source, out, baseUrl, null, null, null, null);
+        XMLAssert.assertXpathExists("//fo:table/fo:table-column[2][@column-width='300px']", out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("Centered", "//fo:table-cell[2]//fo:block", out.getDocument());
+    }
+
+    @Test
+    public void convertXhtmlMarkers() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "<style type='text/css'>\n" +
+            "p.before:before { display: marker; content: '*'; width: 3em }\n" +
+            "p.after:after { display: marker; content: '#' }\n" +
+            "</style>\n" +
+            "</head>\n" +
+            "<body><p class='before'>First</p><p class='after'>Second</p></body>\n" +
+            "</html>";
+        InputSource source = new InputSource(new StringReader(xhtml));
+
+        Accumulator out = TestUtil.createAccumulator();
+        cssConverter.convert(source, out, baseUrl, null, null, null, null);
+        XMLAssert.assertXpathExists("//fo:table[fo:table-column[1][@column-width='3.0em']]", out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("*", "//fo:table-row[fo:table-cell[2]//fo:block='First']/fo:table-cell[1]//fo:block", out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("#", "//fo:table-row[fo:table-cell[1]//fo:block='Second']/fo:table-cell[2]//fo:block", out.getDocument());
+    }
+
+    @Test
+    public void convertXhtmlNestedMarkers() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "<style type='text/css'>\n" +
+            "div:before, p:before { display: marker; content: '*' }\n" +
+            "</style>\n" +
+            "</head>\n" +
+            "<body><div><p>First</p><p>Second</p></div><div><p>Third</p></div></body>\n" +
+            "</html>";
+        InputSource source = new InputSource(new StringReader(xhtml));
+
+        Accumulator out = TestUtil.createAccumulator();
+        cssConverter.convert(source, out, baseUrl, null, null, null, null);
+        XMLAssert.assertXpathEvaluatesTo("2", "count(//fo:table[not(ancestor::fo:table)])", out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("3", "count(//fo:table//fo:table)", out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("*", "//fo:table-row[fo:table-cell[2]//fo:block='Third']/fo:table-cell[1]//fo:block", out.getDocument());
+    }
+
+    @Test
+    public void convertXhtmlFootnotes() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "<style type='text/css'>\n" +
+            "span.note { display: footnote-body; counter-increment: note }\n" +
+            "span.note:before { display: footnote-reference; content: counter(note) }\n" +
+            "</style>\n" +
+            "</head>\n" +
+            "<body><p>One<span class='note'>First note</span> two<span class='note'>Second note</span></p>" +
+            "<p>Three<span class='note'>Third note</span></p></body>\n" +
+            "</html>";
+        InputSource source = new InputSource(new StringReader(xhtml));
+
+        Accumulator out = TestUtil.createAccumulator();
+        cssConverter.convert(source, out, baseUrl, null, null, null, null);
+        XMLAssert.assertXpathEvaluatesTo("3", "count(//fo:footnote)", out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("1", "normalize-space((//fo:footnote)[1]/*[1])", out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("1First note", "normalize-space((//fo:footnote)[1]/fo:footnote-body)", out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("3", "normalize-space((//fo:footnote)[3]/*[1])", out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("3Third note", "normalize-space((//fo:footnote)[3]/fo:footnote-body)", out.getDocument());
+    }
+
+    @Test
+    public void convertXhtmlPipelined() throws Exception
+    {
+        StringBuilder xhtml = new StringBuilder("<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "<style type='text/css'>p:first-letter { font-size: 200% }</style>\n" +
+            "</head>\n" +
+            "<body>\n");
+        for (int i = 0; i < 500; ++i)
+        {
+            xhtml.append("<h2>Section ").append(i).append("</h2>\n<p class='c").append(i % 7).append("'>Paragraph <em>")
+                    .append(i).append("</em> &#8195; text</p>\n");
+        }
+        xhtml.append("</body>\n</html>");
+
+        Accumulator expected = TestUtil.createAccumulator();
+        cssConverter.convert(new InputSource(new StringReader(xhtml.toString())), expected, baseUrl, null, null, null, null);
+
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+        converter.setPipelined(true);
+        Accumulator out = TestUtil.createAccumulator();
+        converter.convert(new InputSource(new StringReader(xhtml.toString())), out, baseUrl, null, null, null, null);
+
+        XMLAssert.assertXMLEqual(expected.getDocument(), out.getDocument());
+    }
+
+    @Test
+    public void convertXhtmlSpillingBuffers() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "<style type='text/css'>@page { size: a5 } @page wide { size: a5 landscape } div.wide { page: wide }</style>\n" +
+            "</head>\n" +
+            "<body><p>Before</p><div class='wide'><p>Wide</p></div><p>After</p></body>\n" +
+            "</html>";
+
+        Accumulator expected = TestUtil.createAccumulator();
+        cssConverter.convert(new InputSource(new StringReader(xhtml)), expected, baseUrl, null, null, null, null);
+
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+        converter.setBufferBudget(0);
+        Accumulator out = TestUtil.createAccumulator();
+        converter.convert(new InputSource(new StringReader(xhtml)), out, baseUrl, null, null, null, null);
+
+        XMLAssert.assertXMLEqual(expected.getDocument(), out.getDocument());
+        XMLAssert.assertXpathEvaluatesTo("BeforeWideAfter", "string(//fo:flow[@flow-name='xsl-region-body'])", out.getDocument());
+
+        // A spool that is never cleared, as after a failed conversion, leaves no file behind.
+        File tmp = new File(System.getProperty("java.io.tmpdir"));
+        int files = tmp.list().length;
+        EventSpool spool = new EventSpool(0);
+        spool.startElement("", "p", "p", new AttributesImpl());
+        assertTrue(spool.isSpilled());
+        assertEquals(files, tmp.list().length);
+        spool.clear();
+    }
+
+    @Test
+    public void convertXhtmlNatively() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml' xml:lang='nl-BE'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "<style type='text/css'>@page {} @page wide {} div.wide { page: wide } ol { list-style-type: lower-roman }" +
+            " ul { list-style-position: inside } td { vertical-align: middle } caption { caption-side: bottom }</style>\n" +
+            "</head>\n" +
+            "<body><h1 id='top'>Title</h1><p>A <a href='#top'>link</a> and <em>emphasis</em>.</p>\n" +
+            "<ol><li>One</li><li>Two<ul><li>Nested</li></ul></li></ol>\n" +
+            "<div class='wide'><table><caption>Caption</caption><col width='2*'/><col width='1*'/>" +
+            "<thead><tr><th>H1</th><th>H2</th></tr></thead><tbody><tr><td colspan='2'>Cell</td></tr></tbody></table></div>\n" +
+            "<p>After</p></body>\n" +
+            "</html>";
+
+        Accumulator expected = TestUtil.createAccumulator();
+        cssConverter.convert(new InputSource(new StringReader(xhtml)), expected, baseUrl, null, null, null, null);
+
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+        converter.setNativeTranslation(true);
+        for (int i = 0; i < 2; ++i)
+        {
+            Accumulator out = TestUtil.createAccumulator();
+            converter.convert(new InputSource(new StringReader(xhtml)), out, baseUrl, null, null, null, null);
+
+            XMLAssert.assertXMLEqual(expected.getDocument(), out.getDocument());
+            XMLAssert.assertXpathExists("//fo:page-sequence[@master-reference='wide']//fo:table-and-caption", out.getDocument());
+            XMLAssert.assertXpathEvaluatesTo("ii", "//fo:list-block/fo:list-item[2]/fo:list-item-label/fo:block", out.getDocument());
+        }
+    }
+
+    @Test
+    public void convertXhtmlNativelyWithColumns() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "<style type='text/css'>@page {} @page wide {} div.wide { page: wide }</style>\n" +
+            "</head>\n" +
+            "<body><p>Text</p><div class='wide'><p>Wide</p></div></body>\n" +
+            "</html>";
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("column-count", "2");
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        cssConverter.convert(new InputSource(new StringReader(xhtml)), new XMLWriter(expected), baseUrl, null, parameters,
+                null, null);
+
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+        converter.setNativeTranslation(true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        converter.convert(new InputSource(new StringReader(xhtml)), new XMLWriter(out), baseUrl, null, parameters, null, null);
+
+        // The serialized names are compared, because those are what a
+        // formatter reads.
+        for (String fo : new String[] {new String(expected.toByteArray(), "UTF-8"), new String(out.toByteArray(), "UTF-8")})
+        {
+            Document document = XMLUnit.buildTestDocument(fo);
+            XMLAssert.assertXpathExists("//fo:simple-page-master[@master-name='right-unnamed']/fo:region-body[@column-count='2']",
+                    document);
+            assertFalse(fo, fo.contains("columnt-"));
+        }
+
+        XMLAssert.assertXMLEqual(new String(expected.toByteArray(), "UTF-8"), new String(out.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void convertXhtmlInChunks() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "<style type='text/css'>@page {} @page wide {} div.wide { page: wide }</style>\n" +
+            "</head>\n" +
+            "<body><p>First</p><div class='wide'><p>Second</p></div><p>Third</p></body>\n" +
+            "</html>";
+
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+        converter.setChunkedTransformation(true);
+        for (String document : new String[] {xhtml, xhtml.replace("@page {} @page wide {} ", "")})
+        {
+            Accumulator expected = TestUtil.createAccumulator();
+            cssConverter.convert(new InputSource(new StringReader(document)), expected, baseUrl, null, null, null, null);
+
+            Accumulator out = TestUtil.createAccumulator();
+            converter.convert(new InputSource(new StringReader(document)), out, baseUrl, null, null, null, null);
+
+            XMLAssert.assertXMLEqual(expected.getDocument(), out.getDocument());
+            XMLAssert.assertXpathEvaluatesTo(String.valueOf(document == xhtml), "count(//fo:page-sequence) > 1", out.getDocument());
+        }
+    }
+
+    @Test
+    public void convertAllConcurrently() throws Exception
+    {
+        List<String> documents = new ArrayList<>();
+        for (int i = 0; i < 40; ++i)
+        {
+            documents.add(i % 10 == 9 ? "<html xmlns='http://www.w3.org/1999/xhtml'><body><p>Broken</body></html>" :
+                    "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+                    "<head><title>Test</title><style type='text/css'>p:first-letter { font-size: 200% } p.c" + (i % 3) +
+                    " { color: red }</style></head>\n" +
+                    "<body><h1>Document " + i + "</h1><p class='c" + (i % 3) + "'>Paragraph <em>" + i + "</em></p></body>\n" +
+                    "</html>");
+        }
+
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+        List<Conversion> conversions = new ArrayList<>();
+        for (String document : documents)
+        {
+            Conversion conversion = new Conversion(new InputSource(new StringReader(document)), TestUtil.createAccumulator());
+            conversion.setBaseUrl(baseUrl);
+            conversions.add(conversion);
+        }
+        converter.convertAll(conversions);
+
+        for (int i = 0; i < documents.size(); ++i)
+        {
+            Conversion conversion = conversions.get(i);
+            if (i % 10 == 9)
+            {
+                assertTrue(conversion.getException() instanceof SAXException);
+                continue;
+            }
+            assertNull(conversion.getException());
+
+            Accumulator expected = TestUtil.createAccumulator();
+            cssConverter.convert(new InputSource(new StringReader(documents.get(i))), expected, baseUrl, null, null, null, null);
+            XMLAssert.assertXMLEqual(expected.getDocument(), ((Accumulator) conversion.getOut()).getDocument());
+        }
+    }
+
+    @Test
+    public void convertReusesPipelines() throws Exception
+    {
+        String[] documents = new String[]
+        {
+            "<html xmlns='http://www.w3.org/1999/xhtml'><head><title>A</title>" +
+                "<style type='text/css'>p:first-letter { font-size: 200% }</style></head>" +
+                "<body><p>First <em>document</em></p></body></html>",
+            "<html xmlns='http://www.w3.org/1999/xhtml'><body><p>Broken</body></html>",
+            "<html xmlns='http://www.w3.org/1999/xhtml'><head><title>B</title>" +
+                "<style type='text/css'>p:after { content: ' end' }</style></head>" +
+                "<body><h1>Second</h1><p>Document</p></body></html>"
+        };
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+
+        for (int round = 0; round < 2; ++round)
+        {
+            for (int i = 0; i < documents.length; ++i)
+            {
+                Accumulator out = TestUtil.createAccumulator();
+
+                if (i == 1)
+                {
+                    // The failed pipeline is not reused.
+                    try
+                    {
+                        converter.convert(new InputSource(new StringReader(documents[i])), out, baseUrl, null, null, null, null);
+                        fail("A document that is not well-formed should be rejected.");
+                    }
+                    catch (SAXException e)
+                    {
+                        assertTrue(e.getMessage(), e.getMessage().contains("</p>"));
+                    }
+                    continue;
+                }
+
+                converter.convert(new InputSource(new StringReader(documents[i])), out, baseUrl, null, null, null, null);
+
+                Accumulator expected = TestUtil.createAccumulator();
+                new CSSToXSLFOConverter(null).convert(new InputSource(new StringReader(documents[i])), expected, baseUrl, null, null, null, null);
+                XMLAssert.assertXMLEqual(expected.getDocument(), out.getDocument());
+            }
+        }
+    }
+
+    @Test
+    public void convertMatchesNoNamespaceSelector() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'><head>"
+                + "<style type='text/css'>|p { color: red }</style></head>"
+                + "<body><p>Namespaced</p><div><p xmlns=''>Plain</p></div></body></html>";
+        Accumulator out = TestUtil.createAccumulator();
+        cssConverter.convert(new InputSource(new StringReader(xhtml)), out, baseUrl, null, null, null, null);
+        XMLAssert.assertXpathEvaluatesTo("Plain", "string(//*[@color='red'])", out.getDocument());
+        XMLAssert.assertXpathNotExists("//*[@color='red' and contains(., 'Namespaced')]", out.getDocument());
+    }
+
+    @Test
+    public void convertDoesNotCarryStateOver() throws Exception
+    {
+        String first = "<html xmlns='http://www.w3.org/1999/xhtml'><head>"
+                + "<style type='text/css'>div.c { display: table-caption; string-set: s \"STALE\" }</style></head>"
+                + "<body><p>First</p><div class='c'>Caption</div></body></html>";
+        String second = "<html xmlns='http://www.w3.org/1999/xhtml'><head>"
+                + "<style type='text/css'>h1 { string-set: t contents }</style></head>"
+                + "<body><h1>Second</h1><table><tr><td>Cell</td></tr></table><p>Document</p></body></html>";
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+
+        converter.convert(new InputSource(new StringReader(first)), TestUtil.createAccumulator(), baseUrl, null, null, null, null);
+
+        Accumulator out = TestUtil.createAccumulator();
+        converter.convert(new InputSource(new StringReader(second)), out, baseUrl, null, null, null, null);
+        XMLAssert.assertXpathNotExists("//fo:marker[@marker-class-name='s']", out.getDocument());
+
+        Accumulator expected = TestUtil.createAccumulator();
+        new CSSToXSLFOConverter(null).convert(new InputSource(new StringReader(second)), expected, baseUrl, null, null, null, null);
+        XMLAssert.assertXMLEqual(expected.getDocument(), out.getDocument());
+    }
+
+    @Test
+    public void convertWithPreprocessorAndPostprocessor() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'><body><p>Hello world</p></body></html>";
+        XMLFilterImpl preprocessor = new XMLFilterImpl()
+        {
+            @Override
+            public void characters(char[] ch, int start, int length) throws SAXException
+            {
+                String s = new String(ch, start, length).toUpperCase();
+                super.characters(s.toCharArray(), 0, s.length());
+            }
+        };
+        final int[] blocks = new int[1];
+        XMLFilterImpl postprocessor = new XMLFilterImpl()
+        {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException
+            {
+                if (Constants.XSLFO.equals(uri) && "block".equals(localName))
+                {
+                    ++blocks[0];
+                }
+                super.startElement(uri, localName, qName, atts);
+            }
+        };
+
+        Accumulator out = TestUtil.createAccumulator();
+        cssConverter.convert(new InputSource(new StringReader(xhtml)), out, baseUrl, null, null, preprocessor, postprocessor);
+
+        XMLAssert.assertXpathEvaluatesTo("HELLO WORLD", "string(//fo:flow[@flow-name='xsl-region-body'])", out.getDocument());
+        assertTrue(blocks[0] > 0);
+    }
+
+    @Test
+    public void convertWithCachedPreprocessorStyleSheet() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'><body><p>Hello world</p></body></html>";
+        String xsl = "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>" +
+            "<xsl:template match='@*|node()'><xsl:copy><xsl:apply-templates select='@*|node()'/></xsl:copy></xsl:template>" +
+            "<xsl:template match='text()'>%s</xsl:template></xsl:stylesheet>";
+        File file = File.createTempFile("preprocessor", ".xsl");
+        try
+        {
+            CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+            URL[] urls = new URL[] {file.toURI().toURL()};
+            String[] texts = new String[] {"First", "First", "Second"};
+
+            for (int i = 0; i < texts.length; ++i)
+            {
+                if (i != 1)
+                {
+                    Files.write(file.toPath(), String.format(xsl, texts[i]).getBytes("UTF-8"));
+                    file.setLastModified(1000000000000L + i * 10000L);
+                }
+
+                Accumulator out = TestUtil.createAccumulator();
+                converter.convert(new InputSource(new StringReader(xhtml)), out, baseUrl, null, null,
+                        converter.createPreprocessorFilter(urls), null);
+                XMLAssert.assertXpathEvaluatesTo(texts[i], "string(//fo:flow[@flow-name='xsl-region-body'])", out.getDocument());
+
+                if (i == 1)
+                {
+                    assertSame(converter.getPreprocessorTemplates().get(urls[0]), converter.getPreprocessorTemplates().get(urls[0]));
+                }
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void sharedRendererFollowsConfigurationFile() throws Exception
+    {
+        File file = File.createTempFile("fop", ".xconf");
+        try
+        {
+            Files.write(file.toPath(), "<fop version='1.0'/>".getBytes("UTF-8"));
+            file.setLastModified(1000000000000L);
+
+            FOPRenderer renderer = FOPRenderer.getShared(null, file, false);
+            assertSame(renderer, FOPRenderer.getShared(null, file, false));
+
+            // The changed configuration replaces the shared renderer.
+            file.setLastModified(1000000010000L);
+            FOPRenderer changed = FOPRenderer.getShared(null, file, false);
+            assertNotSame(renderer, changed);
+            assertSame(changed, FOPRenderer.getShared(null, file, false));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void convertWithGrammarCachingKeepsEntities() throws Exception
+    {
+        String xhtml = "<?xml version='1.0'?>\n" +
+            "<!DOCTYPE html PUBLIC '-//W3C//DTD XHTML 1.0 Strict//EN' 'http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd'>\n" +
+            "<html xmlns='http://www.w3.org/1999/xhtml'><head><title>Test</title></head>" +
+            "<body><p>a&nbsp;b&eacute;</p></body></html>";
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+        converter.setValidate(true);
+        converter.setGrammarCaching(true);
+
+        for (int i = 0; i < 2; ++i)
+        {
+            Accumulator out = TestUtil.createAccumulator();
+            converter.convert(new InputSource(new StringReader(xhtml)), out, baseUrl, null, null, null, null);
+            XMLAssert.assertXpathEvaluatesTo("a\u00a0b\u00e9", "string(//fo:flow[@flow-name='xsl-region-body'])", out.getDocument());
+        }
+    }
+
+    @Test
+    public void convertWithEntityCache() throws Exception
+    {
+        String xhtml = "<?xml version='1.0'?>\n" +
+            "<!DOCTYPE html PUBLIC '-//W3C//DTD XHTML 1.0 Transitional//EN' 'http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd'>\n" +
+            "<html xmlns='http://www.w3.org/1999/xhtml'><head><title>Test</title></head>" +
+            "<body><p>&copy;&nbsp;&euro;</p></body></html>";
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+        converter.setValidate(true);
+        converter.setEntityCacheLimits(1 << 20, 8 << 20);
+
+        for (int i = 0; i < 2; ++i)
+        {
+            Accumulator out = TestUtil.createAccumulator();
+            converter.convert(new InputSource(new StringReader(xhtml)), out, baseUrl, null, null, null, null);
+            XMLAssert.assertXpathEvaluatesTo("\u00a9\u00a0\u20ac", "string(//fo:flow[@flow-name='xsl-region-body'])", out.getDocument());
+        }
+    }
+
+    @Test
+    public void convertWithBuiltInEntities() throws Exception
+    {
+        String xhtml = "<?xml version='1.0'?>\n" +
+            "<!DOCTYPE html PUBLIC '-//W3C//DTD XHTML 1.0 Strict//EN' 'http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd' [\n" +
+            "<!ENTITY own 'Own'>\n" +
+            "]>\n" +
+            "<html xmlns='http://www.w3.org/1999/xhtml'><head><title>Test</title></head>" +
+            "<body><p title='&mdash;'>&own;&nbsp;&eacute;&hellip;&lt;</p></body></html>";
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+        converter.setBuiltInEntities(true);
+
+        Accumulator out = TestUtil.createAccumulator();
+        converter.convert(new InputSource(new StringReader(xhtml)), out, baseUrl, null, null, null, null);
+        XMLAssert.assertXpathEvaluatesTo("Own\u00a0\u00e9\u2026<", "string(//fo:flow[@flow-name='xsl-region-body'])", out.getDocument());
+
+        // Other DTDs are not fetched.
+        String custom = "<!DOCTYPE html SYSTEM 'http://nonexistent.invalid/custom.dtd'>" +
+            "<html xmlns='http://www.w3.org/1999/xhtml'><body><p>Custom</p></body></html>";
+        out = TestUtil.createAccumulator();
+        converter.convert(new InputSource(new StringReader(custom)), out, baseUrl, null, null, null, null);
+        XMLAssert.assertXpathEvaluatesTo("Custom", "string(//fo:flow[@flow-name='xsl-region-body'])", out.getDocument());
+    }
+
+    @Test(timeout = 30000)
+    public void convertXhtmlPipelinedPropagatesErrors() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'>\n" +
+            "<head>\n" +
+            "<title>Test</title>\n" +
+            "</head>\n" +
+            "<body><p>Hello world</p></body>\n" +
+            "</html>";
+        CSSToXSLFOConverter converter = new CSSToXSLFOConverter(null);
+        converter.setPipelined(true);
+
+        try
+        {
+            converter.convert(new InputSource(new StringReader(xhtml)), TestUtil.createAccumulator(), baseUrl,
+                    new URL(baseUrl, "missing.css"), null, null, null);
+            fail("The failure of the projection should be propagated.");
+        }
+        catch (SAXException e)
+        {
+        }
+
+        try
+        {
+            converter.convert(new InputSource(new StringReader("<html><body><p>Hello</body></html>")),
+                    TestUtil.createAccumulator(), baseUrl, null, null, null, null);
+            fail("The parse error should be propagated.");
+        }
+        catch (SAXException e)
+        {
+        }
+
+        Accumulator out = TestUtil.createAccumulator();
+        converter.convert(new InputSource(new StringReader(xhtml)), out, baseUrl, null, null, null, null);
+        XMLAssert.assertXpathExists("/fo:root", out.getDocument());
+    }
+
+    @Test
+    public void renderWithPooledFormatterBackend() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'><body><p>Hello world</p></body></html>";
+        assertTrue(FormatterBackends.getProviders().containsKey("fop"));
+        assertFalse(FormatterBackends.getProviders().containsKey("xep"));
+
+        FormatterBackends backends = new FormatterBackends(cssConverter);
+        backends.warmUp("fop", null, 1);
+
+        for (int i = 0; i < 2; ++i)
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            backends.render("fop", null, new InputSource(new StringReader(xhtml)), out, "application/pdf",
+                    baseUrl, null, null, null);
+            assertTrue(new String(out.toByteArray(), "ISO-8859-1").startsWith("%PDF"));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void streamFoToFormatter() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'><body><p>Hello world</p></body></html>";
+        final ByteArrayOutputStream fo = new ByteArrayOutputStream();
+
+        // A slow formatter with a small pipe makes the conversion wait.
+        FOPipe.stream(cssConverter.createSAXSource(new InputSource(new StringReader(xhtml)), baseUrl, null, null, null, null),
+                new FOPipe.Formatter()
+                {
+                    @Override
+                    public void render(InputStream in) throws Exception
+                    {
+                        byte[] buffer = new byte[7];
+                        for (int len = in.read(buffer); len != -1; len = in.read(buffer))
+                        {
+                            fo.write(buffer, 0, len);
+                        }
+                    }
+                }, 16);
+        XMLAssert.assertXpathEvaluatesTo("Hello world", "string(//fo:flow[@flow-name='xsl-region-body'])",
+                XMLUnit.buildTestDocument(new InputSource(new ByteArrayInputStream(fo.toByteArray()))));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProcessBuilder process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), StubFormatter.class.getName());
+        FOPipe.stream(cssConverter.createSAXSource(new InputSource(new StringReader(xhtml)), baseUrl, null, null, null, null),
+                process, out);
+        assertArrayEquals(fo.toByteArray(), out.toByteArray());
+
+        try
+        {
+            FOPipe.stream(cssConverter.createSAXSource(new InputSource(new StringReader("<html><body><p>Hello</body></html>")),
+                    baseUrl, null, null, null, null), process, new ByteArrayOutputStream());
+            fail("The conversion error should be propagated.");
+        }
+        catch (CSSToXSLFOException e)
+        {
+        }
+
+        // A failing formatter doesn't hide the conversion error.
+        process.command().add("1");
+
+        try
+        {
+            FOPipe.stream(cssConverter.createSAXSource(new InputSource(new StringReader("<html><body><p>Hello</body></html>")),
+                    baseUrl, null, null, null, null), process, new ByteArrayOutputStream());
+            fail("The conversion error should be propagated.");
+        }
+        catch (CSSToXSLFOException e)
+        {
+            assertFalse(String.valueOf(e.getMessage()).startsWith("The formatter exited"));
+        }
+
+        try
+        {
+            FOPipe.stream(cssConverter.createSAXSource(new InputSource(new StringReader(xhtml)), baseUrl, null, null, null, null),
+                    process, new ByteArrayOutputStream());
+            fail("The exit status should be reported.");
+        }
+        catch (CSSToXSLFOException e)
+        {
+            assertEquals("The formatter exited with status 1.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void convertThroughFormatterProcess() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'><body><p>Hello world</p></body></html>";
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        CSSToXSLFO.convert(new ByteArrayInputStream(xhtml.getBytes("UTF-8")), expected, baseUrl, null, null,
+                new HashMap<String, String>(), null, false, false);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProcessBuilder process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), StubFormatter.class.getName());
+        CSSToXSLFO.convert(new ByteArrayInputStream(xhtml.getBytes("UTF-8")), process, out, baseUrl, null, null,
+                new HashMap<String, String>(), null, false, false);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+
+        try
+        {
+            CSSToXSLFO.convert(new ByteArrayInputStream("<html><body><p>Hello</body></html>".getBytes("UTF-8")), process,
+                    new ByteArrayOutputStream(), baseUrl, null, null, new HashMap<String, String>(), null, false, false);
+            fail("The conversion error should be propagated.");
+        }
+        catch (CSSToXSLFOException e)
+        {
+            assertFalse(String.valueOf(e.getMessage()).startsWith("The formatter exited"));
+        }
+    }
+
+    @Test
+    public void createSAXSourceParsesOnce() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'><body><p>Hello world</p></body></html>";
+        SAXSource source = cssConverter.createSAXSource(new InputSource(new StringReader(xhtml)), baseUrl, null, null, null, null);
+        Accumulator out = TestUtil.createAccumulator();
+
+        FormatterBackends.parse(source, out);
+        XMLAssert.assertXpathEvaluatesTo("Hello world", "string(//fo:flow[@flow-name='xsl-region-body'])", out.getDocument());
+
+        // The parser has gone back to the pool.
+        try
+        {
+            FormatterBackends.parse(source, TestUtil.createAccumulator());
+            fail("A source should be parsed only once.");
+        }
+        catch (SAXException e)
+        {
+        }
+    }
+
+    @Test
+    public void renderPageSequencesInParallel() throws Exception
+    {
+        StringBuilder fo = new StringBuilder(FO_ROOT);
+
+        for (int i = 0; i < 4; ++i)
+        {
+            fo.append("<fo:page-sequence master-reference='p'><fo:flow flow-name='xsl-region-body'>");
+            for (int j = 0; j < 8; ++j)
+            {
+                fo.append("<fo:block id='b").append(i).append('-').append(j).append("' break-before='page'>Page ")
+                        .append("<fo:page-number/> of ")
+                        .append("<fo:page-number-citation ref-id='last-page'/></fo:block>");
+            }
+            fo.append("<fo:block><fo:basic-link internal-destination='b").append(i).append("-0'>top</fo:basic-link>")
+                    .append(i == 2 ? "<fo:external-graphic src='dot.png'/>" : "")
+                    .append(i == 3 ? "<fo:block id='last-page'/>" : "").append("</fo:block></fo:flow></fo:page-sequence>");
+        }
+        fo.append("</fo:root>");
+
+        // The groups resolve the image with the base URL of the user agent.
+        File directory = Files.createTempDirectory("images").toFile();
+        File image = new File(directory, "dot.png");
+
+        try
+        {
+            ImageIO.write(new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB), "png", image);
+
+            String sequential = renderPdf(fo.toString(), 1, directory, false);
+            String parallel = renderPdf(fo.toString(), 2, directory, true);
+
+            assertEquals(getPages(sequential), getPages(parallel));
+            assertTrue(getPages(parallel).contains("Page 17 of 32"));
+            assertEquals(sequential.split("/Link").length, parallel.split("/Link").length);
+            assertTrue(parallel.contains("/Subtype /Image"));
+        }
+        finally
+        {
+            image.delete();
+            directory.delete();
+        }
+
+        assertEquals("xiv", PageSequenceRenderer.formatPageNumber(14, "i"));
+        assertEquals("AB", PageSequenceRenderer.formatPageNumber(28, "A"));
+        assertEquals("007", PageSequenceRenderer.formatPageNumber(7, "001"));
+    }
+
+    @Test
+    public void renderPageSequencesInParallelWithInitialPageNumber() throws Exception
+    {
+        // With force-page-count="auto" the seven pages get a blank eighth one
+        // before page 9.
+        String[] forcePageCounts = {null, "no-force", "end-on-even"};
+
+        for (String forcePageCount : forcePageCounts)
+        {
+            StringBuilder fo = new StringBuilder(FO_ROOT);
+
+            for (int i = 0; i < 2; ++i)
+            {
+                fo.append("<fo:page-sequence master-reference='p'")
+                        .append(i == 0 && forcePageCount != null ? " force-page-count='" + forcePageCount + "'" : "")
+                        .append(i == 1 ? " initial-page-number='9'" : "").append("><fo:flow flow-name='xsl-region-body'>");
+                for (int j = 0; j < 7; ++j)
+                {
+                    fo.append("<fo:block break-before='page'>Page <fo:page-number/> of ")
+                            .append("<fo:page-number-citation ref-id='last-page'/></fo:block>");
+                }
+                fo.append(i == 1 ? "<fo:block id='last-page'/>" : "").append("</fo:flow></fo:page-sequence>");
+            }
+            fo.append("</fo:root>");
+
+            List<String> sequential = getPages(renderPdf(fo.toString(), 1, null, false));
+
+            assertEquals(sequential, getPages(renderPdf(fo.toString(), 2, null, forcePageCount != null)));
+            assertTrue(sequential.contains("Page 15 of 15"));
+            assertEquals("no-force".equals(forcePageCount) ? 14 : 15, sequential.get(0).split("/P ").length - 1);
+        }
+    }
+
+    /**
+     * Renders XSL-FO to a PDF of which the streams aren't compressed.
+     * @param split Tells if the rendering must be split in several groups.
+     */
+    private static String renderPdf(String fo, int parallelism, File baseDirectory, boolean split) throws Exception
+    {
+        FopFactory fopFactory = FopFactory.newInstance();
+        fopFactory.setUserConfig(new DefaultConfigurationBuilder().build(new ByteArrayInputStream(
+                ("<fop version='1.0'><renderers><renderer mime='application/pdf'>"
+                + "<filterList><value>null</value></filterList></renderer></renderers></fop>").getBytes("UTF-8"))));
+
+        FOUserAgent agent = fopFactory.newFOUserAgent();
+
+        if (baseDirectory != null)
+        {
+            agent.setBaseURL(baseDirectory.toURI().toString());
+        }
+
+        PageSequenceRenderer renderer = new PageSequenceRenderer(1 << 20);
+        FormatterBackends.parse(new SAXSource(be.re.xml.sax.Util.getParser(null, false),
+                new InputSource(new StringReader(fo))), renderer);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderer.render(fopFactory, agent, "application/pdf", out, parallelism);
+        assertEquals(split, renderer.getGroupCount() > 1);
+
+        return new String(out.toByteArray(), "ISO-8859-1");
+    }
+
+    /**
+     * Returns the page labels of a PDF, followed by the sorted texts of its
+     * pages.
+     */
+    private static List<String> getPages(String pdf)
+    {
+        List<String> pages = new ArrayList<>();
+        Matcher labels = Pattern.compile("/Nums \\[([^\\]]*)\\]").matcher(pdf);
+
+        assertTrue(labels.find());
+
+        Matcher streams = Pattern.compile("stream(.*?)endstream", Pattern.DOTALL).matcher(pdf);
+
+        while (streams.find())
+        {
+            Matcher arrays = Pattern.compile("\\[([^\\]]*)\\] TJ").matcher(streams.group(1));
+            StringBuilder text = new StringBuilder();
+
+            while (arrays.find())
+            {
+                Matcher strings = Pattern.compile("\\(([^)]*)\\)").matcher(arrays.group(1));
+
+                while (strings.find())
+                {
+                    text.append(strings.group(1));
+                }
+            }
+
+            if (text.length() > 0)
+            {
+                pages.add(text.toString());
+            }
+        }
+
+        Collections.sort(pages);
+        pages.add(0, labels.group(1).trim());
+
+        return pages;
+    }
+
+    @Test
+    public void convertWithDirectWriter() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'><body><p title='a \"b\"'>"
+                + "1 &lt; 2 &amp; caf\u00e9</p><ul><li>One</li><li/></ul></body></html>";
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        CSSToXSLFO.convert(new ByteArrayInputStream(xhtml.getBytes("UTF-8")), expected, baseUrl, null, null,
+                new HashMap<String, String>(), null, false, false);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CSSToXSLFO.convert(new ByteArrayInputStream(xhtml.getBytes("UTF-8")), new XMLWriter(out), baseUrl, null, null,
+                new HashMap<String, String>(), null, false, false);
+        XMLAssert.assertXMLEqual(new String(expected.toByteArray(), "UTF-8"), new String(out.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void convertToBinaryAndRender() throws Exception
+    {
+        String xhtml = "<html xmlns='http://www.w3.org/1999/xhtml'><body><p title='a \"b\"'>"
+                + "1 &lt; 2 &amp; caf\u00e9</p><p title='a \"b\"'>Hello world</p></body></html>";
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        CSSToXSLFO.convert(new ByteArrayInputStream(xhtml.getBytes("UTF-8")), new BinaryXMLWriter(binary, 16),
+                baseUrl, null, null, new HashMap<String, String>(), null, false, false);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new FOPRenderer(null, FopFactory.newInstance())
+                .renderBinary(new ByteArrayInputStream(binary.toByteArray()), out, "application/pdf", null);
+        assertTrue(new String(out.toByteArray(), "ISO-8859-1").startsWith("%PDF"));
+    }
+
+    /**
+     * Returns the output of the projection of a document.
+     */
+    private Document project(String xhtml) throws Exception
+    {
+        ProjectorFilter projector = new ProjectorFilter(baseUrl, null, new HashMap<String, String>(), new Context(), null);
+        Accumulator out = TestUtil.createAccumulator();
+
+        projector.setParent(be.re.xml.sax.Util.getParser(null, false));
+        projector.setContentHandler(out);
+        projector.parse(new InputSource(new StringReader(xhtml)));
+        return out.getDocument();
+    }
+
+    /**
+     * Stands in for a formatter process. It copies its input to its output.
+     */
+    public static class StubFormatter
+    {
+        public static void main(String[] args) throws Exception
+        {
+            be.re.io.StreamConnector.copy(System.in, System.out);
+
+            if (args.length > 0)
+            {
+                System.exit(Integer.parseInt(args[0]));
+            }
+        }
+    }
 }
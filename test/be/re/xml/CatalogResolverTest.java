@@ -0,0 +1,71 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package be.re.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author ggeurts
+ */
+public class CatalogResolverTest
+{
+    private static final String XHTML_PUBLIC_ID = "-//W3C//DTD XHTML 1.0 Transitional//EN";
+
+    @Test
+    public void resolveEntityWithoutCache() throws Exception
+    {
+        CatalogResolver resolver = new CatalogResolver(getClass().getResource("/catalog"));
+        InputSource dtd = resolver.resolveEntity(XHTML_PUBLIC_ID, null);
+
+        assertTrue(dtd.getSystemId(), dtd.getSystemId().endsWith("xhtml1-transitional.dtd"));
+        assertNull(dtd.getByteStream());
+        assertNull(resolver.resolveEntity("-//Unknown//EN", "http://nonexistent.invalid/unknown.dtd"));
+    }
+
+    @Test
+    public void resolveEntityFromCache() throws Exception
+    {
+        URL catalog = getClass().getResource("/catalog");
+        CatalogResolver resolver = new CatalogResolver(catalog);
+        resolver.setCacheLimits(1 << 20, 8 << 20);
+
+        InputSource first = resolver.resolveEntity(XHTML_PUBLIC_ID, null);
+        InputSource second = resolver.resolveEntity(null, "http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd");
+        byte[] expected = read(new URL(first.getSystemId()).openStream());
+
+        // The system identifier is kept, so relative references in the DTD
+        // still resolve.
+        assertEquals(first.getSystemId(), second.getSystemId());
+        assertEquals(XHTML_PUBLIC_ID, first.getPublicId());
+        assertArrayEquals(expected, read(first.getByteStream()));
+        assertArrayEquals(expected, read(second.getByteStream()));
+    }
+
+    @Test
+    public void resolveEntityAboveEntryLimit() throws Exception
+    {
+        CatalogResolver resolver = new CatalogResolver(getClass().getResource("/catalog"));
+        resolver.setCacheLimits(16, 8 << 20);
+
+        InputSource dtd = resolver.resolveEntity(XHTML_PUBLIC_ID, null);
+
+        assertNotNull(dtd.getSystemId());
+        assertNull(dtd.getByteStream());
+    }
+
+    private static byte[] read(InputStream in) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        be.re.io.StreamConnector.copy(in, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package be.re.xml;
+
+import org.junit.Test;
+import org.xml.sax.helpers.AttributesImpl;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author ggeurts
+ */
+public class EventBufferTest
+{
+    @Test
+    public void poolReusesClearedBuffers() throws Exception
+    {
+        EventBuffer.Pool pool = new EventBuffer.Pool(1);
+        EventBuffer first = pool.acquire();
+        EventBuffer second = pool.acquire();
+
+        assertNotSame(first, second);
+
+        first.startDocument();
+        first.startElement("", "p", "p", new AttributesImpl());
+        first.endElement("", "p", "p");
+        first.endDocument();
+        assertTrue(first.getDocumentElement() != EventBuffer.NONE);
+
+        pool.release(first);
+        // The pool is full, so this one is dropped.
+        pool.release(second);
+
+        EventBuffer reused = pool.acquire();
+
+        assertSame(first, reused);
+        assertEquals(EventBuffer.NONE, reused.getDocumentElement());
+        assertNotSame(first, pool.acquire());
+    }
+
+    @Test
+    public void poolDropsLargeBuffers() throws Exception
+    {
+        EventBuffer.Pool pool = new EventBuffer.Pool(1);
+        EventBuffer buffer = pool.acquire();
+        char[] text = new char[EventBuffer.Pool.MAX_POOLED_SIZE + 1];
+
+        buffer.startDocument();
+        buffer.startElement("", "p", "p", new AttributesImpl());
+        buffer.characters(text, 0, text.length);
+        buffer.endElement("", "p", "p");
+        buffer.endDocument();
+        pool.release(buffer);
+
+        assertNotSame(buffer, pool.acquire());
+    }
+}
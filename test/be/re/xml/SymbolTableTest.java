@@ -0,0 +1,38 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package be.re.xml;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author ggeurts
+ */
+public class SymbolTableTest
+{
+    @Test
+    public void internStopsAddingAtMaxSize() throws Exception
+    {
+        SymbolTable symbols = new SymbolTable(2);
+        int p = symbols.getId("p");
+
+        assertSame("div", symbols.intern(new String("div")));
+        assertEquals(2, symbols.size());
+
+        // Beyond the maximum size names are interned, but not kept.
+        assertSame("span", symbols.intern(new String("span")));
+        assertEquals(2, symbols.size());
+        assertEquals(SymbolTable.UNKNOWN_ID, symbols.lookupId("span"));
+
+        // Names that need an identifier are always added.
+        int em = symbols.getId("em");
+        assertEquals(3, symbols.size());
+        assertEquals(em, symbols.lookupId("em"));
+        assertEquals(p, symbols.lookupId("p"));
+        assertTrue(em != p);
+    }
+}
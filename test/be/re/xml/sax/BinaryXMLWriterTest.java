@@ -0,0 +1,71 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package be.re.xml.sax;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+import org.custommonkey.xmlunit.XMLAssert;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author ggeurts
+ */
+public class BinaryXMLWriterTest
+{
+    @Test
+    public void readBackWrittenDocument() throws Exception
+    {
+        StringBuilder document = new StringBuilder("<a:root xmlns:a='urn:a' xmlns='urn:default'>");
+
+        for (int i = 0; i < 100; ++i)
+        {
+            // The repeated names and values come from the table, the long text
+            // doesn't.
+            document.append("<p class='c").append(i % 3).append("' title='a \"b\"'>1 &lt; 2 caf\u00e9 \ud83d\ude00 ")
+                    .append(i).append(" some text that is too long to be kept in the table</p>");
+        }
+
+        document.append("<?target data?><a:empty/></a:root>");
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        XMLReader parser = Util.getParser(null, false);
+
+        parser.setContentHandler(new BinaryXMLWriter(binary, 16));
+        parser.parse(new InputSource(new StringReader(document.toString())));
+        assertTrue(binary.size() < document.length());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SAXSource source = new SAXSource(new BinaryXMLReader(),
+                new InputSource(new ByteArrayInputStream(binary.toByteArray())));
+
+        Util.newSAXTransformerFactory().newTransformer().transform(source, new StreamResult(out));
+        XMLAssert.assertXMLEqual(document.toString(), new String(out.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void rejectsOtherInput() throws Exception
+    {
+        BinaryXMLReader reader = new BinaryXMLReader();
+
+        try
+        {
+            reader.parse(new InputSource(new ByteArrayInputStream("<root/>".getBytes("UTF-8"))));
+            fail("Textual XML is not binary XML.");
+        }
+        catch (SAXException e)
+        {
+            assertEquals("The input is not a binary XML document of this version.", e.getMessage());
+        }
+    }
+}
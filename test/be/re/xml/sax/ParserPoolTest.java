@@ -0,0 +1,76 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package be.re.xml.sax;
+
+import be.re.xml.CatalogResolver;
+import java.io.StringReader;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author ggeurts
+ */
+public class ParserPoolTest
+{
+    @Test
+    public void releasedParserIsReused() throws Exception
+    {
+        ParserPool pool = new ParserPool(null, false, false, null, 1);
+        XMLReader first = pool.lease();
+        XMLReader second = pool.lease();
+
+        assertNotSame(first, second);
+
+        first.setContentHandler(new DefaultHandler());
+        pool.release(first);
+        // The pool is full, so this one is dropped.
+        pool.release(second);
+
+        XMLReader reused = pool.lease();
+
+        assertSame(first, reused);
+        assertNull(reused.getContentHandler());
+        assertNotSame(first, pool.lease());
+    }
+
+    @Test
+    public void leasedParserResolvesEntities() throws Exception
+    {
+        CatalogResolver resolver = new CatalogResolver(getClass().getResource("/catalog"));
+        String xhtml = "<!DOCTYPE html PUBLIC '-//W3C//DTD XHTML 1.0 Strict//EN' " +
+            "'http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd'>" +
+            "<html xmlns='http://www.w3.org/1999/xhtml'><head><title>Test</title></head>" +
+            "<body><p>a&nbsp;b</p></body></html>";
+
+        // A validating parser reads the DTD through the catalog, the other one
+        // gets the XHTML entities built in.
+        for (ParserPool pool : new ParserPool[] {
+            new ParserPool(resolver, true, false, null, 1), new ParserPool(resolver, false, true, null, 1)})
+        {
+            for (int i = 0; i < 2; ++i)
+            {
+                XMLReader parser = pool.lease();
+                final StringBuilder text = new StringBuilder();
+
+                parser.setContentHandler(new DefaultHandler()
+                {
+                    @Override
+                    public void characters(char[] ch, int start, int length)
+                    {
+                        text.append(ch, start, length);
+                    }
+                });
+                parser.parse(new InputSource(new StringReader(xhtml)));
+                pool.release(parser);
+                assertEquals("Testa\u00a0b", text.toString());
+            }
+        }
+    }
+}
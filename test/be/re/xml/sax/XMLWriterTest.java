@@ -0,0 +1,73 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package be.re.xml.sax;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import org.custommonkey.xmlunit.XMLAssert;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author ggeurts
+ */
+public class XMLWriterTest
+{
+    private static final String DOCUMENT = "<?xml version='1.0' encoding='UTF-8'?>" +
+        "<a:root xmlns:a='urn:a' xmlns='urn:default'><p title='a \"b\"&#10;&amp;&#9;&lt;'>" +
+        "1 &lt; 2 &amp; 3 &gt; 2 caf\u00e9 \ud83d\ude00 \u20ac</p>" +
+        "<a:item xmlns:a='urn:a'><?target data?><empty/></a:item></a:root>";
+
+    @Test
+    public void writeEscapesAndEncodes() throws Exception
+    {
+        for (int bufferSize : new int[] {16, XMLWriter.DEFAULT_BUFFER_SIZE})
+        {
+            String written = write(DOCUMENT, new XMLWriter(null, bufferSize));
+
+            XMLAssert.assertXMLEqual(DOCUMENT, written);
+            assertTrue(written, written.contains("caf\u00e9 \ud83d\ude00 \u20ac"));
+            assertTrue(written, written.contains("&#10;"));
+        }
+    }
+
+    @Test
+    public void writeMinimalNamespaces() throws Exception
+    {
+        XMLWriter writer = new XMLWriter(null, 16);
+
+        String full = write(DOCUMENT, writer);
+        writer.setMinimalNamespaces(true);
+        String minimal = write(DOCUMENT, writer);
+
+        XMLAssert.assertXMLEqual(full, minimal);
+        assertEquals(2, full.split("xmlns:a=").length - 1);
+        assertEquals(1, minimal.split("xmlns:a=").length - 1);
+    }
+
+    /**
+     * Parses <code>document</code> into <code>writer</code>, which is reset
+     * for it, and returns the output.
+     */
+    private static String write(String document, XMLWriter writer) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLReader parser = Util.getParser(null, false);
+
+        writer.reset(out);
+        parser.setContentHandler(writer);
+        parser.parse(new InputSource(new StringReader(document)));
+
+        // The output is well-formed UTF-8.
+        Util.getParser(null, false).parse(new InputSource(new ByteArrayInputStream(out.toByteArray())));
+
+        return new String(out.toByteArray(), "UTF-8");
+    }
+}